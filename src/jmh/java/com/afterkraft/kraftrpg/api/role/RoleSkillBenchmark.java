@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.role;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.afterkraft.kraftrpg.api.storage.PlayerDataCodec;
+
+/**
+ * Measures the serialization of {@link RoleSkill}, which carries a copy of its configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoleSkillBenchmark {
+
+    private RoleSkill skill;
+    private DataContainer container;
+
+    @Setup
+    public void setup() {
+        this.skill = new RoleSkill("Fireball", new MemoryDataContainer()
+                .set(DataQuery.of("level"), 10)
+                .set(DataQuery.of("mana"), 25)
+                .set(DataQuery.of("cooldown"), 5000L)
+                .set(DataQuery.of("damage", "base"), 8.5D)
+                .set(DataQuery.of("damage", "per-level"), 0.25D)
+                .set(DataQuery.of("radius"), 3.0D));
+        this.container = this.skill.toContainer();
+    }
+
+    @Benchmark
+    public DataContainer toContainer() {
+        return this.skill.toContainer();
+    }
+
+    @Benchmark
+    public Optional<RoleSkill> rebuild() {
+        return new RoleSkill.Builder().build(this.container);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return PlayerDataCodec.encode(this.skill.toContainer(), this.skill.getContentVersion());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.afterkraft.kraftrpg.api.storage.PlayerData.Section;
+import com.afterkraft.kraftrpg.api.util.FixedPoint;
+
+/**
+ * Measures turning {@link PlayerData} into a container and bytes, and back again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerDataBenchmark {
+
+    @Param({"8", "64"})
+    public int skills;
+
+    private PlayerData data;
+    private DataContainer container;
+    private byte[] encoded;
+
+    /**
+     * Creates the data of a player with the given number of skills on cooldown and bound, and
+     * experience in two roles.
+     *
+     * @param skills The number of skills
+     *
+     * @return The new data
+     */
+    static PlayerData sample(int skills) {
+        final PlayerData data = new PlayerData();
+        data.setSection(Section.ROLES, new MemoryDataContainer()
+                .set(DataQuery.of("Primary"), "Warrior")
+                .set(DataQuery.of("Secondary"), "Miner"));
+        data.setSection(Section.EXPERIENCE, new MemoryDataContainer()
+                .set(DataQuery.of("Warrior"), FixedPoint.valueOf(123456.75))
+                .set(DataQuery.of("Miner"), FixedPoint.valueOf(4096)));
+        final DataView cooldowns = new MemoryDataContainer();
+        final DataView binds = new MemoryDataContainer();
+        for (int i = 0; i < skills; i++) {
+            cooldowns.set(DataQuery.of("Skill" + i), 1451606400000L + i);
+            binds.set(DataQuery.of("minecraft:item_" + i), Arrays.asList("Skill" + i, "target"));
+        }
+        data.setSection(Section.COOLDOWNS, cooldowns);
+        data.setSection(Section.BINDS, binds);
+        data.setSection(Section.EFFECTS, new MemoryDataContainer());
+        return data;
+    }
+
+    @Setup
+    public void setup() {
+        this.data = sample(this.skills);
+        this.container = this.data.toContainer();
+        this.encoded = PlayerDataCodec.encode(this.data);
+    }
+
+    @Benchmark
+    public DataContainer toContainer() {
+        return this.data.toContainer();
+    }
+
+    @Benchmark
+    public Optional<PlayerData> rebuild() {
+        return new PlayerData.Builder().build(this.container);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return PlayerDataCodec.encode(this.data);
+    }
+
+    @Benchmark
+    public Optional<PlayerData> decode() {
+        return PlayerDataCodec.decode(this.encoded);
+    }
+
+    @Benchmark
+    public PlayerData snapshot() {
+        return this.data.snapshot();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.spongepowered.api.Game;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.entity.living.player.Player;
+
+import com.google.common.collect.ImmutableList;
+
+import com.afterkraft.kraftrpg.api.RpgPlugin;
+import com.afterkraft.kraftrpg.api.entity.Champion;
+
+/**
+ * Measures a full {@link StorageFrontend#flush()} of queued offline saves against an in-memory
+ * {@link StorageBackend}, which stores the encoded bytes the way a real backend would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageFrontendBenchmark {
+
+    @Param({"100", "1000"})
+    public int players;
+
+    private StorageFrontend frontend;
+    private UUID[] uuids;
+    private PlayerData[] data;
+
+    @Setup
+    public void setup() throws Exception {
+        // Only the scheduler is touched while constructing a frontend without a save queue
+        final Field game = Sponge.class.getDeclaredField("game");
+        game.setAccessible(true);
+        game.set(null, mock(Game.class, RETURNS_DEEP_STUBS));
+
+        this.frontend = new StorageFrontend(mock(RpgPlugin.class), new MemoryBackend(), true) {
+            @Override
+            public Optional<Champion> loadChampion(Player player, boolean shouldCreate) {
+                return Optional.empty();
+            }
+        };
+        this.uuids = new UUID[this.players];
+        this.data = new PlayerData[this.players];
+        for (int i = 0; i < this.players; i++) {
+            this.uuids[i] = UUID.randomUUID();
+            this.data[i] = PlayerDataBenchmark.sample(16);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void queue() {
+        for (int i = 0; i < this.players; i++) {
+            this.data[i].markDirty(PlayerData.Section.COOLDOWNS);
+            this.frontend.saveOfflineChampion(this.uuids[i], this.data[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.frontend.shutdown();
+    }
+
+    @Benchmark
+    public void flush() {
+        this.frontend.flush();
+    }
+
+    private static final class MemoryBackend implements StorageBackend {
+
+        private final Map<UUID, byte[]> stored = new ConcurrentHashMap<>();
+
+        @Override
+        public void initialize() { }
+
+        @Override
+        public void shutdown() {
+            this.stored.clear();
+        }
+
+        @Override
+        public boolean removePlayer(UUID uuid) {
+            return this.stored.remove(uuid) != null;
+        }
+
+        @Override
+        public boolean savePlayer(UUID uuid, PlayerData data) {
+            this.stored.put(uuid, PlayerDataCodec.encode(data));
+            return true;
+        }
+
+        @Override
+        public boolean savePlayerDelta(UUID uuid, PlayerData data,
+                                       Set<PlayerData.Section> sections) {
+            return savePlayer(uuid, data);
+        }
+
+        @Override
+        public Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate) {
+            final byte[] bytes = this.stored.get(uuid);
+            if (bytes != null) {
+                return PlayerDataCodec.decode(bytes);
+            }
+            return shouldCreate ? Optional.of(new PlayerData()) : Optional.empty();
+        }
+
+        @Override
+        public List<UUID> getAllStoredUsers() {
+            return ImmutableList.copyOf(this.stored.keySet());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.spongepowered.api.data.DataContainer;
+
+import com.afterkraft.kraftrpg.api.RpgQueries;
+import com.afterkraft.kraftrpg.api.storage.PlayerDataCodec;
+
+/**
+ * Measures the serialization of {@link FixedPoint}, which every experience value goes through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FixedPointBenchmark {
+
+    private FixedPoint value;
+    private DataContainer container;
+
+    @Setup
+    public void setup() {
+        this.value = FixedPoint.valueOf(123456.75);
+        this.container = this.value.toContainer();
+    }
+
+    @Benchmark
+    public DataContainer toContainer() {
+        return this.value.toContainer();
+    }
+
+    @Benchmark
+    public FixedPoint fromContainer() {
+        return FixedPoint.fromRaw(this.container.getLong(RpgQueries.FIXED_POINT_RAW).get());
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return PlayerDataCodec.encode(this.value.toContainer(), FixedPoint.CONTENT_VERSION);
+    }
+}
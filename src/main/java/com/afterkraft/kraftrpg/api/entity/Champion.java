@@ -49,7 +49,8 @@ public interface Champion extends SkillCaster {
     Optional<Player> getEntity();
 
     /**
-     * Create a snapshot of the current PlayerData. The returned object is thread-safe.
+     * Create a snapshot of the current PlayerData. The returned object is thread-safe, and should
+     * be taken with {@link PlayerData#snapshot()} so that only its dirty sections are saved.
      *
      * @return PlayerData snapshot
      */
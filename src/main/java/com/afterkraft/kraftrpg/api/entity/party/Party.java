@@ -135,6 +135,15 @@ public interface Party {
 
     void logOffMember(Being member);
 
+    /**
+     * Splits the given experience between the members of this party. As this modifies several
+     * members at once, implementations should stage the affected members in a single {@link
+     * com.afterkraft.kraftrpg.api.storage.StorageTransaction} rather than saving each one.
+     *
+     * @param experience The experience to split
+     * @param type       The type of experience gained
+     * @param location   The location the experience was gained at
+     */
     void gainExperience(FixedPoint experience, ExperienceType type,
                         Location location);
 
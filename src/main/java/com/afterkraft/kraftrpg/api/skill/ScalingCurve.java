@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.skill;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.afterkraft.kraftrpg.api.role.Role;
+
+/**
+ * The value of a scaling {@link SkillSetting} at every level up to a maximum, resolved once for a
+ * skill and role. Reading the value at a level is a single array access, so a cast needs neither
+ * the configuration nor the scaling arithmetic.
+ *
+ * <p>The shape of the curve is configured per setting with the node returned by {@link
+ * SkillSetting#curveNode()}, and is {@link Type#LINEAR} by default.</p>
+ */
+public final class ScalingCurve {
+
+    /**
+     * The highest level computed for curves which are not bound to a role.
+     */
+    public static final int DEFAULT_MAX_LEVEL = 100;
+
+    private final Type type;
+    private final double[] values;
+
+    private ScalingCurve(Type type, double[] values) {
+        this.type = type;
+        this.values = values;
+    }
+
+    /**
+     * Computes the curve of a setting up to the given level.
+     *
+     * @param type     The shape of the curve
+     * @param base     The configured value of the setting
+     * @param perLevel The configured value of the setting's 'per-level' node
+     * @param maxLevel The highest level to compute, usually {@link Role#getMaxLevel()}
+     *
+     * @return The curve
+     */
+    public static ScalingCurve create(Type type, double base, double perLevel, int maxLevel) {
+        checkNotNull(type);
+        checkArgument(maxLevel >= 0, "The max level cannot be negative!");
+        final double[] values = new double[maxLevel + 1];
+        for (int level = 0; level <= maxLevel; level++) {
+            values[level] = type.apply(base, perLevel, level);
+        }
+        return new ScalingCurve(type, values);
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public int getMaxLevel() {
+        return this.values.length - 1;
+    }
+
+    /**
+     * Gets the value of the setting at the given level. Levels beyond the maximum get the value
+     * at the maximum, and negative levels the value at level 0.
+     *
+     * @param level The level
+     *
+     * @return The value at the level
+     */
+    public double get(int level) {
+        return this.values[Math.max(0, Math.min(level, this.values.length - 1))];
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.type.hashCode() + Arrays.hashCode(this.values);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final ScalingCurve other = (ScalingCurve) obj;
+        return this.type == other.type && Arrays.equals(this.values, other.values);
+    }
+
+    @Override
+    public String toString() {
+        return "ScalingCurve{type=" + this.type + ", maxLevel=" + getMaxLevel() + "}";
+    }
+
+    /**
+     * The shapes a scaling curve may take.
+     */
+    public enum Type {
+        /**
+         * Adds the per-level value once for every level.
+         */
+        LINEAR {
+            @Override
+            double apply(double base, double perLevel, int level) {
+                return base + perLevel * level;
+            }
+        },
+        /**
+         * Adds the per-level value times the square of the level, growing faster at high levels.
+         */
+        QUADRATIC {
+            @Override
+            double apply(double base, double perLevel, int level) {
+                return base + perLevel * level * level;
+            }
+        },
+        /**
+         * Adds the per-level value times the square root of the level, growing slower at high
+         * levels.
+         */
+        SQUARE_ROOT {
+            @Override
+            double apply(double base, double perLevel, int level) {
+                return base + perLevel * Math.sqrt(level);
+            }
+        },
+        /**
+         * Compounds the base value by the per-level value as a rate for every level, so a
+         * per-level value of 0.05 grows the setting by five percent each level.
+         */
+        EXPONENTIAL {
+            @Override
+            double apply(double base, double perLevel, int level) {
+                return base * Math.pow(1 + perLevel, level);
+            }
+        };
+
+        abstract double apply(double base, double perLevel, int level);
+
+        /**
+         * Gets the type configured by the given name, ignoring case.
+         *
+         * @param name The configured name
+         *
+         * @return The type
+         * @throws SkillConfigurationException If no type has the name
+         */
+        public static Type fromName(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new SkillConfigurationException("Unknown scaling curve: " + name);
+            }
+        }
+    }
+}
@@ -49,7 +49,8 @@ public interface Skill extends CatalogType {
 
 
     /**
-     * Returns the default configuration for this skill.
+     * Returns the default configuration for this skill. The returned view may be shared, so it
+     * must be copied before it is changed.
      *
      * @return the defalt configuration for this skill
      */
@@ -23,19 +23,18 @@
  */
 package com.afterkraft.kraftrpg.api.skill;
 
+import javax.annotation.Nullable;
 import java.util.List;
-import java.util.Optional;
 
 import org.spongepowered.api.text.Text;
 
 import com.afterkraft.kraftrpg.api.entity.SkillCaster;
 
 /**
- * SkillArgument is a raw instance Object that allows saving the state of a Skill, either through
- * binds or other systems. The raw arguments originally passed to the {@link
- * Active#parse(com.afterkraft.kraftrpg.api.entity.SkillCaster, String[])} method is kept for
- * storage purposes and allows for a Skill to re-generate the SkillArgument state after a Player
- * login.
+ * SkillArgument is the definition of one argument of an {@link Active} skill. Definitions hold no
+ * state of a cast: {@link #parse(SkillCaster, String[], int)} returns the parsed value, which the
+ * skill keeps with the rest of the cast's state, so one definition may parse the arguments of
+ * several casters at once. Implementations should be immutable.
  *
  * @param <T> The type of skill argument
  */
@@ -48,20 +47,6 @@ public interface SkillArgument<T> {
      */
     boolean isOptional();
 
-    /**
-     * Checks whether this argument is validated and ready for use in skill casting.
-     *
-     * @return Whether this argument is ready for use
-     */
-    boolean isPresent();
-
-    /**
-     * Sets whether the argument is indeed present.
-     *
-     * @param present Whether the argument is present
-     */
-    void setPresent(boolean present);
-
     /**
      * Return a string suitable for inclusion in a usage string. No colors, please.
      *
@@ -85,37 +70,28 @@ public interface SkillArgument<T> {
     int matches(SkillCaster caster, String[] allArgs, int startPosition);
 
     /**
-     * Overwrite your state with that of the provided arguments starting at index startPosition.
-     * This will never be called unless matches() returns true.
+     * Parses the value of this argument from the provided arguments starting at index
+     * startPosition. This will never be called unless matches() returns true.
      *
      * @param caster        caster
      * @param allArgs       Full arguments array
      * @param startPosition Where your arguments start
+     *
+     * @return The parsed value, or null if there is none
      */
-    void parse(SkillCaster caster, String[] allArgs, int startPosition);
+    @Nullable
+    T parse(SkillCaster caster, String[] allArgs, int startPosition);
 
     /**
      * This method is called instead of parse() when an optional SkillArgument is skipped (i.e. not
      * matched).
      *
      * @param caster caster
-     */
-    void skippedOptional(SkillCaster caster);
-
-    /**
-     * Gets the parsed and validated value of this argument.
      *
-     * <p>If the argument has not processed or the input is invalid, {@link Optional#empty()} will
-     * be returned.</p>
-     *
-     * @return The validated value, if available
-     */
-    Optional<T> getValue();
-
-    /**
-     * Erase the parsed state to blank values.
+     * @return The value to use in place of a parsed one, or null if there is none
      */
-    void clean();
+    @Nullable
+    T skippedOptional(SkillCaster caster);
 
     /**
      * Provide tab-completion suggestions for the last item in allArgs. Your arguments start at
@@ -27,9 +27,13 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -43,11 +47,15 @@ import org.spongepowered.api.event.cause.entity.spawn.SpawnCause;
 import org.spongepowered.api.event.entity.DamageEntityEvent;
 import org.spongepowered.api.event.entity.SpawnEntityEvent;
 
-import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 public final class SkillCastContext {
+
+    private static final int FIRST = 0;
+    private static final int FIRST_AFTER_ROOT = 1;
+    private static final int LAST = 2;
+
     /**
      * Creates a new {@link SkillCastContext} of the provided {@link Object}s. Note that
      * none of the provided {@link Object}s can be <code>null</code>. The order
@@ -83,27 +91,26 @@ public final class SkillCastContext {
         return new SkillCastContext(list.toArray(new NamedCause[list.size()]));
     }
 
-    private final Object[] cause;
-    private final String[] names;
+    /**
+     * The room left for appended causes when a context is created.
+     */
+    private static final int APPEND_ROOM = 8;
+
+    private final Backing backing;
+    private final int size;
 
     // lazy load
     @Nullable private Map<String, Object> namedObjectMap;
+    @Nullable private volatile ConcurrentMap<Class<?>, int[]> classIndices;
 
     private SkillCastContext(NamedCause[] causes) {
-        final List<Object> list = new ArrayList<>(causes.length);
-        final List<String> names = new ArrayList<>(causes.length);
-        for (Object aCause : causes) {
-            checkNotNull(aCause, "Null cause element!");
-            Object object = ((NamedCause) aCause).getCauseObject();
-            checkArgument(!names.contains(((NamedCause) aCause).getName()), "Names need to be unique!"
-                    + " There is already a named cause of: "
-                    + ((NamedCause) aCause).getName());
-            list.add(object);
-            names.add(((NamedCause) aCause).getName());
-        }
+        this.backing = new Backing(causes.length + APPEND_ROOM);
+        this.size = this.backing.append(0, Arrays.asList(causes));
+    }
 
-        this.cause = list.toArray();
-        this.names = names.toArray(new String[names.size()]);
+    private SkillCastContext(Backing backing, int size) {
+        this.backing = backing;
+        this.size = size;
     }
 
     /**
@@ -114,7 +121,7 @@ public final class SkillCastContext {
      * @return The root object cause for this cause
      */
     public Object root() {
-        return this.cause[0];
+        return this.backing.causes[0];
     }
 
     /**
@@ -126,12 +133,7 @@ public final class SkillCastContext {
      * @return The first element of the type, if available
      */
     public <T> Optional<T> first(Class<T> target) {
-        for (Object aCause : this.cause) {
-            if (target.isInstance(aCause)) {
-                return Optional.of((T) aCause);
-            }
-        }
-        return Optional.empty();
+        return getCauseAtIndex(classIndices(target)[FIRST]);
     }
 
     /**
@@ -143,12 +145,7 @@ public final class SkillCastContext {
      * @return The last element of the type, if available
      */
     public <T> Optional<T> last(Class<T> target) {
-        for (int i = this.cause.length - 1; i >= 0; i--) {
-            if (target.isInstance(this.cause[i])) {
-                return Optional.of((T) this.cause[i]);
-            }
-        }
-        return Optional.empty();
+        return getCauseAtIndex(classIndices(target)[LAST]);
     }
 
     /**
@@ -161,12 +158,7 @@ public final class SkillCastContext {
      */
     public <T> Optional<T> get(String named) {
         checkArgument(named != null, "The name cannot be null!");
-        for (int i = 0; i < this.names.length; i++) {
-            if (this.names[i].equalsIgnoreCase(named)) {
-                return getCauseAtIndex(i);
-            }
-        }
-        return Optional.empty();
+        return getCauseAtIndex(indexOf(named));
     }
 
     /**
@@ -178,15 +170,8 @@ public final class SkillCastContext {
      */
     public Optional<?> before(Class<?> clazz) {
         checkArgument(clazz != null, "The provided class cannot be null!");
-        if (this.cause.length == 1) {
-            return Optional.empty();
-        }
-        for (int i = 0; i < this.cause.length; i++) {
-            if (clazz.isInstance(this.cause[i]) && i > 0) {
-                return Optional.of(this.cause[i - 1]);
-            }
-        }
-        return Optional.empty();
+        final int index = classIndices(clazz)[FIRST_AFTER_ROOT];
+        return index > 0 ? getCauseAtIndex(index - 1) : Optional.empty();
     }
 
     /**
@@ -198,20 +183,8 @@ public final class SkillCastContext {
      */
     public Optional<?> before(String named) {
         checkArgument(named != null, "The name cannot be null!");
-        if (this.cause.length == 1) {
-            return Optional.empty();
-        }
-        for (int i = 0; i < this.names.length; i++) {
-            if (this.names[i].equalsIgnoreCase(named)) {
-                try {
-                    final Object object = this.cause[i - 1];
-                    return Optional.of(object);
-                } catch (Exception e) {
-                    return Optional.empty();
-                }
-            }
-        }
-        return Optional.empty();
+        final int index = indexOf(named);
+        return index > 0 ? getCauseAtIndex(index - 1) : Optional.empty();
     }
 
     /**
@@ -223,15 +196,8 @@ public final class SkillCastContext {
      */
     public Optional<?> after(Class<?> clazz) {
         checkArgument(clazz != null, "The provided class cannot be null!");
-        if (this.cause.length == 1) {
-            return Optional.empty();
-        }
-        for (int i = 0; i < this.cause.length; i++) {
-            if (clazz.isInstance(this.cause[i]) && i + 1 < this.cause.length) {
-                return Optional.of(this.cause[i + 1]);
-            }
-        }
-        return Optional.empty();
+        final int index = classIndices(clazz)[FIRST];
+        return index >= 0 ? getCauseAtIndex(index + 1) : Optional.empty();
     }
 
     /**
@@ -242,20 +208,8 @@ public final class SkillCastContext {
      */
     public Optional<?> after(String named) {
         checkArgument(named != null, "The name cannot be null!");
-        if (this.cause.length == 1) {
-            return Optional.empty();
-        }
-        for (int i = 0; i < this.names.length; i++) {
-            if (this.names[i].equalsIgnoreCase(named) && i + 1 < this.cause.length) {
-                try {
-                    final Object object = this.cause[i + 1];
-                    return Optional.of(object);
-                } catch (Exception e) {
-                    return Optional.empty();
-                }
-            }
-        }
-        return Optional.empty();
+        final int index = indexOf(named);
+        return index >= 0 ? getCauseAtIndex(index + 1) : Optional.empty();
     }
 
     /**
@@ -265,13 +219,7 @@ public final class SkillCastContext {
      */
     public boolean containsType(Class<?> target) {
         checkArgument(target != null, "The provided class cannot be null!");
-        for (Object aCause : this.cause) {
-            if (target.isInstance(aCause)) {
-                return true;
-            }
-        }
-
-        return false;
+        return classIndices(target)[FIRST] >= 0;
     }
 
     /**
@@ -283,8 +231,8 @@ public final class SkillCastContext {
      * @return True if the object is contained within this cause
      */
     public boolean contains(Object object) {
-        for (Object aCause : this.cause) {
-            if (aCause.equals(object)) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.backing.causes[i].equals(object)) {
                 return true;
             }
         }
@@ -299,12 +247,7 @@ public final class SkillCastContext {
      */
     public boolean containsNamed(String named) {
         checkArgument(named != null, "The name cannot be null!");
-        for (String name : this.names) {
-            if (name.equalsIgnoreCase(named)) {
-                return true;
-            }
-        }
-        return false;
+        return indexOf(named) >= 0;
     }
 
     /**
@@ -317,9 +260,9 @@ public final class SkillCastContext {
      */
     public <T> List<T> allOf(Class<T> target) {
         ImmutableList.Builder<T> builder = ImmutableList.builder();
-        for (Object aCause : this.cause) {
-            if (target.isInstance(aCause)) {
-                builder.add((T) aCause);
+        for (int i = 0; i < this.size; i++) {
+            if (target.isInstance(this.backing.causes[i])) {
+                builder.add((T) this.backing.causes[i]);
             }
         }
         return builder.build();
@@ -334,9 +277,9 @@ public final class SkillCastContext {
      */
     public List<Object> noneOf(Class<?> ignoredClass) {
         ImmutableList.Builder<Object> builder = ImmutableList.builder();
-        for (Object cause : this.cause) {
-            if (!ignoredClass.isInstance(cause)) {
-                builder.add(cause);
+        for (int i = 0; i < this.size; i++) {
+            if (!ignoredClass.isInstance(this.backing.causes[i])) {
+                builder.add(this.backing.causes[i]);
             }
         }
         return builder.build();
@@ -348,7 +291,7 @@ public final class SkillCastContext {
      * @return An immutable list of all the causes
      */
     public List<Object> all() {
-        return ImmutableList.copyOf(this.cause);
+        return ImmutableList.copyOf(Arrays.asList(this.backing.causes).subList(0, this.size));
     }
 
     /**
@@ -375,19 +318,27 @@ public final class SkillCastContext {
      * Creates a new {@link SkillCastContext} where the objects are added at the end of
      * the cause array of objects.
      *
+     * <p>The first context created from this one shares this context's arrays and
+     * only writes the added causes past its end, so chains of contexts each adding a
+     * few causes do not copy the causes before them. Further contexts created from
+     * this one, and contexts outgrowing the arrays, copy them into new arrays which
+     * the chain continues to share.</p>
+     *
      * @param iterable The additional objects
      * @return The new cause
      */
     public SkillCastContext with(Iterable<NamedCause> iterable) {
         List<NamedCause> list = new ArrayList<>();
-        for (int i = 0; i < this.cause.length; i++) {
-            list.add(NamedCause.of(this.names[i], this.cause[i]));
-        }
         for (NamedCause o : iterable) {
             checkArgument(o != null, "Cannot add null causes");
             list.add(o);
         }
-        return of(list.toArray(new NamedCause[list.size()]));
+        if (this.backing.claim(this.size, list.size())) {
+            return new SkillCastContext(this.backing, this.backing.append(this.size, list));
+        }
+        final Backing copy = new Backing(Math.max(this.size * 2, this.size + list.size()));
+        copy.copy(this.backing, this.size);
+        return new SkillCastContext(copy, copy.append(this.size, list));
     }
 
     /**
@@ -401,8 +352,8 @@ public final class SkillCastContext {
     public Map<String, Object> getNamedCauses() {
         if (this.namedObjectMap == null) {
             final ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
-            for (int i = 0; i < this.names.length; i++) {
-                builder.put(this.names[i], this.cause[i]);
+            for (int i = 0; i < this.size; i++) {
+                builder.put(this.backing.names[i], this.backing.causes[i]);
             }
             this.namedObjectMap = builder.build();
         }
@@ -410,36 +361,141 @@ public final class SkillCastContext {
     }
 
     private <T> Optional<T> getCauseAtIndex(int index) {
-        try {
-            final Object object = this.cause[index];
-            return Optional.of((T) object);
-        } catch (Exception e) {
+        if (index < 0 || index >= this.size) {
             return Optional.empty();
         }
+        return Optional.of((T) this.backing.causes[index]);
+    }
+
+    private int indexOf(String named) {
+        final Integer index = this.backing.indices.get(named.toLowerCase(Locale.ENGLISH));
+        return index != null && index < this.size ? index : -1;
+    }
+
+    /**
+     * Gets the indices of the first, the first past the root, and the last cause that
+     * is an instance of the class, each -1 if there is none. The indices are found
+     * once per class and context.
+     */
+    private int[] classIndices(Class<?> target) {
+        ConcurrentMap<Class<?>, int[]> indices = this.classIndices;
+        if (indices == null) {
+            indices = new ConcurrentHashMap<>();
+            this.classIndices = indices;
+        }
+        final int[] cached = indices.get(target);
+        if (cached != null) {
+            return cached;
+        }
+        final int[] found = {-1, -1, -1};
+        for (int i = 0; i < this.size; i++) {
+            if (target.isInstance(this.backing.causes[i])) {
+                if (found[FIRST] < 0) {
+                    found[FIRST] = i;
+                }
+                if (found[FIRST_AFTER_ROOT] < 0 && i > 0) {
+                    found[FIRST_AFTER_ROOT] = i;
+                }
+                found[LAST] = i;
+            }
+        }
+        indices.put(target, found);
+        return found;
     }
 
     @Override
     public boolean equals(@Nullable Object object) {
         if (object instanceof SkillCastContext) {
             SkillCastContext cause = ((SkillCastContext) object);
-            return Arrays.equals(this.cause, cause.cause);
+            if (this.size != cause.size) {
+                return false;
+            }
+            for (int i = 0; i < this.size; i++) {
+                if (!this.backing.causes[i].equals(cause.backing.causes[i])) {
+                    return false;
+                }
+            }
+            return true;
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(this.cause);
+        int hash = 1;
+        for (int i = 0; i < this.size; i++) {
+            hash = 31 * hash + this.backing.causes[i].hashCode();
+        }
+        return hash;
     }
 
     @Override
     public String toString() {
         String causeString = "Cause[";
         StringJoiner joiner = new StringJoiner(", ");
-        for (int i = 0; i < this.cause.length; i++) {
-            joiner.add("{Name=" + this.names[i] + ", Object={" + this.cause[i].toString() + "}}");
+        for (int i = 0; i < this.size; i++) {
+            joiner.add("{Name=" + this.backing.names[i] + ", Object={"
+                    + this.backing.causes[i].toString() + "}}");
         }
         return causeString + joiner.toString() + "]";
     }
 
+    /**
+     * The arrays of causes shared by a context and the chain of contexts appended to
+     * it. Each slot is written once, by the context which claimed it, before that
+     * context is created; contexts only read the slots below their size.
+     */
+    private static final class Backing {
+
+        final Object[] causes;
+        final String[] names;
+        final ConcurrentMap<String, Integer> indices = new ConcurrentHashMap<>();
+        final AtomicInteger claimed = new AtomicInteger();
+
+        Backing(int capacity) {
+            this.causes = new Object[capacity];
+            this.names = new String[capacity];
+        }
+
+        /**
+         * Claims the slots past the end of a context, which only succeeds for the
+         * first context appending to the given end.
+         */
+        boolean claim(int end, int count) {
+            return end + count <= this.causes.length
+                    && this.claimed.compareAndSet(end, end + count);
+        }
+
+        void copy(Backing from, int size) {
+            System.arraycopy(from.causes, 0, this.causes, 0, size);
+            System.arraycopy(from.names, 0, this.names, 0, size);
+            for (int i = 0; i < size; i++) {
+                this.indices.put(this.names[i].toLowerCase(Locale.ENGLISH), i);
+            }
+        }
+
+        /**
+         * Writes the causes into the claimed slots starting at the given index, and
+         * leaves the slots past them free for the first context appending to the new
+         * context.
+         *
+         * @return The size of the context holding the causes
+         */
+        int append(int start, List<NamedCause> causes) {
+            int index = start;
+            for (NamedCause aCause : causes) {
+                checkNotNull(aCause, "Null cause element!");
+                final String key = aCause.getName().toLowerCase(Locale.ENGLISH);
+                checkArgument(this.indices.putIfAbsent(key, index) == null,
+                              "Names need to be unique! There is already a named cause of: "
+                              + aCause.getName());
+                this.causes[index] = aCause.getCauseObject();
+                this.names[index] = aCause.getName();
+                index++;
+            }
+            this.claimed.set(index);
+            return index;
+        }
+    }
+
 }
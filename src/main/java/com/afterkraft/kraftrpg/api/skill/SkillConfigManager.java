@@ -23,6 +23,7 @@
  */
 package com.afterkraft.kraftrpg.api.skill;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -65,6 +66,18 @@ public interface SkillConfigManager extends Manager {
 
     void loadSkillDefaults(Skill skill);
 
+    /**
+     * Loads the defaults of several skills at once, such as every skill registered at startup.
+     * Implementations may read the skills in parallel.
+     *
+     * @param skills The skills to load the defaults of
+     */
+    default void loadSkillDefaults(Collection<Skill> skills) {
+        for (Skill skill : skills) {
+            loadSkillDefaults(skill);
+        }
+    }
+
     /**
      * Applies a customized skill configuration for the specified skill and skill caster. The
      * provided configuration section should be completely filled with the correct defaults the
@@ -669,6 +682,91 @@ public interface SkillConfigManager extends Manager {
      */
     int getLevel(SkillCaster caster, Skill skill);
 
+    /**
+     * Gets the values of a scaling setting at every level according to the global skill
+     * configuration, up to a maximum level chosen by the implementation.
+     *
+     * <p>The default computes the curve from {@link #getRawDoubleSetting(Skill, DataQuery)} on
+     * every call, up to {@link ScalingCurve#DEFAULT_MAX_LEVEL}. The 'per-level' and curve nodes
+     * of the setting are only read if the skill's defaults configure them.</p>
+     *
+     * @param skill   The skill to use the settings of
+     * @param setting The scaling setting
+     *
+     * @return The curve of the setting
+     * @throws SkillConfigurationException If the setting is not configured or not a number
+     */
+    default ScalingCurve getRawScalingCurve(Skill skill, SkillSetting setting) {
+        final double perLevel = setting.scalingNode().isPresent()
+                && isSettingConfigured(skill, setting.scalingNode().get())
+                ? getRawDoubleSetting(skill, setting.scalingNode().get()) : 0;
+        final ScalingCurve.Type type = setting.curveNode().isPresent()
+                && isSettingConfigured(skill, setting.curveNode().get())
+                ? ScalingCurve.Type.fromName(getRawStringSetting(skill, setting.curveNode().get()))
+                : ScalingCurve.Type.LINEAR;
+        return ScalingCurve.create(type, getRawDoubleSetting(skill, setting.node()), perLevel,
+                                   ScalingCurve.DEFAULT_MAX_LEVEL);
+    }
+
+    /**
+     * Gets the values of a scaling setting at every level up to {@link Role#getMaxLevel()} as
+     * configured for the role. Implementations may compute the curve once per configuration
+     * load.
+     *
+     * <p>The default computes the curve from {@link #getDoubleSetting(Role, Skill, DataQuery)}
+     * on every call. The 'per-level' and curve nodes of the setting are only read if the skill's
+     * defaults configure them.</p>
+     *
+     * @param role    The role to check for specific configurations of
+     * @param skill   The skill to use the settings of
+     * @param setting The scaling setting
+     *
+     * @return The curve of the setting
+     * @throws SkillConfigurationException If the setting is not configured or not a number
+     */
+    default ScalingCurve getScalingCurve(Role role, Skill skill, SkillSetting setting) {
+        final double perLevel = setting.scalingNode().isPresent()
+                && isSettingConfigured(skill, setting.scalingNode().get())
+                ? getDoubleSetting(role, skill, setting.scalingNode().get()) : 0;
+        final ScalingCurve.Type type = setting.curveNode().isPresent()
+                && isSettingConfigured(skill, setting.curveNode().get())
+                ? ScalingCurve.Type.fromName(
+                        getStringSetting(role, skill, setting.curveNode().get()))
+                : ScalingCurve.Type.LINEAR;
+        return ScalingCurve.create(type, getDoubleSetting(role, skill, setting.node()), perLevel,
+                                   role.getMaxLevel());
+    }
+
+    /**
+     * Gets the values of a scaling setting at every level as used by the caster, following the
+     * same role priority as {@link #getUsedSetting(SkillCaster, Skill, SkillSetting)}. The value
+     * for a cast is then {@code curve.get(getLevel(caster, skill))}.
+     *
+     * <p>The default computes the curve from {@link #getUsedDoubleSetting(SkillCaster, Skill,
+     * DataQuery)} on every call, up to {@link ScalingCurve#DEFAULT_MAX_LEVEL}. The 'per-level'
+     * and curve nodes of the setting are only read if the skill's defaults configure them.</p>
+     *
+     * @param caster  The {@link SkillCaster} to find available roles granting use of the skill
+     * @param skill   The skill to use the settings of
+     * @param setting The scaling setting
+     *
+     * @return The curve of the setting
+     * @throws SkillConfigurationException If the setting is not configured or not a number
+     */
+    default ScalingCurve getUsedScalingCurve(SkillCaster caster, Skill skill,
+                                             SkillSetting setting) {
+        final double perLevel = setting.scalingNode().isPresent()
+                && isSettingConfigured(skill, setting.scalingNode().get())
+                ? getUsedDoubleSetting(caster, skill, setting.scalingNode().get()) : 0;
+        final ScalingCurve.Type type = setting.curveNode().isPresent()
+                && isSettingConfigured(skill, setting.curveNode().get())
+                ? ScalingCurve.Type.fromName(
+                        getUsedStringSetting(caster, skill, setting.curveNode().get()))
+                : ScalingCurve.Type.LINEAR;
+        return ScalingCurve.create(type, getUsedDoubleSetting(caster, skill, setting.node()),
+                                   perLevel, ScalingCurve.DEFAULT_MAX_LEVEL);
+    }
+
     /**
      * Gets the raw value of the specific configuration according to the global skill
      * configuration.
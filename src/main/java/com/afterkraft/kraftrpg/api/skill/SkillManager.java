@@ -73,7 +73,10 @@ public interface SkillManager extends AdditionalCatalogTypeRegistryModule<Skill>
     boolean isLoaded(String name);
 
     /**
-     * Gets the currently stalled skill the caster is about to cast.
+     * Gets the currently stalled skill the caster is about to cast. Implementations may track
+     * warm-ups with a {@link com.afterkraft.kraftrpg.common.skill.WarmUpScheduler} of their own,
+     * scheduling stalled skills on it, cancelling them in {@link #setCompletedSkill(SkillCaster)},
+     * and calling its {@code tick()} every server tick, as nothing else ticks it.
      *
      * @param caster The caster in question
      *
@@ -81,6 +84,13 @@ public interface SkillManager extends AdditionalCatalogTypeRegistryModule<Skill>
      */
     Optional<Stalled> getDelayedSkill(SkillCaster caster);
 
+    /**
+     * Removes the stalled skill of the caster once it was cast or interrupted.
+     * Implementations backed by a {@link com.afterkraft.kraftrpg.common.skill.WarmUpScheduler}
+     * cancel the caster's warm-up on it.
+     *
+     * @param caster The caster in question
+     */
     void setCompletedSkill(SkillCaster caster);
 
     void addSkillTarget(Entity entity, SkillCaster caster, Skill skill);
@@ -205,7 +205,10 @@ public class SkillSetting {
     public static final SkillSetting CUSTOM_PER_CASTER =
             new SkillSetting("custom");
     private final DataQuery node;
-    private final boolean scaled;
+    private final Optional<DataQuery> scalingNode;
+    private final Optional<DataQuery> curveNode;
+    private final int id;
+    private final int scalingId;
 
     /**
      * Creates a new {@link SkillSetting} with the given string as a node.
@@ -224,7 +227,11 @@ public class SkillSetting {
      */
     protected SkillSetting(String node, boolean scaled) {
         this.node = new DataQuery(node);
-        this.scaled = scaled;
+        this.scalingNode = scaled ? Optional.of(new DataQuery(node + "-per-level"))
+                                  : Optional.empty();
+        this.curveNode = scaled ? Optional.of(new DataQuery(node + "-curve")) : Optional.empty();
+        this.id = SkillSettingRegistry.intern(this.node);
+        this.scalingId = scaled ? SkillSettingRegistry.intern(this.scalingNode.get()) : -1;
     }
 
     /**
@@ -243,10 +250,37 @@ public class SkillSetting {
      * @return The 'per-level' string node for this setting
      */
     public Optional<DataQuery> scalingNode() {
-        if (!this.scaled) {
-            return Optional.empty();
-        }
-        return Optional.of(new DataQuery(this.nodeAsString() + "-per-level"));
+        return this.scalingNode;
+    }
+
+    /**
+     * Gets the 'curve' node naming the {@link ScalingCurve.Type} this setting scales with, if
+     * this is a scaling setting.
+     *
+     * @return The 'curve' node for this setting
+     */
+    public Optional<DataQuery> curveNode() {
+        return this.curveNode;
+    }
+
+    /**
+     * Gets the id this setting's node is interned to in the {@link SkillSettingRegistry}. All
+     * settings with the same node have the same id.
+     *
+     * @return The id of this setting
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Gets the id the 'per-level' node of this setting is interned to in the {@link
+     * SkillSettingRegistry}, or -1 if this is not a scaling setting.
+     *
+     * @return The id of the scaling node, or -1
+     */
+    public int getScalingId() {
+        return this.scalingId;
     }
 
     /**
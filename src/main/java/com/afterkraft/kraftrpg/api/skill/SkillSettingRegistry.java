@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.skill;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.spongepowered.api.data.DataQuery;
+
+/**
+ * Interns the {@link DataQuery} nodes of {@link SkillSetting}s, including their scaling nodes, to
+ * dense integer ids. Settings with the same node share an id, so the many instances created for
+ * custom settings of skills all resolve to the same slot. Ids are never reused and only grow, so
+ * they may index arrays sized when they were taken.
+ */
+public final class SkillSettingRegistry {
+
+    private static final Map<DataQuery, Integer> IDS = new ConcurrentHashMap<>();
+    private static final int INITIAL_CAPACITY = 64;
+    private static volatile DataQuery[] queries = new DataQuery[INITIAL_CAPACITY];
+    /**
+     * Written after the node at its index, so a reader checking against it sees the node.
+     */
+    private static volatile int size;
+
+    private SkillSettingRegistry() {
+    }
+
+    /**
+     * Gets the id of the given node, assigning the next free id if the node is new.
+     *
+     * @param query The node
+     *
+     * @return The id of the node
+     */
+    public static int intern(DataQuery query) {
+        final Integer id = IDS.get(checkNotNull(query));
+        return id != null ? id : register(query);
+    }
+
+    private static synchronized int register(DataQuery query) {
+        final Integer existing = IDS.get(query);
+        if (existing != null) {
+            return existing;
+        }
+        final int id = size;
+        if (id == queries.length) {
+            // Doubled rather than grown by one, interning every setting stays linear
+            queries = Arrays.copyOf(queries, id * 2);
+        }
+        queries[id] = query;
+        size = id + 1;
+        IDS.put(query, id);
+        return id;
+    }
+
+    /**
+     * Gets the id of the given node, if it was interned.
+     *
+     * @param query The node
+     *
+     * @return The id of the node, if interned
+     */
+    public static OptionalInt getId(DataQuery query) {
+        final Integer id = IDS.get(checkNotNull(query));
+        return id == null ? OptionalInt.empty() : OptionalInt.of(id);
+    }
+
+    /**
+     * Gets the node interned with the given id.
+     *
+     * @param id The id
+     *
+     * @return The node
+     * @throws IndexOutOfBoundsException If no node has the id
+     */
+    public static DataQuery getQuery(int id) {
+        checkElementIndex(id, size);
+        return queries[id];
+    }
+
+    /**
+     * Gets the number of interned nodes, which is one more than the highest id.
+     *
+     * @return The number of interned nodes
+     */
+    public static int size() {
+        return size;
+    }
+}
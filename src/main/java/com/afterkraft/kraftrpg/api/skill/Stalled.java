@@ -24,6 +24,7 @@
 package com.afterkraft.kraftrpg.api.skill;
 
 import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 import com.afterkraft.kraftrpg.api.entity.SkillCaster;
 
@@ -37,6 +38,17 @@ public interface Stalled extends Delayed {
 
     long startTime();
 
+    /**
+     * Gets the length of the warm-up in milliseconds, the skill being ready once it passed after
+     * {@link #startTime()}. By default, the time passed since the start plus the {@link
+     * #getDelay(TimeUnit) delay} left, so existing implementations need not track it.
+     *
+     * @return The warm-up in milliseconds
+     */
+    default long warmup() {
+        return System.currentTimeMillis() - startTime() + getDelay(TimeUnit.MILLISECONDS);
+    }
+
     String[] getArguments();
 
     Active getActiveSkill();
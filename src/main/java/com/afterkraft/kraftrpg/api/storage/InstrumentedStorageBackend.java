@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.afterkraft.kraftrpg.api.storage.StorageMetrics.Operation;
+
+/**
+ * A {@link StorageBackend} wrapping another to measure it. Every operation is timed into the
+ * {@link StorageMetrics} of this backend and failures are counted. The size of the written data
+ * may also be measured with {@link PlayerDataCodec}, but as that costs an extra encoding per
+ * write it is off unless asked for. A {@link StorageFrontend} over this backend records its own
+ * flushes into the same metrics.
+ */
+public class InstrumentedStorageBackend implements StorageBackend {
+
+    private final StorageBackend delegate;
+    private final StorageMetrics metrics;
+    private final boolean measureBytes;
+
+    /**
+     * Wraps the given backend, without measuring the bytes written.
+     *
+     * @param delegate The backend to measure
+     */
+    public InstrumentedStorageBackend(StorageBackend delegate) {
+        this(delegate, new StorageMetrics(), false);
+    }
+
+    /**
+     * Wraps the given backend.
+     *
+     * @param delegate     The backend to measure
+     * @param metrics      The metrics to record into
+     * @param measureBytes Whether to measure the encoded size of written data, at the cost of
+     *                     encoding it once more
+     */
+    public InstrumentedStorageBackend(StorageBackend delegate, StorageMetrics metrics,
+                                      boolean measureBytes) {
+        this.delegate = checkNotNull(delegate);
+        this.metrics = checkNotNull(metrics);
+        this.measureBytes = measureBytes;
+    }
+
+    /**
+     * Gets the measured backend.
+     *
+     * @return The wrapped backend
+     */
+    public StorageBackend getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Gets the metrics of this backend.
+     *
+     * @return The metrics
+     */
+    public StorageMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    private <T> T measure(Operation operation, Object subject, Supplier<T> call) {
+        final long start = System.nanoTime();
+        try {
+            final T result = call.get();
+            this.metrics.record(operation, System.nanoTime() - start, subject);
+            return result;
+        } catch (RuntimeException | Error e) {
+            this.metrics.recordError(operation);
+            throw e;
+        }
+    }
+
+    private void measureBytes(Collection<PlayerData> data) {
+        if (this.measureBytes) {
+            long bytes = 0;
+            for (PlayerData player : data) {
+                bytes += PlayerDataCodec.encode(player).length;
+            }
+            this.metrics.recordBytesWritten(bytes);
+        }
+    }
+
+    private void measureBytes(PlayerData data, Set<PlayerData.Section> sections) {
+        if (this.measureBytes) {
+            // Only the given sections are written
+            final DataContainer container = new MemoryDataContainer();
+            for (PlayerData.Section section : sections) {
+                final Optional<DataView> view = data.getSection(section);
+                if (view.isPresent()) {
+                    container.set(section.getQuery(), view.get());
+                }
+            }
+            this.metrics.recordBytesWritten(
+                    PlayerDataCodec.encode(container, data.getContentVersion()).length);
+        }
+    }
+
+    @Override
+    public void initialize() throws Throwable {
+        this.delegate.initialize();
+    }
+
+    @Override
+    public void shutdown() {
+        this.delegate.shutdown();
+    }
+
+    @Override
+    public boolean removePlayer(UUID uuid) {
+        return measure(Operation.REMOVE, uuid, () -> this.delegate.removePlayer(uuid));
+    }
+
+    @Override
+    public boolean savePlayer(UUID uuid, PlayerData data) {
+        final boolean result = measure(Operation.SAVE, uuid,
+                () -> this.delegate.savePlayer(uuid, data));
+        measureBytes(Collections.singleton(data));
+        return result;
+    }
+
+    @Override
+    public boolean savePlayerDelta(UUID uuid, PlayerData data, Set<PlayerData.Section> sections) {
+        final boolean result = measure(Operation.SAVE_DELTA, uuid,
+                () -> this.delegate.savePlayerDelta(uuid, data, sections));
+        measureBytes(data, sections);
+        return result;
+    }
+
+    @Override
+    public boolean saveAll(Map<UUID, PlayerData> data) {
+        final boolean result = measure(Operation.SAVE_ALL,
+                StorageMetrics.describe(data.keySet()), () -> this.delegate.saveAll(data));
+        measureBytes(data.values());
+        return result;
+    }
+
+    @Override
+    public boolean commitTransaction(Map<UUID, PlayerData> data) {
+        final boolean result = measure(Operation.COMMIT, StorageMetrics.describe(data.keySet()),
+                () -> this.delegate.commitTransaction(data));
+        measureBytes(data.values());
+        return result;
+    }
+
+    @Override
+    public Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate) {
+        return measure(Operation.LOAD, uuid, () -> this.delegate.loadPlayer(uuid, shouldCreate));
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        return measure(Operation.LOAD_ALL, StorageMetrics.describe(uuids),
+                () -> this.delegate.loadAll(uuids));
+    }
+
+    @Override
+    public List<UUID> getAllStoredUsers() {
+        return measure(Operation.LIST, "every player", this.delegate::getAllStoredUsers);
+    }
+
+    @Override
+    public Iterator<List<UUID>> getStoredUserPages(int pageSize) {
+        return this.delegate.getStoredUserPages(pageSize);
+    }
+
+    @Override
+    public int getStoredUserCount() {
+        return this.delegate.getStoredUserCount();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lock-free histogram of operation latencies. Latencies are counted in buckets whose bounds
+ * double from one microsecond up, so recording is a couple of additions and percentiles are
+ * precise to within a factor of two, which is plenty to tell a slow backend from a healthy one.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one operation.
+     *
+     * @param nanos The latency of the operation in nanoseconds
+     */
+    public void record(long nanos) {
+        final long latency = Math.max(0, nanos);
+        final long micros = latency / 1000;
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        this.buckets[bucket].increment();
+        this.count.increment();
+        this.total.add(latency);
+        this.max.accumulate(latency);
+    }
+
+    /**
+     * Takes a snapshot of the recorded latencies.
+     *
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+            sum += counts[i];
+        }
+        return new Snapshot(counts, sum, this.total.sum(), this.max.get());
+    }
+
+    /**
+     * An immutable view of a {@link LatencyHistogram} at some point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * Gets the number of recorded operations.
+         *
+         * @return The number of operations
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Gets the mean latency.
+         *
+         * @param unit The unit to convert to
+         *
+         * @return The mean latency, or 0 if nothing was recorded
+         */
+        public long getMean(TimeUnit unit) {
+            return this.count == 0 ? 0
+                    : unit.convert(this.total / this.count, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Gets the highest recorded latency.
+         *
+         * @param unit The unit to convert to
+         *
+         * @return The maximum latency
+         */
+        public long getMax(TimeUnit unit) {
+            return unit.convert(this.max, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Gets the latency under which the given fraction of the operations completed, rounded up
+         * to the bound of its bucket.
+         *
+         * @param percentile The percentile, between 0 and 1
+         * @param unit       The unit to convert to
+         *
+         * @return The latency at the percentile, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            checkArgument(percentile >= 0 && percentile <= 1, "Not a percentile: %s", percentile);
+            if (this.count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    final long bound = TimeUnit.MICROSECONDS.toNanos(1L << i);
+                    return unit.convert(Math.min(bound, this.max), TimeUnit.NANOSECONDS);
+                }
+            }
+            return getMax(unit);
+        }
+    }
+}
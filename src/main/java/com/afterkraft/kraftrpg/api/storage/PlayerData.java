@@ -23,26 +23,245 @@
  */
 package com.afterkraft.kraftrpg.api.storage;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
 import org.spongepowered.api.data.DataSerializable;
+import org.spongepowered.api.data.DataView;
 import org.spongepowered.api.data.MemoryDataContainer;
+import org.spongepowered.api.data.Queries;
+import org.spongepowered.api.data.persistence.AbstractDataBuilder;
+import org.spongepowered.api.data.persistence.InvalidDataException;
 
 /**
  * This class is not a stable API.
+ *
+ * <p>The data is split into {@link Section}s which are tracked separately: changing a section
+ * marks it dirty, and a {@link #snapshot()} remembers which sections were dirty when it was
+ * taken. Once a snapshot is written, {@link #markSaved()} cleans those sections on the live data
+ * as well, unless they changed again in the meantime, so that a {@link StorageBackend} supporting
+ * {@link StorageBackend#savePlayerDelta(java.util.UUID, PlayerData, Set)} only writes what
+ * changed since the last successful save.</p>
  */
 public final class PlayerData implements DataSerializable {
 
+    /**
+     * The current content version of a serialized {@link PlayerData}.
+     */
+    public static final int CONTENT_VERSION = 0;
+
+    private static final Section[] SECTIONS = Section.values();
+
+    private final Map<Section, DataView> sections = new EnumMap<>(Section.class);
+    private final Tracker tracker;
+    private final long[] versions;
 
+    /**
+     * Creates empty data for a new player. Every section is dirty until it is first saved.
+     */
     public PlayerData() {
+        this.tracker = new Tracker();
+        this.versions = new long[SECTIONS.length];
+        for (Section section : SECTIONS) {
+            this.versions[section.ordinal()] = this.tracker.next();
+        }
+    }
+
+    private PlayerData(PlayerData source) {
+        this.tracker = source.tracker;
+        this.versions = Arrays.copyOf(source.versions, source.versions.length);
+        for (Map.Entry<Section, DataView> entry : source.sections.entrySet()) {
+            this.sections.put(entry.getKey(), entry.getValue().copy());
+        }
+    }
+
+    /**
+     * Gets the stored view of the given section, if present. A view modified in place should be
+     * followed by {@link #markDirty(Section)}.
+     *
+     * @param section The section
+     *
+     * @return The view of the section, if present
+     */
+    public Optional<DataView> getSection(Section section) {
+        return Optional.ofNullable(this.sections.get(checkNotNull(section)));
+    }
+
+    /**
+     * Replaces the given section and marks it dirty.
+     *
+     * @param section The section
+     * @param view    The new view of the section
+     */
+    public void setSection(Section section, DataView view) {
+        this.sections.put(checkNotNull(section), checkNotNull(view));
+        markDirty(section);
+    }
+
+    /**
+     * Marks the given section dirty, so it is written by the next save.
+     *
+     * @param section The section that changed
+     */
+    public void markDirty(Section section) {
+        this.versions[checkNotNull(section).ordinal()] = this.tracker.next();
+    }
+
+    /**
+     * Marks every given section dirty, so they are written by the next save.
+     *
+     * @param sections The sections that changed
+     */
+    public void markDirty(Set<Section> sections) {
+        for (Section section : sections) {
+            markDirty(section);
+        }
+    }
+
+    /**
+     * Gets the sections changed since they were last saved.
+     *
+     * @return The dirty sections
+     */
+    public Set<Section> getDirtySections() {
+        final EnumSet<Section> dirty = EnumSet.noneOf(Section.class);
+        for (Section section : SECTIONS) {
+            if (this.versions[section.ordinal()] > this.tracker.saved.get(section.ordinal())) {
+                dirty.add(section);
+            }
+        }
+        return Collections.unmodifiableSet(dirty);
+    }
+
+    /**
+     * Checks whether any section changed since it was last saved.
+     *
+     * @return True if a section is dirty
+     */
+    public boolean isDirty() {
+        for (Section section : SECTIONS) {
+            if (this.versions[section.ordinal()] > this.tracker.saved.get(section.ordinal())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a copy of this data to be saved. The copy shares the dirty tracking of this data,
+     * see {@link #markSaved()}. {@link com.afterkraft.kraftrpg.api.entity.Champion#getData()}
+     * should return such a snapshot.
+     *
+     * @return The snapshot
+     */
+    public PlayerData snapshot() {
+        return new PlayerData(this);
+    }
+
+    /**
+     * Records that this data was written successfully. Every section is clean afterwards, both on
+     * this data and on the data it was snapshotted from, except for sections changed after the
+     * snapshot was taken. A snapshot whose write failed must not be marked, so the next snapshot
+     * still writes its sections.
+     */
+    public void markSaved() {
+        for (Section section : SECTIONS) {
+            final int index = section.ordinal();
+            final long version = this.versions[index];
+            long saved = this.tracker.saved.get(index);
+            while (saved < version && !this.tracker.saved.compareAndSet(index, saved, version)) {
+                saved = this.tracker.saved.get(index);
+            }
+        }
     }
 
     @Override
     public int getContentVersion() {
-        return 0;
+        return CONTENT_VERSION;
     }
 
     @Override
     public DataContainer toContainer() {
-        return new MemoryDataContainer();
+        final DataContainer container = new MemoryDataContainer()
+                .set(Queries.CONTENT_VERSION, getContentVersion());
+        for (Map.Entry<Section, DataView> entry : this.sections.entrySet()) {
+            container.set(entry.getKey().getQuery(), entry.getValue());
+        }
+        return container;
+    }
+
+    /**
+     * The separately tracked parts of a player's data.
+     */
+    public enum Section {
+        ROLES("Roles"),
+        EXPERIENCE("Experience"),
+        COOLDOWNS("Cooldowns"),
+        BINDS("Binds"),
+        EFFECTS("Effects");
+
+        private final DataQuery query;
+
+        Section(String name) {
+            this.query = DataQuery.of(name);
+        }
+
+        /**
+         * Gets the query under which this section is serialized.
+         *
+         * @return The query of the section
+         */
+        public DataQuery getQuery() {
+            return this.query;
+        }
+    }
+
+    /**
+     * The modification clock shared by live data and its snapshots, along with the version of
+     * each section that was last saved.
+     */
+    private static final class Tracker {
+        final AtomicLong clock = new AtomicLong();
+        final AtomicLongArray saved = new AtomicLongArray(SECTIONS.length);
+
+        long next() {
+            return this.clock.incrementAndGet();
+        }
+    }
+
+    /**
+     * Rebuilds {@link PlayerData} from a container produced by {@link #toContainer()} or by {@link
+     * PlayerDataCodec}. Containers of an older content version are migrated by the registered
+     * content updaters before reaching this builder. The rebuilt data starts clean.
+     */
+    public static final class Builder extends AbstractDataBuilder<PlayerData> {
+        public Builder() {
+            super(PlayerData.class, CONTENT_VERSION);
+        }
+
+        @Override
+        protected Optional<PlayerData> buildContent(DataView container)
+                throws InvalidDataException {
+            final PlayerData data = new PlayerData();
+            for (Section section : SECTIONS) {
+                final Optional<DataView> view = container.getView(section.getQuery());
+                if (view.isPresent()) {
+                    data.setSection(section, view.get().copy());
+                }
+            }
+            data.markSaved();
+            return Optional.of(data);
+        }
     }
 }
@@ -0,0 +1,413 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataSerializable;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.Queries;
+import org.spongepowered.api.data.persistence.InvalidDataException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.RpgQueries;
+import com.afterkraft.kraftrpg.api.util.FixedPoint;
+
+/**
+ * A compact, versioned binary encoding of {@link PlayerData}. Rather than a generic serialization
+ * of the {@link PlayerData#toContainer()} tree, every key and string value (skill names, role
+ * names, effect names...) is interned into a string table written once per record, integral
+ * values such as cooldown timestamps are written as zig-zag varints, and serialized {@link
+ * FixedPoint}s such as experience are written as their raw eight byte value.
+ *
+ * <p>The record header carries the {@link PlayerData#getContentVersion()} of the encoded data,
+ * and the decoded container keeps its {@link Queries#CONTENT_VERSION} entry, so data written by an
+ * older version is migrated by the usual content updaters when it is rebuilt.</p>
+ */
+public final class PlayerDataCodec {
+
+    /**
+     * The version of the binary layout written by {@link #encode(PlayerData)}.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x4B525044; // KRPD
+
+    private static final byte TAG_VIEW = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_TRUE = 3;
+    private static final byte TAG_BYTE = 4;
+    private static final byte TAG_SHORT = 5;
+    private static final byte TAG_INT = 6;
+    private static final byte TAG_LONG = 7;
+    private static final byte TAG_FLOAT = 8;
+    private static final byte TAG_DOUBLE = 9;
+    private static final byte TAG_STRING = 10;
+    private static final byte TAG_LIST = 11;
+    private static final byte TAG_FIXED_POINT = 12;
+    private static final byte TAG_BYTE_ARRAY = 13;
+
+    private PlayerDataCodec() {}
+
+    /**
+     * Encodes the given {@link PlayerData}.
+     *
+     * @param data The data to encode
+     *
+     * @return The encoded bytes
+     */
+    public static byte[] encode(PlayerData data) {
+        return encode(data.toContainer(), data.getContentVersion());
+    }
+
+    /**
+     * Encodes a container in the {@link PlayerData} layout with the given content version.
+     *
+     * @param view           The container to encode
+     * @param contentVersion The content version of the container
+     *
+     * @return The encoded bytes
+     * @throws IllegalArgumentException If the container holds a value that cannot be encoded
+     */
+    public static byte[] encode(DataView view, int contentVersion) {
+        final Writer body = new Writer();
+        body.writeView(checkNotNull(view));
+
+        final Writer out = new Writer();
+        out.writeInt(MAGIC);
+        out.write(FORMAT_VERSION);
+        out.writeVarInt(contentVersion);
+        out.writeVarInt(body.strings.size());
+        for (String string : body.strings.keySet()) {
+            final byte[] utf = string.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(utf.length);
+            out.write(utf, 0, utf.length);
+        }
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the content version of an encoded record without decoding it.
+     *
+     * @param bytes The encoded record
+     *
+     * @return The content version of the encoded data
+     * @throws InvalidDataException If the bytes are not an encoded record
+     */
+    public static int readContentVersion(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            readHeader(buffer);
+            return readVarInt(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new InvalidDataException("Truncated PlayerData record", e);
+        }
+    }
+
+    /**
+     * Decodes an encoded record into a container, including its content version.
+     *
+     * @param bytes The encoded record
+     *
+     * @return The decoded container
+     * @throws InvalidDataException If the bytes are not a valid record
+     */
+    public static DataContainer decodeContainer(byte[] bytes) {
+        return decodeContainer(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes an encoded record from the buffer's current position into a container, including
+     * its content version. The buffer is left positioned after the record.
+     *
+     * @param buffer The buffer to read from
+     *
+     * @return The decoded container
+     * @throws InvalidDataException If the buffer does not hold a valid record
+     */
+    public static DataContainer decodeContainer(ByteBuffer buffer) {
+        try {
+            readHeader(buffer);
+            final int contentVersion = readVarInt(buffer);
+            final String[] strings = new String[readVarInt(buffer)];
+            for (int i = 0; i < strings.length; i++) {
+                final byte[] utf = new byte[readVarInt(buffer)];
+                buffer.get(utf);
+                strings[i] = new String(utf, StandardCharsets.UTF_8);
+            }
+            final DataContainer container = DataContainer.createNew();
+            readView(buffer, strings, container);
+            if (!container.contains(Queries.CONTENT_VERSION)) {
+                container.set(Queries.CONTENT_VERSION, contentVersion);
+            }
+            return container;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new InvalidDataException("Truncated or corrupt PlayerData record", e);
+        }
+    }
+
+    /**
+     * Decodes an encoded record and rebuilds the {@link PlayerData}, migrating it from an older
+     * content version if needed.
+     *
+     * @param bytes The encoded record
+     *
+     * @return The rebuilt data, if the builder accepted it
+     * @throws InvalidDataException If the bytes are not a valid record
+     */
+    public static Optional<PlayerData> decode(byte[] bytes) {
+        return new PlayerData.Builder().build(decodeContainer(bytes));
+    }
+
+    private static void readHeader(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new InvalidDataException("Not a PlayerData record");
+        }
+        final int format = buffer.get();
+        if (format != FORMAT_VERSION) {
+            throw new InvalidDataException("Unsupported PlayerData record format: " + format);
+        }
+    }
+
+    private static void readView(ByteBuffer buffer, String[] strings, DataView view) {
+        final int size = readVarInt(buffer);
+        for (int i = 0; i < size; i++) {
+            final DataQuery key = DataQuery.of(strings[readVarInt(buffer)]);
+            final byte tag = buffer.get();
+            if (tag == TAG_VIEW) {
+                readView(buffer, strings, view.createView(key));
+            } else {
+                view.set(key, readValue(buffer, strings, tag));
+            }
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer, String[] strings, byte tag) {
+        switch (tag) {
+            case TAG_VIEW:
+                final DataContainer nested = DataContainer.createNew();
+                readView(buffer, strings, nested);
+                return nested;
+            case TAG_FALSE:
+                return false;
+            case TAG_TRUE:
+                return true;
+            case TAG_BYTE:
+                return buffer.get();
+            case TAG_SHORT:
+                return (short) zigZagDecode(readVarLong(buffer));
+            case TAG_INT:
+                return (int) zigZagDecode(readVarLong(buffer));
+            case TAG_LONG:
+                return zigZagDecode(readVarLong(buffer));
+            case TAG_FLOAT:
+                return buffer.getFloat();
+            case TAG_DOUBLE:
+                return buffer.getDouble();
+            case TAG_STRING:
+                return strings[readVarInt(buffer)];
+            case TAG_LIST:
+                final int size = readVarInt(buffer);
+                final List<Object> list = Lists.newArrayListWithCapacity(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer, strings, buffer.get()));
+                }
+                return list;
+            case TAG_FIXED_POINT:
+                return DataContainer.createNew()
+                        .set(Queries.CONTENT_VERSION, FixedPoint.CONTENT_VERSION)
+                        .set(RpgQueries.FIXED_POINT_RAW, buffer.getLong());
+            case TAG_BYTE_ARRAY:
+                final byte[] bytes = new byte[readVarInt(buffer)];
+                buffer.get(bytes);
+                return bytes;
+            default:
+                throw new InvalidDataException("Unknown PlayerData value tag: " + tag);
+        }
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        final long value = readVarLong(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new InvalidDataException("Malformed length in PlayerData record");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidDataException("Malformed varint in PlayerData record");
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+        final Map<String, Integer> strings = Maps.newLinkedHashMap();
+
+        Writer() {
+            super(256);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String string) {
+            Integer index = this.strings.get(string);
+            if (index == null) {
+                index = this.strings.size();
+                this.strings.put(string, index);
+            }
+            writeVarInt(index);
+        }
+
+        void writeView(DataView view) {
+            final Set<DataQuery> keys = view.getKeys(false);
+            writeVarInt(keys.size());
+            for (DataQuery key : keys) {
+                final List<String> parts = key.getParts();
+                writeString(parts.get(parts.size() - 1));
+                writeValue(view.get(key).get());
+            }
+        }
+
+        void writeValue(Object value) {
+            if (value instanceof DataView) {
+                final DataView view = (DataView) value;
+                if (isFixedPoint(view)) {
+                    write(TAG_FIXED_POINT);
+                    writeLong(view.getLong(RpgQueries.FIXED_POINT_RAW).get());
+                } else {
+                    write(TAG_VIEW);
+                    writeView(view);
+                }
+            } else if (value instanceof DataSerializable) {
+                writeValue(((DataSerializable) value).toContainer());
+            } else if (value instanceof Map) {
+                write(TAG_VIEW);
+                final Map<?, ?> map = (Map<?, ?>) value;
+                writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(entry.getKey().toString());
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof Boolean) {
+                write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Byte) {
+                write(TAG_BYTE);
+                write((Byte) value);
+            } else if (value instanceof Short) {
+                write(TAG_SHORT);
+                writeVarLong(zigZagEncode((Short) value));
+            } else if (value instanceof Integer) {
+                write(TAG_INT);
+                writeVarLong(zigZagEncode((Integer) value));
+            } else if (value instanceof Long) {
+                write(TAG_LONG);
+                writeVarLong(zigZagEncode((Long) value));
+            } else if (value instanceof Float) {
+                write(TAG_FLOAT);
+                writeInt(Float.floatToIntBits((Float) value));
+            } else if (value instanceof Double) {
+                write(TAG_DOUBLE);
+                writeLong(Double.doubleToLongBits((Double) value));
+            } else if (value instanceof String) {
+                write(TAG_STRING);
+                writeString((String) value);
+            } else if (value instanceof List) {
+                write(TAG_LIST);
+                final List<?> list = (List<?>) value;
+                writeVarInt(list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof byte[]) {
+                write(TAG_BYTE_ARRAY);
+                final byte[] bytes = (byte[]) value;
+                writeVarInt(bytes.length);
+                write(bytes, 0, bytes.length);
+            } else {
+                throw new IllegalArgumentException("Cannot encode a value of type "
+                                                           + value.getClass().getName());
+            }
+        }
+
+        private static boolean isFixedPoint(DataView view) {
+            return view.getKeys(false).size() == 2
+                    && view.getInt(Queries.CONTENT_VERSION).orElse(-1) == FixedPoint.CONTENT_VERSION
+                    && view.get(RpgQueries.FIXED_POINT_RAW).orElse(null) instanceof Long;
+        }
+
+        void writeTo(Writer out) {
+            out.write(this.buf, 0, this.count);
+        }
+    }
+}
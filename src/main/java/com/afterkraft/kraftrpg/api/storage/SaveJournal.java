@@ -0,0 +1,653 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+
+/**
+ * A local, append-only write-ahead journal of pending saves. Every {@link PlayerData} handed to
+ * {@link #append(UUID, PlayerData)} is encoded and written by a single journal thread, which
+ * syncs the file to disk once for everything appended since its last sync, so appending never
+ * waits on the disk.
+ *
+ * <p>Each record carries a sequence number. Once a {@link StorageBackend} has written a player,
+ * {@link #markWritten(Collection, long)} retires every record of that player up to the given
+ * sequence. Journal files are rotated as they grow, and a file is deleted, or the current one
+ * truncated, once none of its records is still needed.</p>
+ *
+ * <p>When opened, the records left over by a previous run are read back, and the latest data of
+ * each player is made available through {@link #getRecovered()} to be replayed into the backend.
+ * A record torn by a crash ends the file it is in.</p>
+ *
+ * <p>The data of several players written together, such as a {@link StorageTransaction}, is kept
+ * in a single record by {@link #appendAll(Map)}, so it is recovered for all of them or for none.
+ * Such a record can be cancelled with {@link #abort(long)} if the write it protects failed, so
+ * the records it would have superseded are kept until it is {@link #release(long) released}.</p>
+ */
+public final class SaveJournal {
+
+    private static final int RECORD_MAGIC = 0x4B52504A; // KRPJ
+    private static final int GROUP_MAGIC = 0x4B525047; // KRPG
+    private static final int ABORT_MAGIC = 0x4B525041; // KRPA
+    private static final UUID NO_PLAYER = new UUID(0, 0);
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+    private static final long SEGMENT_LIMIT = 8 << 20;
+    private static final String SUFFIX = ".journal";
+    private static final long POLL_MILLIS = 250;
+
+    private final Path directory;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong durableSequence = new AtomicLong();
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentMap<UUID, Long> unwritten = new ConcurrentHashMap<>();
+    /**
+     * The unwritten sequences of the players of every group record which may still be aborted,
+     * from before it was appended, or its own sequence for players without any.
+     */
+    private final ConcurrentMap<Long, Map<UUID, Long>> groups = new ConcurrentHashMap<>();
+    private final Map<UUID, PlayerData> recovered;
+    private final List<Segment> closed = Lists.newArrayList();
+    private final Thread thread;
+    private final Object durableLock = new Object();
+    private volatile boolean running = true;
+    @Nullable private volatile IOException failure;
+    @Nullable private Segment active;
+
+    private SaveJournal(Path directory) throws IOException {
+        this.directory = directory;
+        final List<Record> records = Lists.newArrayList();
+        for (Path path : segments(directory)) {
+            final long last = read(path, records);
+            this.closed.add(new Segment(path, last));
+            this.sequence.accumulateAndGet(last, Math::max);
+        }
+        final Map<UUID, Long> recoveredSequences = Maps.newHashMap();
+        final Map<UUID, PlayerData> recovered = Maps.newHashMap();
+        recover(records, recoveredSequences, recovered);
+        this.unwritten.putAll(recoveredSequences);
+        this.recovered = Collections.unmodifiableMap(recovered);
+        this.durableSequence.set(this.sequence.get());
+        this.thread = new Thread(this::run, "KraftRPG Save Journal");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Opens the journal kept in the given directory, reading back whatever a previous run left.
+     *
+     * @param directory The directory of the journal
+     *
+     * @return The opened journal
+     *
+     * @throws IOException If the directory could not be created or read
+     */
+    public static SaveJournal open(Path directory) throws IOException {
+        Files.createDirectories(checkNotNull(directory));
+        return new SaveJournal(directory);
+    }
+
+    /**
+     * Gets the latest data of every player found in the journal when it was opened, which was
+     * not known to be written. It should be written to the backend, then retired with {@link
+     * #markWritten(Collection, long)}.
+     *
+     * @return The recovered data keyed by UUID
+     */
+    public Map<UUID, PlayerData> getRecovered() {
+        return this.recovered;
+    }
+
+    /**
+     * Appends the given data to the journal. The data is encoded and written later by the journal
+     * thread, so it must not be modified afterwards.
+     *
+     * <p>If the journal thread failed to write, the records it could not write are retried, and
+     * appending fails until a retry succeeds, so that nothing is taken for journaled when it is
+     * not.</p>
+     *
+     * @param uuid The player's UUID
+     * @param data The data to journal
+     *
+     * @return The sequence number of the new record
+     * @throws StorageException If the journal cannot currently be written
+     */
+    public long append(UUID uuid, PlayerData data) {
+        checkState(this.running, "The journal is closed!");
+        checkNotNull(uuid);
+        checkNotNull(data);
+        checkWritable();
+        final long seq = this.sequence.incrementAndGet();
+        this.unwritten.merge(uuid, seq, Math::max);
+        this.queue.add(new Entry(RECORD_MAGIC, seq, uuid, data, null, 0));
+        return seq;
+    }
+
+    /**
+     * Appends the data of several players as a single record, which is recovered for all of them
+     * or, if torn by a crash or aborted, for none. The data is encoded and written later by the
+     * journal thread, so it must not be modified afterwards.
+     *
+     * @param data The data to journal keyed by UUID
+     *
+     * @return The sequence number of the new record
+     * @throws StorageException If the journal cannot currently be written
+     */
+    public long appendAll(Map<UUID, PlayerData> data) {
+        final Map<UUID, PlayerData> group = ImmutableMap.copyOf(data);
+        checkWritable();
+        final long seq = this.sequence.incrementAndGet();
+        final Map<UUID, Long> previous = Maps.newHashMap();
+        for (UUID uuid : group.keySet()) {
+            previous.put(uuid, this.unwritten.getOrDefault(uuid, seq));
+        }
+        // Pinned first, so the superseded records are never retired while it may be aborted
+        this.groups.put(seq, previous);
+        for (UUID uuid : group.keySet()) {
+            this.unwritten.merge(uuid, seq, Math::max);
+        }
+        this.queue.add(new Entry(GROUP_MAGIC, seq, NO_PLAYER, null, group, 0));
+        return seq;
+    }
+
+    /**
+     * Cancels a record appended by {@link #appendAll(Map)}, so that it is not recovered. Unlike
+     * appending, this does not fail while the journal cannot be written: the cancellation is
+     * written after the record it cancels once the journal recovers.
+     *
+     * @param aborted The sequence number of the record to cancel
+     */
+    public void abort(long aborted) {
+        checkState(this.running, "The journal is closed!");
+        final long seq = this.sequence.incrementAndGet();
+        this.queue.add(new Entry(ABORT_MAGIC, seq, NO_PLAYER, null, null, aborted));
+        final Map<UUID, Long> previous = this.groups.get(aborted);
+        if (previous != null) {
+            // The records the group superseded are needed again
+            for (Map.Entry<UUID, Long> entry : previous.entrySet()) {
+                final long restored = entry.getValue();
+                this.unwritten.computeIfPresent(entry.getKey(), (key, current) ->
+                        current != aborted ? current : restored == aborted ? null : restored);
+            }
+            this.groups.remove(aborted);
+        }
+    }
+
+    /**
+     * Lets the records superseded by a record appended by {@link #appendAll(Map)} be retired, once
+     * the write it protects succeeded and it can no longer be aborted.
+     *
+     * @param seq The sequence number of the record
+     */
+    public void release(long seq) {
+        this.groups.remove(seq);
+    }
+
+    /**
+     * Waits until the record with the given sequence number is synced to disk.
+     *
+     * @param seq     The sequence number of the record
+     * @param timeout The longest time to wait
+     * @param unit    The unit of the timeout
+     *
+     * @throws StorageException If the journal cannot currently be written, or did not sync the
+     *                          record in time
+     */
+    public void awaitDurable(long seq, long timeout, TimeUnit unit) {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this.durableLock) {
+            while (this.durableSequence.get() < seq) {
+                checkWritable();
+                final long left = deadline - System.nanoTime();
+                if (left <= 0 || !this.thread.isAlive()) {
+                    throw new StorageException("The save journal in " + this.directory
+                            + " did not sync record " + seq + " in time");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this.durableLock, left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StorageException("Interrupted while waiting for the save journal",
+                                               e);
+                }
+            }
+        }
+    }
+
+    private void checkWritable() {
+        final IOException failure = this.failure;
+        if (failure != null) {
+            throw new StorageException("The save journal in " + this.directory
+                    + " cannot be written", failure);
+        }
+    }
+
+    /**
+     * Gets the sequence number of the latest record appended so far.
+     *
+     * @return The last sequence number
+     */
+    public long getLastSequence() {
+        return this.sequence.get();
+    }
+
+    /**
+     * Gets the sequence number up to which every record is synced to disk.
+     *
+     * @return The durable sequence number
+     */
+    public long getDurableSequence() {
+        return this.durableSequence.get();
+    }
+
+    /**
+     * Retires the records of the given players up to the given sequence number, because data at
+     * least as recent as those records was written to the backend.
+     *
+     * @param uuids   The written players
+     * @param covered The {@link #getLastSequence()} from before the written data was snapshotted
+     */
+    public void markWritten(Collection<UUID> uuids, long covered) {
+        for (UUID uuid : uuids) {
+            this.unwritten.computeIfPresent(uuid, (key, seq) -> seq <= covered ? null : seq);
+        }
+    }
+
+    /**
+     * Gets the number of players with journaled data not yet written to the backend.
+     *
+     * @return The number of players relying on the journal
+     */
+    public int getUnwrittenCount() {
+        return this.unwritten.size();
+    }
+
+    /**
+     * Writes and syncs everything appended so far, then stops the journal thread. Records still
+     * needed remain on disk for the next run.
+     */
+    public void close() {
+        // Not interrupted, an interrupt would close the channel in the middle of a write
+        this.running = false;
+        try {
+            this.thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final List<Entry> batch = Lists.newArrayList();
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                final Entry first = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    this.queue.drainTo(batch);
+                }
+            } catch (InterruptedException ignored) {
+                this.queue.drainTo(batch);
+            }
+            flush(batch);
+        }
+        if (!batch.isEmpty()) {
+            flush(batch);
+            if (!batch.isEmpty()) {
+                RpgCommon.getLogger().error("Closed the save journal in " + this.directory
+                        + " without writing " + batch.size() + " records");
+            }
+        }
+        try {
+            retire();
+            if (this.active != null) {
+                this.active.channel.close();
+            }
+        } catch (IOException e) {
+            RpgCommon.getLogger().error("Could not close the save journal", e);
+        }
+    }
+
+    /**
+     * Writes the given batch and clears it, or keeps it to be retried with the next batch.
+     */
+    private void flush(List<Entry> batch) {
+        try {
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+            retire();
+            batch.clear();
+            if (this.failure != null) {
+                this.failure = null;
+                RpgCommon.getLogger().info("The save journal in " + this.directory
+                        + " recovered");
+            }
+        } catch (IOException e) {
+            if (this.failure == null) {
+                RpgCommon.getLogger().error("Could not write the save journal in "
+                        + this.directory + ", retrying " + batch.size() + " records", e);
+            }
+            this.failure = e;
+            abandonActive();
+            synchronized (this.durableLock) {
+                // Waiters give up instead of waiting for the retry
+                this.durableLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gives up on the current file after a failed write, which may have left a torn record in
+     * it, so the retried records start a new one.
+     */
+    private void abandonActive() {
+        final Segment segment = this.active;
+        if (segment == null) {
+            return;
+        }
+        this.active = null;
+        this.closed.add(segment);
+        if (segment.channel != null) {
+            try {
+                segment.channel.close();
+            } catch (IOException ignored) {
+                // Already failing
+            }
+            segment.channel = null;
+        }
+    }
+
+    private void write(List<Entry> batch) throws IOException {
+        if (this.active == null || this.active.size >= SEGMENT_LIMIT) {
+            rotate(batch.get(0).seq);
+        }
+        final Segment segment = this.active;
+        long last = 0;
+        for (Entry entry : batch) {
+            final byte[] payload = entry.encode();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(entry.magic)
+                    .putInt(0)
+                    .putLong(entry.seq)
+                    .putLong(entry.uuid.getMostSignificantBits())
+                    .putLong(entry.uuid.getLeastSignificantBits())
+                    .putInt(payload.length);
+            header.putInt(4, checksum(header.array(), payload));
+            header.flip();
+            final ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload)};
+            while (header.hasRemaining() || buffers[1].hasRemaining()) {
+                segment.channel.write(buffers);
+            }
+            segment.size += HEADER_SIZE + payload.length;
+            last = Math.max(last, entry.seq);
+        }
+        // One sync for the whole group
+        segment.channel.force(false);
+        segment.last = Math.max(segment.last, last);
+        synchronized (this.durableLock) {
+            this.durableSequence.accumulateAndGet(last, Math::max);
+            this.durableLock.notifyAll();
+        }
+    }
+
+    private void rotate(long first) throws IOException {
+        if (this.active != null) {
+            this.active.channel.close();
+            this.active.channel = null;
+            this.closed.add(this.active);
+        }
+        Path path = this.directory.resolve(String.format("%016x%s", first, SUFFIX));
+        for (int retry = 1; Files.exists(path); retry++) {
+            // A file abandoned by a failed write of the same records
+            path = this.directory.resolve(String.format("%016x-%d%s", first, retry, SUFFIX));
+        }
+        final Segment segment = new Segment(path, 0);
+        segment.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.active = segment;
+    }
+
+    private void retire() throws IOException {
+        long lowWater = Long.MAX_VALUE;
+        for (long seq : this.unwritten.values()) {
+            lowWater = Math.min(lowWater, seq);
+        }
+        for (Map<UUID, Long> previous : this.groups.values()) {
+            for (long seq : previous.values()) {
+                lowWater = Math.min(lowWater, seq);
+            }
+        }
+        for (Iterator<Segment> iterator = this.closed.iterator(); iterator.hasNext(); ) {
+            final Segment segment = iterator.next();
+            if (segment.last < lowWater) {
+                Files.deleteIfExists(segment.path);
+                iterator.remove();
+            }
+        }
+        final Segment segment = this.active;
+        if (segment != null && segment.size > 0 && segment.last < lowWater) {
+            // Everything in the current file was written, start it over
+            segment.channel.truncate(0);
+            segment.channel.position(0);
+            segment.channel.force(true);
+            segment.size = 0;
+        }
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        final List<Path> paths = Lists.newArrayList();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    /**
+     * Reads the intact records of the given file.
+     *
+     * @return The highest sequence number in the file
+     */
+    private static long read(Path path, List<Record> records) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        long last = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            final int start = buffer.position();
+            final int magic = buffer.getInt();
+            if (magic != RECORD_MAGIC && magic != GROUP_MAGIC && magic != ABORT_MAGIC) {
+                break;
+            }
+            final int crc = buffer.getInt();
+            final long seq = buffer.getLong();
+            final UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+            final int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            final byte[] payload = new byte[length];
+            buffer.get(payload);
+            final byte[] header = new byte[HEADER_SIZE];
+            System.arraycopy(buffer.array(), start, header, 0, HEADER_SIZE);
+            if (crc != checksum(header, payload)) {
+                break;
+            }
+            last = Math.max(last, seq);
+            records.add(new Record(magic, seq, uuid, payload));
+        }
+        return last;
+    }
+
+    /**
+     * Finds the latest data of every player in the given records, leaving out aborted groups.
+     */
+    private static void recover(List<Record> records, Map<UUID, Long> sequences,
+                                Map<UUID, PlayerData> data) {
+        final Set<Long> aborted = Sets.newHashSet();
+        for (Record record : records) {
+            if (record.magic == ABORT_MAGIC) {
+                aborted.add(ByteBuffer.wrap(record.payload).getLong());
+            }
+        }
+        for (Record record : records) {
+            if (record.magic == RECORD_MAGIC) {
+                recover(record.seq, record.uuid, record.payload, sequences, data);
+            } else if (record.magic == GROUP_MAGIC && !aborted.contains(record.seq)) {
+                final ByteBuffer group = ByteBuffer.wrap(record.payload);
+                final int count = group.getInt();
+                for (int i = 0; i < count; i++) {
+                    final UUID uuid = new UUID(group.getLong(), group.getLong());
+                    final byte[] payload = new byte[group.getInt()];
+                    group.get(payload);
+                    recover(record.seq, uuid, payload, sequences, data);
+                }
+            }
+        }
+    }
+
+    private static void recover(long seq, UUID uuid, byte[] payload, Map<UUID, Long> sequences,
+                                Map<UUID, PlayerData> data) {
+        final Long previous = sequences.get(uuid);
+        if (previous == null || previous < seq) {
+            final Optional<PlayerData> decoded = PlayerDataCodec.decode(payload);
+            if (decoded.isPresent()) {
+                sequences.put(uuid, seq);
+                data.put(uuid, decoded.get());
+            }
+        }
+    }
+
+    private static int checksum(byte[] header, byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(header, 8, HEADER_SIZE - 8);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static final class Entry {
+        final int magic;
+        final long seq;
+        final UUID uuid;
+        @Nullable final PlayerData data;
+        @Nullable final Map<UUID, PlayerData> group;
+        final long aborted;
+
+        Entry(int magic, long seq, UUID uuid, @Nullable PlayerData data,
+              @Nullable Map<UUID, PlayerData> group, long aborted) {
+            this.magic = magic;
+            this.seq = seq;
+            this.uuid = uuid;
+            this.data = data;
+            this.group = group;
+            this.aborted = aborted;
+        }
+
+        byte[] encode() {
+            if (this.data != null) {
+                return PlayerDataCodec.encode(this.data);
+            }
+            if (this.group == null) {
+                return ByteBuffer.allocate(8).putLong(this.aborted).array();
+            }
+            final List<byte[]> encoded = Lists.newArrayListWithCapacity(this.group.size());
+            int size = 4;
+            for (PlayerData data : this.group.values()) {
+                final byte[] payload = PlayerDataCodec.encode(data);
+                encoded.add(payload);
+                size += 16 + 4 + payload.length;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(size).putInt(this.group.size());
+            int index = 0;
+            for (UUID uuid : this.group.keySet()) {
+                final byte[] payload = encoded.get(index++);
+                buffer.putLong(uuid.getMostSignificantBits())
+                        .putLong(uuid.getLeastSignificantBits())
+                        .putInt(payload.length)
+                        .put(payload);
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * A record read back from a journal file.
+     */
+    private static final class Record {
+        final int magic;
+        final long seq;
+        final UUID uuid;
+        final byte[] payload;
+
+        Record(int magic, long seq, UUID uuid, byte[] payload) {
+            this.magic = magic;
+            this.seq = seq;
+            this.uuid = uuid;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Segment {
+        final Path path;
+        long last;
+        long size;
+        @Nullable FileChannel channel;
+
+        Segment(Path path, long last) {
+            this.path = path;
+            this.last = last;
+        }
+    }
+}
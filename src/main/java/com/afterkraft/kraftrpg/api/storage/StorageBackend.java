@@ -23,10 +23,18 @@
  */
 package com.afterkraft.kraftrpg.api.storage;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
 
 /**
  * A backend for storage of player data. All methods in this class may be assumed to take a long
@@ -68,6 +76,22 @@ public interface StorageBackend {
      */
     boolean savePlayer(UUID uuid, PlayerData data);
 
+    /**
+     * Write only the given sections of the data for the given player, the rest being unchanged
+     * since it was last saved.  Assume different thread.  Backends able to update part of a
+     * player, such as one row or column per {@link PlayerData.Section}, should override this,
+     * the default writes everything through {@link #savePlayer(UUID, PlayerData)}.
+     *
+     * @param uuid     The player's UUID
+     * @param data     A PlayerData snapshot object.
+     * @param sections The sections changed since the last save, never empty
+     *
+     * @return unused, just return true for now
+     */
+    default boolean savePlayerDelta(UUID uuid, PlayerData data, Set<PlayerData.Section> sections) {
+        return savePlayer(uuid, data);
+    }
+
     /**
      * Load the data for the player with the given UUID. If shouldCreate is true, this may not
      * return null.  Assume different thread. (The implementation does not do this yet, however, so
@@ -80,6 +104,66 @@ public interface StorageBackend {
      */
     Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate);
 
+    /**
+     * Write the data for every given player as one batch.  Assume different thread.  Backends that
+     * can write several players in a single transaction or a single sync to disk should override
+     * this, the default calls {@link #savePlayerDelta(UUID, PlayerData, Set)} with the dirty
+     * sections of each entry, or {@link #savePlayer(UUID, PlayerData)} if all of them are dirty.
+     * Data without any dirty section is written in full as well: data that was decoded, such as
+     * journaled data or data loaded from another backend, starts clean although this backend may
+     * not hold any of it.
+     *
+     * @param data PlayerData snapshots keyed by the player's UUID
+     *
+     * @return unused, just return true for now
+     */
+    default boolean saveAll(Map<UUID, PlayerData> data) {
+        for (Map.Entry<UUID, PlayerData> entry : data.entrySet()) {
+            final Set<PlayerData.Section> dirty = entry.getValue().getDirtySections();
+            if (dirty.isEmpty() || dirty.size() == PlayerData.Section.values().length) {
+                savePlayer(entry.getKey(), entry.getValue());
+            } else {
+                savePlayerDelta(entry.getKey(), entry.getValue(), dirty);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the data of every participant of a {@link StorageTransaction} as one atomic, durable
+     * write: either every player is stored or, if this throws, none is.  Assume different thread.
+     * The default delegates to {@link #saveAll(Map)}, which is only atomic if the backend's batch
+     * write is, so backends should override this with a journal entry or a single batched
+     * statement.
+     *
+     * @param data PlayerData snapshots keyed by the player's UUID
+     *
+     * @return unused, just return true for now
+     */
+    default boolean commitTransaction(Map<UUID, PlayerData> data) {
+        return saveAll(data);
+    }
+
+    /**
+     * Load the data for every given player as one batch, without creating missing players.
+     * Assume different thread.  The default simply calls {@link #loadPlayer(UUID, boolean)} for
+     * each UUID.
+     *
+     * @param uuids UUIDs of the players to load
+     *
+     * @return The loaded data keyed by UUID, players without data are absent
+     */
+    default Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        final Map<UUID, PlayerData> loaded = Maps.newLinkedHashMap();
+        for (UUID uuid : uuids) {
+            final Optional<PlayerData> data = loadPlayer(uuid, false);
+            if (data.isPresent()) {
+                loaded.put(uuid, data.get());
+            }
+        }
+        return loaded;
+    }
+
     /**
      * Return a list of every UUID with data.  Assume that you're running on a different thread,
      * however you should still be able to do this fairly quickly.
@@ -87,4 +171,29 @@ public interface StorageBackend {
      * @return every UUID stored
      */
     List<UUID> getAllStoredUsers();
+
+    /**
+     * Return every UUID with data in pages of at most the given size, in ascending {@link
+     * UUID#compareTo(UUID) UUID order}.  Assume different thread.  Used to stream a conversion
+     * without holding every UUID at once, so backends able to walk their keys with a cursor
+     * should override this; the default sorts {@link #getAllStoredUsers()}.
+     *
+     * @param pageSize The maximum number of UUIDs in a page
+     *
+     * @return The pages of stored UUIDs
+     */
+    default Iterator<List<UUID>> getStoredUserPages(int pageSize) {
+        return Iterators.partition(Ordering.natural().sortedCopy(getAllStoredUsers()).iterator(),
+                pageSize);
+    }
+
+    /**
+     * Return the number of players with data.  Assume different thread.  The default counts
+     * {@link #getAllStoredUsers()}.
+     *
+     * @return The number of stored players
+     */
+    default int getStoredUserCount() {
+        return getAllStoredUsers().size();
+    }
 }
@@ -0,0 +1,374 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+
+/**
+ * Copies every player from one {@link StorageBackend} to another as a streaming pipeline. The
+ * source is walked one page of UUIDs at a time through {@link
+ * StorageBackend#getStoredUserPages(int)}. Each page is loaded and saved as a single batch by one
+ * of several workers, so loads from the source overlap with writes to the target, and at most a
+ * couple of pages per worker are held in memory.
+ *
+ * <p>With a checkpoint file, the last UUID below which every page has been written is recorded
+ * as the conversion advances. Running the same conversion again after a crash skips everything
+ * up to that UUID. The checkpoint is deleted once the conversion completes.</p>
+ */
+public final class StorageConversion {
+
+    private final StorageBackend source;
+    private final StorageBackend target;
+    @Nullable private final Path checkpoint;
+    private final int workers;
+    private final int pageSize;
+    private final long reportInterval;
+
+    private final Object progressLock = new Object();
+    private final Map<Long, UUID> completedPages = Maps.newHashMap();
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private long nextCheckpointPage;
+    private long lastReport;
+    private long started;
+    private int total;
+    private boolean ran;
+
+    private StorageConversion(Builder builder) {
+        this.source = builder.source;
+        this.target = builder.target;
+        this.checkpoint = builder.checkpoint;
+        this.workers = builder.workers;
+        this.pageSize = builder.pageSize;
+        this.reportInterval = builder.reportInterval;
+    }
+
+    /**
+     * Creates a new {@link Builder} for a conversion.
+     *
+     * @return The new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the number of players converted so far by this run.
+     *
+     * @return The number of converted players
+     */
+    public long getConvertedCount() {
+        return this.converted.get();
+    }
+
+    /**
+     * Runs the conversion, blocking until every player was copied or a batch failed.
+     *
+     * @throws StorageException If a batch could not be converted, in which case the checkpoint
+     *                          still allows resuming from the last contiguous page written
+     */
+    public void run() {
+        checkState(!this.ran, "A conversion can only be run once!");
+        this.ran = true;
+        final Optional<UUID> resumeAfter = readCheckpoint();
+        this.total = this.source.getStoredUserCount();
+        this.started = System.nanoTime();
+        this.lastReport = this.started;
+        if (resumeAfter.isPresent()) {
+            RpgCommon.getLogger().info("Resuming conversion after " + resumeAfter.get());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(this.workers,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("KraftRPG Conversion #%d")
+                        .setDaemon(true)
+                        .build());
+        // Two pages per worker, one being converted and one ready to go
+        final Semaphore inFlight = new Semaphore(this.workers * 2);
+        try {
+            final Iterator<List<UUID>> pages = this.source.getStoredUserPages(this.pageSize);
+            long sequence = 0;
+            while (pages.hasNext() && this.failure.get() == null) {
+                final List<UUID> page = skipConverted(pages.next(), resumeAfter);
+                if (page.isEmpty()) {
+                    continue;
+                }
+                inFlight.acquireUninterruptibly();
+                final long pageNumber = sequence++;
+                executor.execute(() -> {
+                    try {
+                        convert(pageNumber, page);
+                    } catch (Throwable e) {
+                        this.failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    report(true);
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final Throwable error = this.failure.get();
+        if (error != null) {
+            throw new StorageException("Conversion failed after " + this.converted.get()
+                    + " players", error);
+        }
+        report(true);
+        deleteCheckpoint();
+    }
+
+    private static List<UUID> skipConverted(List<UUID> page, Optional<UUID> resumeAfter) {
+        // Pages are in ascending order, so only the page holding the checkpoint is filtered
+        if (!resumeAfter.isPresent() || page.isEmpty()
+                || page.get(0).compareTo(resumeAfter.get()) > 0) {
+            return page;
+        }
+        final List<UUID> remaining = Lists.newArrayList();
+        for (UUID uuid : page) {
+            if (uuid.compareTo(resumeAfter.get()) > 0) {
+                remaining.add(uuid);
+            }
+        }
+        return remaining;
+    }
+
+    private void convert(long pageNumber, List<UUID> page) {
+        this.target.saveAll(this.source.loadAll(page));
+        this.converted.addAndGet(page.size());
+        synchronized (this.progressLock) {
+            this.completedPages.put(pageNumber, page.get(page.size() - 1));
+            UUID last = null;
+            while (this.completedPages.containsKey(this.nextCheckpointPage)) {
+                last = this.completedPages.remove(this.nextCheckpointPage++);
+            }
+            if (last != null) {
+                writeCheckpoint(last);
+            }
+            report(false);
+        }
+    }
+
+    private void report(boolean force) {
+        final long now = System.nanoTime();
+        synchronized (this.progressLock) {
+            if (!force && now - this.lastReport < this.reportInterval) {
+                return;
+            }
+            this.lastReport = now;
+        }
+        final long done = this.converted.get();
+        final double seconds = Math.max(1, now - this.started) / 1e9D;
+        final double rate = done / seconds;
+        final StringBuilder message = new StringBuilder("Converted ").append(done);
+        if (this.total > 0) {
+            message.append('/').append(this.total);
+        }
+        message.append(" players (").append(Math.round(rate)).append("/s");
+        if (this.total > done && rate > 0) {
+            message.append(", about ").append(Math.round((this.total - done) / rate))
+                    .append("s left");
+        }
+        RpgCommon.getLogger().info(message.append(')').toString());
+    }
+
+    private Optional<UUID> readCheckpoint() {
+        if (this.checkpoint == null || !Files.exists(this.checkpoint)) {
+            return Optional.empty();
+        }
+        try {
+            final String content = new String(Files.readAllBytes(this.checkpoint),
+                    StandardCharsets.UTF_8).trim();
+            return content.isEmpty() ? Optional.empty() : Optional.of(UUID.fromString(content));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new StorageException("Unable to read conversion checkpoint " + this.checkpoint,
+                    e);
+        }
+    }
+
+    private void writeCheckpoint(UUID last) {
+        if (this.checkpoint == null) {
+            return;
+        }
+        final Path temporary = this.checkpoint.resolveSibling(
+                this.checkpoint.getFileName() + ".tmp");
+        try {
+            Files.write(temporary, last.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, this.checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new StorageException("Unable to write conversion checkpoint "
+                    + this.checkpoint, e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (this.checkpoint == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(this.checkpoint);
+        } catch (IOException e) {
+            RpgCommon.getLogger().warn("Unable to delete conversion checkpoint "
+                    + this.checkpoint, e);
+        }
+    }
+
+    /**
+     * A builder for {@link StorageConversion}.
+     */
+    public static final class Builder {
+        StorageBackend source;
+        StorageBackend target;
+        @Nullable Path checkpoint;
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int pageSize = 256;
+        long reportInterval = TimeUnit.SECONDS.toNanos(10);
+
+        Builder() { }
+
+        /**
+         * Sets the backend to copy the players from.
+         *
+         * @param source The source backend
+         *
+         * @return This builder for chaining
+         */
+        public Builder setSource(StorageBackend source) {
+            this.source = checkNotNull(source);
+            return this;
+        }
+
+        /**
+         * Sets the backend to copy the players to.
+         *
+         * @param target The target backend
+         *
+         * @return This builder for chaining
+         */
+        public Builder setTarget(StorageBackend target) {
+            this.target = checkNotNull(target);
+            return this;
+        }
+
+        /**
+         * Sets the file recording the progress of the conversion, allowing it to resume. Without
+         * one, an interrupted conversion starts over.
+         *
+         * @param checkpoint The checkpoint file, or null for none
+         *
+         * @return This builder for chaining
+         */
+        public Builder setCheckpoint(@Nullable Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        /**
+         * Sets the number of pages converted in parallel.
+         *
+         * @param workers The number of workers
+         *
+         * @return This builder for chaining
+         */
+        public Builder setWorkers(int workers) {
+            checkArgument(workers > 0, "Need at least one worker!");
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * Sets the number of players loaded and saved as one batch.
+         *
+         * @param pageSize The page size
+         *
+         * @return This builder for chaining
+         */
+        public Builder setPageSize(int pageSize) {
+            checkArgument(pageSize > 0, "The page size must be positive!");
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Sets how often the throughput and remaining time are logged.
+         *
+         * @param interval The interval
+         * @param unit     The unit of the interval
+         *
+         * @return This builder for chaining
+         */
+        public Builder setReportInterval(long interval, TimeUnit unit) {
+            checkArgument(interval > 0, "The report interval must be positive!");
+            this.reportInterval = checkNotNull(unit).toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Builds the {@link StorageConversion}.
+         *
+         * @return The conversion
+         */
+        public StorageConversion build() {
+            checkState(this.source != null, "A source backend is required!");
+            checkState(this.target != null, "A target backend is required!");
+            checkArgument(this.source != this.target, "Cannot convert a backend to itself!");
+            return new StorageConversion(this);
+        }
+    }
+}
@@ -23,59 +23,190 @@
  */
 package com.afterkraft.kraftrpg.api.storage;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
+import org.spongepowered.api.scheduler.Task;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import com.afterkraft.kraftrpg.api.RpgCommon;
 import com.afterkraft.kraftrpg.api.RpgPlugin;
 import com.afterkraft.kraftrpg.api.entity.Champion;
+import com.afterkraft.kraftrpg.api.storage.WriteBehindQueue.PendingSave;
 
 /**
  * The proxy through which the plugin interacts with the StorageBackend.  A StorageFrontend handles
  * things like batching of saves and caching of loaded data. It also performs filtering of NPC data,
  * and conversion between two StorageBackends.
+ *
+ * <p>Saves are written behind: {@link #saveChampion(Champion)} and {@link
+ * #saveOfflineChampion(UUID, PlayerData)} only mark a player as dirty in the {@link
+ * WriteBehindQueue}. A main thread task drains a slice of the dirty players every drain period,
+ * sized so the whole queue is drained within each flush interval, and hands the snapshots to a
+ * bounded pool of asynchronous writers. With a {@link SaveJournal} configured, pending saves are
+ * also journaled locally every drain period and replayed on the next start after a crash.</p>
+ *
+ * <p>Loads are kept off the main thread as well: the data of a player passing authentication is
+ * prefetched in the background and held briefly, so {@link #loadChampionAsync(Player, boolean)}
+ * usually only has to build the champion once the player joins.</p>
  */
 public abstract class StorageFrontend {
+    private static final int CONVERSION_BATCH_SIZE = 256;
+    private static final int LOADER_THREADS = 2;
+    private static final long PREFETCH_TTL_SECONDS = 30;
+    private static final int OFFLINE_CACHE_SIZE = 2048;
+    private static final long OFFLINE_CACHE_TTL_SECONDS = 300;
+    private static final long MAIN_THREAD_TIMEOUT_SECONDS = 10;
+    private static final long JOURNAL_SYNC_TIMEOUT_SECONDS = 10;
+
     protected final RpgPlugin plugin;
     protected final StorageBackend backend;
 
     /**
-     * This map builds up a to-do list for the saving task, which runs every half-hour.
+     * The coalescing to-do list of online champions and offline data awaiting a write.
      */
-    protected final Map<UUID, Champion> toSave;
+    protected final WriteBehindQueue saveQueue;
 
     /**
-     * This map is also a to-do list, but is for the editing of offline players.
+     * Players in this set are silently dropped by saveChampion(). Safe to use from any thread.
      */
-    protected final Map<UUID, PlayerData> offlineToSave;
+    protected final Set<UUID> ignoredPlayers = Sets.newConcurrentHashSet();
 
     /**
-     * Players in this set are silently dropped by saveChampion().
+     * Players currently connected, kept here so that offline lookups from other threads need not
+     * touch the server.
      */
-    protected final Set<UUID> ignoredPlayers = Sets.newHashSet();
+    private final Set<UUID> onlinePlayers = Sets.newConcurrentHashSet();
+
+    /**
+     * Player data loaded ahead of a join, dropped if the player does not join shortly after.
+     */
+    private final Cache<UUID, CompletableFuture<Optional<PlayerData>>> prefetched =
+            CacheBuilder.newBuilder()
+                    .expireAfterWrite(PREFETCH_TTL_SECONDS, TimeUnit.SECONDS)
+                    .build();
+
+    /**
+     * Stored data of offline players, including players without data, read through from the
+     * backend. Entries are dropped whenever the player is written.
+     */
+    private final Cache<UUID, Optional<PlayerData>> offlineCache = CacheBuilder.newBuilder()
+            .maximumSize(OFFLINE_CACHE_SIZE)
+            .expireAfterWrite(OFFLINE_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    /**
+     * Champions queued since the last journal pass, snapshotted into the journal every drain.
+     */
+    private final Set<UUID> unjournaled = Sets.newConcurrentHashSet();
+
+    private final StorageMetrics metrics;
+    private final ExecutorService loaders;
+    private final Executor mainThread;
+    @Nullable private final SaveJournal journal;
+    @Nullable private final WriteBehindQueue.Settings settings;
+    @Nullable private final ExecutorService writers;
+    @Nullable private final Task savingTask;
+    private final Set<SavingWorker> inFlight = Sets.newConcurrentHashSet();
+    private final AtomicLong savedPlayers = new AtomicLong();
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+    private final AtomicLong backpressuredDrains = new AtomicLong();
+    private final AtomicLong committedTransactions = new AtomicLong();
+    private final AtomicLong transactionCommitNanos = new AtomicLong();
 
     protected StorageFrontend(RpgPlugin plugin, StorageBackend backend) {
+        this(plugin, backend, WriteBehindQueue.Settings.defaults());
+    }
+
+    protected StorageFrontend(RpgPlugin plugin, StorageBackend backend,
+                              WriteBehindQueue.Settings settings) {
+        this(plugin, backend, settings, Sponge.getGame().getScheduler().createSyncExecutor(plugin),
+             onlineUuids(), true);
+    }
+
+    /**
+     * Creates a frontend doing its main thread work on the given executor. An unscheduled
+     * frontend neither drains on its own nor listens to connections, leaving {@link
+     * SavingStarterTask} to be run by the caller.
+     *
+     * @param plugin     The plugin instance
+     * @param backend    The backend storage instance
+     * @param settings   The tuning of the write-behind engine
+     * @param mainThread The executor of the main thread
+     * @param online     The players already connected, such as after a reload
+     * @param scheduled  Whether to schedule the drains and listen to connections
+     */
+    StorageFrontend(RpgPlugin plugin, StorageBackend backend, WriteBehindQueue.Settings settings,
+                    Executor mainThread, Collection<UUID> online, boolean scheduled) {
         this.plugin = plugin;
         this.backend = backend;
-        this.toSave = Maps.newHashMap();
-        this.offlineToSave = Maps.newHashMap();
+        this.metrics = metricsOf(backend);
+        this.settings = checkNotNull(settings);
+        this.saveQueue = new WriteBehindQueue();
+        this.writers = Executors.newFixedThreadPool(settings.getWriterThreads(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("KraftRPG Storage Writer #%d")
+                        .setDaemon(true)
+                        .build());
+        this.loaders = newLoaderPool();
+        this.mainThread = checkNotNull(mainThread);
+        this.onlinePlayers.addAll(online);
+        this.journal = settings.getJournalDirectory().isPresent()
+                ? openJournal(settings.getJournalDirectory().get()) : null;
+        final Optional<Path> spill = settings.getSpillDirectory();
+        if (spill.isPresent() && !spill.equals(settings.getJournalDirectory())) {
+            // What the last shutdown could not write in time
+            openJournal(spill.get()).close();
+        }
 
-        Sponge.getGame().getScheduler().createTaskBuilder()
-            .interval(1, TimeUnit.MINUTES)
+        if (!scheduled) {
+            this.savingTask = null;
+            return;
+        }
+        this.savingTask = Sponge.getGame().getScheduler().createTaskBuilder()
+            .interval(settings.getDrainPeriod(), TimeUnit.MILLISECONDS)
             .execute(new SavingStarterTask())
             .name("Saving task")
             .submit(this.plugin);
+        Sponge.getEventManager().registerListeners(this.plugin, new ConnectionListener());
     }
 
     /**
@@ -90,8 +221,89 @@ public abstract class StorageFrontend {
                               boolean ignored) {
         this.plugin = plugin;
         this.backend = backend;
-        this.toSave = ImmutableMap.of();
-        this.offlineToSave = ImmutableMap.of();
+        this.metrics = metricsOf(backend);
+        this.saveQueue = new WriteBehindQueue();
+        this.settings = null;
+        this.writers = null;
+        this.savingTask = null;
+        this.loaders = newLoaderPool();
+        this.mainThread = Sponge.getGame().getScheduler().createSyncExecutor(this.plugin);
+        this.journal = null;
+    }
+
+    /**
+     * Opens the journal and writes whatever a previous run left in it to the backend before
+     * anything else is loaded.
+     */
+    private SaveJournal openJournal(Path directory) {
+        final SaveJournal journal;
+        try {
+            journal = SaveJournal.open(directory);
+        } catch (IOException e) {
+            throw new StorageException("Could not open the save journal in " + directory, e);
+        }
+        final Map<UUID, PlayerData> recovered = journal.getRecovered();
+        if (!recovered.isEmpty()) {
+            RpgCommon.getLogger().info("Replaying " + recovered.size()
+                    + " unsaved players from the save journal");
+            this.backend.saveAll(recovered);
+            journal.markWritten(recovered.keySet(), journal.getLastSequence());
+        }
+        return journal;
+    }
+
+    long journalSequence() {
+        return this.journal == null ? -1 : this.journal.getLastSequence();
+    }
+
+    /**
+     * Snapshots every champion queued since the last pass into the journal. Main thread.
+     */
+    private void journalChampions() {
+        if (this.journal == null) {
+            return;
+        }
+        for (Iterator<UUID> iterator = this.unjournaled.iterator(); iterator.hasNext(); ) {
+            final UUID uuid = iterator.next();
+            iterator.remove();
+            final Optional<PendingSave> pending = this.saveQueue.get(uuid);
+            if (pending.isPresent() && pending.get().getChampion().isPresent()) {
+                try {
+                    this.journal.append(uuid, pending.get().snapshot());
+                } catch (StorageException e) {
+                    // The journal is failing and logged it, try again with the next pass
+                    this.unjournaled.add(uuid);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static List<UUID> onlineUuids() {
+        return Sponge.getServer().getOnlinePlayers().stream()
+                .map(Player::getUniqueId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Checks whether the calling thread is the main thread.
+     *
+     * @return Whether this is the main thread
+     */
+    boolean isMainThread() {
+        return Sponge.getServer().isMainThread();
+    }
+
+    private static StorageMetrics metricsOf(StorageBackend backend) {
+        return backend instanceof InstrumentedStorageBackend
+                ? ((InstrumentedStorageBackend) backend).getMetrics() : new StorageMetrics();
+    }
+
+    private static ExecutorService newLoaderPool() {
+        return Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat("KraftRPG Storage Loader #%d")
+                .setDaemon(true)
+                .build());
     }
 
     /**
@@ -106,7 +318,9 @@ public abstract class StorageFrontend {
      * @return name of storage format
      */
     public String getName() {
-        return "Default/" + this.backend.getClass().getSimpleName();
+        final StorageBackend named = this.backend instanceof InstrumentedStorageBackend
+                ? ((InstrumentedStorageBackend) this.backend).getDelegate() : this.backend;
+        return "Default/" + named.getClass().getSimpleName();
     }
 
     /**
@@ -117,61 +331,457 @@ public abstract class StorageFrontend {
      *                     exist.
      *
      * @return the loaded Champion instance if data exists, else returns null
+     *
+     * @see #loadChampionAsync(Player, boolean) to keep the backend off the main thread
      */
     public abstract Optional<Champion> loadChampion(Player player, boolean shouldCreate);
+
+    /**
+     * Load the Champion data without blocking the main thread. The data prefetched when the
+     * player was authenticated is used if there is any, otherwise it is loaded from the backend
+     * by a loader thread. The champion itself is created through {@link
+     * com.afterkraft.kraftrpg.api.entity.EntityManager#createChampionWithData(Player,
+     * PlayerData)} on the main thread, preferring data still waiting to be saved over what was
+     * loaded.
+     *
+     * @param player       the requested Player data
+     * @param shouldCreate Whether the champion data should be generated into storage if it doesn't
+     *                     exist.
+     *
+     * @return The future Champion, completed on the main thread
+     */
+    public CompletableFuture<Optional<Champion>> loadChampionAsync(Player player,
+                                                                   boolean shouldCreate) {
+        final UUID uuid = player.getUniqueId();
+        CompletableFuture<Optional<PlayerData>> future = this.prefetched.asMap().remove(uuid);
+        if (future == null) {
+            future = loadDataAsync(uuid, shouldCreate);
+        } else if (shouldCreate) {
+            future = future.thenCompose(data -> data.isPresent()
+                    ? CompletableFuture.completedFuture(data) : loadDataAsync(uuid, true));
+        }
+        return future.thenApplyAsync(loaded -> {
+            final Optional<PendingSave> pending = this.saveQueue.get(uuid);
+            final Optional<PlayerData> data = pending.isPresent()
+                    ? Optional.of(pending.get().snapshot()) : loaded;
+            return data.map(d -> RpgCommon.getEntityManager().createChampionWithData(player, d));
+        }, this.mainThread);
+    }
+
+    /**
+     * Starts loading the data of the given player in the background, ahead of their join. The
+     * result is kept for a short while for {@link #loadChampionAsync(Player, boolean)}, and a
+     * player already being prefetched is not loaded twice.
+     *
+     * @param uuid The player's UUID
+     *
+     * @return The future data of the player
+     */
+    public CompletableFuture<Optional<PlayerData>> prefetch(UUID uuid) {
+        return this.prefetched.asMap().computeIfAbsent(uuid, key -> loadDataAsync(key, false));
+    }
+
+    private CompletableFuture<Optional<PlayerData>> loadDataAsync(UUID uuid,
+                                                                 boolean shouldCreate) {
+        return CompletableFuture.supplyAsync(() -> this.backend.loadPlayer(uuid, shouldCreate),
+                this.loaders);
+    }
     /**
      * Saves the given {@link com.afterkraft.kraftrpg.api.entity.Champion} data at some later
-     * point.
+     * point. Saving the same champion again before it is written costs nothing extra.
      *
      * @param champion The champion to save
      */
     public void saveChampion(Champion champion) {
-        if (this.ignoredPlayers
-                .contains(champion.getPlayer().get().getUniqueId())) {
+        final UUID uuid = champion.getPlayer().get().getUniqueId();
+        if (this.ignoredPlayers.contains(uuid)) {
             return;
         }
 
-        this.toSave.put(champion.getPlayer().get().getUniqueId(), champion);
+        this.saveQueue.queue(uuid, champion);
+        if (this.journal != null) {
+            this.unjournaled.add(uuid);
+        }
     }
 
+    /**
+     * Gets the most recent data of the given player, whether it is still waiting to be written,
+     * held by an online champion, or stored. Safe to call from any thread: the data of an online
+     * champion is snapshotted on the main thread, blocking the caller until it is, for at most
+     * ten seconds. Stored data is served from a cache when
+     * possible, and the returned data is always a copy that may be modified and handed to {@link
+     * #saveOfflineChampion(UUID, PlayerData)}.
+     *
+     * @param uuid The player's UUID
+     *
+     * @return The data of the player, if any
+     * @throws StorageException If the main thread did not snapshot the champion in time
+     * @see #loadOfflineChampionAsync(UUID) to never block
+     */
     public Optional<PlayerData> loadOfflineChampion(UUID uuid) {
-        if (this.offlineToSave.containsKey(uuid)) {
-            return Optional.of(this.offlineToSave.get(uuid));
-        } else if (this.toSave.containsKey(uuid)) {
-            return Optional.of(this.toSave.get(uuid).getData());
-        } else if (RpgCommon.getServer().getPlayer(uuid).isPresent()) {
+        final Optional<PendingSave> pending = this.saveQueue.get(uuid);
+        if (pending.isPresent() && !pending.get().getChampion().isPresent()) {
+            // The queued data may still be journaled or written, so it must not be handed out
+            return pending.get().getOfflineData().map(PlayerData::snapshot);
+        }
+        if (pending.isPresent() || this.onlinePlayers.contains(uuid)) {
+            if (!isMainThread()) {
+                // The main thread may never get to it, such as while the server is stopping
+                try {
+                    return CompletableFuture.supplyAsync(() -> loadOfflineChampion(uuid),
+                            this.mainThread).get(MAIN_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    throw new StorageException("The main thread did not snapshot " + uuid
+                            + " within " + MAIN_THREAD_TIMEOUT_SECONDS + " seconds", e);
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof StorageException
+                            ? (StorageException) e.getCause()
+                            : new StorageException("Could not load " + uuid, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StorageException("Interrupted while loading " + uuid, e);
+                }
+            }
+            if (pending.isPresent()) {
+                return Optional.of(pending.get().snapshot());
+            }
             if (RpgCommon.getEntityManager().getChampion(uuid).isPresent()) {
                 return Optional.of(RpgCommon.getEntityManager()
                                            .getChampion(uuid).get().getData());
             }
         }
-        return this.backend.loadPlayer(uuid, false);
+        return loadStored(uuid).map(PlayerData::snapshot);
+    }
+
+    /**
+     * Gets the most recent data of the given player like {@link #loadOfflineChampion(UUID)}
+     * without blocking the caller. The data of an online champion is snapshotted on the main
+     * thread, anything else is loaded by a loader thread.
+     *
+     * @param uuid The player's UUID
+     *
+     * @return The future data of the player, if any
+     */
+    public CompletableFuture<Optional<PlayerData>> loadOfflineChampionAsync(UUID uuid) {
+        final Optional<PendingSave> pending = this.saveQueue.get(uuid);
+        final boolean online = pending.isPresent() && pending.get().getChampion().isPresent()
+                || this.onlinePlayers.contains(uuid);
+        return CompletableFuture.supplyAsync(() -> loadOfflineChampion(uuid),
+                online ? this.mainThread : this.loaders);
+    }
+
+    private Optional<PlayerData> loadStored(UUID uuid) {
+        final long generation = this.writeGeneration.get();
+        final Optional<PlayerData> data;
+        try {
+            data = this.offlineCache.get(uuid, () -> this.backend.loadPlayer(uuid, false));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new StorageException("Could not load " + uuid, e.getCause());
+        }
+        if (this.writeGeneration.get() != generation) {
+            // A write may have finished while the backend was read, don't keep what was read
+            this.offlineCache.invalidate(uuid);
+        }
+        return data;
+    }
+
+    /**
+     * Gets the hit, miss, load and eviction statistics of the cache of stored offline data.
+     *
+     * @return The statistics of the offline cache
+     */
+    public CacheStats getOfflineCacheStats() {
+        return this.offlineCache.stats();
     }
 
+    /**
+     * Saves the data of an offline player at some later point. Safe to call from any thread. The
+     * data of an online player lives in their champion, whose next save would overwrite this data,
+     * so online players are refused. If the champion of a player who left is still waiting to be
+     * saved, both are merged section by section into a single write, the sections changed in this
+     * data taking precedence. The data is handed over and must not be modified afterwards.
+     *
+     * @param uuid The player's UUID
+     * @param data The data to save
+     *
+     * @throws IllegalStateException If the player is online
+     * @throws StorageException      If the save journal cannot be written, in which case the data
+     *                               is still queued but not protected against a crash
+     */
     public void saveOfflineChampion(UUID uuid, PlayerData data) {
-        if (this.toSave.containsKey(uuid)) {
-            // XXX This is bad!
+        checkState(!this.onlinePlayers.contains(uuid),
+                   "Modify the champion of online player " + uuid + " instead");
+        final PlayerData queued = this.saveQueue.queue(uuid, data);
+        this.prefetched.invalidate(uuid);
+        this.offlineCache.invalidate(uuid);
+        if (this.journal != null) {
+            this.journal.append(uuid, queued);
+        }
+    }
+
+    /**
+     * Begins a new {@link StorageTransaction} to write several players' data atomically. Committing
+     * the transaction makes it durable on its own, so no extra save of the participants is needed.
+     *
+     * @return The new transaction
+     */
+    public StorageTransaction beginTransaction() {
+        return new StorageTransaction(this);
+    }
+
+    /**
+     * Gets the offline data currently queued for the given player.
+     *
+     * @param uuid The player's UUID
+     *
+     * @return The queued offline data, if any
+     */
+    Optional<PlayerData> getPendingOffline(UUID uuid) {
+        return this.saveQueue.get(uuid).flatMap(PendingSave::getOfflineData);
+    }
+
+    /**
+     * Writes the mutations of the given transaction through {@link
+     * StorageBackend#commitTransaction(Map)}. With a journal, the mutations are first synced to it
+     * as a single record, so a crash in the middle of the backend write, which is not atomic for
+     * every backend, is completed from the journal on the next start; if the backend fails, the
+     * record is aborted instead. Offline data that was pending for a participant when it was
+     * staged is superseded by the transaction and dropped once the commit succeeds. Anything
+     * queued since is kept and journaled again after the transaction's record.
+     *
+     * @param transaction The transaction to commit
+     */
+    protected void commitTransaction(StorageTransaction transaction) {
+        final Map<UUID, PlayerData> mutations = transaction.getMutations();
+        if (mutations.isEmpty()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        final long journaled = this.journal == null ? -1 : journalTransaction(mutations);
+        try {
+            this.backend.commitTransaction(mutations);
+        } catch (RuntimeException e) {
+            if (journaled >= 0) {
+                this.journal.abort(journaled);
+            }
+            throw e;
+        }
+        this.writeGeneration.incrementAndGet();
+        for (Map.Entry<UUID, PlayerData> entry : mutations.entrySet()) {
+            final UUID uuid = entry.getKey();
+            entry.getValue().markSaved();
+            final Optional<PlayerData> superseded = transaction.getSuperseded(uuid);
+            if (superseded.isPresent()) {
+                this.saveQueue.discardOffline(uuid, superseded.get());
+            }
+            if (this.journal != null) {
+                rejournal(uuid, journaled);
+            }
         }
+        if (this.journal != null) {
+            this.journal.release(journaled);
+        }
+        this.offlineCache.invalidateAll(mutations.keySet());
+        this.committedTransactions.incrementAndGet();
+        this.transactionCommitNanos.addAndGet(System.nanoTime() - start);
+        this.prefetched.invalidateAll(mutations.keySet());
+    }
 
-        this.offlineToSave.put(uuid, data);
+    private long journalTransaction(Map<UUID, PlayerData> mutations) {
+        final long seq = this.journal.appendAll(mutations);
+        try {
+            this.journal.awaitDurable(seq, JOURNAL_SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (StorageException e) {
+            // The record may still be written once the journal recovers
+            this.journal.abort(seq);
+            throw e;
+        }
+        return seq;
     }
 
+    /**
+     * Keeps the journal in line after a transaction wrote the given participant. Anything still
+     * queued for it was journaled before the transaction's record, which would win on recovery,
+     * so it is journaled again; otherwise every record up to the transaction is written.
+     */
+    private void rejournal(UUID uuid, long journaled) {
+        final Optional<PendingSave> pending = this.saveQueue.get(uuid);
+        if (!pending.isPresent()) {
+            this.journal.markWritten(Collections.singleton(uuid), journaled);
+        } else if (pending.get().getChampion().isPresent()) {
+            // Snapshotted again on the main thread by the next journal pass
+            this.unjournaled.add(uuid);
+        } else {
+            final Optional<PlayerData> offline = pending.get().getOfflineData();
+            if (offline.isPresent()) {
+                try {
+                    this.journal.append(uuid, offline.get());
+                } catch (StorageException ignored) {
+                    // The journal is failing and logged it, the drain still writes the data
+                }
+            }
+        }
+    }
+
+    CompletableFuture<Void> commitAsync(StorageTransaction transaction) {
+        final Executor executor = this.writers == null ? ForkJoinPool.commonPool() : this.writers;
+        return CompletableFuture.runAsync(transaction::write, executor);
+    }
+
+    /**
+     * Writes every pending save and shuts the backend down. The pending saves are snapshotted on
+     * the calling thread, then written in batches by the writer pool alongside the batches still
+     * in flight. Whatever is not written by the shutdown deadline is spilled to a local file that
+     * is written to the backend on the next start; the writers still running are interrupted and
+     * given another deadline to stop before the backend is shut down.
+     */
     public void shutdown() {
-        flush();
+        if (this.savingTask != null) {
+            this.savingTask.cancel();
+        }
+        this.loaders.shutdown();
+        this.prefetched.invalidateAll();
+        this.offlineCache.invalidateAll();
+        if (this.writers == null || this.settings == null) {
+            flush();
+        } else {
+            shutdownWriters(this.settings, this.writers);
+        }
+        if (this.journal != null) {
+            this.journal.close();
+        }
         this.backend.shutdown();
     }
 
+    private void shutdownWriters(WriteBehindQueue.Settings settings, ExecutorService writers) {
+        final long start = System.nanoTime();
+        final long savedBefore = this.savedPlayers.get();
+        final long covered = journalSequence();
+        final List<Map.Entry<UUID, PendingSave>> pending = this.saveQueue.pollAll();
+        for (List<Map.Entry<UUID, PendingSave>> batch
+                : Lists.partition(pending, settings.getBatchSize())) {
+            submit(new SavingWorker(batch, covered));
+        }
+        writers.shutdown();
+        if (!awaitWriters(settings, writers)) {
+            writers.shutdownNow();
+            // Interrupted batches may still requeue or write, so the backend has to outlive them
+            if (!awaitWriters(settings, writers)) {
+                RpgCommon.getLogger().error("The storage writers did not stop after being"
+                        + " interrupted, the backend is shut down while they may still write");
+            }
+        }
+
+        // Batches still running at the deadline, and failed ones which were requeued
+        final Map<UUID, PlayerData> unfinished = Maps.newLinkedHashMap();
+        for (SavingWorker worker : this.inFlight) {
+            unfinished.putAll(worker.data);
+        }
+        unfinished.putAll(snapshot(this.saveQueue.pollAll()));
+        final int spilled = spill(settings, unfinished);
+        RpgCommon.getLogger().info("Saved " + (this.savedPlayers.get() - savedBefore)
+                + " players in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + "ms while shutting down" + (spilled == 0 ? ""
+                : ", " + spilled + " more were spilled and will be saved on the next start"));
+    }
+
+    private static boolean awaitWriters(WriteBehindQueue.Settings settings,
+                                        ExecutorService writers) {
+        try {
+            return writers.awaitTermination(settings.getShutdownDeadline(),
+                                            TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the given data to the spill file, or to the backend if there is none.
+     *
+     * @return The number of spilled players
+     */
+    private int spill(WriteBehindQueue.Settings settings, Map<UUID, PlayerData> data) {
+        if (data.isEmpty()) {
+            return 0;
+        }
+        final Optional<Path> directory = settings.getSpillDirectory();
+        if (!directory.isPresent()) {
+            RpgCommon.getLogger().warn("No spill directory is configured, saving "
+                    + data.size() + " players past the shutdown deadline");
+            this.backend.saveAll(data);
+            return 0;
+        }
+        final SaveJournal spill;
+        if (this.journal != null && directory.equals(settings.getJournalDirectory())) {
+            spill = this.journal;
+        } else {
+            try {
+                spill = SaveJournal.open(directory.get());
+            } catch (IOException e) {
+                throw new StorageException("Could not open the spill file in " + directory.get(),
+                                           e);
+            }
+        }
+        try {
+            for (Map.Entry<UUID, PlayerData> entry : data.entrySet()) {
+                spill.append(entry.getKey(), entry.getValue());
+            }
+        } catch (StorageException e) {
+            RpgCommon.getLogger().warn("Could not spill to " + directory.get() + ", saving "
+                    + data.size() + " players past the shutdown deadline", e);
+            this.backend.saveAll(data);
+            return 0;
+        } finally {
+            if (spill != this.journal) {
+                spill.close();
+            }
+        }
+        return data.size();
+    }
+
     public void flush() {
-        for (Champion champion : this.toSave.values()) {
-            this.backend.savePlayer(champion.getPlayer().get().getUniqueId(),
-                                    champion.getData());
+        final long covered = journalSequence();
+        final List<Map.Entry<UUID, PendingSave>> pending = this.saveQueue.pollAll();
+        if (pending.isEmpty()) {
+            return;
+        }
+        final Map<UUID, PlayerData> data = snapshot(pending);
+        final long start = System.nanoTime();
+        try {
+            this.backend.saveAll(data);
+        } catch (RuntimeException e) {
+            this.metrics.recordError(StorageMetrics.Operation.FLUSH);
+            throw e;
+        }
+        this.metrics.record(StorageMetrics.Operation.FLUSH, System.nanoTime() - start,
+                StorageMetrics.describe(data.keySet()));
+        written(data, covered);
+    }
+
+    /**
+     * Records that the given snapshots were written.
+     *
+     * @param written The written snapshots
+     * @param covered The journal sequence from before the snapshots were taken
+     */
+    private void written(Map<UUID, PlayerData> written, long covered) {
+        this.writeGeneration.incrementAndGet();
+        if (this.journal != null) {
+            this.journal.markWritten(written.keySet(), covered);
         }
-        this.toSave.clear();
-        for (Map.Entry<UUID, PlayerData> entry : this.offlineToSave
-                .entrySet()) {
-            this.backend.savePlayer(entry.getKey(), entry.getValue());
+        for (PlayerData data : written.values()) {
+            data.markSaved();
+        }
+        this.offlineCache.invalidateAll(written.keySet());
+    }
+
+    private static Map<UUID, PlayerData> snapshot(List<Map.Entry<UUID, PendingSave>> pending) {
+        final Map<UUID, PlayerData> data = Maps.newLinkedHashMap();
+        for (Map.Entry<UUID, PendingSave> entry : pending) {
+            data.put(entry.getKey(), entry.getValue().snapshot());
         }
-        this.offlineToSave.clear();
+        return data;
     }
 
     public void ignorePlayer(UUID uuid) {
@@ -182,59 +792,231 @@ public abstract class StorageFrontend {
         this.ignoredPlayers.remove(uuid);
     }
 
+    /**
+     * Gets the storage metrics of this frontend: the duration of its flushes and drained batches
+     * and, if its backend is an {@link InstrumentedStorageBackend}, every backend operation.
+     * Queue depths are available from {@link #getPendingSaveCount()} and {@link
+     * #getPendingBatchCount()}.
+     *
+     * @return The storage metrics
+     */
+    public StorageMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Gets the number of players currently waiting to be written.
+     *
+     * @return The number of dirty players
+     */
+    public int getPendingSaveCount() {
+        return this.saveQueue.size();
+    }
+
+    /**
+     * Gets the number of batches handed to the writers that have not completed yet.
+     *
+     * @return The number of in-flight batches
+     */
+    public int getPendingBatchCount() {
+        return this.pendingBatches.get();
+    }
+
+    /**
+     * Gets how many drains were skipped because the backend had fallen behind.
+     *
+     * @return The number of back-pressured drains
+     */
+    public long getBackpressuredDrainCount() {
+        return this.backpressuredDrains.get();
+    }
+
+    /**
+     * Gets how many {@link StorageTransaction}s were committed successfully.
+     *
+     * @return The number of committed transactions
+     */
+    public long getCommittedTransactionCount() {
+        return this.committedTransactions.get();
+    }
+
+    /**
+     * Gets the average time the backend took to commit a {@link StorageTransaction}.
+     *
+     * @param unit The unit to convert the latency to
+     *
+     * @return The average commit latency, or 0 if nothing was committed yet
+     */
+    public long getAverageCommitLatency(TimeUnit unit) {
+        final long count = this.committedTransactions.get();
+        return count == 0 ? 0
+                : unit.convert(this.transactionCommitNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * Convert all data from the provided StorageBackend to the one currently being used.
      *
      * @param from StorageBackend to convert from
      */
     public void doConversion(StorageBackend from) {
-        List<UUID> uuids = from.getAllStoredUsers();
+        doConversion(from, null);
+    }
 
-        for (UUID uuid : uuids) {
-            this.backend.savePlayer(uuid, from.loadPlayer(uuid, false).get());
-        }
+    /**
+     * Convert all data from the provided StorageBackend to the one currently being used, with
+     * several parallel workers. If a checkpoint file is given, an interrupted conversion resumes
+     * where it stopped when this is called again with the same file.
+     *
+     * @param from       StorageBackend to convert from
+     * @param checkpoint The file recording the conversion progress, or null for none
+     *
+     * @see StorageConversion
+     */
+    public void doConversion(StorageBackend from, @Nullable Path checkpoint) {
+        StorageConversion.builder()
+                .setSource(from)
+                .setTarget(this.backend)
+                .setCheckpoint(checkpoint)
+                .setPageSize(CONVERSION_BATCH_SIZE)
+                .build()
+                .run();
+    }
+
+    private void submit(SavingWorker worker) {
+        checkState(this.writers != null, "This frontend has no writers!");
+        this.pendingBatches.incrementAndGet();
+        this.inFlight.add(worker);
+        this.writers.execute(worker);
     }
 
     /**
-     * A task designed to periodically save all registered Champions at a prescribed time.
+     * A task designed to periodically drain a slice of the pending saves, at a prescribed period.
+     * Each slice spreads the backlog over the drains left in the current flush interval, so the
+     * last drain of an interval takes whatever is left and nothing waits longer than an interval,
+     * unless the backend is behind.
      */
     protected class SavingStarterTask implements Runnable {
+        private int drainsLeft;
+
         // Main thread, just like everything else
         @Override
         public void run() {
-            Map<UUID, PlayerData> data = Maps.newHashMap();
+            journalChampions();
+            final WriteBehindQueue.Settings settings = StorageFrontend.this.settings;
+            if (settings == null) {
+                return;
+            }
+            if (this.drainsLeft == 0) {
+                this.drainsLeft = settings.getDrainsPerInterval();
+            }
+            final int drains = this.drainsLeft--;
+            final int backlog = StorageFrontend.this.saveQueue.size();
+            int quota = (backlog + drains - 1) / drains;
+            while (quota > 0) {
+                if (StorageFrontend.this.pendingBatches.get() >= settings.getMaxPendingBatches()) {
+                    // The backend is behind, let the rest keep coalescing until next time
+                    StorageFrontend.this.backpressuredDrains.incrementAndGet();
+                    return;
+                }
+                final long covered = journalSequence();
+                final List<Map.Entry<UUID, PendingSave>> slice = StorageFrontend.this.saveQueue
+                        .poll(Math.min(quota, settings.getBatchSize()));
+                if (slice.isEmpty()) {
+                    return;
+                }
+                quota -= slice.size();
 
-            data.putAll(StorageFrontend.this.offlineToSave);
-            for (Map.Entry<UUID, Champion> entry : StorageFrontend.this.toSave
-                    .entrySet()) {
-                data.put(entry.getKey(), entry.getValue().getData());
+                submit(new SavingWorker(slice, covered));
             }
-            StorageFrontend.this.toSave.clear();
-            StorageFrontend.this.offlineToSave.clear();
+        }
+    }
+
+    /**
+     * Prefetches the data of every player passing authentication, so it is usually ready by the
+     * time they join, and keeps track of who is online.
+     */
+    protected class ConnectionListener {
+
+        @Listener(order = Order.POST)
+        public void onAuth(ClientConnectionEvent.Auth event) {
+            prefetch(event.getProfile().getUniqueId());
+        }
 
-            Sponge.getScheduler().createTaskBuilder()
-                .name("Saving worker")
-                .execute(new SavingWorker(data))
-                .submit(RpgCommon.getPlugin());
+        @Listener(order = Order.PRE)
+        public void onJoin(ClientConnectionEvent.Join event) {
+            StorageFrontend.this.onlinePlayers.add(event.getTargetEntity().getUniqueId());
+        }
+
+        @Listener(order = Order.POST)
+        public void onDisconnect(ClientConnectionEvent.Disconnect event) {
+            StorageFrontend.this.onlinePlayers.remove(event.getTargetEntity().getUniqueId());
         }
     }
 
     /**
-     * An Asynchronous task designed to perform the save operation of a Champion.
+     * An Asynchronous task designed to perform the save operation of a batch of Champions.
      */
     protected class SavingWorker implements Runnable {
         private Map<UUID, PlayerData> data;
+        private final long covered;
+        private final Map<UUID, PendingSave> sources = Maps.newHashMap();
 
         public SavingWorker(Map<UUID, PlayerData> data) {
+            this(data, -1);
+        }
+
+        /**
+         * Creates a worker whose successful write also retires the journal records of its
+         * players up to the given sequence.
+         *
+         * @param data    The snapshots to write
+         * @param covered The journal sequence from before the snapshots were taken
+         */
+        public SavingWorker(Map<UUID, PlayerData> data, long covered) {
             this.data = data;
+            this.covered = covered;
+        }
+
+        /**
+         * Creates a worker writing snapshots of the given drained saves, which are requeued
+         * rather than their snapshots if the write fails. Main thread.
+         *
+         * @param pending The drained saves
+         * @param covered The journal sequence from before the saves were drained
+         */
+        SavingWorker(List<Map.Entry<UUID, PendingSave>> pending, long covered) {
+            this(snapshot(pending), covered);
+            for (Map.Entry<UUID, PendingSave> entry : pending) {
+                this.sources.put(entry.getKey(), entry.getValue());
+            }
         }
 
         // ASYNC
         @Override
         public void run() {
-            for (Map.Entry<UUID, PlayerData> entry : this.data.entrySet()) {
-                StorageFrontend.this.backend
-                        .savePlayer(entry.getKey(), entry.getValue());
+            final StorageMetrics metrics = StorageFrontend.this.metrics;
+            final long start = System.nanoTime();
+            try {
+                StorageFrontend.this.backend.saveAll(this.data);
+                metrics.record(StorageMetrics.Operation.DRAIN_BATCH, System.nanoTime() - start,
+                               StorageMetrics.describe(this.data.keySet()));
+                written(this.data, this.covered);
+                StorageFrontend.this.savedPlayers.addAndGet(this.data.size());
+            } catch (Exception e) {
+                metrics.recordError(StorageMetrics.Operation.DRAIN_BATCH);
+                RpgCommon.getLogger().error("Could not save a batch of " + this.data.size()
+                                                    + " players, retrying later", e);
+                for (Map.Entry<UUID, PlayerData> entry : this.data.entrySet()) {
+                    final PendingSave source = this.sources.get(entry.getKey());
+                    if (source != null) {
+                        StorageFrontend.this.saveQueue.requeue(entry.getKey(), source);
+                    } else {
+                        StorageFrontend.this.saveQueue.requeue(entry.getKey(), entry.getValue());
+                    }
+                }
+            } finally {
+                StorageFrontend.this.inFlight.remove(this);
+                StorageFrontend.this.pendingBatches.decrementAndGet();
             }
         }
     }
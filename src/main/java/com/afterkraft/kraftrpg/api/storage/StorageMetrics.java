@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+
+/**
+ * Latency, error and volume statistics of storage operations, recorded by an {@link
+ * InstrumentedStorageBackend} and by the {@link StorageFrontend} using it. Operations taking
+ * longer than the slow operation threshold are also logged along with the players involved.
+ *
+ * <p>All methods are safe to call from any thread.</p>
+ */
+public final class StorageMetrics {
+
+    private static final int LOGGED_PLAYERS = 10;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final LongAdder bytesWritten = new LongAdder();
+    private volatile long slowThreshold = TimeUnit.MILLISECONDS.toNanos(250);
+
+    public StorageMetrics() {
+        for (Operation operation : Operation.values()) {
+            this.latencies.put(operation, new LatencyHistogram());
+            this.errors.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Records a completed operation, logging it if it was slow.
+     *
+     * @param operation The operation
+     * @param nanos     The latency of the operation in nanoseconds
+     * @param subject   The player or batch involved, for the slow operation log
+     */
+    public void record(Operation operation, long nanos, Object subject) {
+        this.latencies.get(operation).record(nanos);
+        if (nanos >= this.slowThreshold) {
+            RpgCommon.getLogger().warn("Slow storage operation " + operation + " on " + subject
+                    + " took " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+        }
+    }
+
+    /**
+     * Records a failed operation.
+     *
+     * @param operation The operation
+     */
+    public void recordError(Operation operation) {
+        this.errors.get(operation).increment();
+    }
+
+    /**
+     * Records bytes handed to the backend.
+     *
+     * @param bytes The number of bytes written
+     */
+    public void recordBytesWritten(long bytes) {
+        this.bytesWritten.add(bytes);
+    }
+
+    /**
+     * Gets a snapshot of the latencies of the given operation.
+     *
+     * @param operation The operation
+     *
+     * @return The latency snapshot
+     */
+    public LatencyHistogram.Snapshot getLatency(Operation operation) {
+        return this.latencies.get(checkNotNull(operation)).snapshot();
+    }
+
+    /**
+     * Gets how many times the given operation failed.
+     *
+     * @param operation The operation
+     *
+     * @return The number of errors
+     */
+    public long getErrorCount(Operation operation) {
+        return this.errors.get(checkNotNull(operation)).sum();
+    }
+
+    /**
+     * Gets the number of encoded bytes written to the backend, which stays 0 unless the
+     * backend measures them.
+     *
+     * @return The number of bytes written
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+    /**
+     * Gets the latency above which an operation is logged.
+     *
+     * @param unit The unit to convert to
+     *
+     * @return The slow operation threshold
+     */
+    public long getSlowThreshold(TimeUnit unit) {
+        return unit.convert(this.slowThreshold, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the latency above which an operation is logged.
+     *
+     * @param threshold The threshold
+     * @param unit      The unit of the threshold
+     */
+    public void setSlowThreshold(long threshold, TimeUnit unit) {
+        checkArgument(threshold > 0, "The slow operation threshold must be positive!");
+        this.slowThreshold = unit.toNanos(threshold);
+    }
+
+    /**
+     * Describes the given players as the subject of an operation, naming the first ten of them.
+     * The description is only built if the operation is logged.
+     *
+     * @param uuids The players involved
+     *
+     * @return The subject for {@link #record(Operation, long, Object)}
+     */
+    static Object describe(Collection<UUID> uuids) {
+        return uuids.size() == 1 ? uuids.iterator().next() : new Players(uuids);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("StorageMetrics{bytesWritten=")
+                .append(getBytesWritten());
+        for (Operation operation : Operation.values()) {
+            final LatencyHistogram.Snapshot latency = getLatency(operation);
+            if (latency.getCount() == 0 && getErrorCount(operation) == 0) {
+                continue;
+            }
+            builder.append(", ").append(operation)
+                    .append("={count=").append(latency.getCount())
+                    .append(", errors=").append(getErrorCount(operation))
+                    .append(", meanMs=").append(latency.getMean(TimeUnit.MILLISECONDS))
+                    .append(", p99Ms=").append(latency.getPercentile(0.99,
+                                                                      TimeUnit.MILLISECONDS))
+                    .append(", maxMs=").append(latency.getMax(TimeUnit.MILLISECONDS))
+                    .append('}');
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * A batch of players described lazily.
+     */
+    private static final class Players {
+        private final Collection<UUID> uuids;
+
+        Players(Collection<UUID> uuids) {
+            this.uuids = uuids;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder().append(this.uuids.size())
+                    .append(" players [");
+            Joiner.on(", ").appendTo(builder, Iterables.limit(this.uuids, LOGGED_PLAYERS));
+            if (this.uuids.size() > LOGGED_PLAYERS) {
+                builder.append(" and ").append(this.uuids.size() - LOGGED_PLAYERS).append(" more");
+            }
+            return builder.append(']').toString();
+        }
+    }
+
+    /**
+     * The kinds of storage operation measured.
+     */
+    public enum Operation {
+        LOAD,
+        LOAD_ALL,
+        SAVE,
+        SAVE_DELTA,
+        SAVE_ALL,
+        COMMIT,
+        REMOVE,
+        LIST,
+        /**
+         * A batch of pending saves written by the frontend.
+         */
+        DRAIN_BATCH,
+        /**
+         * A flush of every pending save by the frontend.
+         */
+        FLUSH
+    }
+}
@@ -23,7 +23,212 @@
  */
 package com.afterkraft.kraftrpg.api.storage;
 
-public class StorageTransaction {
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.entity.Champion;
+
+/**
+ * An atomic unit of work spanning the {@link PlayerData} of several players, such as a party
+ * experience split or a trade. Mutations are collected with {@link #put(UUID, PlayerData)} and
+ * written by {@link #commit()} through {@link StorageBackend#commitTransaction(Map)} as one durable
+ * write, so that either every participant is stored or none is. With a journal, the mutations are
+ * synced to it as one record first, so a crash during the backend write is completed on the next
+ * start even with a backend whose {@code commitTransaction} is not atomic.
+ *
+ * <p>A transaction is obtained from {@link StorageFrontend#beginTransaction()} and may only be
+ * committed once. It is not thread-safe; build it on one thread and then commit it.</p>
+ */
+public final class StorageTransaction {
+
+    private final StorageFrontend frontend;
+    private final Map<UUID, PlayerData> mutations = Maps.newLinkedHashMap();
+    private final Map<UUID, PlayerData> superseded = Maps.newHashMap();
+    private volatile State state = State.OPEN;
+    private long commitLatency = -1;
+
+    StorageTransaction(StorageFrontend frontend) {
+        this.frontend = checkNotNull(frontend);
+    }
+
+    /**
+     * Stages the given data for the player. Staging the same player twice keeps the latest data.
+     *
+     * @param uuid The player's UUID
+     * @param data The data to write on commit
+     *
+     * @return This transaction for chaining
+     * @throws IllegalStateException If the transaction is no longer open
+     */
+    public StorageTransaction put(UUID uuid, PlayerData data) {
+        checkState(this.state == State.OPEN, "The transaction is already " + this.state);
+        this.mutations.put(checkNotNull(uuid), checkNotNull(data));
+        final Optional<PlayerData> pending = this.frontend.getPendingOffline(uuid);
+        if (pending.isPresent()) {
+            this.superseded.put(uuid, pending.get());
+        } else {
+            this.superseded.remove(uuid);
+        }
+        return this;
+    }
+
+    /**
+     * Stages a snapshot of the given {@link Champion}'s current data. The snapshot is taken now, so
+     * this should be called from the main thread after the champion has been modified.
+     *
+     * @param champion The champion to stage
+     *
+     * @return This transaction for chaining
+     * @throws IllegalStateException If the transaction is no longer open
+     */
+    public StorageTransaction put(Champion champion) {
+        return put(champion.getPlayer().get().getUniqueId(), champion.getData());
+    }
+
+    /**
+     * Gets the players taking part in this transaction.
+     *
+     * @return An immutable set of the participants' UUIDs
+     */
+    public Set<UUID> getParticipants() {
+        return ImmutableSet.copyOf(this.mutations.keySet());
+    }
+
+    /**
+     * Gets the data staged in this transaction.
+     *
+     * @return An immutable map of the staged data
+     */
+    public Map<UUID, PlayerData> getMutations() {
+        return ImmutableMap.copyOf(this.mutations);
+    }
+
+    /**
+     * Gets the offline data that was pending for the given player when it was last staged, which
+     * the staged data supersedes.
+     *
+     * @param uuid The participant's UUID
+     *
+     * @return The superseded offline data, if any
+     */
+    Optional<PlayerData> getSuperseded(UUID uuid) {
+        return Optional.ofNullable(this.superseded.get(uuid));
+    }
+
+    /**
+     * Gets the current state of this transaction.
+     *
+     * @return The state
+     */
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * Writes every staged mutation as one durable write on the calling thread. Because this blocks
+     * on the backend, it should not be called from the main thread; see {@link #commitAsync()}.
+     *
+     * @throws IllegalStateException If the transaction is no longer open
+     * @throws StorageException      If the journal or the backend failed, in which case nothing
+     *                               was written unless the backend's write is not atomic
+     */
+    public void commit() {
+        checkState(this.state == State.OPEN, "The transaction is already " + this.state);
+        this.state = State.COMMITTING;
+        write();
+    }
+
+    /**
+     * Writes the mutations of a transaction already moved to {@link State#COMMITTING}.
+     */
+    void write() {
+        final long start = System.nanoTime();
+        try {
+            this.frontend.commitTransaction(this);
+            this.state = State.COMMITTED;
+        } catch (RuntimeException e) {
+            this.state = State.FAILED;
+            throw e instanceof StorageException ? e
+                    : new StorageException("Failed to commit a transaction of "
+                                                   + this.mutations.size() + " players", e);
+        } finally {
+            this.commitLatency = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Writes every staged mutation as one durable write on the frontend's writer threads.
+     *
+     * @return A future completed once the transaction is durable, or exceptionally with a {@link
+     * StorageException} if nothing was written
+     * @throws IllegalStateException If the transaction is no longer open
+     */
+    public CompletableFuture<Void> commitAsync() {
+        checkState(this.state == State.OPEN, "The transaction is already " + this.state);
+        // Claimed before submitting, so a second commit fails here rather than in its future
+        this.state = State.COMMITTING;
+        return this.frontend.commitAsync(this);
+    }
+
+    /**
+     * Discards every staged mutation without writing anything.
+     *
+     * @throws IllegalStateException If the transaction is no longer open
+     */
+    public void rollback() {
+        checkState(this.state == State.OPEN, "The transaction is already " + this.state);
+        this.mutations.clear();
+        this.superseded.clear();
+        this.state = State.ROLLED_BACK;
+    }
+
+    /**
+     * Gets how long the last commit attempt took, from the start of {@link #commit()} until the
+     * backend acknowledged the write or failed.
+     *
+     * @param unit The unit to convert the latency to
+     *
+     * @return The commit latency, or -1 if the transaction has not been committed
+     */
+    public long getCommitLatency(TimeUnit unit) {
+        return this.commitLatency < 0 ? -1 : unit.convert(this.commitLatency, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The lifecycle of a {@link StorageTransaction}.
+     */
+    public enum State {
+        /**
+         * Mutations may still be staged.
+         */
+        OPEN,
+        /**
+         * The mutations are being written.
+         */
+        COMMITTING,
+        /**
+         * Every mutation has been durably written.
+         */
+        COMMITTED,
+        /**
+         * The journal or the backend failed. Nothing was written, unless the backend's write is
+         * not atomic and failed part way.
+         */
+        FAILED,
+        /**
+         * The transaction was discarded.
+         */
+        ROLLED_BACK
+    }
 }
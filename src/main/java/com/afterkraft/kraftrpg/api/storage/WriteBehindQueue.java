@@ -0,0 +1,586 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.spongepowered.api.data.DataView;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.entity.Champion;
+
+/**
+ * A coalescing dirty-set of pending saves keyed by player {@link UUID}. Queuing the same player
+ * several times before it is drained merges the requests into a single write, and players are
+ * drained in the order they first became dirty so that no player waits longer than roughly one
+ * flush interval.
+ *
+ * <p>All methods are safe to call from any thread, without a global lock. Draining hands entries
+ * over one at a time by atomically removing them, so a save racing with a drain either lands in
+ * the drained entry or starts a new one, and is never lost.</p>
+ */
+public final class WriteBehindQueue {
+
+    private final ConcurrentMap<UUID, PendingSave> pending = new ConcurrentHashMap<>();
+    private final Queue<UUID> order = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Marks the given online {@link Champion} as dirty. The data is snapshotted when the entry is
+     * drained, not when it is queued.
+     *
+     * @param uuid     The player's UUID
+     * @param champion The champion to save
+     */
+    public void queue(UUID uuid, Champion champion) {
+        merge(uuid, new PendingSave(checkNotNull(champion), null));
+    }
+
+    /**
+     * Marks the given offline {@link PlayerData} as dirty, replacing any previously queued offline
+     * data for the same player. Sections only the replaced data changed are merged into a copy of
+     * the given data, which is queued instead.
+     *
+     * @param uuid The player's UUID
+     * @param data The data to save
+     *
+     * @return The offline data now queued for the player
+     */
+    public PlayerData queue(UUID uuid, PlayerData data) {
+        final PendingSave queued = merge(uuid, new PendingSave(null, checkNotNull(data)));
+        return queued.offline != null ? queued.offline : data;
+    }
+
+    /**
+     * Re-queues a snapshot that failed to be written, unless newer data has been queued for the
+     * same player in the meantime.
+     *
+     * @param uuid The player's UUID
+     * @param data The snapshot that failed to be written
+     */
+    public void requeue(UUID uuid, PlayerData data) {
+        final boolean[] inserted = new boolean[1];
+        this.pending.computeIfAbsent(uuid, key -> {
+            inserted[0] = true;
+            return new PendingSave(null, data);
+        });
+        if (inserted[0]) {
+            this.order.add(uuid);
+        }
+    }
+
+    /**
+     * Re-queues a drained save whose write failed. A champion is snapshotted again when the save
+     * is next drained, rather than its failed snapshot being written over newer changes, and
+     * anything queued for the player in the meantime is merged over the failed save.
+     *
+     * @param uuid The player's UUID
+     * @param save The save that failed to be written
+     */
+    public void requeue(UUID uuid, PendingSave save) {
+        checkNotNull(save);
+        final boolean[] inserted = new boolean[1];
+        this.pending.compute(checkNotNull(uuid), (key, newer) -> {
+            if (newer == null) {
+                inserted[0] = true;
+                return save;
+            }
+            return save.merge(newer);
+        });
+        if (inserted[0]) {
+            this.order.add(uuid);
+        }
+    }
+
+    /**
+     * Drops any offline data pending for the given player, typically because newer data has just
+     * been written by other means. A pending online champion is kept.
+     *
+     * @param uuid The player's UUID
+     */
+    public void discardOffline(UUID uuid) {
+        this.pending.computeIfPresent(uuid, (key, previous) -> previous.champion == null
+                ? null : new PendingSave(previous.champion, null));
+    }
+
+    /**
+     * Drops the offline data pending for the given player only if it is still the given data,
+     * so that data queued in the meantime survives. A pending online champion is kept.
+     *
+     * @param uuid     The player's UUID
+     * @param expected The offline data that was superseded
+     */
+    public void discardOffline(UUID uuid, PlayerData expected) {
+        checkNotNull(expected);
+        this.pending.computeIfPresent(uuid, (key, previous) -> previous.offline != expected
+                ? previous : previous.champion == null
+                ? null : new PendingSave(previous.champion, null));
+    }
+
+    private PendingSave merge(UUID uuid, PendingSave save) {
+        final boolean[] inserted = new boolean[1];
+        final PendingSave merged = this.pending.compute(checkNotNull(uuid), (key, previous) -> {
+            if (previous == null) {
+                inserted[0] = true;
+                return save;
+            }
+            return previous.merge(save);
+        });
+        if (inserted[0]) {
+            this.order.add(uuid);
+        }
+        return merged;
+    }
+
+    /**
+     * Gets the save currently pending for the given player, if any.
+     *
+     * @param uuid The player's UUID
+     *
+     * @return The pending save, if available
+     */
+    public Optional<PendingSave> get(UUID uuid) {
+        return Optional.ofNullable(this.pending.get(uuid));
+    }
+
+    /**
+     * Checks whether a save is pending for the given player.
+     *
+     * @param uuid The player's UUID
+     *
+     * @return True if a save is pending
+     */
+    public boolean contains(UUID uuid) {
+        return this.pending.containsKey(uuid);
+    }
+
+    /**
+     * Gets the number of distinct players with a pending save.
+     *
+     * @return The number of dirty players
+     */
+    public int size() {
+        return this.pending.size();
+    }
+
+    /**
+     * Checks whether nothing is pending.
+     *
+     * @return True if no saves are pending
+     */
+    public boolean isEmpty() {
+        return this.pending.isEmpty();
+    }
+
+    /**
+     * Removes up to {@code max} of the oldest pending saves.
+     *
+     * @param max The maximum number of saves to remove
+     *
+     * @return The removed saves, oldest first
+     */
+    public List<Map.Entry<UUID, PendingSave>> poll(int max) {
+        checkArgument(max >= 0, "Cannot poll a negative amount of saves!");
+        final List<Map.Entry<UUID, PendingSave>> drained = Lists.newArrayListWithCapacity(
+                Math.min(max, this.pending.size()));
+        while (drained.size() < max) {
+            final UUID uuid = this.order.poll();
+            if (uuid == null) {
+                break;
+            }
+            final PendingSave save = this.pending.remove(uuid);
+            if (save != null) {
+                drained.add(Maps.immutableEntry(uuid, save));
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Removes every pending save.
+     *
+     * @return The removed saves, oldest first
+     */
+    public List<Map.Entry<UUID, PendingSave>> pollAll() {
+        return poll(Integer.MAX_VALUE);
+    }
+
+    /**
+     * A single coalesced pending save. When both an online {@link Champion} and offline data are
+     * queued for the same player, they are merged section by section: the sections dirty in the
+     * offline data come from it, the rest from the champion. When two offline data are queued,
+     * the newer one takes the sections only the older one changed.
+     */
+    public static final class PendingSave {
+        @Nullable private final Champion champion;
+        @Nullable private final PlayerData offline;
+
+        PendingSave(@Nullable Champion champion, @Nullable PlayerData offline) {
+            this.champion = champion;
+            this.offline = offline;
+        }
+
+        PendingSave merge(PendingSave newer) {
+            PlayerData offline = newer.offline != null ? newer.offline : this.offline;
+            if (this.offline != null && newer.offline != null && this.offline != newer.offline) {
+                // The replaced data may come from another load of the player, so whatever it
+                // changed and the newer data did not has to be written along with the newer data.
+                // Both may already be journaled, so the sections are merged into a copy.
+                final Set<PlayerData.Section> changed = newer.offline.getDirtySections();
+                for (PlayerData.Section section : this.offline.getDirtySections()) {
+                    final Optional<DataView> view = this.offline.getSection(section);
+                    if (!changed.contains(section) && view.isPresent()) {
+                        if (offline == newer.offline) {
+                            offline = newer.offline.snapshot();
+                        }
+                        offline.setSection(section, view.get().copy());
+                    }
+                }
+            }
+            return new PendingSave(newer.champion != null ? newer.champion : this.champion,
+                                   offline);
+        }
+
+        /**
+         * Gets the online champion pending a save, if any.
+         *
+         * @return The champion, if available
+         */
+        public Optional<Champion> getChampion() {
+            return Optional.ofNullable(this.champion);
+        }
+
+        /**
+         * Gets the offline data pending a save, if any.
+         *
+         * @return The offline data, if available
+         */
+        public Optional<PlayerData> getOfflineData() {
+            return Optional.ofNullable(this.offline);
+        }
+
+        /**
+         * Gets the data that should be written for this save. For an online champion this takes a
+         * fresh snapshot through {@link Champion#getData()}, and should therefore be called from
+         * the main thread.
+         *
+         * @return The data to write
+         */
+        public PlayerData snapshot() {
+            if (this.champion == null) {
+                return this.offline;
+            }
+            final PlayerData data = this.champion.getData();
+            if (this.offline != null) {
+                for (PlayerData.Section section : this.offline.getDirtySections()) {
+                    final Optional<DataView> view = this.offline.getSection(section);
+                    if (view.isPresent()) {
+                        data.setSection(section, view.get().copy());
+                    }
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Tuning for the write-behind engine of a {@link StorageFrontend}.
+     */
+    public static final class Settings {
+        private final long flushInterval;
+        private final long drainPeriod;
+        private final int batchSize;
+        private final int writerThreads;
+        private final int maxPendingBatches;
+        @Nullable private final Path journalDirectory;
+        private final long shutdownDeadline;
+        @Nullable private final Path spillDirectory;
+
+        private Settings(Builder builder) {
+            this.flushInterval = builder.flushInterval;
+            this.drainPeriod = builder.drainPeriod;
+            this.batchSize = builder.batchSize;
+            this.writerThreads = builder.writerThreads;
+            this.maxPendingBatches = builder.maxPendingBatches;
+            this.journalDirectory = builder.journalDirectory;
+            this.shutdownDeadline = builder.shutdownDeadline;
+            this.spillDirectory = builder.spillDirectory;
+        }
+
+        /**
+         * Creates a new {@link Builder} populated with the default settings.
+         *
+         * @return The new builder
+         */
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        /**
+         * Gets the default settings: every dirty player is written within a minute, in slices
+         * taken once a second, by two writer threads.
+         *
+         * @return The default settings
+         */
+        public static Settings defaults() {
+            return builder().build();
+        }
+
+        /**
+         * Gets the target time, in milliseconds, within which a dirty player is written.
+         *
+         * @return The flush interval in milliseconds
+         */
+        public long getFlushInterval() {
+            return this.flushInterval;
+        }
+
+        /**
+         * Gets the time, in milliseconds, between two drains of the dirty-set.
+         *
+         * @return The drain period in milliseconds
+         */
+        public long getDrainPeriod() {
+            return this.drainPeriod;
+        }
+
+        /**
+         * Gets the maximum number of players handed to a single writer at once.
+         *
+         * @return The batch size
+         */
+        public int getBatchSize() {
+            return this.batchSize;
+        }
+
+        /**
+         * Gets the number of asynchronous writer threads.
+         *
+         * @return The number of writer threads
+         */
+        public int getWriterThreads() {
+            return this.writerThreads;
+        }
+
+        /**
+         * Gets the maximum number of batches that may be queued or running against the backend
+         * before draining pauses. While paused, further saves keep coalescing in the dirty-set.
+         *
+         * @return The maximum number of in-flight batches
+         */
+        public int getMaxPendingBatches() {
+            return this.maxPendingBatches;
+        }
+
+        /**
+         * Gets the directory of the {@link SaveJournal} protecting pending saves, if enabled.
+         *
+         * @return The journal directory, if available
+         */
+        public Optional<Path> getJournalDirectory() {
+            return Optional.ofNullable(this.journalDirectory);
+        }
+
+        /**
+         * Gets the time, in milliseconds, the final flush may take when shutting down.
+         *
+         * @return The shutdown deadline in milliseconds
+         */
+        public long getShutdownDeadline() {
+            return this.shutdownDeadline;
+        }
+
+        /**
+         * Gets the directory saves unfinished at the shutdown deadline are spilled to, which is the
+         * journal directory unless set otherwise.
+         *
+         * @return The spill directory, if available
+         */
+        public Optional<Path> getSpillDirectory() {
+            return Optional.ofNullable(this.spillDirectory != null ? this.spillDirectory
+                    : this.journalDirectory);
+        }
+
+        /**
+         * Gets the number of drains over which one flush interval is spread.
+         *
+         * @return The number of drains per flush interval, at least one
+         */
+        public int getDrainsPerInterval() {
+            return (int) Math.max(1, this.flushInterval / this.drainPeriod);
+        }
+
+        /**
+         * A builder for {@link Settings}.
+         */
+        public static final class Builder {
+            long flushInterval = TimeUnit.MINUTES.toMillis(1);
+            long drainPeriod = TimeUnit.SECONDS.toMillis(1);
+            int batchSize = 32;
+            int writerThreads = 2;
+            int maxPendingBatches = 8;
+            @Nullable Path journalDirectory;
+            long shutdownDeadline = TimeUnit.SECONDS.toMillis(30);
+            @Nullable Path spillDirectory;
+
+            Builder() { }
+
+            /**
+             * Sets the target time within which a dirty player is written.
+             *
+             * @param interval The interval
+             * @param unit     The unit of the interval
+             *
+             * @return This builder for chaining
+             */
+            public Builder setFlushInterval(long interval, TimeUnit unit) {
+                checkArgument(interval > 0, "The flush interval must be positive!");
+                this.flushInterval = checkNotNull(unit).toMillis(interval);
+                return this;
+            }
+
+            /**
+             * Sets the time between two drains of the dirty-set.
+             *
+             * @param period The period
+             * @param unit   The unit of the period
+             *
+             * @return This builder for chaining
+             */
+            public Builder setDrainPeriod(long period, TimeUnit unit) {
+                checkArgument(period > 0, "The drain period must be positive!");
+                this.drainPeriod = checkNotNull(unit).toMillis(period);
+                return this;
+            }
+
+            /**
+             * Sets the maximum number of players handed to a single writer at once.
+             *
+             * @param batchSize The batch size
+             *
+             * @return This builder for chaining
+             */
+            public Builder setBatchSize(int batchSize) {
+                checkArgument(batchSize > 0, "The batch size must be positive!");
+                this.batchSize = batchSize;
+                return this;
+            }
+
+            /**
+             * Sets the number of asynchronous writer threads.
+             *
+             * @param writerThreads The number of writer threads
+             *
+             * @return This builder for chaining
+             */
+            public Builder setWriterThreads(int writerThreads) {
+                checkArgument(writerThreads > 0, "Need at least one writer thread!");
+                this.writerThreads = writerThreads;
+                return this;
+            }
+
+            /**
+             * Sets the maximum number of batches in flight before draining pauses.
+             *
+             * @param maxPendingBatches The maximum number of in-flight batches
+             *
+             * @return This builder for chaining
+             */
+            public Builder setMaxPendingBatches(int maxPendingBatches) {
+                checkArgument(maxPendingBatches > 0, "Need at least one pending batch!");
+                this.maxPendingBatches = maxPendingBatches;
+                return this;
+            }
+
+            /**
+             * Sets the directory of a {@link SaveJournal} in which pending saves are journaled
+             * every drain period, so a crash loses at most one drain period of progress rather
+             * than one flush interval. Disabled by default.
+             *
+             * @param journalDirectory The journal directory, or null to disable the journal
+             *
+             * @return This builder for chaining
+             */
+            public Builder setJournalDirectory(@Nullable Path journalDirectory) {
+                this.journalDirectory = journalDirectory;
+                return this;
+            }
+
+            /**
+             * Sets the time the final flush may take when shutting down. Saves still unfinished
+             * then are spilled to a local file and written on the next start.
+             *
+             * @param deadline The deadline
+             * @param unit     The unit of the deadline
+             *
+             * @return This builder for chaining
+             */
+            public Builder setShutdownDeadline(long deadline, TimeUnit unit) {
+                checkArgument(deadline > 0, "The shutdown deadline must be positive!");
+                this.shutdownDeadline = checkNotNull(unit).toMillis(deadline);
+                return this;
+            }
+
+            /**
+             * Sets the directory saves unfinished at the shutdown deadline are spilled to. Defaults
+             * to the journal directory; with neither, unfinished saves are written past the
+             * deadline instead.
+             *
+             * @param spillDirectory The spill directory, or null to use the journal directory
+             *
+             * @return This builder for chaining
+             */
+            public Builder setSpillDirectory(@Nullable Path spillDirectory) {
+                this.spillDirectory = spillDirectory;
+                return this;
+            }
+
+            /**
+             * Builds the {@link Settings}.
+             *
+             * @return The settings
+             */
+            public Settings build() {
+                checkArgument(this.drainPeriod <= this.flushInterval,
+                              "The drain period cannot exceed the flush interval!");
+                return new Settings(this);
+            }
+        }
+    }
+}
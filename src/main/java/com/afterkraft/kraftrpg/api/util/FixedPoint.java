@@ -36,6 +36,11 @@ import com.afterkraft.kraftrpg.api.RpgQueries;
 public final class FixedPoint extends Number implements Cloneable, DataSerializable {
     private static final long serialVersionUID = -6313518365999400363L;
 
+    /**
+     * The current content version of a serialized {@link FixedPoint}.
+     */
+    public static final int CONTENT_VERSION = 1;
+
     private static final int FRAC_SIZE = 16;
     public static final long MAX_VALUE = Long.MAX_VALUE >>> FRAC_SIZE;
     private static final int ONE = 1 << FRAC_SIZE;
@@ -294,7 +299,7 @@ public final class FixedPoint extends Number implements Cloneable, DataSerializa
 
     @Override
     public int getContentVersion() {
-        return 1;
+        return CONTENT_VERSION;
     }
 
     @Override
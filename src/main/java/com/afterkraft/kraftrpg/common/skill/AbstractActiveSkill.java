@@ -26,6 +26,7 @@ package com.afterkraft.kraftrpg.common.skill;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -34,6 +35,7 @@ import org.spongepowered.api.command.args.ChildCommandElementExecutor;
 import org.spongepowered.api.text.Text;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
 
 import com.afterkraft.kraftrpg.api.RpgPlugin;
 import com.afterkraft.kraftrpg.api.entity.SkillCaster;
@@ -47,8 +49,10 @@ import com.afterkraft.kraftrpg.api.skill.SkillCastResult;
 public abstract class AbstractActiveSkill extends AbstractSkill implements Active {
     SkillArgument<?>[] skillArguments = new SkillArgument<?>[]{};
     private String usage = "";
-    private SkillCaster parsedCaster;
     private final ChildCommandElementExecutor childCommandElementExecutor;
+    // Weak keys, so the state kept for a caster's next cast goes with the caster
+    private final ConcurrentMap<SkillCaster, SkillParseState> parseStates =
+            new MapMaker().weakKeys().makeMap();
 
     protected AbstractActiveSkill(String name, Text description) {
         super(name, description);
@@ -86,52 +90,80 @@ public abstract class AbstractActiveSkill extends AbstractSkill implements Activ
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc}  The parsed values are written to the caster's {@link SkillParseState} rather
+     * than to the arguments, so several casters may cast this skill at once. The state is
+     * available through {@link #getParseState(SkillCaster)} until {@link
+     * #cleanState(SkillCaster)}, and is then reused by the caster's next cast. If the caster's
+     * state is still in use, the cast is parsed into a new state, as the cast it was parsed for
+     * may still be reading it.
      */
     @Override
     public final boolean parse(SkillCaster caster, String[] strings) {
-        this.parsedCaster = caster;
+        final SkillArgument<?>[] arguments = this.skillArguments;
+        SkillParseState state = this.parseStates.get(caster);
+        final boolean reused = state != null && !state.isInUse()
+                && state.size() == arguments.length;
+        if (!reused) {
+            state = new SkillParseState(arguments.length);
+        }
         int stringIndex = 0;
         int argIndex = 0;
 
         while (stringIndex < strings.length
-                && argIndex < this.skillArguments.length) {
-            SkillArgument<?> current = this.skillArguments[argIndex];
+                && argIndex < arguments.length) {
+            SkillArgument<?> current = arguments[argIndex];
 
             int width = current.matches(caster, strings, stringIndex);
             if (width >= 0) {
-                current.parse(caster, strings, stringIndex);
-                current.setPresent(true);
+                state.set(argIndex, current.parse(caster, strings, stringIndex));
                 stringIndex += width;
+            } else if (current.isOptional()) {
+                state.set(argIndex, current.skippedOptional(caster));
             } else {
-                if (current.isOptional()) {
-                    current.setPresent(false);
-                } else {
-                    return false;
-                }
+                state.release();
+                return false;
             }
 
             argIndex++;
         }
 
-        while (argIndex < this.skillArguments.length) {
-            SkillArgument<?> current = this.skillArguments[argIndex];
+        while (argIndex < arguments.length) {
+            SkillArgument<?> current = arguments[argIndex];
 
             if (current.isOptional()) {
-                current.setPresent(false);
+                state.set(argIndex, current.skippedOptional(caster));
             } else {
+                state.release();
                 return false;
             }
+
+            argIndex++;
         }
 
+        state.claim(caster);
+        if (!reused) {
+            this.parseStates.put(caster, state);
+        }
         return true;
     }
 
+    /**
+     * Gets the arguments the caster's current cast of this skill was parsed with.
+     *
+     * @param caster The caster
+     *
+     * @return The parse state of the cast
+     * @throws IllegalStateException If the skill was not parsed for the caster
+     */
+    protected final SkillParseState getParseState(SkillCaster caster) {
+        final SkillParseState state = this.parseStates.get(caster);
+        checkState(state != null && state.isInUse(), "The skill was not parsed for the caster!");
+        return state;
+    }
+
     @Override
     public List<Text> tabComplete(SkillCaster caster, String[] strings,
                                   int startIndex) {
-        this.parsedCaster = caster;
-
         int stringIndex = startIndex;
         int argIndex = 0;
         while (stringIndex < strings.length - 1
@@ -163,10 +195,9 @@ public abstract class AbstractActiveSkill extends AbstractSkill implements Activ
 
     @Override
     public void cleanState(SkillCaster caster) {
-        assert caster == this.parsedCaster;
-
-        for (SkillArgument<?> arg : this.skillArguments) {
-            arg.clean();
+        final SkillParseState state = this.parseStates.get(caster);
+        if (state != null) {
+            state.release();
         }
     }
 
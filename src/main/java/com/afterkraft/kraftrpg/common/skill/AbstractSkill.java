@@ -28,8 +28,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -64,6 +66,8 @@ public abstract class AbstractSkill implements Skill {
     private final Text description;
     private boolean isEnabled = false;
     private DataView defaultConfig;
+    @Nullable
+    private volatile DataView defaultView;
     private Set<SkillSetting> usedSettings = Sets.newHashSet();
 
     /**
@@ -98,6 +102,7 @@ public abstract class AbstractSkill implements Skill {
         }
         this.defaultConfig.set(node.node(), value);
         this.usedSettings.add(node);
+        this.defaultView = null;
     }
 
     /**
@@ -111,8 +116,7 @@ public abstract class AbstractSkill implements Skill {
      * @throws IllegalArgumentException If the setting is null
      */
     protected final void setDefault(String node, Object value) {
-        this.defaultConfig.set(new DataQuery(node), value);
-        this.usedSettings.add(new InnerSkillSetting(node));
+        setDefault(InnerSkillSetting.of(node, false), value);
     }
 
     /**
@@ -133,6 +137,7 @@ public abstract class AbstractSkill implements Skill {
         }
         this.defaultConfig.set(node.node(), value);
         this.usedSettings.add(node);
+        this.defaultView = null;
     }
 
     /**
@@ -146,8 +151,7 @@ public abstract class AbstractSkill implements Skill {
      * @throws IllegalArgumentException If the setting is null
      */
     protected final void setDefault(String node, boolean value) {
-        this.defaultConfig.set(new DataQuery(node), value);
-        this.usedSettings.add(new InnerSkillSetting(node));
+        setDefault(InnerSkillSetting.of(node, false), value);
     }
 
     /**
@@ -166,6 +170,7 @@ public abstract class AbstractSkill implements Skill {
         if (node.scalingNode().isPresent()) {
             this.defaultConfig.set(node.scalingNode().get(), 0);
         }
+        this.defaultView = null;
     }
 
     /**
@@ -179,8 +184,7 @@ public abstract class AbstractSkill implements Skill {
      * @throws IllegalArgumentException If the setting is null
      */
     protected final void setDefault(String node, double value) {
-        this.defaultConfig.set(new DataQuery(node), value);
-        this.usedSettings.add(new InnerSkillSetting(node));
+        setDefault(InnerSkillSetting.of(node, false), value);
     }
 
     /**
@@ -196,7 +200,7 @@ public abstract class AbstractSkill implements Skill {
      */
     protected final void setDefault(SkillSetting node, double value,
                                     double valuePerLevel) {
-        if (node.scalingNode().isPresent()) {
+        if (!node.scalingNode().isPresent()) {
             throw new IllegalArgumentException(
                     "Attempt to set scaling default of "
                             + "a non-scaling SkillSetting");
@@ -204,6 +208,7 @@ public abstract class AbstractSkill implements Skill {
         this.defaultConfig.set(node.node(), value);
         this.defaultConfig.set(node.scalingNode().get(), valuePerLevel);
         this.usedSettings.add(node);
+        this.defaultView = null;
     }
 
     /**
@@ -218,9 +223,7 @@ public abstract class AbstractSkill implements Skill {
      * @throws IllegalArgumentException If the setting is null
      */
     protected final void setDefault(String node, double value, double valuePerLevel) {
-        this.defaultConfig.set(new DataQuery(node), value);
-        this.defaultConfig.set(new DataQuery(node + "-per-level"), valuePerLevel);
-        this.usedSettings.add(new InnerSkillSetting(node, true));
+        setDefault(InnerSkillSetting.of(node, true), value, valuePerLevel);
     }
 
     /**
@@ -242,6 +245,7 @@ public abstract class AbstractSkill implements Skill {
         }
         this.defaultConfig.set(node.node(), value);
         this.usedSettings.add(node);
+        this.defaultView = null;
     }
 
     /**
@@ -255,8 +259,7 @@ public abstract class AbstractSkill implements Skill {
      * @throws IllegalArgumentException If the setting is null
      */
     protected final void setDefault(String node, String value) {
-        this.defaultConfig.set(new DataQuery(node), value);
-        this.usedSettings.add(new InnerSkillSetting(node));
+        setDefault(InnerSkillSetting.of(node, false), value);
     }
 
 
@@ -279,6 +282,7 @@ public abstract class AbstractSkill implements Skill {
         }
         this.defaultConfig.set(node.node(), value);
         this.usedSettings.add(node);
+        this.defaultView = null;
     }
 
     /**
@@ -292,8 +296,7 @@ public abstract class AbstractSkill implements Skill {
      * @throws IllegalArgumentException If the setting is null
      */
     protected final void setDefault(String node, List<?> value) {
-        this.defaultConfig.set(new DataQuery(node), value);
-        this.usedSettings.add(new InnerSkillSetting(node));
+        setDefault(InnerSkillSetting.of(node, false), value);
     }
 
     /**
@@ -314,6 +317,7 @@ public abstract class AbstractSkill implements Skill {
         }
         this.defaultConfig.set(node.node(), value.copy());
         this.usedSettings.add(node);
+        this.defaultView = null;
     }
 
     /**
@@ -327,8 +331,7 @@ public abstract class AbstractSkill implements Skill {
      * @throws IllegalArgumentException If the setting is null
      */
     protected final void setDefault(String node, ItemStack value) {
-        this.defaultConfig.set(new DataQuery(node), value.copy());
-        this.usedSettings.add(new InnerSkillSetting(node));
+        setDefault(InnerSkillSetting.of(node, false), value);
     }
 
     /**
@@ -367,10 +370,27 @@ public abstract class AbstractSkill implements Skill {
         return this.name;
     }
 
+    /**
+     * Gets the defaults of this skill. The view is built once per change to the defaults and
+     * shared between callers, who must copy it before making changes.
+     *
+     * @return The shared view of the defaults
+     */
     @Override
     public final DataView getDefaultConfig() {
-        DataView clone = DataContainer.createNew();
-        return clone.createView(DataQuery.of(), this.defaultConfig.getValues(true));
+        DataView view = this.defaultView;
+        if (view == null) {
+            final DataContainer container = new MemoryDataContainer();
+            for (Map.Entry<DataQuery, Object> entry
+                    : this.defaultConfig.getValues(true).entrySet()) {
+                if (!(entry.getValue() instanceof DataView)) {
+                    container.set(entry.getKey(), entry.getValue());
+                }
+            }
+            view = container;
+            this.defaultView = view;
+        }
+        return view;
     }
 
     @Override
@@ -425,20 +445,24 @@ public abstract class AbstractSkill implements Skill {
                 && this.name.equals(((AbstractSkill) obj).name);
     }
 
+    /**
+     * A setting declared by name through one of the setDefault methods. Settings are shared by
+     * every skill declaring the same node, so each node is created and interned once.
+     */
     private static final class InnerSkillSetting extends SkillSetting {
-        private InnerSkillSetting(String node) {
-            super(node);
-            Function<String, Boolean> function = new Function<String, Boolean>() {
-                @Nullable
-                @Override
-                public Boolean apply(String input) {
-                    return null;
-                }
-            };
-        }
+
+        private static final ConcurrentMap<String, InnerSkillSetting> SETTINGS =
+                new ConcurrentHashMap<>();
+        private static final ConcurrentMap<String, InnerSkillSetting> SCALING_SETTINGS =
+                new ConcurrentHashMap<>();
 
         private InnerSkillSetting(String node, boolean scaled) {
             super(node, scaled);
         }
+
+        static InnerSkillSetting of(String node, boolean scaled) {
+            return (scaled ? SCALING_SETTINGS : SETTINGS)
+                    .computeIfAbsent(node, key -> new InnerSkillSetting(key, scaled));
+        }
     }
 }
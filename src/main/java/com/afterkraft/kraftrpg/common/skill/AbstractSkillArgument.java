@@ -32,7 +32,6 @@ import com.afterkraft.kraftrpg.api.skill.SkillArgument;
  */
 public abstract class AbstractSkillArgument<T> implements SkillArgument<T> {
     private final boolean required;
-    protected boolean present;
 
     /**
      * Creates a new skill argument
@@ -54,14 +53,4 @@ public abstract class AbstractSkillArgument<T> implements SkillArgument<T> {
     public boolean isOptional() {
         return !this.required;
     }
-
-    @Override
-    public boolean isPresent() {
-        return this.present;
-    }
-
-    @Override
-    public void setPresent(boolean present) {
-        this.present = present;
-    }
 }
@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.SkillArgument;
+
+/**
+ * The arguments of one cast of an {@link AbstractActiveSkill}, as parsed by its {@link
+ * SkillArgument}s. Each caster keeps one state per skill, which is in use from a successful parse
+ * until the skill's state is cleaned for the caster, and is then reused by the caster's next cast.
+ * A cast parsed while the caster's state is still in use gets a new state instead, and the old
+ * one is left to the cast reading it.
+ */
+public final class SkillParseState {
+
+    private final Object[] values;
+    @Nullable private volatile SkillCaster caster;
+
+    SkillParseState(int arguments) {
+        this.values = new Object[arguments];
+    }
+
+    /**
+     * Gets the caster whose arguments this state holds.
+     *
+     * @return The caster
+     */
+    public SkillCaster getCaster() {
+        return checkNotNull(this.caster, "This parse state is not in use!");
+    }
+
+    /**
+     * Checks whether the argument at the given index has a value.
+     *
+     * @param index The index of the argument
+     *
+     * @return Whether the argument was parsed, or given a value when skipped
+     */
+    public boolean isPresent(int index) {
+        return this.values[checkElementIndex(index, this.values.length)] != null;
+    }
+
+    /**
+     * Gets the value of the argument at the given index.
+     *
+     * @param index The index of the argument
+     * @param <T>   The type of the argument's value
+     *
+     * @return The value, if present
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> getValue(int index) {
+        return Optional.ofNullable((T) this.values[checkElementIndex(index, this.values.length)]);
+    }
+
+    int size() {
+        return this.values.length;
+    }
+
+    boolean isInUse() {
+        return this.caster != null;
+    }
+
+    void set(int index, @Nullable Object value) {
+        this.values[index] = value;
+    }
+
+    void claim(SkillCaster caster) {
+        // Written after the values, so a reader seeing the caster sees them too
+        this.caster = caster;
+    }
+
+    void release() {
+        this.caster = null;
+        Arrays.fill(this.values, null);
+    }
+}
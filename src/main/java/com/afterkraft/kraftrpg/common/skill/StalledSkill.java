@@ -75,6 +75,11 @@ public class StalledSkill implements Stalled {
         return this.startTime;
     }
 
+    @Override
+    public long warmup() {
+        return this.warmup;
+    }
+
     @Override
     public String[] getArguments() {
         return this.argument;
@@ -92,6 +97,10 @@ public class StalledSkill implements Stalled {
 
     @Override
     public int compareTo(Delayed o) {
+        if (o instanceof StalledSkill) {
+            // Both end at a fixed time, so there is no need to read the clock
+            return Long.compare(this.delay, ((StalledSkill) o).delay);
+        }
         long d = getDelay(TimeUnit.MILLISECONDS) - o
                 .getDelay(TimeUnit.MILLISECONDS);
         return ((d == 0) ? 0 : ((d < 0) ? -1 : 1));
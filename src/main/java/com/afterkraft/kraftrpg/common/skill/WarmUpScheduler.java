@@ -0,0 +1,273 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.SkillManager;
+import com.afterkraft.kraftrpg.api.skill.Stalled;
+
+/**
+ * Tracks the {@link Stalled} skills of casters warming up, for {@link SkillManager}
+ * implementations to back {@link SkillManager#getDelayedSkill(SkillCaster)} and {@link
+ * SkillManager#setCompletedSkill(SkillCaster)} with.
+ *
+ * <p>Warm-ups are kept in a hierarchical timer wheel of four levels with 64 buckets each. A
+ * bucket of the first level holds the warm-ups ending in one tick, and a bucket of each further
+ * level spans a whole turn of the level below, whose warm-ups are moved
+ * down when the turn starts. Scheduling and cancelling a warm-up take constant time, and {@link
+ * #tick()} reads the clock once and only visits the buckets of the ticks passed since the last
+ * call, so casters warming up cost nothing until their warm-up ends.</p>
+ */
+public final class WarmUpScheduler {
+
+    /**
+     * The default length of a tick, being one server tick.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 50;
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    /**
+     * The furthest tick the wheel can place a warm-up at, later ones are moved down until they
+     * come within reach.
+     */
+    private static final long SPAN = 1L << (LEVELS * SLOT_BITS);
+
+    private final Consumer<Stalled> onReady;
+    private final long tickMillis;
+    private final LongSupplier clock;
+    private final long origin;
+    private final Entry[][] wheel = new Entry[LEVELS][SLOTS];
+    private final Map<SkillCaster, Entry> byCaster = Maps.newHashMap();
+    private long currentTick;
+
+    /**
+     * Creates a new scheduler ticking once every server tick.
+     *
+     * @param onReady Called with every warm-up as it ends, from {@link #tick()}
+     */
+    public WarmUpScheduler(Consumer<Stalled> onReady) {
+        this(onReady, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param onReady Called with every warm-up as it ends, from {@link #tick()}
+     * @param tick    The length of a tick, which warm-ups are rounded up to
+     * @param unit    The unit of the tick length
+     * @param clock   The clock in milliseconds, as used for {@link Stalled#startTime()}
+     */
+    public WarmUpScheduler(Consumer<Stalled> onReady, long tick, TimeUnit unit,
+                           LongSupplier clock) {
+        this.onReady = checkNotNull(onReady);
+        this.tickMillis = checkNotNull(unit).toMillis(tick);
+        checkArgument(this.tickMillis > 0, "The tick must be at least a millisecond!");
+        this.clock = checkNotNull(clock);
+        this.origin = clock.getAsLong();
+    }
+
+    /**
+     * Schedules the warm-up of a stalled skill, ending {@link Stalled#warmup()} milliseconds
+     * after its {@link Stalled#startTime()}. A caster may only warm up one skill at a time.
+     *
+     * @param stalled The stalled skill
+     *
+     * @return False if the caster is already warming up a skill
+     */
+    public synchronized boolean schedule(Stalled stalled) {
+        final SkillCaster caster = checkNotNull(stalled).getCaster();
+        if (this.byCaster.containsKey(caster)) {
+            return false;
+        }
+        final long end = stalled.startTime() + stalled.warmup() - this.origin;
+        // Round up so a warm-up never ends early, and never end before the next tick
+        final long tick = Math.max(this.currentTick + 1,
+                                   end <= 0 ? 0 : (end + this.tickMillis - 1) / this.tickMillis);
+        final Entry entry = new Entry(stalled, tick);
+        this.byCaster.put(caster, entry);
+        place(entry);
+        return true;
+    }
+
+    /**
+     * Gets the skill the caster is warming up.
+     *
+     * @param caster The caster
+     *
+     * @return The stalled skill, if warming up
+     */
+    public synchronized Optional<Stalled> getDelayedSkill(SkillCaster caster) {
+        final Entry entry = this.byCaster.get(caster);
+        return entry == null ? Optional.empty() : Optional.of(entry.stalled);
+    }
+
+    /**
+     * Removes the warm-up of the caster without completing it, such as when the skill is cast or
+     * interrupted.
+     *
+     * @param caster The caster
+     *
+     * @return The removed stalled skill, if the caster was warming up
+     */
+    public synchronized Optional<Stalled> cancel(SkillCaster caster) {
+        final Entry entry = this.byCaster.remove(caster);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        unlink(entry);
+        return Optional.of(entry.stalled);
+    }
+
+    /**
+     * Gets the number of casters warming up.
+     *
+     * @return The number of scheduled warm-ups
+     */
+    public synchronized int size() {
+        return this.byCaster.size();
+    }
+
+    /**
+     * Advances the wheel to the current time, passing every warm-up which ended to the ready
+     * callback. Meant to be called once every server tick.
+     */
+    public void tick() {
+        final long now = (this.clock.getAsLong() - this.origin) / this.tickMillis;
+        Entry ready = null;
+        synchronized (this) {
+            while (this.currentTick < now) {
+                this.currentTick++;
+                cascade(this.currentTick);
+                final int slot = (int) (this.currentTick & SLOT_MASK);
+                Entry entry = this.wheel[0][slot];
+                this.wheel[0][slot] = null;
+                while (entry != null) {
+                    final Entry next = entry.next;
+                    this.byCaster.remove(entry.stalled.getCaster());
+                    entry.buckets = null;
+                    entry.prev = null;
+                    entry.next = ready;
+                    ready = entry;
+                    entry = next;
+                }
+            }
+        }
+        // Outside the lock, so the callback may schedule or cancel warm-ups
+        for (Entry entry = ready; entry != null; entry = entry.next) {
+            this.onReady.accept(entry.stalled);
+        }
+    }
+
+    /**
+     * Moves the warm-ups of the buckets whose span starts at the given tick down a level.
+     */
+    private void cascade(long tick) {
+        int top = 0;
+        while (top < LEVELS - 1 && (tick & ((1L << ((top + 1) * SLOT_BITS)) - 1)) == 0) {
+            top++;
+        }
+        // Highest first, as its warm-ups may land in a bucket of a lower level starting now
+        for (int level = top; level > 0; level--) {
+            final int slot = (int) ((tick >>> (level * SLOT_BITS)) & SLOT_MASK);
+            Entry entry = this.wheel[level][slot];
+            this.wheel[level][slot] = null;
+            while (entry != null) {
+                final Entry next = entry.next;
+                entry.prev = null;
+                entry.next = null;
+                place(entry);
+                entry = next;
+            }
+        }
+    }
+
+    private void place(Entry entry) {
+        final long delay = entry.tick - this.currentTick;
+        // Warm-ups beyond the wheel are parked in its last bucket until they come within reach
+        final long tick = delay < SPAN ? entry.tick : this.currentTick + SPAN - 1;
+        int level = 0;
+        while (level < LEVELS - 1 && tick - this.currentTick >= 1L << ((level + 1) * SLOT_BITS)) {
+            level++;
+        }
+        final Entry[] buckets = this.wheel[level];
+        final int slot = (int) ((tick >>> (level * SLOT_BITS)) & SLOT_MASK);
+        entry.buckets = buckets;
+        entry.index = slot;
+        entry.next = buckets[slot];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        buckets[slot] = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        if (entry.buckets == null) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            entry.buckets[entry.index] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.buckets = null;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /**
+     * A scheduled warm-up, linked into the bucket of the wheel it waits in.
+     */
+    private static final class Entry {
+
+        final Stalled stalled;
+        final long tick;
+        @Nullable Entry[] buckets;
+        int index;
+        @Nullable Entry prev;
+        @Nullable Entry next;
+
+        Entry(Stalled stalled, long tick) {
+            this.stalled = stalled;
+            this.tick = tick;
+        }
+    }
+}
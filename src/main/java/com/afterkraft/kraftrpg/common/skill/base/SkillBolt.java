@@ -80,10 +80,8 @@ public class SkillBolt extends TargetedSkillAbstract<Living> {
         player.offer(Keys.HEALTH, 100D);
         player.offer(Keys.HEALTH_SCALE, 20D);
         double damage = RpgCommon.getSkillConfigManager()
-                .getUsedDoubleSetting(caster, this, SkillSetting.DAMAGE);
-        double damageIncrease = RpgCommon.getSkillConfigManager()
-                .getUsedDoubleSetting(caster, this, SkillSetting.DAMAGE.scalingNode());
-        damage += (damageIncrease * caster.get(Rolecaster.getPrimaryRole()));
+                .getUsedScalingCurve(caster, this, SkillSetting.DAMAGE)
+                .get(RpgCommon.getSkillConfigManager().getLevel(caster, this));
 
         float volume = (float) RpgCommon.getSkillConfigManager()
                 .getUsedDoubleSetting(caster, this, CustomSkillSettings.LIGHTNING_VOLUME);
@@ -0,0 +1,964 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.MemoryDataContainer;
+import org.spongepowered.api.item.inventory.ItemStack;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.RpgKeys;
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.role.Role;
+import com.afterkraft.kraftrpg.api.role.aspect.SkillAspect;
+import com.afterkraft.kraftrpg.api.skill.ScalingCurve;
+import com.afterkraft.kraftrpg.api.skill.Skill;
+import com.afterkraft.kraftrpg.api.skill.SkillConfigManager;
+import com.afterkraft.kraftrpg.api.skill.SkillConfigurationException;
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+import com.afterkraft.kraftrpg.api.skill.SkillSettingRegistry;
+
+/**
+ * A base {@link SkillConfigManager} answering the used settings of a cast from compiled tables.
+ * The stored configurations are held in an immutable {@link SkillConfigSnapshot} which
+ * implementations read through {@link #loadSnapshot()}; the first used lookup for a skill, role
+ * and level compiles every setting the skill uses into a {@link CompiledSkillSettings}, and later
+ * lookups for any caster in the same role and level read it by the interned id of the setting.
+ * Every change to the configuration publishes a new snapshot with a single swap, and only the
+ * tables of the skills it changed are dropped.
+ *
+ * <p>The defaults and role settings given in code, through {@link #loadSkillDefaults(Skill)}
+ * and {@link #addRoleSkillSettings(String, String, DataView)}, are kept apart from the stored
+ * files, which a reload lays over them setting by setting.</p>
+ *
+ * <p>Before a snapshot is published, the settings of every skill it adds or changes are
+ * validated against the {@link SkillSetting}s the skill declares, so type errors surface when
+ * the configuration is loaded rather than during a cast. Only skills whose defaults were loaded
+ * are validated, by the layout taken from the skill when they were, so validating never calls
+ * into a skill off the thread loading it. Compiled settings hold every value already converted to
+ * the type of its setting.</p>
+ *
+ * <p>Settings the skill does not declare are looked up in the stored configurations on every
+ * use. Temporary configurations are layered over the stored ones per caster and skill; the
+ * compiled settings of a layer are derived from the stored table once and kept with the layer.
+ * Clearing a caster's temporary configurations takes constant time.</p>
+ */
+public abstract class AbstractSkillConfigManager implements SkillConfigManager {
+
+    /**
+     * The number of levels cached for skills used without a granting role.
+     */
+    private static final int UNGRANTED_LEVELS = ScalingCurve.DEFAULT_MAX_LEVEL + 1;
+    /**
+     * The number of slowest skills named when reporting a bulk load of defaults.
+     */
+    private static final int SLOWEST_REPORTED = 5;
+
+    private final AtomicReference<State> state =
+            new AtomicReference<>(new State(SkillConfigSnapshot.EMPTY));
+    private final AtomicReference<SkillConfigSnapshot> registered =
+            new AtomicReference<>(SkillConfigSnapshot.EMPTY);
+    private final ConcurrentMap<String, Skill> skills = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Skill, SettingLayout> layouts = new ConcurrentHashMap<>();
+    private final TemporaryConfigurations temporary = new TemporaryConfigurations();
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("KraftRPG Skill Config Reloader")
+                    .setDaemon(true)
+                    .build());
+    private final ForkJoinPool loader = new ForkJoinPool();
+    private final ConcurrentMap<String, Long> loadTimes = new ConcurrentHashMap<>();
+
+    /**
+     * Reads and validates every stored skill configuration into a new snapshot. Called off the
+     * main thread by {@link #reloadAsync()}, so it must not touch the game.
+     *
+     * @return The new snapshot
+     * @throws SkillConfigurationException If the configuration is invalid
+     */
+    protected abstract SkillConfigSnapshot loadSnapshot();
+
+    /**
+     * Reads the defaults of a skill, being the skill's own defaults overlaid with any configured
+     * ones. Called by {@link #loadSkillDefaults(Skill)}, and from several threads of a fork-join
+     * pool at once by {@link #loadSkillDefaults(Collection)}.
+     *
+     * @param skill The skill
+     *
+     * @return The defaults to store
+     */
+    protected abstract DataView readSkillDefaults(Skill skill);
+
+    /**
+     * Gets the executor skills are re-initialized on after a reload changed their settings.
+     *
+     * @return The main thread executor
+     */
+    protected Executor getSyncExecutor() {
+        return Sponge.getScheduler().createSyncExecutor(RpgCommon.getPlugin());
+    }
+
+    /**
+     * Stops the threads reloading the skill settings and loading defaults in bulk.
+     * Implementations overriding this must call it.
+     */
+    @Override
+    public void shutdown() {
+        this.reloader.shutdownNow();
+        this.loader.shutdownNow();
+    }
+
+    /**
+     * Starts reloading the skill settings in the background. The current settings stay in use
+     * until the new ones are read and validated, then all of them are replaced at once.
+     */
+    @Override
+    public void reload() {
+        reloadAsync();
+    }
+
+    /**
+     * Reads the skill settings into a new snapshot off the main thread and publishes it, laid over
+     * the defaults and role settings given in code, with a single swap. Casts which already looked
+     * up their {@link CompiledSkillSettings} keep using them. Compiled settings of unchanged skills
+     * are kept, and only skills whose settings changed are re-initialized, on the main thread.
+     *
+     * @return The differences to the previous settings, once published
+     */
+    public CompletableFuture<SkillConfigSnapshot.Diff> reloadAsync() {
+        final long start = System.nanoTime();
+        final CompletableFuture<SkillConfigSnapshot.Diff> reload = CompletableFuture
+                .supplyAsync(this::loadSnapshot, this.reloader)
+                .thenApply(snapshot -> publish(
+                        current -> this.registered.get().overlay(snapshot), ImmutableList.of()));
+        reload.whenComplete((diff, error) -> {
+            if (error != null) {
+                RpgCommon.getLogger().error("Could not reload the skill settings, keeping the "
+                        + "current ones", error);
+                return;
+            }
+            RpgCommon.getLogger().info("Reloaded the skill settings in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms: " + diff);
+            if (!diff.getChanged().isEmpty()) {
+                getSyncExecutor().execute(() -> reinitialize(diff));
+            }
+        });
+        return reload;
+    }
+
+    private void reinitialize(SkillConfigSnapshot.Diff diff) {
+        for (String name : diff.getChanged()) {
+            final Optional<Skill> skill = findSkill(name);
+            if (skill.isPresent()) {
+                skill.get().shutdown();
+                skill.get().initialize();
+            }
+        }
+    }
+
+    /**
+     * Gets the registered skill with the given name, to re-initialize it on the main thread when
+     * its settings change.
+     *
+     * @param name The name of the skill
+     *
+     * @return The skill, if registered
+     */
+    protected Optional<Skill> findSkill(String name) {
+        return RpgCommon.getSkillManager().getSkill(name);
+    }
+
+    /**
+     * Replaces the current snapshot with an updated one, keeping the compiled settings of every
+     * skill the update leaves alone. The settings of every added or changed skill are validated
+     * against its declared settings first, and nothing is replaced if any are invalid.
+     */
+    private SkillConfigSnapshot.Diff publish(UnaryOperator<SkillConfigSnapshot> update,
+                                             Collection<Skill> skills) {
+        while (true) {
+            final State current = this.state.get();
+            final SkillConfigSnapshot snapshot = update.apply(current.snapshot);
+            final SkillConfigSnapshot.Diff diff = snapshot.diff(current.snapshot);
+            final State next = new State(snapshot);
+            for (Map.Entry<Skill, CompiledSkill> entry : current.compiled.entrySet()) {
+                if (!diff.affects(entry.getKey().getName())) {
+                    next.compiled.put(entry.getKey(), entry.getValue());
+                }
+            }
+            validate(next, Sets.union(diff.getAdded(), diff.getChanged()), skills);
+            if (this.state.compareAndSet(current, next)) {
+                return diff;
+            }
+        }
+    }
+
+    private void validate(State next, Set<String> names, Collection<Skill> skills) {
+        final Map<String, Skill> loading = Maps.newHashMap();
+        for (Skill skill : skills) {
+            loading.put(skill.getName().toLowerCase(Locale.ENGLISH), skill);
+        }
+        final List<String> errors = Lists.newArrayList();
+        for (String name : names) {
+            // Skills whose defaults were never loaded are validated once they are
+            final Skill skill = loading.containsKey(name) ? loading.get(name)
+                    : this.skills.get(name);
+            if (skill == null) {
+                continue;
+            }
+            final CompiledSkill compiledSkill = new CompiledSkill(layout(skill));
+            final Optional<ImmutableMap<DataQuery, Object>> defaults =
+                    next.snapshot.getDefaults(name);
+            if (defaults.isPresent()) {
+                compiledSkill.layout.validate(skill.getName(), "the defaults", defaults.get(),
+                                              true, errors);
+            }
+            for (Map.Entry<String, ImmutableMap<DataQuery, Object>> role
+                    : next.snapshot.getSkillSettings(name).entrySet()) {
+                compiledSkill.layout.validate(skill.getName(), "role " + role.getKey(),
+                                              role.getValue(), false, errors);
+            }
+            next.compiled.put(skill, compiledSkill);
+        }
+        if (!errors.isEmpty()) {
+            throw new SkillConfigurationException("Invalid skill settings:\n  "
+                                                          + String.join("\n  ", errors));
+        }
+    }
+
+    /**
+     * Gets the layout of the skill's settings, taken from the skill the first time.
+     */
+    private SettingLayout layout(Skill skill) {
+        return this.layouts.computeIfAbsent(skill, SettingLayout::new);
+    }
+
+    /**
+     * Records the skill as loaded, building its layout on the calling thread.
+     */
+    private void register(Skill skill) {
+        layout(skill);
+        this.skills.put(skill.getName().toLowerCase(Locale.ENGLISH), skill);
+    }
+
+    /**
+     * Gets the snapshot of the stored skill settings currently in use.
+     *
+     * @return The current snapshot
+     */
+    public SkillConfigSnapshot getSnapshot() {
+        return this.state.get().snapshot;
+    }
+
+    @Override
+    public void addRoleSkillSettings(String roleName, String skillName, DataView section) {
+        this.registered.updateAndGet(
+                registered -> registered.withRoleSettings(roleName, skillName, section));
+        publish(current -> current.withRoleSettings(roleName, skillName, section),
+                ImmutableList.of());
+    }
+
+    @Override
+    public void loadSkillDefaults(Skill skill) {
+        register(skill);
+        final ImmutableMap<DataQuery, Object> defaults = readDefaults(skill);
+        this.registered.updateAndGet(registered -> registered.toBuilder()
+                .setDefaults(skill.getName(), defaults).build());
+        publish(current -> current.toBuilder().setDefaults(skill.getName(), defaults).build(),
+                ImmutableList.of(skill));
+    }
+
+    /**
+     * Loads the defaults of the skills in parallel and publishes all of them with a single swap.
+     * The time taken by each skill is logged at debug level, with the slowest ones summarized,
+     * and kept for {@link #getDefaultsLoadTimes()}.
+     *
+     * @param skills The skills to load the defaults of
+     */
+    @Override
+    public void loadSkillDefaults(Collection<Skill> skills) {
+        final long start = System.nanoTime();
+        for (Skill skill : skills) {
+            register(skill);
+        }
+        final Map<String, ImmutableMap<DataQuery, Object>> defaults =
+                this.loader.invoke(ForkJoinTask.adapt(() -> skills.parallelStream()
+                        .collect(Collectors.toMap(Skill::getName, this::readDefaults))));
+        final UnaryOperator<SkillConfigSnapshot> update = snapshot -> {
+            final SkillConfigSnapshot.Builder builder = snapshot.toBuilder();
+            for (Map.Entry<String, ImmutableMap<DataQuery, Object>> entry : defaults.entrySet()) {
+                builder.setDefaults(entry.getKey(), entry.getValue());
+            }
+            return builder.build();
+        };
+        this.registered.updateAndGet(update);
+        publish(update, skills);
+        final String slowest = skills.stream()
+                .map(Skill::getName)
+                .sorted(Comparator.comparing(this.loadTimes::get).reversed())
+                .limit(SLOWEST_REPORTED)
+                .map(name -> name + " (" + formatNanos(this.loadTimes.get(name)) + ")")
+                .collect(Collectors.joining(", "));
+        RpgCommon.getLogger().info("Loaded the defaults of " + skills.size() + " skills in "
+                + formatNanos(System.nanoTime() - start)
+                + (slowest.isEmpty() ? "" : ", slowest: " + slowest));
+    }
+
+    private ImmutableMap<DataQuery, Object> readDefaults(Skill skill) {
+        final long start = System.nanoTime();
+        final ImmutableMap<DataQuery, Object> defaults =
+                SkillConfigSnapshot.flatten(readSkillDefaults(skill));
+        final long elapsed = System.nanoTime() - start;
+        this.loadTimes.put(skill.getName(), elapsed);
+        RpgCommon.getLogger().debug("Loaded the defaults of " + skill.getName() + " in "
+                + formatNanos(elapsed));
+        return defaults;
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format(Locale.ENGLISH, "%.2fms", nanos / 1e6);
+    }
+
+    /**
+     * Gets the time the last load of each skill's defaults took, in nanoseconds.
+     *
+     * @return The load times by skill name
+     */
+    public Map<String, Long> getDefaultsLoadTimes() {
+        return ImmutableMap.copyOf(this.loadTimes);
+    }
+
+    @Override
+    public DataContainer getRoleSkillConfig(String name) {
+        final DataContainer container = new MemoryDataContainer();
+        for (Map.Entry<String, ImmutableMap<DataQuery, Object>> skill
+                : getSnapshot().getRoleSettings(name).entrySet()) {
+            final DataView view = container.createView(DataQuery.of(skill.getKey()));
+            for (Map.Entry<DataQuery, Object> setting : skill.getValue().entrySet()) {
+                view.set(setting.getKey(), setting.getValue());
+            }
+        }
+        return container;
+    }
+
+    @Override
+    public boolean isSettingConfigured(Skill skill, SkillSetting setting) {
+        return isSettingConfigured(skill, setting.node());
+    }
+
+    @Override
+    public boolean isSettingConfigured(Skill skill, DataQuery setting) {
+        return getSnapshot().get(skill.getName(), null, setting).isPresent();
+    }
+
+    @Override
+    public Object getRawSetting(Skill skill, SkillSetting setting) {
+        return getRawSetting(skill, setting.node());
+    }
+
+    @Override
+    public Object getRawSetting(Skill skill, DataQuery setting) {
+        return getSnapshot().get(skill.getName(), null, setting)
+                .orElseThrow(() -> CompiledSkillSettings.notConfigured(setting, skill));
+    }
+
+    @Override
+    public Object getSetting(Role role, Skill skill, SkillSetting setting) {
+        return getSetting(role, skill, setting.node());
+    }
+
+    @Override
+    public Object getSetting(Role role, Skill skill, DataQuery setting) {
+        return getSnapshot().get(skill.getName(), role.getName(), setting)
+                .orElseThrow(() -> CompiledSkillSettings.notConfigured(setting, skill));
+    }
+
+    @Override
+    public int getRawIntSetting(Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getRawCompiledSettings(skill);
+        return settings.isConfigured(setting) ? settings.getInt(setting)
+                : getRawIntSetting(skill, setting.node());
+    }
+
+    @Override
+    public int getRawIntSetting(Skill skill, DataQuery setting) {
+        return (int) CompiledSkillSettings.toDouble(getRawSetting(skill, setting), setting, skill);
+    }
+
+    @Override
+    public double getRawDoubleSetting(Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getRawCompiledSettings(skill);
+        return settings.isConfigured(setting) ? settings.getDouble(setting)
+                : getRawDoubleSetting(skill, setting.node());
+    }
+
+    @Override
+    public double getRawDoubleSetting(Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toDouble(getRawSetting(skill, setting), setting, skill);
+    }
+
+    @Override
+    public String getRawStringSetting(Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getRawCompiledSettings(skill);
+        return settings.isConfigured(setting) ? settings.getString(setting)
+                : getRawStringSetting(skill, setting.node());
+    }
+
+    @Override
+    public String getRawStringSetting(Skill skill, DataQuery setting) {
+        return getRawSetting(skill, setting).toString();
+    }
+
+    @Override
+    public Boolean getRawBooleanSetting(Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getRawCompiledSettings(skill);
+        return settings.isConfigured(setting) ? settings.getBoolean(setting)
+                : getRawBooleanSetting(skill, setting.node());
+    }
+
+    @Override
+    public Boolean getRawBooleanSetting(Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toBoolean(getRawSetting(skill, setting));
+    }
+
+    @Override
+    public List<String> getRawStringListSetting(Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getRawCompiledSettings(skill);
+        return settings.isConfigured(setting) ? settings.getStringList(setting)
+                : getRawStringListSetting(skill, setting.node());
+    }
+
+    @Override
+    public List<String> getRawStringListSetting(Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toStringList(
+                CompiledSkillSettings.toList(getRawSetting(skill, setting), setting, skill));
+    }
+
+    @Override
+    public ItemStack getRawItemStackSetting(Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getRawCompiledSettings(skill);
+        return settings.isConfigured(setting) ? settings.getItemStack(setting)
+                : getRawItemStackSetting(skill, setting.node());
+    }
+
+    @Override
+    public ItemStack getRawItemStackSetting(Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toItemStack(getRawSetting(skill, setting), setting, skill);
+    }
+
+    @Override
+    public int getIntSetting(Role role, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(skill, role, 0);
+        return settings.isConfigured(setting) ? settings.getInt(setting)
+                : getIntSetting(role, skill, setting.node());
+    }
+
+    @Override
+    public int getIntSetting(Role role, Skill skill, DataQuery setting) {
+        return (int) CompiledSkillSettings.toDouble(getSetting(role, skill, setting), setting,
+                                                    skill);
+    }
+
+    @Override
+    public double getDoubleSetting(Role role, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(skill, role, 0);
+        return settings.isConfigured(setting) ? settings.getDouble(setting)
+                : getDoubleSetting(role, skill, setting.node());
+    }
+
+    @Override
+    public double getDoubleSetting(Role role, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toDouble(getSetting(role, skill, setting), setting, skill);
+    }
+
+    @Override
+    public String getStringSetting(Role role, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(skill, role, 0);
+        return settings.isConfigured(setting) ? settings.getString(setting)
+                : getStringSetting(role, skill, setting.node());
+    }
+
+    @Override
+    public String getStringSetting(Role role, Skill skill, DataQuery setting) {
+        return getSetting(role, skill, setting).toString();
+    }
+
+    @Override
+    public Boolean getBooleanSetting(Role role, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(skill, role, 0);
+        return settings.isConfigured(setting) ? settings.getBoolean(setting)
+                : getBooleanSetting(role, skill, setting.node());
+    }
+
+    @Override
+    public Boolean getBooleanSetting(Role role, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toBoolean(getSetting(role, skill, setting));
+    }
+
+    @Override
+    public List<String> getStringListSetting(Role role, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(skill, role, 0);
+        return settings.isConfigured(setting) ? settings.getStringList(setting)
+                : getStringListSetting(role, skill, setting.node());
+    }
+
+    @Override
+    public List<String> getStringListSetting(Role role, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toStringList(
+                CompiledSkillSettings.toList(getSetting(role, skill, setting), setting, skill));
+    }
+
+    @Override
+    public ItemStack getItemStackSetting(Role role, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(skill, role, 0);
+        return settings.isConfigured(setting) ? settings.getItemStack(setting)
+                : getItemStackSetting(role, skill, setting.node());
+    }
+
+    @Override
+    public ItemStack getItemStackSetting(Role role, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toItemStack(getSetting(role, skill, setting), setting, skill);
+    }
+
+    @Override
+    public String getRawString(Skill skill, SkillSetting setting) {
+        return getRawStringSetting(skill, setting);
+    }
+
+    @Override
+    public String getRawString(Skill skill, DataQuery setting) {
+        return getRawStringSetting(skill, setting);
+    }
+
+    @Override
+    public Boolean getRawBoolean(Skill skill, SkillSetting setting) {
+        return getRawBooleanSetting(skill, setting);
+    }
+
+    @Override
+    public Boolean getRawBoolean(Skill skill, DataQuery setting) {
+        return getRawBooleanSetting(skill, setting);
+    }
+
+    @Override
+    public Set<DataQuery> getRawKeys(Skill skill, DataQuery setting) {
+        final List<String> parts = setting.getParts();
+        final Set<DataQuery> keys = Sets.newLinkedHashSet();
+        for (DataQuery query : getSnapshot().getDefaults(skill.getName())
+                .orElse(ImmutableMap.of()).keySet()) {
+            final List<String> queryParts = query.getParts();
+            if (queryParts.size() > parts.size()
+                    && queryParts.subList(0, parts.size()).equals(parts)) {
+                keys.add(DataQuery.of(queryParts.get(parts.size())));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the defaults of the skill compiled without a role. Numeric settings read from it are
+     * not scaled.
+     */
+    private CompiledSkillSettings getRawCompiledSettings(Skill skill) {
+        return getCompiledSettings(skill, null, 0);
+    }
+
+    /**
+     * Gets the settings of the skill compiled for the given role and level.
+     *
+     * @param skill The skill
+     * @param role  The role granting the skill, or null for the skill defaults
+     * @param level The level of the skill's user
+     *
+     * @return The compiled settings
+     */
+    public CompiledSkillSettings getCompiledSettings(Skill skill, @Nullable Role role, int level) {
+        checkNotNull(skill);
+        checkArgument(level >= 0, "The level cannot be negative!");
+        final State state = this.state.get();
+        final CompiledSkill compiledSkill = state.compiled.computeIfAbsent(skill,
+                key -> new CompiledSkill(layout(key)));
+        final AtomicReferenceArray<CompiledSkillSettings> levels = compiledSkill.byRole
+                .computeIfAbsent(role == null ? "" : role.getName(), name ->
+                        new AtomicReferenceArray<>(role == null ? UNGRANTED_LEVELS
+                                                                : role.getMaxLevel() + 1));
+        if (level >= levels.length()) {
+            return compile(state, skill, role, level, compiledSkill.layout);
+        }
+        CompiledSkillSettings settings = levels.get(level);
+        if (settings == null) {
+            // Racing compilations produce equal settings, so either one may win
+            settings = compile(state, skill, role, level, compiledSkill.layout);
+            levels.set(level, settings);
+        }
+        return settings;
+    }
+
+    /**
+     * Gets the settings of the skill as used by the given caster, including any temporary
+     * configuration of the caster for the skill.
+     *
+     * @param caster The caster
+     * @param skill  The skill
+     *
+     * @return The compiled settings
+     */
+    public CompiledSkillSettings getCompiledSettings(SkillCaster caster, Skill skill) {
+        final Role role = getUsedRole(caster, skill).orElse(null);
+        final int level = Math.max(0, getLevel(caster, skill));
+        final CompiledSkillSettings stored = getCompiledSettings(skill, role, level);
+        final Optional<TemporaryLayer> temporary = this.temporary.get(caster, skill);
+        return temporary.isPresent() ? temporary.get().compileOver(stored) : stored;
+    }
+
+    @Override
+    public ScalingCurve getRawScalingCurve(Skill skill, SkillSetting setting) {
+        return getScalingCurve(this.state.get(), skill, null, setting);
+    }
+
+    @Override
+    public ScalingCurve getScalingCurve(Role role, Skill skill, SkillSetting setting) {
+        return getScalingCurve(this.state.get(), skill, checkNotNull(role), setting);
+    }
+
+    /**
+     * Gets the curve of a scaling setting as used by the caster. Temporary configurations of the
+     * caster are applied to a curve of its own, which is not cached.
+     *
+     * @param caster  The caster
+     * @param skill   The skill
+     * @param setting The scaling setting
+     *
+     * @return The curve of the setting
+     */
+    @Override
+    public ScalingCurve getUsedScalingCurve(SkillCaster caster, Skill skill,
+                                            SkillSetting setting) {
+        final State state = this.state.get();
+        final Role role = getUsedRole(caster, skill).orElse(null);
+        final Optional<TemporaryLayer> temporary = this.temporary.get(caster, skill);
+        if (!temporary.isPresent()) {
+            return getScalingCurve(state, skill, role, setting);
+        }
+        final Function<DataQuery, Optional<Object>> stored = resolver(state.snapshot, skill, role);
+        return createCurve(query -> {
+            final Optional<Object> value = temporary.get().get(query);
+            return value.isPresent() ? value : stored.apply(query);
+        }, skill, role, setting);
+    }
+
+    private ScalingCurve getScalingCurve(State state, Skill skill, @Nullable Role role,
+                                         SkillSetting setting) {
+        checkNotNull(skill);
+        checkNotNull(setting);
+        final CompiledSkill compiledSkill = state.compiled.computeIfAbsent(skill,
+                key -> new CompiledSkill(layout(key)));
+        final int slot = compiledSkill.layout.slot(setting.getId());
+        if (slot < 0) {
+            return createCurve(resolver(state.snapshot, skill, role), skill, role, setting);
+        }
+        final AtomicReferenceArray<ScalingCurve> curves = compiledSkill.curves
+                .computeIfAbsent(role == null ? "" : role.getName(),
+                                 name -> new AtomicReferenceArray<>(compiledSkill.layout.size()));
+        ScalingCurve curve = curves.get(slot);
+        if (curve == null) {
+            curve = createCurve(resolver(state.snapshot, skill, role), skill, role, setting);
+            curves.set(slot, curve);
+        }
+        return curve;
+    }
+
+    private static ScalingCurve createCurve(Function<DataQuery, Optional<Object>> resolver,
+                                            Skill skill, @Nullable Role role,
+                                            SkillSetting setting) {
+        final Object base = resolver.apply(setting.node())
+                .orElseThrow(() -> CompiledSkillSettings.notConfigured(setting, skill));
+        final Optional<Object> perLevel = setting.scalingNode().flatMap(resolver);
+        final Optional<Object> type = setting.curveNode().flatMap(resolver);
+        return ScalingCurve.create(
+                type.isPresent() ? ScalingCurve.Type.fromName(type.get().toString())
+                                 : ScalingCurve.Type.LINEAR,
+                CompiledSkillSettings.toDouble(base, setting, skill),
+                perLevel.isPresent()
+                        ? CompiledSkillSettings.toDouble(perLevel.get(), setting, skill) : 0,
+                role == null ? UNGRANTED_LEVELS - 1 : role.getMaxLevel());
+    }
+
+    /**
+     * Gets the role whose configuration applies when the caster uses the skill. This is the
+     * first of the caster's primary, secondary and additional roles granting the skill.
+     *
+     * @param caster The caster
+     * @param skill  The skill
+     *
+     * @return The role granting the skill, if any
+     */
+    protected Optional<Role> getUsedRole(SkillCaster caster, Skill skill) {
+        final Optional<Role> primary = caster.get(RpgKeys.PRIMARY_ROLE);
+        if (primary.isPresent() && grants(primary.get(), skill)) {
+            return primary;
+        }
+        final Optional<Role> secondary = caster.get(RpgKeys.SECONDARY_ROLE);
+        if (secondary.isPresent() && grants(secondary.get(), skill)) {
+            return secondary;
+        }
+        final Optional<List<Role>> additional = caster.get(RpgKeys.ADDITIONAL_ROLES);
+        if (additional.isPresent()) {
+            for (Role role : additional.get()) {
+                if (grants(role, skill)) {
+                    return Optional.of(role);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static boolean grants(Role role, Skill skill) {
+        final Optional<SkillAspect> aspect = role.getAspect(SkillAspect.class);
+        return aspect.isPresent() && aspect.get().hasSkill(skill);
+    }
+
+    private static CompiledSkillSettings compile(State state, Skill skill, @Nullable Role role,
+                                                 int level, SettingLayout layout) {
+        return CompiledSkillSettings.compile(resolver(state.snapshot, skill, role), skill, role,
+                                             level, layout);
+    }
+
+    private static Function<DataQuery, Optional<Object>> resolver(SkillConfigSnapshot snapshot,
+                                                                  Skill skill,
+                                                                  @Nullable Role role) {
+        final String roleName = role == null ? null : role.getName();
+        return query -> snapshot.get(skill.getName(), roleName, query);
+    }
+
+    private Object resolveUsed(SkillCaster caster, Skill skill, DataQuery setting) {
+        // Queries naming a compiled setting, such as scaling nodes, are read from the table
+        final OptionalInt id = SkillSettingRegistry.getId(setting);
+        if (id.isPresent()) {
+            final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+            final int slot = settings.slotOf(id.getAsInt());
+            if (slot >= 0) {
+                return settings.getSlot(slot);
+            }
+        }
+        final Optional<TemporaryLayer> temporary = this.temporary.get(caster, skill);
+        if (temporary.isPresent()) {
+            final Optional<Object> value = temporary.get().get(setting);
+            if (value.isPresent()) {
+                return value.get();
+            }
+        }
+        final Optional<Role> role = getUsedRole(caster, skill);
+        return getSnapshot().get(skill.getName(), role.isPresent() ? role.get().getName() : null,
+                                 setting)
+                .orElseThrow(() -> CompiledSkillSettings.notConfigured(setting, skill));
+    }
+
+    @Override
+    public void addTemporarySkillConfigurations(Skill skill, SkillCaster caster,
+                                                DataView section) {
+        checkNotNull(skill, "Cannot add temporary configurations for a null skill!");
+        checkNotNull(caster, "Cannot add temporary configurations for a null caster!");
+        checkArgument(!checkNotNull(section).getKeys(false).isEmpty(),
+                      "Cannot add empty temporary configurations!");
+        this.temporary.add(caster, skill, section);
+    }
+
+    @Override
+    public void clearTemporarySkillConfigurations(SkillCaster caster) {
+        this.temporary.clear(caster);
+    }
+
+    @Override
+    public void clearTemporarySkillConfigurations(SkillCaster caster, Skill skill) {
+        this.temporary.clear(caster, skill);
+    }
+
+    @Override
+    public Object getUsedSetting(SkillCaster caster, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.get(setting)
+                : getUsedSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public Object getUsedSetting(SkillCaster caster, Skill skill, DataQuery setting) {
+        return resolveUsed(caster, skill, setting);
+    }
+
+    @Override
+    public int getUsedIntSetting(SkillCaster caster, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.getInt(setting)
+                : getUsedIntSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public int getUsedIntSetting(SkillCaster caster, Skill skill, DataQuery setting) {
+        return (int) CompiledSkillSettings.toDouble(resolveUsed(caster, skill, setting),
+                                                    setting, skill);
+    }
+
+    @Override
+    public double getUsedDoubleSetting(SkillCaster caster, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.getDouble(setting)
+                : getUsedDoubleSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public double getUsedDoubleSetting(SkillCaster caster, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toDouble(resolveUsed(caster, skill, setting), setting,
+                                              skill);
+    }
+
+    @Override
+    public boolean getUsedBooleanSetting(SkillCaster caster, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.getBoolean(setting)
+                : getUsedBooleanSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public boolean getUsedBooleanSetting(SkillCaster caster, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toBoolean(resolveUsed(caster, skill, setting));
+    }
+
+    @Override
+    public String getUsedStringSetting(SkillCaster caster, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.getString(setting)
+                : getUsedStringSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public String getUsedStringSetting(SkillCaster caster, Skill skill, DataQuery setting) {
+        return resolveUsed(caster, skill, setting).toString();
+    }
+
+    @Override
+    public List<?> getUsedListSetting(SkillCaster caster, Skill skill, SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.getList(setting)
+                : getUsedListSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public List<?> getUsedListSetting(SkillCaster caster, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toList(resolveUsed(caster, skill, setting), setting, skill);
+    }
+
+    @Override
+    public List<String> getUsedStringListSetting(SkillCaster caster, Skill skill,
+                                                 SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.getStringList(setting)
+                : getUsedStringListSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public List<String> getUsedStringListSetting(SkillCaster caster, Skill skill,
+                                                 DataQuery setting) {
+        return CompiledSkillSettings.toStringList(getUsedListSetting(caster, skill, setting));
+    }
+
+    @Override
+    public ItemStack getUsedItemStackSetting(SkillCaster caster, Skill skill,
+                                             SkillSetting setting) {
+        final CompiledSkillSettings settings = getCompiledSettings(caster, skill);
+        return settings.isConfigured(setting) ? settings.getItemStack(setting)
+                : getUsedItemStackSetting(caster, skill, setting.node());
+    }
+
+    @Override
+    public ItemStack getUsedItemStackSetting(SkillCaster caster, Skill skill, DataQuery setting) {
+        return CompiledSkillSettings.toItemStack(resolveUsed(caster, skill, setting), setting,
+                                                 skill);
+    }
+
+    /**
+     * A snapshot with the settings compiled from it.
+     */
+    private static final class State {
+
+        final SkillConfigSnapshot snapshot;
+        final ConcurrentMap<Skill, CompiledSkill> compiled = new ConcurrentHashMap<>();
+
+        State(SkillConfigSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * The compiled settings of one skill, by role name and level.
+     */
+    private static final class CompiledSkill {
+
+        final SettingLayout layout;
+        final ConcurrentMap<String, AtomicReferenceArray<CompiledSkillSettings>> byRole =
+                new ConcurrentHashMap<>();
+        final ConcurrentMap<String, AtomicReferenceArray<ScalingCurve>> curves =
+                new ConcurrentHashMap<>();
+
+        CompiledSkill(SettingLayout layout) {
+            this.layout = layout;
+        }
+    }
+}
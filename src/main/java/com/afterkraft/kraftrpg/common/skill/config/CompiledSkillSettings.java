@@ -0,0 +1,346 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.function.Function;
+
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.item.inventory.ItemStack;
+
+import com.google.common.collect.ImmutableList;
+
+import com.afterkraft.kraftrpg.api.role.Role;
+import com.afterkraft.kraftrpg.api.skill.Skill;
+import com.afterkraft.kraftrpg.api.skill.SkillConfigurationException;
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+import com.afterkraft.kraftrpg.api.skill.SkillSettingRegistry;
+
+/**
+ * The settings of a {@link Skill} resolved once for a {@link Role} and level. Every setting the
+ * skill uses is looked up in the role and default configurations when compiling, so reading a
+ * setting afterwards is an array access by the setting's id without boxing. Numeric settings
+ * with a scaling node are additionally stored with the per-level scaling applied. Values are
+ * converted to the {@link SettingType} of their setting when compiled.
+ *
+ * <p>Compiled settings are immutable and go stale when the configuration changes, after which
+ * the {@link AbstractSkillConfigManager} compiles them again.</p>
+ */
+public final class CompiledSkillSettings {
+
+    private final Skill skill;
+    @Nullable private final Role role;
+    private final int level;
+    private final SettingLayout layout;
+    @Nullable private final CompiledSkillSettings base;
+    private final Object[] values;
+    private final double[] numbers;
+    private final double[] scaled;
+
+    private CompiledSkillSettings(Skill skill, @Nullable Role role, int level,
+                                  SettingLayout layout) {
+        this.skill = skill;
+        this.role = role;
+        this.level = level;
+        this.layout = layout;
+        this.base = null;
+        this.values = new Object[layout.size()];
+        this.numbers = new double[layout.size()];
+        this.scaled = new double[layout.size()];
+    }
+
+    private CompiledSkillSettings(CompiledSkillSettings base) {
+        this.skill = base.skill;
+        this.role = base.role;
+        this.level = base.level;
+        this.layout = base.layout;
+        this.base = base;
+        this.values = base.values.clone();
+        this.numbers = base.numbers.clone();
+        this.scaled = new double[base.scaled.length];
+    }
+
+    /**
+     * Resolves every setting in the given layout.
+     *
+     * @param resolver Looks up the configured value of a query, if any
+     * @param skill    The skill to compile the settings of
+     * @param role     The role granting the skill, or null for the skill defaults
+     * @param level    The level to apply scaling settings at
+     * @param layout   The slots of the settings used by the skill
+     *
+     * @return The compiled settings
+     */
+    static CompiledSkillSettings compile(Function<DataQuery, Optional<Object>> resolver,
+                                         Skill skill, @Nullable Role role, int level,
+                                         SettingLayout layout) {
+        final CompiledSkillSettings compiled =
+                new CompiledSkillSettings(skill, role, level, layout);
+        for (int slot = 0; slot < layout.size(); slot++) {
+            compiled.put(slot, resolver.apply(layout.getQuery(slot)).orElse(null));
+        }
+        compiled.scale();
+        return compiled;
+    }
+
+    /**
+     * Stores a configured value in its slot, converted to the type of the setting. Values of the
+     * wrong type are kept as they are, failing when read as that type.
+     */
+    private void put(int slot, @Nullable Object value) {
+        final Object normalized = value == null ? null : this.layout.getType(slot).normalize(value);
+        this.values[slot] = normalized == null ? value : normalized;
+        final Object number = normalized instanceof Number ? normalized : value;
+        this.numbers[slot] = number instanceof Number
+                ? ((Number) number).doubleValue() : Double.NaN;
+    }
+
+    private void scale() {
+        for (int slot = 0; slot < this.layout.size(); slot++) {
+            final int scalingSlot = this.layout.getScalingSlot(slot);
+            final double perLevel = scalingSlot < 0 || Double.isNaN(this.numbers[scalingSlot])
+                    ? 0 : this.numbers[scalingSlot];
+            this.scaled[slot] = this.numbers[slot] + perLevel * this.level;
+        }
+    }
+
+    /**
+     * Creates a copy of these settings with the given values taking precedence. Values of nodes
+     * the skill does not declare are ignored.
+     *
+     * @param overrides The values by node
+     *
+     * @return The overridden settings
+     */
+    CompiledSkillSettings override(Map<DataQuery, Object> overrides) {
+        final CompiledSkillSettings overridden = new CompiledSkillSettings(getBase());
+        for (Map.Entry<DataQuery, Object> entry : overrides.entrySet()) {
+            final OptionalInt id = SkillSettingRegistry.getId(entry.getKey());
+            final int slot = id.isPresent() ? this.layout.slot(id.getAsInt()) : -1;
+            if (slot >= 0) {
+                overridden.put(slot, entry.getValue());
+            }
+        }
+        overridden.scale();
+        return overridden;
+    }
+
+    /**
+     * Gets the settings compiled from the stored configurations these settings were derived
+     * from, which is this unless temporary configurations were applied.
+     *
+     * @return The stored settings
+     */
+    CompiledSkillSettings getBase() {
+        return this.base == null ? this : this.base;
+    }
+
+    public Skill getSkill() {
+        return this.skill;
+    }
+
+    public Optional<Role> getRole() {
+        return Optional.ofNullable(this.role);
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Checks whether the given setting is used by the skill and configured.
+     *
+     * @param setting The setting to check
+     *
+     * @return True if the setting has a value
+     */
+    public boolean isConfigured(SkillSetting setting) {
+        return slotOf(setting.getId()) >= 0;
+    }
+
+    /**
+     * Gets the configured value of the setting.
+     *
+     * @param setting The setting
+     *
+     * @return The configured value
+     * @throws SkillConfigurationException If the setting is not configured
+     */
+    public Object get(SkillSetting setting) {
+        return this.values[slot(setting)];
+    }
+
+    /**
+     * Gets the configured value of a numeric setting, without scaling.
+     *
+     * @param setting The setting
+     *
+     * @return The configured value
+     * @throws SkillConfigurationException If the setting is not configured or not a number
+     */
+    public double getDouble(SkillSetting setting) {
+        return number(this.numbers, setting);
+    }
+
+    /**
+     * Gets the configured value of a numeric setting, without scaling, as an integer.
+     *
+     * @param setting The setting
+     *
+     * @return The configured value
+     * @throws SkillConfigurationException If the setting is not configured or not a number
+     */
+    public int getInt(SkillSetting setting) {
+        return (int) number(this.numbers, setting);
+    }
+
+    /**
+     * Gets the value of a numeric setting with its per-level scaling applied at the compiled
+     * level. Settings without a scaling node return their configured value.
+     *
+     * @param setting The setting
+     *
+     * @return The scaled value
+     * @throws SkillConfigurationException If the setting is not configured or not a number
+     */
+    public double getScaledDouble(SkillSetting setting) {
+        return number(this.scaled, setting);
+    }
+
+    public boolean getBoolean(SkillSetting setting) {
+        return toBoolean(get(setting));
+    }
+
+    public String getString(SkillSetting setting) {
+        return get(setting).toString();
+    }
+
+    public List<?> getList(SkillSetting setting) {
+        return toList(get(setting), setting, this.skill);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> getStringList(SkillSetting setting) {
+        final int slot = slot(setting);
+        if (this.layout.getType(slot) == SettingType.STRING_LIST
+                && this.values[slot] instanceof List) {
+            // Converted when compiled
+            return (List<String>) this.values[slot];
+        }
+        return toStringList(toList(this.values[slot], setting, this.skill));
+    }
+
+    /**
+     * Gets a copy of the configured item stack.
+     *
+     * @param setting The setting
+     *
+     * @return A copy of the item stack
+     * @throws SkillConfigurationException If the setting is not configured or not an item
+     */
+    public ItemStack getItemStack(SkillSetting setting) {
+        return toItemStack(get(setting), setting, this.skill);
+    }
+
+    static double toDouble(Object value, Object setting, Skill skill) {
+        final Object number = SettingType.NUMBER.normalize(value);
+        if (number == null) {
+            throw notOfType(setting, skill, "number");
+        }
+        return ((Number) number).doubleValue();
+    }
+
+    static boolean toBoolean(Object value) {
+        return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString());
+    }
+
+    static List<?> toList(Object value, Object setting, Skill skill) {
+        if (!(value instanceof List)) {
+            throw notOfType(setting, skill, "list");
+        }
+        return (List<?>) value;
+    }
+
+    static List<String> toStringList(List<?> list) {
+        final ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (Object element : list) {
+            builder.add(element.toString());
+        }
+        return builder.build();
+    }
+
+    static ItemStack toItemStack(Object value, Object setting, Skill skill) {
+        if (!(value instanceof ItemStack)) {
+            throw notOfType(setting, skill, "item");
+        }
+        return ((ItemStack) value).copy();
+    }
+
+    static SkillConfigurationException notConfigured(Object setting, Skill skill) {
+        return new SkillConfigurationException("The setting " + setting + " is not configured"
+                + " for " + skill.getName());
+    }
+
+    /**
+     * Gets the slot holding the value of the node with the given id.
+     *
+     * @param id The id of the node in the {@link SkillSettingRegistry}
+     *
+     * @return The slot, or -1 if the node is not compiled or not configured
+     */
+    int slotOf(int id) {
+        final int slot = this.layout.slot(id);
+        return slot >= 0 && this.values[slot] != null ? slot : -1;
+    }
+
+    Object getSlot(int slot) {
+        return this.values[slot];
+    }
+
+    private double number(double[] numbers, SkillSetting setting) {
+        final int slot = slot(setting);
+        if (Double.isNaN(numbers[slot])) {
+            throw notOfType(setting, this.skill, "number");
+        }
+        return numbers[slot];
+    }
+
+    private int slot(SkillSetting setting) {
+        final int slot = slotOf(setting.getId());
+        if (slot < 0) {
+            throw notConfigured(setting, this.skill);
+        }
+        return slot;
+    }
+
+    private static SkillConfigurationException notOfType(Object setting, Skill skill,
+                                                         String type) {
+        return new SkillConfigurationException("The setting " + setting + " of "
+                + skill.getName() + " is not a " + type);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+
+import com.afterkraft.kraftrpg.api.skill.ScalingCurve;
+import com.afterkraft.kraftrpg.api.skill.Skill;
+import com.afterkraft.kraftrpg.api.skill.SkillConfigurationException;
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+import com.afterkraft.kraftrpg.api.skill.SkillSettingRegistry;
+
+/**
+ * The slots of a skill's settings in its {@link CompiledSkillSettings}. Every declared setting,
+ * and the scaling node of a scaling setting, gets a slot, found by the id of its node in the
+ * {@link SkillSettingRegistry}. One layout is shared by every compiled table of the skill.
+ *
+ * <p>The layout is also the schema of the skill's configuration: each slot has the {@link
+ * SettingType} its values are checked against and converted to.</p>
+ */
+final class SettingLayout {
+
+    private final int[] slotsById;
+    private final DataQuery[] queries;
+    private final int[] scalingSlots;
+    private final SettingType[] types;
+    private final boolean[] declared;
+    private final DataQuery[] curveQueries;
+
+    SettingLayout(Skill skill) {
+        final Collection<SkillSetting> declaredSettings = skill.getUsedConfigNodes();
+        final List<SkillSetting> settings = Lists.newArrayList(declaredSettings);
+        settings.addAll(SkillSetting.AUTOMATIC_SETTINGS);
+        final List<Integer> ids = Lists.newArrayList();
+        final List<SkillSetting> slotSettings = Lists.newArrayList();
+        for (SkillSetting setting : settings) {
+            if (!ids.contains(setting.getId())) {
+                ids.add(setting.getId());
+                slotSettings.add(setting);
+            }
+        }
+        for (SkillSetting setting : slotSettings) {
+            if (setting.getScalingId() >= 0 && !ids.contains(setting.getScalingId())) {
+                ids.add(setting.getScalingId());
+            }
+        }
+
+        final DataView defaults = skill.getDefaultConfig();
+        this.slotsById = new int[Ints.max(Ints.toArray(ids)) + 1];
+        Arrays.fill(this.slotsById, -1);
+        this.queries = new DataQuery[ids.size()];
+        this.scalingSlots = new int[ids.size()];
+        this.types = new SettingType[ids.size()];
+        this.declared = new boolean[ids.size()];
+        for (int slot = 0; slot < ids.size(); slot++) {
+            this.slotsById[ids.get(slot)] = slot;
+            this.queries[slot] = SkillSettingRegistry.getQuery(ids.get(slot));
+        }
+        final List<DataQuery> curves = Lists.newArrayList();
+        for (int slot = 0; slot < ids.size(); slot++) {
+            final SkillSetting setting = slot < slotSettings.size() ? slotSettings.get(slot) : null;
+            final int scalingId = setting == null ? -1 : setting.getScalingId();
+            this.scalingSlots[slot] = scalingId >= 0 ? this.slotsById[scalingId] : -1;
+            this.types[slot] = SettingType.of(setting, defaults.get(this.queries[slot]));
+            this.declared[slot] = setting != null && declaredSettings.contains(setting);
+            if (this.declared[slot] && setting.curveNode().isPresent()) {
+                curves.add(setting.curveNode().get());
+            }
+        }
+        this.curveQueries = curves.toArray(new DataQuery[curves.size()]);
+    }
+
+    int size() {
+        return this.queries.length;
+    }
+
+    /**
+     * Gets the slot of the node with the given id.
+     *
+     * @return The slot, or -1 if the node has none
+     */
+    int slot(int id) {
+        return id >= 0 && id < this.slotsById.length ? this.slotsById[id] : -1;
+    }
+
+    DataQuery getQuery(int slot) {
+        return this.queries[slot];
+    }
+
+    SettingType getType(int slot) {
+        return this.types[slot];
+    }
+
+    /**
+     * Checks configured values against the type of every setting in this layout. Declared
+     * settings must be configured if the values are a skill's defaults.
+     *
+     * @param skillName The name of the skill, for the messages
+     * @param source    Where the values are configured, for the messages
+     * @param values    The configured values by node
+     * @param defaults  Whether the values are the skill's defaults
+     * @param errors    The list to add a message to for every invalid value
+     */
+    void validate(String skillName, String source, Map<DataQuery, Object> values,
+                  boolean defaults, List<String> errors) {
+        for (int slot = 0; slot < this.queries.length; slot++) {
+            final Object value = values.get(this.queries[slot]);
+            if (value == null) {
+                if (defaults && this.declared[slot]) {
+                    errors.add(skillName + ": " + this.queries[slot] + " is not configured in "
+                                       + source);
+                }
+            } else if (this.types[slot].normalize(value) == null) {
+                errors.add(skillName + ": " + this.queries[slot] + " in " + source + " must be "
+                                   + this.types[slot] + ", but is " + value);
+            }
+        }
+        for (DataQuery curve : this.curveQueries) {
+            final Object value = values.get(curve);
+            if (value != null) {
+                try {
+                    ScalingCurve.Type.fromName(value.toString());
+                } catch (SkillConfigurationException e) {
+                    errors.add(skillName + ": " + curve + " in " + source + " must name a "
+                                       + "scaling curve, but is " + value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the slot of the scaling node of the setting in the given slot.
+     *
+     * @return The slot of the scaling node, or -1 if the setting does not scale
+     */
+    int getScalingSlot(int slot) {
+        return this.scalingSlots[slot];
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Optional;
+
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.item.inventory.ItemStack;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Doubles;
+
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+
+/**
+ * The type of value a skill setting holds. Configured values are checked against the type of
+ * their setting when loaded, and converted to the form the {@link CompiledSkillSettings}
+ * accessors return, so reading a setting during a cast does not parse it again.
+ */
+enum SettingType {
+    /**
+     * A number, or a string holding one.
+     */
+    NUMBER("a number") {
+        @Nullable
+        @Override
+        Object normalize(Object value) {
+            if (value instanceof Number) {
+                return value;
+            }
+            return value instanceof String ? Doubles.tryParse(((String) value).trim()) : null;
+        }
+    },
+    /**
+     * A boolean, or the string "true" or "false".
+     */
+    BOOLEAN("a boolean") {
+        @Nullable
+        @Override
+        Object normalize(Object value) {
+            if (value instanceof Boolean) {
+                return value;
+            }
+            if ("true".equalsIgnoreCase(value.toString())) {
+                return Boolean.TRUE;
+            }
+            return "false".equalsIgnoreCase(value.toString()) ? Boolean.FALSE : null;
+        }
+    },
+    /**
+     * Text, or any other single value used as text.
+     */
+    STRING("a string") {
+        @Nullable
+        @Override
+        Object normalize(Object value) {
+            return value instanceof List || value instanceof DataView || value instanceof ItemStack
+                    ? null : value.toString();
+        }
+    },
+    /**
+     * A list whose elements are used as text.
+     */
+    STRING_LIST("a list") {
+        @Nullable
+        @Override
+        Object normalize(Object value) {
+            if (!(value instanceof List)) {
+                return null;
+            }
+            return CompiledSkillSettings.toStringList((List<?>) value);
+        }
+    },
+    /**
+     * A list of any values.
+     */
+    LIST("a list") {
+        @Nullable
+        @Override
+        Object normalize(Object value) {
+            return value instanceof List ? ImmutableList.copyOf((List<?>) value) : null;
+        }
+    },
+    /**
+     * An item stack.
+     */
+    ITEM("an item") {
+        @Nullable
+        @Override
+        Object normalize(Object value) {
+            return value instanceof ItemStack ? value : null;
+        }
+    },
+    /**
+     * Any value, for settings whose type is not known.
+     */
+    ANY("any value") {
+        @Override
+        Object normalize(Object value) {
+            return value;
+        }
+    };
+
+    private final String description;
+
+    SettingType(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Gets the type of a setting, preferably from the value the skill gives it by default and
+     * otherwise from the setting sets declared by {@link SkillSetting}.
+     *
+     * @param setting      The setting, or null for a scaling node
+     * @param defaultValue The skill's default value of the setting, if any
+     *
+     * @return The type of the setting
+     */
+    static SettingType of(@Nullable SkillSetting setting, Optional<Object> defaultValue) {
+        if (defaultValue.isPresent()) {
+            final Object value = defaultValue.get();
+            if (value instanceof Number) {
+                return NUMBER;
+            } else if (value instanceof Boolean) {
+                return BOOLEAN;
+            } else if (value instanceof String) {
+                return STRING;
+            } else if (value instanceof List) {
+                // An empty list says nothing about its elements
+                final List<?> list = (List<?>) value;
+                return !list.isEmpty() && list.stream().allMatch(String.class::isInstance)
+                        ? STRING_LIST : LIST;
+            } else if (value instanceof ItemStack) {
+                return ITEM;
+            }
+            return ANY;
+        }
+        if (setting == null || setting.scalingNode().isPresent()) {
+            return NUMBER;
+        } else if (SkillSetting.BOOLEAN_SETTINGS.contains(setting)) {
+            return BOOLEAN;
+        } else if (SkillSetting.STRING_SETTINGS.contains(setting)) {
+            return STRING;
+        } else if (SkillSetting.LIST_SETTINGS.contains(setting)) {
+            return STRING_LIST;
+        }
+        return ANY;
+    }
+
+    /**
+     * Converts a configured value to the form of this type.
+     *
+     * @param value The configured value
+     *
+     * @return The converted value, or null if the value is not of this type
+     */
+    @Nullable
+    abstract Object normalize(Object value);
+
+    @Override
+    public String toString() {
+        return this.description;
+    }
+}
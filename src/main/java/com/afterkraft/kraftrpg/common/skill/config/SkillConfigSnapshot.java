@@ -0,0 +1,361 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import javax.annotation.Nullable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+
+/**
+ * An immutable copy of every stored skill configuration: the defaults of each skill and the
+ * settings roles define for it. An {@link AbstractSkillConfigManager} reads settings from one
+ * snapshot at a time and replaces it as a whole, so a reload never exposes half of the new
+ * configuration. Skill and role names are matched ignoring case.
+ */
+public final class SkillConfigSnapshot {
+
+    /**
+     * A snapshot without any configuration.
+     */
+    public static final SkillConfigSnapshot EMPTY = builder().build();
+
+    private final ImmutableMap<String, ImmutableMap<DataQuery, Object>> defaults;
+    private final ImmutableTable<String, String, ImmutableMap<DataQuery, Object>> roleSettings;
+
+    private SkillConfigSnapshot(Builder builder) {
+        this.defaults = ImmutableMap.copyOf(builder.defaults);
+        this.roleSettings = ImmutableTable.copyOf(builder.roleSettings);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the leaf values of the view by their full path.
+     *
+     * @param view The view
+     *
+     * @return The leaf values
+     */
+    static ImmutableMap<DataQuery, Object> flatten(DataView view) {
+        final ImmutableMap.Builder<DataQuery, Object> values = ImmutableMap.builder();
+        for (Map.Entry<DataQuery, Object> entry : view.getValues(true).entrySet()) {
+            if (!(entry.getValue() instanceof DataView)) {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return values.build();
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Gets the value of a setting, preferring the role's settings over the skill's defaults.
+     *
+     * @param skillName The name of the skill
+     * @param roleName  The name of the role, or null for the defaults only
+     * @param query     The setting
+     *
+     * @return The value, if configured
+     */
+    public Optional<Object> get(String skillName, @Nullable String roleName, DataQuery query) {
+        final String skill = key(skillName);
+        if (roleName != null) {
+            final Map<DataQuery, Object> role = this.roleSettings.get(key(roleName), skill);
+            if (role != null && role.containsKey(query)) {
+                return Optional.of(role.get(query));
+            }
+        }
+        final Map<DataQuery, Object> defaults = this.defaults.get(skill);
+        return defaults == null ? Optional.empty() : Optional.ofNullable(defaults.get(query));
+    }
+
+    /**
+     * Gets the names of the skills with stored defaults.
+     *
+     * @return The skill names, in lower case
+     */
+    public Set<String> getSkillNames() {
+        return this.defaults.keySet();
+    }
+
+    /**
+     * Gets the stored defaults of a skill.
+     *
+     * @param skillName The name of the skill
+     *
+     * @return The defaults by their full path, if stored
+     */
+    public Optional<ImmutableMap<DataQuery, Object>> getDefaults(String skillName) {
+        return Optional.ofNullable(this.defaults.get(key(skillName)));
+    }
+
+    /**
+     * Gets the settings every role defines for a skill, by role name.
+     *
+     * @param skillName The name of the skill
+     *
+     * @return The settings of each role, by their full path
+     */
+    public Map<String, ImmutableMap<DataQuery, Object>> getSkillSettings(String skillName) {
+        return this.roleSettings.column(key(skillName));
+    }
+
+    /**
+     * Gets the settings the role defines, by skill name.
+     *
+     * @param roleName The name of the role
+     *
+     * @return The settings of each skill, by their full path
+     */
+    public Map<String, ImmutableMap<DataQuery, Object>> getRoleSettings(String roleName) {
+        return this.roleSettings.row(key(roleName));
+    }
+
+    /**
+     * Creates a copy of this snapshot with the defaults of one skill replaced.
+     *
+     * @param skillName The name of the skill
+     * @param defaults  The new defaults
+     *
+     * @return The new snapshot
+     */
+    public SkillConfigSnapshot withDefaults(String skillName, DataView defaults) {
+        return toBuilder().setDefaults(skillName, defaults).build();
+    }
+
+    /**
+     * Creates a copy of this snapshot with the settings a role defines for one skill replaced.
+     *
+     * @param roleName  The name of the role
+     * @param skillName The name of the skill
+     * @param settings  The new settings
+     *
+     * @return The new snapshot
+     */
+    public SkillConfigSnapshot withRoleSettings(String roleName, String skillName,
+                                                DataView settings) {
+        return toBuilder().setRoleSettings(roleName, skillName, settings).build();
+    }
+
+    /**
+     * Creates a copy of this snapshot with the values of the given one laid over it. A skill's
+     * defaults and the settings a role defines for it are merged setting by setting, preferring
+     * the given snapshot.
+     *
+     * @param over The snapshot whose values take precedence
+     *
+     * @return The merged snapshot
+     */
+    public SkillConfigSnapshot overlay(SkillConfigSnapshot over) {
+        final Builder builder = toBuilder();
+        for (Map.Entry<String, ImmutableMap<DataQuery, Object>> entry
+                : over.defaults.entrySet()) {
+            builder.defaults.put(entry.getKey(),
+                                 merge(this.defaults.get(entry.getKey()), entry.getValue()));
+        }
+        for (Table.Cell<String, String, ImmutableMap<DataQuery, Object>> cell
+                : over.roleSettings.cellSet()) {
+            builder.roleSettings.put(cell.getRowKey(), cell.getColumnKey(),
+                                     merge(this.roleSettings.get(cell.getRowKey(),
+                                                                 cell.getColumnKey()),
+                                           cell.getValue()));
+        }
+        return builder.build();
+    }
+
+    private static ImmutableMap<DataQuery, Object> merge(
+            @Nullable ImmutableMap<DataQuery, Object> under, ImmutableMap<DataQuery, Object> over) {
+        if (under == null || under.isEmpty()) {
+            return over;
+        }
+        final Map<DataQuery, Object> merged = Maps.newLinkedHashMap(under);
+        merged.putAll(over);
+        return ImmutableMap.copyOf(merged);
+    }
+
+    public Builder toBuilder() {
+        final Builder builder = new Builder();
+        builder.defaults.putAll(this.defaults);
+        builder.roleSettings.putAll(this.roleSettings);
+        return builder;
+    }
+
+    /**
+     * Compares this snapshot to an older one by skill. A skill changed if its defaults or the
+     * settings any role defines for it differ.
+     *
+     * @param previous The older snapshot
+     *
+     * @return The differences
+     */
+    public Diff diff(SkillConfigSnapshot previous) {
+        final Set<String> added = Sets.newHashSet();
+        final Set<String> removed = Sets.newHashSet();
+        final Set<String> changed = Sets.newHashSet();
+        for (String skill : Sets.union(this.defaults.keySet(), previous.defaults.keySet())) {
+            if (!previous.defaults.containsKey(skill)) {
+                added.add(skill);
+            } else if (!this.defaults.containsKey(skill)) {
+                removed.add(skill);
+            } else if (!this.defaults.get(skill).equals(previous.defaults.get(skill))
+                    || !this.roleSettings.column(skill)
+                            .equals(previous.roleSettings.column(skill))) {
+                changed.add(skill);
+            }
+        }
+        for (String skill : Sets.union(this.roleSettings.columnKeySet(),
+                                       previous.roleSettings.columnKeySet())) {
+            if (!added.contains(skill) && !removed.contains(skill)
+                    && !this.roleSettings.column(skill)
+                            .equals(previous.roleSettings.column(skill))) {
+                changed.add(skill);
+            }
+        }
+        int unchanged = 0;
+        for (String skill : this.defaults.keySet()) {
+            if (!added.contains(skill) && !changed.contains(skill)) {
+                unchanged++;
+            }
+        }
+        return new Diff(added, removed, changed, unchanged);
+    }
+
+    /**
+     * The skills that differ between two snapshots, by lower case name.
+     */
+    public static final class Diff {
+
+        private final ImmutableSet<String> added;
+        private final ImmutableSet<String> removed;
+        private final ImmutableSet<String> changed;
+        private final int unchanged;
+
+        Diff(Set<String> added, Set<String> removed, Set<String> changed, int unchanged) {
+            this.added = ImmutableSet.copyOf(added);
+            this.removed = ImmutableSet.copyOf(removed);
+            this.changed = ImmutableSet.copyOf(changed);
+            this.unchanged = unchanged;
+        }
+
+        public Set<String> getAdded() {
+            return this.added;
+        }
+
+        public Set<String> getRemoved() {
+            return this.removed;
+        }
+
+        public Set<String> getChanged() {
+            return this.changed;
+        }
+
+        public int getUnchangedCount() {
+            return this.unchanged;
+        }
+
+        /**
+         * Checks whether the settings of the given skill differ.
+         *
+         * @param skillName The name of the skill
+         *
+         * @return True if the skill was added, removed or changed
+         */
+        public boolean affects(String skillName) {
+            final String skill = key(skillName);
+            return this.added.contains(skill) || this.removed.contains(skill)
+                    || this.changed.contains(skill);
+        }
+
+        @Override
+        public String toString() {
+            return this.added.size() + " added, " + this.removed.size() + " removed, "
+                    + this.changed.size() + " changed, " + this.unchanged + " unchanged";
+        }
+    }
+
+    public static final class Builder {
+
+        final Map<String, ImmutableMap<DataQuery, Object>> defaults = Maps.newHashMap();
+        final Table<String, String, ImmutableMap<DataQuery, Object>> roleSettings =
+                HashBasedTable.create();
+
+        Builder() { }
+
+        /**
+         * Sets the defaults of a skill. The view is copied.
+         *
+         * @param skillName The name of the skill
+         * @param defaults  The defaults
+         *
+         * @return This builder for chaining
+         */
+        public Builder setDefaults(String skillName, DataView defaults) {
+            this.defaults.put(key(checkNotNull(skillName)), flatten(defaults));
+            return this;
+        }
+
+        Builder setDefaults(String skillName, ImmutableMap<DataQuery, Object> defaults) {
+            this.defaults.put(key(checkNotNull(skillName)), checkNotNull(defaults));
+            return this;
+        }
+
+        /**
+         * Sets the settings a role defines for a skill. The view is copied.
+         *
+         * @param roleName  The name of the role
+         * @param skillName The name of the skill
+         * @param settings  The settings
+         *
+         * @return This builder for chaining
+         */
+        public Builder setRoleSettings(String roleName, String skillName, DataView settings) {
+            this.roleSettings.put(key(checkNotNull(roleName)), key(checkNotNull(skillName)),
+                                  flatten(settings));
+            return this;
+        }
+
+        public SkillConfigSnapshot build() {
+            return new SkillConfigSnapshot(this);
+        }
+    }
+}
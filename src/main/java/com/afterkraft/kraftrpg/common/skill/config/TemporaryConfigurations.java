@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+
+import org.spongepowered.api.data.DataView;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.Skill;
+
+/**
+ * The temporary skill configurations of every caster. Each caster has a copy-on-write map of
+ * {@link TemporaryLayer}s by skill, read without locking or copying. Clearing all of a caster's
+ * configurations only advances the caster's generation, which hides every layer stamped with an
+ * older one; hidden layers are dropped the next time the caster's map is rewritten. Casters are
+ * held weakly.
+ */
+final class TemporaryConfigurations {
+
+    private final ConcurrentMap<SkillCaster, CasterLayers> casters =
+            new MapMaker().weakKeys().makeMap();
+
+    void add(SkillCaster caster, Skill skill, DataView section) {
+        this.casters.computeIfAbsent(caster, key -> new CasterLayers()).add(skill, section);
+    }
+
+    void clear(SkillCaster caster) {
+        final CasterLayers layers = this.casters.get(caster);
+        if (layers != null) {
+            layers.clear();
+        }
+    }
+
+    void clear(SkillCaster caster, Skill skill) {
+        final CasterLayers layers = this.casters.get(caster);
+        if (layers != null) {
+            layers.clear(skill);
+        }
+    }
+
+    Optional<TemporaryLayer> get(SkillCaster caster, Skill skill) {
+        final CasterLayers layers = this.casters.get(caster);
+        return layers == null ? Optional.empty() : layers.get(skill);
+    }
+
+    private static final class CasterLayers {
+
+        private volatile int generation;
+        private volatile ImmutableMap<Skill, TemporaryLayer> layers = ImmutableMap.of();
+
+        synchronized void add(Skill skill, DataView section) {
+            final int generation = this.generation;
+            final Map<Skill, TemporaryLayer> layers = Maps.newHashMap();
+            for (Map.Entry<Skill, TemporaryLayer> entry : this.layers.entrySet()) {
+                if (entry.getValue().getGeneration() == generation) {
+                    layers.put(entry.getKey(), entry.getValue());
+                }
+            }
+            layers.put(skill, new TemporaryLayer(layers.get(skill), section, generation));
+            this.layers = ImmutableMap.copyOf(layers);
+        }
+
+        synchronized void clear() {
+            this.generation++;
+        }
+
+        synchronized void clear(Skill skill) {
+            if (this.layers.containsKey(skill)) {
+                final Map<Skill, TemporaryLayer> layers = Maps.newHashMap(this.layers);
+                layers.remove(skill);
+                this.layers = ImmutableMap.copyOf(layers);
+            }
+        }
+
+        Optional<TemporaryLayer> get(Skill skill) {
+            final TemporaryLayer layer = this.layers.get(skill);
+            return layer != null && layer.getGeneration() == this.generation
+                    ? Optional.of(layer) : Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Optional;
+
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * One temporary configuration of a caster for a skill, layered over the temporary
+ * configurations added before it and, below those, the stored configuration of the skill. A
+ * layer holds only the values of its own section and is never modified, so adding a layer shares
+ * everything below it.
+ */
+final class TemporaryLayer {
+
+    @Nullable private final TemporaryLayer parent;
+    private final ImmutableMap<DataQuery, Object> values;
+    private final int generation;
+    @Nullable private volatile CompiledSkillSettings compiled;
+
+    TemporaryLayer(@Nullable TemporaryLayer parent, DataView section, int generation) {
+        this.parent = parent;
+        this.values = SkillConfigSnapshot.flatten(section);
+        this.generation = generation;
+    }
+
+    int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Gets the value of the query in the topmost layer defining it.
+     *
+     * @param query The query
+     *
+     * @return The value, if any layer defines it
+     */
+    Optional<Object> get(DataQuery query) {
+        for (TemporaryLayer layer = this; layer != null; layer = layer.parent) {
+            final Object value = layer.values.get(query);
+            if (value != null) {
+                return Optional.of(value);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Gets the given stored settings with this layer and those below it applied. The result is
+     * kept for as long as the same stored settings are passed.
+     *
+     * @param base The compiled stored settings
+     *
+     * @return The compiled settings including this layer
+     */
+    CompiledSkillSettings compileOver(CompiledSkillSettings base) {
+        final CompiledSkillSettings compiled = this.compiled;
+        if (compiled != null && compiled.getBase() == base) {
+            return compiled;
+        }
+        final Map<DataQuery, Object> overrides = Maps.newHashMap();
+        for (TemporaryLayer layer = this; layer != null; layer = layer.parent) {
+            for (Map.Entry<DataQuery, Object> entry : layer.values.entrySet()) {
+                overrides.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        final CompiledSkillSettings overlaid = base.override(overrides);
+        this.compiled = overlaid;
+        return overlaid;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * An immutable consistent hash ring assigning player {@link UUID}s to named nodes. Every node is
+ * placed on the ring many times, so players spread evenly, and adding a node only moves the
+ * players it takes over from the others.
+ *
+ * @param <T> The type of node
+ */
+public final class ConsistentHashRing<T> {
+
+    /**
+     * The default number of points each node occupies on the ring.
+     */
+    public static final int DEFAULT_REPLICAS = 128;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int replicas;
+    private final ImmutableMap<String, T> nodes;
+    private final NavigableMap<Long, String> ring;
+
+    private ConsistentHashRing(int replicas, ImmutableMap<String, T> nodes) {
+        this.replicas = replicas;
+        this.nodes = nodes;
+        this.ring = Maps.newTreeMap();
+        for (String id : nodes.keySet()) {
+            for (int i = 0; i < replicas; i++) {
+                this.ring.put(HASH.hashString(id + '#' + i, StandardCharsets.UTF_8).asLong(), id);
+            }
+        }
+    }
+
+    /**
+     * Creates a ring of the given nodes.
+     *
+     * @param nodes    The nodes keyed by a stable identifier, which determines their placement
+     * @param replicas The number of points each node occupies
+     * @param <T>      The type of node
+     *
+     * @return The new ring
+     */
+    public static <T> ConsistentHashRing<T> of(Map<String, T> nodes, int replicas) {
+        checkArgument(replicas > 0, "Need at least one replica per node!");
+        return new ConsistentHashRing<>(replicas, ImmutableMap.copyOf(nodes));
+    }
+
+    /**
+     * Creates a new ring with the given node added.
+     *
+     * @param id   The stable identifier of the node
+     * @param node The node
+     *
+     * @return The new ring
+     */
+    public ConsistentHashRing<T> with(String id, T node) {
+        checkArgument(!this.nodes.containsKey(checkNotNull(id)), "Node %s already exists!", id);
+        return new ConsistentHashRing<>(this.replicas, ImmutableMap.<String, T>builder()
+                .putAll(this.nodes)
+                .put(id, checkNotNull(node))
+                .build());
+    }
+
+    /**
+     * Creates a new ring with the given node removed, which owns the players the node took over
+     * when it was added.
+     *
+     * @param id The identifier of the node
+     *
+     * @return The new ring
+     */
+    public ConsistentHashRing<T> without(String id) {
+        checkArgument(this.nodes.containsKey(checkNotNull(id)), "Node %s does not exist!", id);
+        checkState(this.nodes.size() > 1, "Cannot remove the last node!");
+        final ImmutableMap.Builder<String, T> nodes = ImmutableMap.builder();
+        for (Map.Entry<String, T> entry : this.nodes.entrySet()) {
+            if (!entry.getKey().equals(id)) {
+                nodes.put(entry);
+            }
+        }
+        return new ConsistentHashRing<>(this.replicas, nodes.build());
+    }
+
+    /**
+     * Gets the node owning the given player.
+     *
+     * @param uuid The player's UUID
+     *
+     * @return The owning node
+     */
+    public T get(UUID uuid) {
+        checkState(!this.ring.isEmpty(), "The ring has no nodes!");
+        final long hash = HASH.newHasher()
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .hash()
+                .asLong();
+        final Map.Entry<Long, String> entry = this.ring.ceilingEntry(hash);
+        return this.nodes.get(entry == null ? this.ring.firstEntry().getValue()
+                : entry.getValue());
+    }
+
+    /**
+     * Gets every node of this ring.
+     *
+     * @return The nodes keyed by identifier
+     */
+    public ImmutableMap<String, T> getNodes() {
+        return this.nodes;
+    }
+}
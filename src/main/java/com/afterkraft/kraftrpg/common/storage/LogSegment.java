@@ -0,0 +1,303 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+
+import com.afterkraft.kraftrpg.api.storage.StorageException;
+
+/**
+ * A single memory-mapped, append-only file of a {@link MappedLogStorageBackend}. Every record is
+ * laid out as
+ *
+ * <pre>
+ *   int    magic
+ *   int    crc32 of everything after it
+ *   byte   flags
+ *   long   uuid most significant bits
+ *   long   uuid least significant bits
+ *   int    payload length
+ *   byte[] payload, a {@link com.afterkraft.kraftrpg.api.storage.PlayerDataCodec} record
+ * </pre>
+ *
+ * <p>Records are only considered written once a record carrying {@link #FLAG_COMMIT} follows
+ * them, which lets a whole batch become visible atomically after a crash. The unused tail of a
+ * segment is zeroed, so the first zero magic marks the end of the log.</p>
+ */
+final class LogSegment {
+
+    static final int RECORD_MAGIC = 0x4B52504C; // KRPL
+    static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 8 + 4;
+    static final byte FLAG_COMMIT = 1;
+    static final byte FLAG_TOMBSTONE = 2;
+
+    private static final String SUFFIX = ".log";
+    private static final byte[] EMPTY = new byte[0];
+
+    final long id;
+    final Path path;
+    final AtomicLong liveBytes = new AtomicLong();
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int writePosition;
+
+    private LogSegment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+    }
+
+    static LogSegment create(Path directory, long id, int size) throws IOException {
+        final Path path = directory.resolve(fileName(id));
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new LogSegment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                size));
+    }
+
+    static LogSegment open(Path path, boolean writable) throws IOException {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        if (writable) {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new LogSegment(parseId(path), path, channel, buffer);
+    }
+
+    static boolean isSegment(Path path) {
+        final String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return false;
+        }
+        try {
+            parseId(path);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static long parseId(Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()), 16);
+    }
+
+    private static String fileName(long id) {
+        return String.format("%016x%s", id, SUFFIX);
+    }
+
+    static int recordSize(byte[] payload) {
+        return HEADER_SIZE + payload.length;
+    }
+
+    int getWrittenBytes() {
+        return this.writePosition;
+    }
+
+    boolean hasRoom(int bytes) {
+        return this.writePosition + bytes <= this.capacity;
+    }
+
+    /**
+     * Append a record at the end of this segment. Callers are expected to serialize appends and
+     * to check {@link #hasRoom(int)} first.
+     *
+     * @param flags   The record flags
+     * @param uuid    The player the record belongs to
+     * @param payload The encoded data, empty for a tombstone
+     *
+     * @return The offset of the new record
+     */
+    int append(byte flags, UUID uuid, byte[] payload) {
+        final int position = this.writePosition;
+        final int size = recordSize(payload);
+        checkState(hasRoom(size), "Segment %s is full", this.path);
+        final ByteBuffer view = this.buffer.duplicate();
+        view.position(position + 8);
+        view.put(flags)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .putInt(payload.length)
+                .put(payload);
+        view.putInt(position + 4, checksum(position, payload.length));
+        // The magic is written last, a torn record is never mistaken for a complete one
+        view.putInt(position, RECORD_MAGIC);
+        this.writePosition = position + size;
+        return position;
+    }
+
+    int appendTombstone(byte flags, UUID uuid) {
+        return append((byte) (flags | FLAG_TOMBSTONE), uuid, EMPTY);
+    }
+
+    /**
+     * Read the payload of the record at the given offset.
+     *
+     * @param offset The offset returned by {@link #append(byte, UUID, byte[])}
+     *
+     * @return A copy of the payload
+     */
+    byte[] read(int offset) {
+        final ByteBuffer view = this.buffer.duplicate();
+        if (view.getInt(offset) != RECORD_MAGIC) {
+            throw new StorageException("No record at " + offset + " in " + this.path);
+        }
+        final byte[] payload = new byte[view.getInt(offset + HEADER_SIZE - 4)];
+        view.position(offset + HEADER_SIZE);
+        view.get(payload);
+        return payload;
+    }
+
+    /**
+     * Walk every committed record of this segment in order. Records of a batch which was never
+     * committed are skipped and, for a writable segment, zeroed so they are overwritten by the
+     * next append.
+     *
+     * @param verify  Whether to verify the checksum of every record, only needed for a segment
+     *                that may have been written to when the server stopped
+     * @param visitor The visitor to call for every committed record
+     */
+    void scan(boolean verify, RecordVisitor visitor) {
+        final ByteBuffer view = this.buffer.duplicate();
+        final List<PendingRecord> pending = Lists.newArrayList();
+        int position = 0;
+        int committed = 0;
+        while (position + HEADER_SIZE <= this.capacity
+                && view.getInt(position) == RECORD_MAGIC) {
+            final byte flags = view.get(position + 8);
+            final UUID uuid = new UUID(view.getLong(position + 9), view.getLong(position + 17));
+            final int length = view.getInt(position + 25);
+            if (length < 0 || position + HEADER_SIZE + length > this.capacity) {
+                break;
+            }
+            if (verify && view.getInt(position + 4) != checksum(position, length)) {
+                break;
+            }
+            pending.add(new PendingRecord(flags, uuid, position, HEADER_SIZE + length));
+            position += HEADER_SIZE + length;
+            if ((flags & FLAG_COMMIT) != 0) {
+                for (PendingRecord record : pending) {
+                    visitor.visit(record.flags, record.uuid, record.offset, record.size);
+                }
+                pending.clear();
+                committed = position;
+            }
+        }
+        if (!this.buffer.isReadOnly()) {
+            // Pages of an interrupted batch may have reached the disk in any order, so anything
+            // past the last commit is cleared rather than only the first torn record
+            clear(view, committed);
+        }
+        this.writePosition = committed;
+    }
+
+    private void clear(ByteBuffer view, int from) {
+        int position = from;
+        for (; position < this.capacity && (position & 7) != 0; position++) {
+            view.put(position, (byte) 0);
+        }
+        for (; position + 8 <= this.capacity; position += 8) {
+            if (view.getLong(position) != 0) {
+                view.putLong(position, 0);
+            }
+        }
+        for (; position < this.capacity; position++) {
+            view.put(position, (byte) 0);
+        }
+    }
+
+    void force() {
+        this.buffer.force();
+    }
+
+    void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new StorageException("Unable to close " + this.path, e);
+        }
+    }
+
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(this.path);
+        } catch (IOException e) {
+            throw new StorageException("Unable to delete " + this.path, e);
+        }
+    }
+
+    private int checksum(int position, int length) {
+        checkArgument(length >= 0);
+        final ByteBuffer view = this.buffer.duplicate();
+        view.limit(position + HEADER_SIZE + length);
+        view.position(position + 8);
+        final CRC32 crc = new CRC32();
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+
+        void visit(byte flags, UUID uuid, int offset, int size);
+    }
+
+    private static final class PendingRecord {
+
+        final byte flags;
+        final UUID uuid;
+        final int offset;
+        final int size;
+
+        PendingRecord(byte flags, UUID uuid, int offset, int size) {
+            this.flags = flags;
+            this.uuid = uuid;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.storage;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.storage.PlayerData;
+import com.afterkraft.kraftrpg.api.storage.PlayerDataCodec;
+import com.afterkraft.kraftrpg.api.storage.StorageBackend;
+import com.afterkraft.kraftrpg.api.storage.StorageException;
+
+/**
+ * A reference {@link StorageBackend} keeping every player in a segmented, append-only log of
+ * memory-mapped files, with an in-memory index from each UUID to its latest record.
+ *
+ * <p>Saving appends the {@link PlayerDataCodec} encoding of every player of a batch to the
+ * active segment and forces it to disk once, and a batch only becomes visible after a crash if
+ * it was written completely, so {@link #saveAll(Map)} and {@link #commitTransaction(Map)} are
+ * both atomic. Loading a player is a single index lookup and a copy out of the page cache, and
+ * {@link #getAllStoredUsers()} is answered from the index without touching the disk.</p>
+ *
+ * <p>The index is rebuilt by a sequential scan of the segments when the backend is initialized.
+ * Segments whose live data falls below the compaction threshold are rewritten in the background
+ * by copying their live records to the active segment and deleting the file.</p>
+ */
+public class MappedLogStorageBackend implements StorageBackend {
+
+    /**
+     * The default size of a segment, 64 MiB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * The default ratio of live bytes to written bytes under which a segment is compacted.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5D;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final double compactionThreshold;
+    private final long compactionPeriod;
+    private final TimeUnit compactionUnit;
+    private final ConcurrentMap<UUID, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, LogSegment> segments =
+            new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    /**
+     * Held for reading while a record is copied out of a segment, and for writing while a
+     * segment is closed, so that a reader never sees its segment deleted by compaction. Readers
+     * never take the write lock while holding it.
+     */
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    @Nullable private LogSegment active;
+    @Nullable private ScheduledExecutorService compactor;
+
+    /**
+     * Creates a backend storing its segments in the given directory with the default segment
+     * size, compacting every ten minutes.
+     *
+     * @param directory The directory holding the segments
+     */
+    public MappedLogStorageBackend(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, 10, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a backend storing its segments in the given directory.
+     *
+     * @param directory           The directory holding the segments
+     * @param segmentSize         The size in bytes of a newly created segment
+     * @param compactionThreshold The ratio of live to written bytes under which a sealed segment
+     *                            is compacted, between 0 and 1
+     * @param compactionPeriod    The period between compaction runs, 0 to only compact when
+     *                            {@link #compact()} is called
+     * @param unit                The unit of the compaction period
+     */
+    public MappedLogStorageBackend(Path directory, int segmentSize, double compactionThreshold,
+                                   long compactionPeriod, TimeUnit unit) {
+        checkArgument(segmentSize > LogSegment.HEADER_SIZE, "Segment size is too small!");
+        checkArgument(compactionThreshold >= 0 && compactionThreshold <= 1,
+                "Compaction threshold must be between 0 and 1!");
+        checkArgument(compactionPeriod >= 0, "Compaction period cannot be negative!");
+        this.directory = checkNotNull(directory);
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.compactionPeriod = compactionPeriod;
+        this.compactionUnit = checkNotNull(unit);
+    }
+
+    @Override
+    public void initialize() throws Throwable {
+        Files.createDirectories(this.directory);
+        final List<Path> paths = Lists.newArrayList();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (Path path : stream) {
+                if (LogSegment.isSegment(path)) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort((a, b) -> Long.compare(LogSegment.parseId(a), LogSegment.parseId(b)));
+        synchronized (this.writeLock) {
+            for (int i = 0; i < paths.size(); i++) {
+                final boolean last = i == paths.size() - 1;
+                final LogSegment segment = LogSegment.open(paths.get(i), last);
+                this.segments.put(segment.id, segment);
+                // Only the active segment may hold a batch torn by a crash
+                segment.scan(last, (flags, uuid, offset, size) -> {
+                    if ((flags & LogSegment.FLAG_TOMBSTONE) != 0) {
+                        unindex(uuid);
+                    } else {
+                        index(uuid, new Location(segment, offset, size));
+                    }
+                });
+                if (last) {
+                    this.active = segment;
+                }
+            }
+            if (this.active == null) {
+                roll(0);
+            }
+        }
+        if (this.compactionPeriod > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("KraftRPG Storage Compactor")
+                    .setDaemon(true)
+                    .build());
+            this.compactor.scheduleWithFixedDelay(() -> {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    RpgCommon.getLogger().error("Unable to compact " + this.directory, e);
+                }
+            }, this.compactionPeriod, this.compactionPeriod, this.compactionUnit);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.compactor != null) {
+            this.compactor.shutdownNow();
+            this.compactor = null;
+        }
+        synchronized (this.writeLock) {
+            if (this.active != null) {
+                this.active.force();
+            }
+            final Lock lock = this.segmentLock.writeLock();
+            lock.lock();
+            try {
+                for (LogSegment segment : this.segments.values()) {
+                    segment.close();
+                }
+                this.segments.clear();
+                this.index.clear();
+            } finally {
+                lock.unlock();
+            }
+            this.active = null;
+        }
+    }
+
+    @Override
+    public boolean removePlayer(UUID uuid) {
+        synchronized (this.writeLock) {
+            if (!this.index.containsKey(uuid)) {
+                return false;
+            }
+            final LogSegment segment = ensureRoom(LogSegment.HEADER_SIZE);
+            segment.appendTombstone(LogSegment.FLAG_COMMIT, uuid);
+            segment.force();
+            unindex(uuid);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean savePlayer(UUID uuid, PlayerData data) {
+        return saveAll(Collections.singletonMap(uuid, data));
+    }
+
+    @Override
+    public boolean saveAll(Map<UUID, PlayerData> data) {
+        if (data.isEmpty()) {
+            return true;
+        }
+        // Encode outside of the lock, only the copy into the mapping is serialized
+        final List<Map.Entry<UUID, byte[]>> records = Lists.newArrayListWithCapacity(data.size());
+        int size = 0;
+        for (Map.Entry<UUID, PlayerData> entry : data.entrySet()) {
+            final byte[] payload = PlayerDataCodec.encode(entry.getValue());
+            records.add(Maps.immutableEntry(checkNotNull(entry.getKey()), payload));
+            size += LogSegment.recordSize(payload);
+        }
+        synchronized (this.writeLock) {
+            final LogSegment segment = ensureRoom(size);
+            for (int i = 0; i < records.size(); i++) {
+                final Map.Entry<UUID, byte[]> record = records.get(i);
+                final byte flags = i == records.size() - 1 ? LogSegment.FLAG_COMMIT : 0;
+                final int offset = segment.append(flags, record.getKey(), record.getValue());
+                index(record.getKey(), new Location(segment, offset,
+                        LogSegment.recordSize(record.getValue())));
+            }
+            segment.force();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean commitTransaction(Map<UUID, PlayerData> data) {
+        // Every batch is already committed by its last record
+        return saveAll(data);
+    }
+
+    @Override
+    public Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate) {
+        final byte[] payload = read(uuid);
+        if (payload == null) {
+            if (!shouldCreate) {
+                return Optional.empty();
+            }
+            // Outside of the read lock, saving may have to wait for compaction
+            final PlayerData data = new PlayerData();
+            savePlayer(uuid, data);
+            return Optional.of(data);
+        }
+        return PlayerDataCodec.decode(payload);
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        final Map<UUID, PlayerData> loaded = Maps.newLinkedHashMap();
+        for (UUID uuid : uuids) {
+            final byte[] payload = read(uuid);
+            if (payload != null) {
+                final Optional<PlayerData> data = PlayerDataCodec.decode(payload);
+                if (data.isPresent()) {
+                    loaded.put(uuid, data.get());
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Copies the latest record of the given player out of its segment, which compaction cannot
+     * delete in the meantime.
+     */
+    @Nullable
+    private byte[] read(UUID uuid) {
+        final Lock lock = this.segmentLock.readLock();
+        lock.lock();
+        try {
+            final Location location = this.index.get(uuid);
+            return location == null ? null : location.segment.read(location.offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<UUID> getAllStoredUsers() {
+        return ImmutableList.copyOf(this.index.keySet());
+    }
+
+    @Override
+    public int getStoredUserCount() {
+        return this.index.size();
+    }
+
+    /**
+     * Gets the number of segment files currently in use.
+     *
+     * @return The number of segments
+     */
+    public int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Rewrite every sealed segment whose live data fell under the compaction threshold. This is
+     * called periodically from a background thread, and blocks writers only while the live
+     * records of one segment are copied.
+     */
+    public void compact() {
+        for (LogSegment segment : this.segments.values()) {
+            synchronized (this.writeLock) {
+                if (segment == this.active || !this.segments.containsKey(segment.id)) {
+                    continue;
+                }
+                final long live = segment.liveBytes.get();
+                if (live > segment.getWrittenBytes() * this.compactionThreshold) {
+                    continue;
+                }
+                relocate(segment);
+            }
+        }
+    }
+
+    private void relocate(LogSegment segment) {
+        // A tombstone only has to survive while an older segment may hold the deleted record
+        final boolean older = this.segments.firstKey() < segment.id;
+        segment.scan(false, (flags, uuid, offset, size) -> {
+            if ((flags & LogSegment.FLAG_TOMBSTONE) != 0) {
+                if (older && !this.index.containsKey(uuid)) {
+                    ensureRoom(size).appendTombstone(LogSegment.FLAG_COMMIT, uuid);
+                }
+                return;
+            }
+            final Location location = this.index.get(uuid);
+            if (location != null && location.segment == segment && location.offset == offset) {
+                final byte[] payload = segment.read(offset);
+                final LogSegment target = ensureRoom(size);
+                index(uuid, new Location(target, target.append(LogSegment.FLAG_COMMIT, uuid,
+                        payload), size));
+            }
+        });
+        checkState(this.active != null);
+        this.active.force();
+        // Every live record was moved, wait for readers still copying out of the old ones
+        final Lock lock = this.segmentLock.writeLock();
+        lock.lock();
+        try {
+            this.segments.remove(segment.id);
+            segment.delete();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private LogSegment ensureRoom(int bytes) {
+        final LogSegment current = this.active;
+        if (current == null) {
+            throw new StorageException("The storage backend is not initialized!");
+        }
+        if (current.hasRoom(bytes)) {
+            return current;
+        }
+        current.force();
+        return roll(current.id + 1, bytes);
+    }
+
+    private LogSegment roll(long id) {
+        return roll(id, 0);
+    }
+
+    private LogSegment roll(long id, int minimumSize) {
+        try {
+            final LogSegment segment = LogSegment.create(this.directory, id,
+                    Math.max(this.segmentSize, minimumSize));
+            this.segments.put(segment.id, segment);
+            this.active = segment;
+            return segment;
+        } catch (IOException e) {
+            throw new StorageException("Unable to create a new segment in " + this.directory, e);
+        }
+    }
+
+    private void index(UUID uuid, Location location) {
+        location.segment.liveBytes.addAndGet(location.size);
+        final Location previous = this.index.put(uuid, location);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.size);
+        }
+    }
+
+    private void unindex(UUID uuid) {
+        final Location previous = this.index.remove(uuid);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.size);
+        }
+    }
+
+    private static final class Location {
+
+        final LogSegment segment;
+        final int offset;
+        final int size;
+
+        Location(LogSegment segment, int offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.storage;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.afterkraft.kraftrpg.api.ExternalProviderRegistration;
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.storage.PlayerData;
+import com.afterkraft.kraftrpg.api.storage.StorageBackend;
+import com.afterkraft.kraftrpg.api.storage.StorageException;
+
+/**
+ * A {@link StorageBackend} spreading players over several other backends, the shards, by a
+ * {@link ConsistentHashRing} of their UUIDs. Batches are split by shard and the shards are
+ * written in parallel, so any {@link com.afterkraft.kraftrpg.api.storage.StorageFrontend} run
+ * over this backend flushes every shard at once.
+ *
+ * <p>A shard may be added while running with {@link #addShard(String, StorageBackend)}. The
+ * players it takes over are then moved to it in the background; until a player is moved, it is
+ * still found on its previous shard, and a player saved in the meantime is first moved in full,
+ * so the move never overwrites newer data nor loses the sections a delta did not write. The
+ * shard being filled is recorded in a state file, so that a rebalance interrupted by a restart
+ * or a failure keeps reading from the previous shards and is resumed by {@link #initialize()}
+ * or {@link #resumeRebalance()}.</p>
+ *
+ * <p>{@link #commitTransaction(Map)} is only atomic when every participant lives on the same
+ * shard, otherwise each shard commits its own participants.</p>
+ */
+public class ShardedStorageBackend implements StorageBackend {
+
+    private static final int REBALANCE_PAGE_SIZE = 256;
+
+    private final ReadWriteLock topology = new ReentrantReadWriteLock();
+    private final Striped<Lock> playerLocks = Striped.lock(64);
+    private final Set<UUID> moved = Sets.newConcurrentHashSet();
+    private final ExecutorService executor;
+    @Nullable private final Path stateFile;
+    private volatile ConsistentHashRing<StorageBackend> ring;
+    @Nullable private volatile ConsistentHashRing<StorageBackend> previousRing;
+    @Nullable private String rebalancingShard;
+    @Nullable private CompletableFuture<Integer> rebalance;
+
+    /**
+     * Creates a backend over the given shards, which cannot be added to.
+     *
+     * @param shards The shards keyed by a stable identifier, which decides which players they
+     *               hold and must therefore not change between runs
+     */
+    public ShardedStorageBackend(Map<String, StorageBackend> shards) {
+        this(shards, null);
+    }
+
+    /**
+     * Creates a backend over the given shards, recording an unfinished rebalance in the given
+     * file.
+     *
+     * @param shards    The shards keyed by a stable identifier, which decides which players they
+     *                  hold and must therefore not change between runs
+     * @param stateFile The file recording the shard being filled, or null to not allow adding
+     *                  shards
+     */
+    public ShardedStorageBackend(Map<String, StorageBackend> shards, @Nullable Path stateFile) {
+        checkArgument(!shards.isEmpty(), "Need at least one shard!");
+        this.ring = ConsistentHashRing.of(shards, ConsistentHashRing.DEFAULT_REPLICAS);
+        this.stateFile = stateFile;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("KraftRPG Storage Shard #%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Creates a backend over the backends registered with {@link
+     * ExternalProviderRegistration#registerStorageBackend(StorageBackend, String...)} under the
+     * given identifiers, which are used as the shard identifiers.
+     *
+     * @param identifiers The identifiers of the registered backends
+     *
+     * @return The new backend
+     */
+    public static ShardedStorageBackend ofRegistered(String... identifiers) {
+        return ofRegistered(null, identifiers);
+    }
+
+    /**
+     * Creates a backend over the backends registered with {@link
+     * ExternalProviderRegistration#registerStorageBackend(StorageBackend, String...)} under the
+     * given identifiers, which are used as the shard identifiers.
+     *
+     * @param stateFile   The file recording the shard being filled, or null to not allow adding
+     *                    shards
+     * @param identifiers The identifiers of the registered backends
+     *
+     * @return The new backend
+     */
+    public static ShardedStorageBackend ofRegistered(@Nullable Path stateFile,
+                                                     String... identifiers) {
+        final Map<String, StorageBackend> registered =
+                ExternalProviderRegistration.getStorageBackendMap();
+        final Map<String, StorageBackend> shards = Maps.newLinkedHashMap();
+        for (String identifier : identifiers) {
+            final String id = identifier.toLowerCase();
+            final StorageBackend backend = registered.get(id);
+            checkArgument(backend != null, "No storage backend registered as %s", identifier);
+            shards.put(id, backend);
+        }
+        return new ShardedStorageBackend(shards, stateFile);
+    }
+
+    /**
+     * Initializes every shard, then resumes the rebalance recorded in the state file, if any.
+     * Until it completes, players not moved yet are read from their previous shard.
+     *
+     * @throws Throwable If a shard could not be initialized
+     */
+    @Override
+    public void initialize() throws Throwable {
+        for (StorageBackend shard : this.ring.getNodes().values()) {
+            shard.initialize();
+        }
+        final Optional<String> unfinished = readState();
+        if (unfinished.isPresent()) {
+            final String id = unfinished.get();
+            checkState(this.ring.getNodes().containsKey(id),
+                       "Shard %s was being filled but is not configured any more", id);
+            RpgCommon.getLogger().info("Resuming the move of players to shard " + id);
+            synchronized (this) {
+                this.previousRing = this.ring.without(id);
+                this.rebalancingShard = id;
+            }
+            resumeRebalance();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.executor.shutdownNow();
+        for (StorageBackend shard : this.ring.getNodes().values()) {
+            shard.shutdown();
+        }
+    }
+
+    /**
+     * Adds an uninitialized shard and starts moving the players it takes over to it.
+     *
+     * @param id    The stable identifier of the shard
+     * @param shard The new shard
+     *
+     * @return A future of the number of players moved
+     *
+     * @throws IllegalStateException If no state file is configured, or the previous rebalance is
+     *                               unfinished and should be resumed first
+     * @throws Throwable             If the shard could not be initialized
+     */
+    public CompletableFuture<Integer> addShard(String id, StorageBackend shard) throws Throwable {
+        checkState(this.stateFile != null, "Adding a shard needs a state file!");
+        checkNotNull(id);
+        checkNotNull(shard).initialize();
+        this.topology.writeLock().lock();
+        try {
+            synchronized (this) {
+                checkState(this.previousRing == null, "Shard %s is still being filled!",
+                           this.rebalancingShard);
+                final ConsistentHashRing<StorageBackend> next = this.ring.with(id, shard);
+                // Recorded first, a restart from now on must read from the previous shards
+                writeState(id);
+                this.previousRing = this.ring;
+                this.ring = next;
+                this.rebalancingShard = id;
+            }
+        } finally {
+            this.topology.writeLock().unlock();
+        }
+        return resumeRebalance();
+    }
+
+    /**
+     * Moves the players of an unfinished rebalance to the shard being filled, such as after a
+     * rebalance failed. A rebalance already running is returned rather than started again.
+     *
+     * @return A future of the number of players moved
+     *
+     * @throws IllegalStateException If no rebalance is unfinished
+     */
+    public synchronized CompletableFuture<Integer> resumeRebalance() {
+        final ConsistentHashRing<StorageBackend> previous = this.previousRing;
+        final String id = this.rebalancingShard;
+        checkState(previous != null && id != null, "No shard is being filled!");
+        if (this.rebalance != null && !this.rebalance.isDone()) {
+            return this.rebalance;
+        }
+        final StorageBackend target = this.ring.getNodes().get(id);
+        this.rebalance = CompletableFuture.supplyAsync(() -> rebalance(previous, target),
+                                                       this.executor);
+        this.rebalance = this.rebalance.whenComplete((count, error) -> {
+            if (error == null) {
+                finishRebalance();
+                RpgCommon.getLogger().info("Moved " + count + " players to shard " + id);
+            } else {
+                RpgCommon.getLogger().error("Could not move players to shard " + id
+                        + ", they are still read from their previous shard until the rebalance"
+                        + " is resumed", error);
+            }
+        });
+        return this.rebalance;
+    }
+
+    private void finishRebalance() {
+        this.topology.writeLock().lock();
+        try {
+            deleteState();
+            synchronized (this) {
+                this.previousRing = null;
+                this.rebalancingShard = null;
+            }
+            this.moved.clear();
+        } finally {
+            this.topology.writeLock().unlock();
+        }
+    }
+
+    private int rebalance(ConsistentHashRing<StorageBackend> previous, StorageBackend target) {
+        int count = 0;
+        for (StorageBackend source : previous.getNodes().values()) {
+            final Iterator<List<UUID>> pages = source.getStoredUserPages(REBALANCE_PAGE_SIZE);
+            while (pages.hasNext()) {
+                for (UUID uuid : pages.next()) {
+                    if (this.ring.get(uuid) != target) {
+                        continue;
+                    }
+                    final Lock lock = this.playerLocks.get(uuid);
+                    lock.lock();
+                    try {
+                        move(uuid, source, target);
+                        source.removePlayer(uuid);
+                        count++;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the full data of the given player to the shard taking it over, unless that shard
+     * already has it, which is then at least as recent. The player's lock must be held.
+     */
+    private void move(UUID uuid, StorageBackend source, StorageBackend target) {
+        if (this.moved.contains(uuid) || target.loadPlayer(uuid, false).isPresent()) {
+            return;
+        }
+        final Optional<PlayerData> data = source.loadPlayer(uuid, false);
+        if (data.isPresent() && !target.savePlayer(uuid, data.get())) {
+            throw new StorageException("Unable to move player " + uuid + " to its new shard");
+        }
+        this.moved.add(uuid);
+    }
+
+    /**
+     * Checks whether players are currently being moved to a new shard, or a rebalance is
+     * unfinished.
+     *
+     * @return True while rebalancing
+     */
+    public boolean isRebalancing() {
+        return this.previousRing != null;
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return The number of shards
+     */
+    public int getShardCount() {
+        return this.ring.getNodes().size();
+    }
+
+    private Optional<String> readState() {
+        if (this.stateFile == null || !Files.exists(this.stateFile)) {
+            return Optional.empty();
+        }
+        try {
+            final String id = new String(Files.readAllBytes(this.stateFile),
+                                         StandardCharsets.UTF_8).trim();
+            return id.isEmpty() ? Optional.empty() : Optional.of(id);
+        } catch (IOException e) {
+            throw new StorageException("Unable to read the shard state " + this.stateFile, e);
+        }
+    }
+
+    private void writeState(String id) {
+        checkState(this.stateFile != null);
+        final Path temporary = this.stateFile.resolveSibling(
+                this.stateFile.getFileName() + ".tmp");
+        try {
+            Files.write(temporary, id.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, this.stateFile, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new StorageException("Unable to write the shard state " + this.stateFile, e);
+        }
+    }
+
+    private void deleteState() {
+        if (this.stateFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(this.stateFile);
+        } catch (IOException e) {
+            throw new StorageException("Unable to delete the shard state " + this.stateFile, e);
+        }
+    }
+
+    @Override
+    public boolean removePlayer(UUID uuid) {
+        this.topology.readLock().lock();
+        try {
+            final ConsistentHashRing<StorageBackend> previous = this.previousRing;
+            if (previous == null || previous.get(uuid) == this.ring.get(uuid)) {
+                return this.ring.get(uuid).removePlayer(uuid);
+            }
+            // Keep the rebalance from moving the player back in
+            final Lock lock = this.playerLocks.get(uuid);
+            lock.lock();
+            try {
+                boolean removed = this.ring.get(uuid).removePlayer(uuid);
+                removed |= previous.get(uuid).removePlayer(uuid);
+                return removed;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            this.topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean savePlayer(UUID uuid, PlayerData data) {
+        return saveAll(Collections.singletonMap(uuid, data));
+    }
+
+    @Override
+    public boolean savePlayerDelta(UUID uuid, PlayerData data, Set<PlayerData.Section> sections) {
+        return write(Collections.singletonMap(uuid, data),
+                (shard, single) -> shard.savePlayerDelta(uuid, data, sections));
+    }
+
+    @Override
+    public boolean saveAll(Map<UUID, PlayerData> data) {
+        return write(data, StorageBackend::saveAll);
+    }
+
+    @Override
+    public boolean commitTransaction(Map<UUID, PlayerData> data) {
+        return write(data, StorageBackend::commitTransaction);
+    }
+
+    private boolean write(Map<UUID, PlayerData> data,
+                          BiFunction<StorageBackend, Map<UUID, PlayerData>, Boolean> operation) {
+        if (data.isEmpty()) {
+            return true;
+        }
+        this.topology.readLock().lock();
+        try {
+            final ConsistentHashRing<StorageBackend> previous = this.previousRing;
+            if (previous == null) {
+                return forEachShard(data, operation);
+            }
+            // Keep the rebalance from moving an older copy over what is written here
+            final Iterable<Lock> locks = this.playerLocks.bulkGet(data.keySet());
+            for (Lock lock : locks) {
+                lock.lock();
+            }
+            try {
+                for (UUID uuid : data.keySet()) {
+                    final StorageBackend source = previous.get(uuid);
+                    final StorageBackend target = this.ring.get(uuid);
+                    if (source != target) {
+                        // A delta only holds part of the player, the rest has to be there first
+                        move(uuid, source, target);
+                    }
+                }
+                return forEachShard(data, operation);
+            } finally {
+                for (Lock lock : locks) {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            this.topology.readLock().unlock();
+        }
+    }
+
+    private boolean forEachShard(Map<UUID, PlayerData> data,
+                                 BiFunction<StorageBackend, Map<UUID, PlayerData>,
+                                         Boolean> operation) {
+        final Map<StorageBackend, Map<UUID, PlayerData>> byShard = Maps.newIdentityHashMap();
+        for (Map.Entry<UUID, PlayerData> entry : data.entrySet()) {
+            byShard.computeIfAbsent(this.ring.get(entry.getKey()), key -> Maps.newLinkedHashMap())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        if (byShard.size() == 1) {
+            final Map.Entry<StorageBackend, Map<UUID, PlayerData>> only =
+                    Iterables.getOnlyElement(byShard.entrySet());
+            return operation.apply(only.getKey(), only.getValue());
+        }
+        final List<CompletableFuture<Boolean>> futures = Lists.newArrayList();
+        for (Map.Entry<StorageBackend, Map<UUID, PlayerData>> entry : byShard.entrySet()) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> operation.apply(entry.getKey(), entry.getValue()), this.executor));
+        }
+        boolean result = true;
+        for (CompletableFuture<Boolean> future : futures) {
+            result &= join(future);
+        }
+        return result;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new StorageException(e.getCause());
+        }
+    }
+
+    @Override
+    public Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate) {
+        this.topology.readLock().lock();
+        try {
+            final StorageBackend owner = this.ring.get(uuid);
+            final ConsistentHashRing<StorageBackend> previous = this.previousRing;
+            if (previous == null || previous.get(uuid) == owner) {
+                return owner.loadPlayer(uuid, shouldCreate);
+            }
+            // Keep the rebalance from moving the player between reading both shards
+            final Lock lock = this.playerLocks.get(uuid);
+            lock.lock();
+            try {
+                final Optional<PlayerData> data = owner.loadPlayer(uuid, false);
+                if (data.isPresent()) {
+                    return data;
+                }
+                final Optional<PlayerData> old = previous.get(uuid).loadPlayer(uuid, false);
+                if (old.isPresent() || !shouldCreate) {
+                    return old;
+                }
+                return owner.loadPlayer(uuid, true);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            this.topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        this.topology.readLock().lock();
+        try {
+            return loadAllLocked(uuids);
+        } finally {
+            this.topology.readLock().unlock();
+        }
+    }
+
+    private Map<UUID, PlayerData> loadAllLocked(Collection<UUID> uuids) {
+        final Map<StorageBackend, List<UUID>> byShard = Maps.newIdentityHashMap();
+        for (UUID uuid : uuids) {
+            byShard.computeIfAbsent(this.ring.get(uuid), key -> Lists.newArrayList()).add(uuid);
+        }
+        final List<CompletableFuture<Map<UUID, PlayerData>>> futures = Lists.newArrayList();
+        for (Map.Entry<StorageBackend, List<UUID>> entry : byShard.entrySet()) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> entry.getKey().loadAll(entry.getValue()), this.executor));
+        }
+        final Map<UUID, PlayerData> loaded = Maps.newLinkedHashMap();
+        for (CompletableFuture<Map<UUID, PlayerData>> future : futures) {
+            loaded.putAll(join(future));
+        }
+        if (this.previousRing != null) {
+            for (UUID uuid : uuids) {
+                if (!loaded.containsKey(uuid)) {
+                    loadPlayer(uuid, false).ifPresent(data -> loaded.put(uuid, data));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public List<UUID> getAllStoredUsers() {
+        final Set<UUID> users = Sets.newLinkedHashSet();
+        for (StorageBackend shard : this.ring.getNodes().values()) {
+            users.addAll(shard.getAllStoredUsers());
+        }
+        return ImmutableList.copyOf(users);
+    }
+
+    @Override
+    public int getStoredUserCount() {
+        if (this.previousRing != null) {
+            // A player being moved may be on two shards at once
+            return getAllStoredUsers().size();
+        }
+        int count = 0;
+        for (StorageBackend shard : this.ring.getNodes().values()) {
+            count += shard.getStoredUserCount();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.skill;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the values precomputed by a {@link ScalingCurve}.
+ */
+public class ScalingCurveTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testLinearCurve() {
+        final ScalingCurve curve = ScalingCurve.create(ScalingCurve.Type.LINEAR, 100, 10, 20);
+        assertEquals(20, curve.getMaxLevel());
+        assertEquals(100, curve.get(0), DELTA);
+        assertEquals(150, curve.get(5), DELTA);
+        assertEquals(300, curve.get(20), DELTA);
+    }
+
+    @Test
+    public void testLevelsAreClamped() {
+        final ScalingCurve curve = ScalingCurve.create(ScalingCurve.Type.QUADRATIC, 1, 2, 10);
+        assertEquals(curve.get(0), curve.get(-1), DELTA);
+        assertEquals(curve.get(10), curve.get(11), DELTA);
+        assertEquals(201, curve.get(10), DELTA);
+    }
+
+    @Test
+    public void testTypeFromName() {
+        assertEquals(ScalingCurve.Type.SQUARE_ROOT, ScalingCurve.Type.fromName("square-root"));
+        assertEquals(ScalingCurve.Type.EXPONENTIAL, ScalingCurve.Type.fromName(" Exponential"));
+    }
+
+    @Test(expected = SkillConfigurationException.class)
+    public void testUnknownTypeThrows() {
+        ScalingCurve.Type.fromName("logarithmic");
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.skill;
+
+import java.lang.reflect.Field;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.spongepowered.api.event.cause.NamedCause;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+/**
+ * Checks the lookups of a {@link SkillCastContext} and the contexts appended to it.
+ */
+public class SkillCastContextTest {
+
+    private static SkillCastContext context() {
+        return SkillCastContext.of(NamedCause.of("Caster", "caster"),
+                                   NamedCause.of("Power", 5),
+                                   NamedCause.of("Target", "target"));
+    }
+
+    @Test
+    public void testLookupsByName() {
+        final SkillCastContext context = context();
+        assertEquals("target", context.get("target").get());
+        assertTrue(context.containsNamed("POWER"));
+        assertEquals(5, context.before("Target").get());
+        assertFalse(context.before("Caster").isPresent());
+        assertFalse(context.after("Target").isPresent());
+        assertFalse(context.get("Missing").isPresent());
+    }
+
+    @Test
+    public void testLookupsByType() {
+        final SkillCastContext context = context();
+        assertEquals("caster", context.first(String.class).get());
+        assertEquals("target", context.last(String.class).get());
+        assertEquals(5, context.before(String.class).get());
+        assertEquals(5, context.after(String.class).get());
+        assertFalse(context.containsType(Double.class));
+    }
+
+    @Test
+    public void testAppendedContextsAreIndependent() {
+        final SkillCastContext context = context();
+        final SkillCastContext first = context.with(NamedCause.of("Bonus", 1.5));
+        final SkillCastContext second = context.with(NamedCause.of("Bonus", "other"));
+        assertEquals(3, context.all().size());
+        assertFalse(context.containsNamed("Bonus"));
+        assertEquals(1.5, first.get("bonus").get());
+        assertEquals("other", second.get("bonus").get());
+        assertEquals(ImmutableList.of("caster", 5, "target", 1.5), first.all());
+        assertEquals(first, context.with(NamedCause.of("Extra", 1.5)));
+    }
+
+    @Test
+    public void testLongChains() {
+        SkillCastContext context = context();
+        for (int i = 0; i < 20; i++) {
+            context = context.with(NamedCause.of("Step" + i, i));
+        }
+        assertEquals(23, context.all().size());
+        assertEquals(Integer.valueOf(19), context.last(Integer.class).get());
+        assertEquals(7, context.get("step7").get());
+    }
+
+    @Test
+    public void testChainsShareArrays() throws Exception {
+        final Set<Object> backings = Sets.newIdentityHashSet();
+        SkillCastContext context = context();
+        backings.add(backing(context));
+        for (int i = 0; i < 20; i++) {
+            context = context.with(NamedCause.of("Step" + i, i));
+            backings.add(backing(context));
+        }
+        // Copied only when outgrowing the arrays, past 11 and past 22 causes
+        assertEquals(3, backings.size());
+        // A second context appending to the same one copies, and the copy is shared again
+        final SkillCastContext base = context();
+        base.with(NamedCause.of("Bonus", 1));
+        final SkillCastContext copied = base.with(NamedCause.of("Bonus", 2));
+        final SkillCastContext next = copied.with(NamedCause.of("Extra", 3));
+        assertNotSame(backing(base), backing(copied));
+        assertSame(backing(copied), backing(next));
+        assertEquals(ImmutableList.of("caster", 5, "target", 2, 3), next.all());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNamesAreUnique() {
+        context().with(NamedCause.of("target", "again"));
+    }
+
+    private static Object backing(SkillCastContext context) throws Exception {
+        final Field field = SkillCastContext.class.getDeclaredField("backing");
+        field.setAccessible(true);
+        return field.get(context);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.skill;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.spongepowered.api.data.DataQuery;
+
+/**
+ * Checks that {@link SkillSetting} nodes are interned to stable ids by the {@link
+ * SkillSettingRegistry}.
+ */
+public class SkillSettingTest {
+
+    @Test
+    public void testSameNodeSharesId() {
+        final SkillSetting custom = new SkillSetting("damage") { };
+        assertEquals(SkillSetting.DAMAGE.getId(), custom.getId());
+        assertEquals(SkillSetting.DAMAGE.getId(),
+                     SkillSettingRegistry.intern(DataQuery.of("damage")));
+    }
+
+    @Test
+    public void testScalingNodeIsInterned() {
+        final int scalingId = SkillSetting.DAMAGE.getScalingId();
+        assertNotEquals(SkillSetting.DAMAGE.getId(), scalingId);
+        assertEquals(SkillSetting.DAMAGE.scalingNode().get(),
+                     SkillSettingRegistry.getQuery(scalingId));
+        assertSame(SkillSetting.DAMAGE.scalingNode().get(),
+                   SkillSetting.DAMAGE.scalingNode().get());
+    }
+
+    @Test
+    public void testUnscaledSettingHasNoScalingId() {
+        assertEquals(-1, SkillSetting.USE_TEXT.getScalingId());
+        assertFalse(SkillSetting.USE_TEXT.scalingNode().isPresent());
+    }
+
+    @Test
+    public void testIdsAreDense() {
+        final int id = SkillSettingRegistry.intern(DataQuery.of("some-new-setting"));
+        assertEquals(SkillSettingRegistry.size() - 1, id);
+        assertEquals(DataQuery.of("some-new-setting"), SkillSettingRegistry.getQuery(id));
+    }
+
+    @Test
+    public void testIdsStayDenseWhileGrowing() {
+        final int first = SkillSettingRegistry.size();
+        for (int i = 0; i < 300; i++) {
+            assertEquals(first + i, SkillSettingRegistry.intern(DataQuery.of("grown-" + i)));
+        }
+        assertEquals(first + 300, SkillSettingRegistry.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(DataQuery.of("grown-" + i), SkillSettingRegistry.getQuery(first + i));
+        }
+        try {
+            SkillSettingRegistry.getQuery(first + 300);
+            fail("A node was found past the last id");
+        } catch (IndexOutOfBoundsException expected) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the bucketing, percentiles, mean and maximum of a {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    private static final long MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean(TimeUnit.NANOSECONDS));
+        assertEquals(0, snapshot.getMax(TimeUnit.NANOSECONDS));
+        assertEquals(0, snapshot.getPercentile(0.99, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testPercentilesRoundUpToBucketBound() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(1500);
+        histogram.record(3 * MICRO);
+        histogram.record(1000 * MICRO);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(4, snapshot.getCount());
+        assertEquals(MICRO, snapshot.getPercentile(0, TimeUnit.NANOSECONDS));
+        assertEquals(MICRO, snapshot.getPercentile(0.25, TimeUnit.NANOSECONDS));
+        assertEquals(2 * MICRO, snapshot.getPercentile(0.5, TimeUnit.NANOSECONDS));
+        assertEquals(4 * MICRO, snapshot.getPercentile(0.75, TimeUnit.NANOSECONDS));
+        // The bound of the last bucket, 1024 microseconds, is capped by the maximum
+        assertEquals(1000 * MICRO, snapshot.getPercentile(1, TimeUnit.NANOSECONDS));
+        assertEquals(1, snapshot.getPercentile(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBucketsDoubleFromOneMicrosecond() {
+        for (int bucket = 1; bucket < 20; bucket++) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            final long lower = (1L << (bucket - 1)) * MICRO;
+            final long upper = (1L << bucket) * MICRO;
+            histogram.record(lower);
+            histogram.record(upper - 1);
+            histogram.record(upper * 4);
+            final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            // Both ends of a bucket share its upper bound
+            assertEquals(upper, snapshot.getPercentile(0.5, TimeUnit.NANOSECONDS));
+            assertEquals(upper, snapshot.getPercentile(0.6, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    @Test
+    public void testMeanAndMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2 * MICRO);
+        histogram.record(4 * MICRO);
+        histogram.record(9 * MICRO);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(5 * MICRO, snapshot.getMean(TimeUnit.NANOSECONDS));
+        assertEquals(5, snapshot.getMean(TimeUnit.MICROSECONDS));
+        assertEquals(9 * MICRO, snapshot.getMax(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testOutOfRangeLatencies() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        // A negative latency counts as none at all, in the first bucket
+        assertEquals(MICRO, snapshot.getPercentile(0.5, TimeUnit.NANOSECONDS));
+        assertEquals(Long.MAX_VALUE / 2, snapshot.getMax(TimeUnit.NANOSECONDS));
+        // Anything past the last bucket is counted in it
+        assertEquals((1L << 39) * MICRO, snapshot.getPercentile(1, TimeUnit.NANOSECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRange() {
+        new LatencyHistogram().snapshot().getPercentile(1.5, TimeUnit.NANOSECONDS);
+    }
+}
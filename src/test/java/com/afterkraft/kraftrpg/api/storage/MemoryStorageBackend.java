@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link StorageBackend} keeping every player encoded in memory, for testing.
+ */
+public class MemoryStorageBackend implements StorageBackend {
+
+    private final ConcurrentNavigableMap<UUID, byte[]> stored = new ConcurrentSkipListMap<>();
+    private final AtomicInteger writes = new AtomicInteger();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean removePlayer(UUID uuid) {
+        return this.stored.remove(uuid) != null;
+    }
+
+    @Override
+    public boolean savePlayer(UUID uuid, PlayerData data) {
+        this.writes.incrementAndGet();
+        this.stored.put(uuid, PlayerDataCodec.encode(data));
+        return true;
+    }
+
+    @Override
+    public Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate) {
+        this.loads.incrementAndGet();
+        final byte[] encoded = this.stored.get(uuid);
+        if (encoded == null) {
+            if (!shouldCreate) {
+                return Optional.empty();
+            }
+            final PlayerData data = new PlayerData();
+            savePlayer(uuid, data);
+            return Optional.of(data);
+        }
+        return PlayerDataCodec.decode(encoded);
+    }
+
+    @Override
+    public List<UUID> getAllStoredUsers() {
+        return ImmutableList.copyOf(this.stored.keySet());
+    }
+
+    /**
+     * Gets the number of players written so far.
+     *
+     * @return The number of writes
+     */
+    public int getWriteCount() {
+        return this.writes.get();
+    }
+
+    /**
+     * Gets the number of players loaded so far.
+     *
+     * @return The number of loads
+     */
+    public int getLoadCount() {
+        return this.loads.get();
+    }
+
+    /**
+     * Gets the stored players, in ascending UUID order.
+     *
+     * @return The stored players
+     */
+    public Map<UUID, byte[]> getStored() {
+        return this.stored;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+import org.spongepowered.api.data.Queries;
+import org.spongepowered.api.data.persistence.InvalidDataException;
+
+import com.afterkraft.kraftrpg.api.RpgQueries;
+import com.afterkraft.kraftrpg.api.util.FixedPoint;
+
+/**
+ * Checks that {@link PlayerDataCodec} round-trips containers exactly and keeps the content
+ * version available for migration.
+ */
+public class PlayerDataCodecTest {
+
+    private static DataContainer sample() {
+        final DataContainer container = new MemoryDataContainer();
+        container.set(Queries.CONTENT_VERSION, 3);
+        container.set(DataQuery.of("Roles", "Primary"), "Warrior");
+        container.set(DataQuery.of("Roles", "Secondary"), "Miner");
+        container.set(DataQuery.of("Experience", "Warrior"), FixedPoint.valueOf(1234.5));
+        container.set(DataQuery.of("Experience", "Miner"), FixedPoint.valueOf(-2));
+        container.set(DataQuery.of("Cooldowns", "Fireball"), 1451606400000L);
+        container.set(DataQuery.of("Cooldowns", "Bolt"), -1L);
+        container.set(DataQuery.of("Mana"), 87);
+        container.set(DataQuery.of("Health"), 19.5D);
+        container.set(DataQuery.of("Verbose"), true);
+        container.set(DataQuery.of("Binds"), Arrays.asList("Fireball", "Bolt", "Fireball"));
+        return container;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final DataContainer decoded = PlayerDataCodec.decodeContainer(
+                PlayerDataCodec.encode(sample(), 3));
+
+        assertEquals(3, decoded.getInt(Queries.CONTENT_VERSION).get().intValue());
+        assertEquals("Warrior", decoded.getString(DataQuery.of("Roles", "Primary")).get());
+        assertEquals("Miner", decoded.getString(DataQuery.of("Roles", "Secondary")).get());
+        assertEquals(FixedPoint.valueOf(1234.5).rawValue(),
+                     decoded.getLong(DataQuery.of("Experience", "Warrior")
+                                             .then(RpgQueries.FIXED_POINT_RAW)).get().longValue());
+        assertEquals(FixedPoint.valueOf(-2).rawValue(),
+                     decoded.getLong(DataQuery.of("Experience", "Miner")
+                                             .then(RpgQueries.FIXED_POINT_RAW)).get().longValue());
+        assertEquals(1451606400000L,
+                     decoded.getLong(DataQuery.of("Cooldowns", "Fireball")).get().longValue());
+        assertEquals(-1L, decoded.getLong(DataQuery.of("Cooldowns", "Bolt")).get().longValue());
+        assertEquals(87, decoded.getInt(DataQuery.of("Mana")).get().intValue());
+        assertEquals(19.5D, decoded.getDouble(DataQuery.of("Health")).get(), 0);
+        assertEquals(true, decoded.getBoolean(DataQuery.of("Verbose")).get());
+        final List<String> binds = decoded.getStringList(DataQuery.of("Binds")).get();
+        assertEquals(Arrays.asList("Fireball", "Bolt", "Fireball"), binds);
+    }
+
+    @Test
+    public void testStableEncoding() {
+        final byte[] encoded = PlayerDataCodec.encode(sample(), 3);
+        assertArrayEquals(encoded,
+                          PlayerDataCodec.encode(PlayerDataCodec.decodeContainer(encoded), 3));
+    }
+
+    @Test
+    public void testContentVersionHeader() {
+        final byte[] encoded = PlayerDataCodec.encode(new PlayerData());
+        assertEquals(PlayerData.CONTENT_VERSION, PlayerDataCodec.readContentVersion(encoded));
+        assertEquals(PlayerData.CONTENT_VERSION,
+                     PlayerDataCodec.decodeContainer(encoded).getInt(Queries.CONTENT_VERSION)
+                             .get().intValue());
+        assertTrue(PlayerDataCodec.decode(encoded).isPresent());
+    }
+
+    @Test
+    public void testRepeatedStringsAreInterned() {
+        final DataContainer one = new MemoryDataContainer();
+        one.set(DataQuery.of("Skills"), Arrays.asList("SomeRatherLongSkillName"));
+        final DataContainer many = new MemoryDataContainer();
+        many.set(DataQuery.of("Skills"), Arrays.asList("SomeRatherLongSkillName",
+                "SomeRatherLongSkillName", "SomeRatherLongSkillName"));
+
+        // Each repeat only costs a value tag and a one byte string table index
+        assertEquals(PlayerDataCodec.encode(one, 0).length + 2 * 2,
+                     PlayerDataCodec.encode(many, 0).length);
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void testTruncatedRecord() {
+        final byte[] encoded = PlayerDataCodec.encode(sample(), 3);
+        PlayerDataCodec.decodeContainer(Arrays.copyOf(encoded, encoded.length - 3));
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void testNotARecord() {
+        PlayerDataCodec.decodeContainer(new byte[] {1, 2, 3, 4, 5, 6});
+    }
+}
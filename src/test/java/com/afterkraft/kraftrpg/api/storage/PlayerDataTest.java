@@ -0,0 +1,100 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.afterkraft.kraftrpg.api.storage.PlayerData.Section;
+
+/**
+ * Checks the per-section dirty tracking of {@link PlayerData} across snapshots.
+ */
+public class PlayerDataTest {
+
+    private static PlayerData saved() {
+        final PlayerData data = new PlayerData();
+        data.snapshot().markSaved();
+        return data;
+    }
+
+    @Test
+    public void testNewDataIsFullyDirty() {
+        assertEquals(EnumSet.allOf(Section.class), new PlayerData().getDirtySections());
+    }
+
+    @Test
+    public void testSavedSnapshotCleansLiveData() {
+        final PlayerData live = new PlayerData();
+        live.snapshot().markSaved();
+        assertFalse(live.isDirty());
+    }
+
+    @Test
+    public void testOnlyChangedSectionIsDirty() {
+        final PlayerData live = saved();
+        live.setSection(Section.COOLDOWNS, new MemoryDataContainer()
+                .set(DataQuery.of("Fireball"), 10L));
+        assertEquals(EnumSet.of(Section.COOLDOWNS), live.snapshot().getDirtySections());
+    }
+
+    @Test
+    public void testChangeAfterSnapshotSurvivesSave() {
+        final PlayerData live = saved();
+        live.markDirty(Section.ROLES);
+        final PlayerData snapshot = live.snapshot();
+        live.markDirty(Section.BINDS);
+        snapshot.markSaved();
+        assertEquals(EnumSet.of(Section.BINDS), live.getDirtySections());
+    }
+
+    @Test
+    public void testFailedSnapshotIsWrittenByNextOne() {
+        final PlayerData live = saved();
+        live.markDirty(Section.EXPERIENCE);
+        live.snapshot(); // The write of this snapshot failed, so it is never marked
+        live.markDirty(Section.EFFECTS);
+        assertEquals(EnumSet.of(Section.EXPERIENCE, Section.EFFECTS),
+                     live.snapshot().getDirtySections());
+    }
+
+    @Test
+    public void testSectionsSurviveRoundTrip() {
+        final PlayerData live = new PlayerData();
+        live.setSection(Section.ROLES, new MemoryDataContainer()
+                .set(DataQuery.of("Primary"), "Warrior"));
+        final PlayerData loaded = PlayerDataCodec.decode(PlayerDataCodec.encode(live)).get();
+        assertFalse(loaded.isDirty());
+        assertTrue(loaded.getSection(Section.ROLES).isPresent());
+        assertEquals("Warrior", loaded.getSection(Section.ROLES).get()
+                .getString(DataQuery.of("Primary")).get());
+    }
+}
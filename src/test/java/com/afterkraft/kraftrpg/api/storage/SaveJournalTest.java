@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.util.Util;
+
+/**
+ * Checks that a {@link SaveJournal} replays the latest unwritten data of every player, recovers a
+ * group record whole unless aborted, retires what was written, stops at a torn record, and
+ * retries writes that failed.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class SaveJournalTest {
+
+    private static final DataQuery VALUE = DataQuery.of("Value");
+    private static final UUID FIRST = new UUID(0, 1);
+    private static final UUID SECOND = new UUID(0, 2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(Util.logger);
+        replay(RpgCommon.class);
+        this.directory = this.folder.getRoot().toPath().resolve("journal");
+    }
+
+    private static PlayerData data(String value) {
+        final PlayerData data = new PlayerData();
+        data.setSection(PlayerData.Section.ROLES, new MemoryDataContainer().set(VALUE, value));
+        return data;
+    }
+
+    private static String value(PlayerData data) {
+        return data.getSection(PlayerData.Section.ROLES).get().getString(VALUE).get();
+    }
+
+    private List<Path> files() throws IOException {
+        final List<Path> paths = Lists.newArrayList();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    @Test
+    public void testReplaysLatestData() throws IOException {
+        final SaveJournal journal = SaveJournal.open(this.directory);
+        journal.append(FIRST, data("first"));
+        journal.append(SECOND, data("second"));
+        journal.append(FIRST, data("latest"));
+        journal.close();
+
+        final SaveJournal reopened = SaveJournal.open(this.directory);
+        assertEquals(3, reopened.getLastSequence());
+        assertEquals(2, reopened.getRecovered().size());
+        assertEquals("latest", value(reopened.getRecovered().get(FIRST)));
+        assertEquals("second", value(reopened.getRecovered().get(SECOND)));
+        reopened.close();
+    }
+
+    @Test
+    public void testRetiresWrittenData() throws IOException {
+        final SaveJournal journal = SaveJournal.open(this.directory);
+        journal.append(FIRST, data("first"));
+        final long covered = journal.append(SECOND, data("second"));
+        journal.append(SECOND, data("newer"));
+        journal.markWritten(Arrays.asList(FIRST, SECOND), covered);
+        assertEquals(1, journal.getUnwrittenCount());
+        journal.close();
+
+        final SaveJournal reopened = SaveJournal.open(this.directory);
+        assertEquals("newer", value(reopened.getRecovered().get(SECOND)));
+        reopened.markWritten(reopened.getRecovered().keySet(), reopened.getLastSequence());
+        reopened.close();
+
+        final SaveJournal retired = SaveJournal.open(this.directory);
+        assertTrue(retired.getRecovered().isEmpty());
+        retired.close();
+    }
+
+    @Test
+    public void testGroupIsRecoveredUnlessAborted() throws IOException {
+        final SaveJournal journal = SaveJournal.open(this.directory);
+        journal.append(FIRST, data("first"));
+        final long aborted = journal.appendAll(ImmutableMap.of(FIRST, data("aborted"),
+                                                               SECOND, data("aborted")));
+        journal.awaitDurable(aborted, 10, TimeUnit.SECONDS);
+        journal.abort(aborted);
+        // The record the aborted group superseded is still needed
+        assertEquals(1, journal.getUnwrittenCount());
+        journal.close();
+
+        final SaveJournal reopened = SaveJournal.open(this.directory);
+        assertEquals("first", value(reopened.getRecovered().get(FIRST)));
+        assertFalse(reopened.getRecovered().containsKey(SECOND));
+        final long grouped = reopened.appendAll(ImmutableMap.of(FIRST, data("grouped"),
+                                                                SECOND, data("grouped")));
+        reopened.release(grouped);
+        reopened.close();
+
+        final SaveJournal released = SaveJournal.open(this.directory);
+        assertEquals("grouped", value(released.getRecovered().get(FIRST)));
+        assertEquals("grouped", value(released.getRecovered().get(SECOND)));
+        released.close();
+    }
+
+    @Test
+    public void testTornRecordEndsReplay() throws IOException {
+        final SaveJournal journal = SaveJournal.open(this.directory);
+        journal.append(FIRST, data("first"));
+        journal.append(SECOND, data("second"));
+        journal.close();
+
+        final List<Path> files = files();
+        assertEquals(1, files.size());
+        try (FileChannel channel = FileChannel.open(files.get(0), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        final SaveJournal reopened = SaveJournal.open(this.directory);
+        assertEquals("first", value(reopened.getRecovered().get(FIRST)));
+        assertFalse(reopened.getRecovered().containsKey(SECOND));
+        reopened.close();
+    }
+
+    @Test
+    public void testFailedWriteIsRetried() throws Exception {
+        final SaveJournal journal = SaveJournal.open(this.directory);
+        // Nowhere to create the first file in
+        Files.delete(this.directory);
+        journal.append(FIRST, data("first"));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                journal.append(SECOND, data("second"));
+            } catch (StorageException expected) {
+                break;
+            }
+            if (System.nanoTime() > deadline) {
+                fail("Appending should fail while the journal cannot be written");
+            }
+            Thread.sleep(10);
+        }
+
+        Files.createDirectories(this.directory);
+        while (journal.getDurableSequence() < 1) {
+            if (System.nanoTime() > deadline) {
+                fail("The journal should have recovered");
+            }
+            Thread.sleep(10);
+        }
+        journal.close();
+        final SaveJournal reopened = SaveJournal.open(this.directory);
+        assertEquals("first", value(reopened.getRecovered().get(FIRST)));
+        reopened.close();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.Sets;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.util.Util;
+
+/**
+ * Checks that a {@link StorageConversion} copies every player, and resumes from its checkpoint
+ * without copying what was already written.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class StorageConversionTest {
+
+    private static final int PLAYERS = 50;
+    private static final DataQuery PRIMARY = DataQuery.of("Primary");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryStorageBackend source;
+    private Path checkpoint;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(Util.logger);
+        replay(RpgCommon.class);
+
+        this.source = new MemoryStorageBackend();
+        for (int i = 0; i < PLAYERS; i++) {
+            final PlayerData data = new PlayerData();
+            data.setSection(PlayerData.Section.ROLES,
+                            new MemoryDataContainer().set(PRIMARY, "Role" + i));
+            this.source.savePlayer(new UUID(0, i), data);
+        }
+        this.checkpoint = this.folder.getRoot().toPath().resolve("conversion.checkpoint");
+    }
+
+    private StorageConversion conversion(StorageBackend target) {
+        return StorageConversion.builder()
+                .setSource(this.source)
+                .setTarget(target)
+                .setCheckpoint(this.checkpoint)
+                .setWorkers(1)
+                .setPageSize(7)
+                .build();
+    }
+
+    private static void assertConverted(MemoryStorageBackend target) {
+        assertEquals(PLAYERS, target.getStored().size());
+        for (int i = 0; i < PLAYERS; i++) {
+            assertEquals("Role" + i, target.loadPlayer(new UUID(0, i), false).get()
+                    .getSection(PlayerData.Section.ROLES).get().getString(PRIMARY).get());
+        }
+    }
+
+    @Test
+    public void testConvertsEveryPlayer() {
+        final MemoryStorageBackend target = new MemoryStorageBackend();
+        final StorageConversion conversion = StorageConversion.builder()
+                .setSource(this.source)
+                .setTarget(target)
+                .setCheckpoint(this.checkpoint)
+                .setWorkers(3)
+                .setPageSize(4)
+                .build();
+        conversion.run();
+        assertEquals(PLAYERS, conversion.getConvertedCount());
+        assertConverted(target);
+        assertFalse(Files.exists(this.checkpoint));
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws Exception {
+        final FailingBackend target = new FailingBackend(new UUID(0, 30));
+        try {
+            conversion(target).run();
+            fail("The conversion should have failed");
+        } catch (StorageException expected) {
+            // The page holding the failing player was not written
+        }
+        // Pages of seven, the last one written completely ends with player 27
+        final UUID resumeAfter = UUID.fromString(new String(Files.readAllBytes(this.checkpoint),
+                                                            StandardCharsets.UTF_8).trim());
+        assertEquals(new UUID(0, 27), resumeAfter);
+
+        target.failing = null;
+        target.saved.clear();
+        final StorageConversion resumed = conversion(target);
+        resumed.run();
+        assertEquals(PLAYERS - 28, resumed.getConvertedCount());
+        for (UUID uuid : target.saved) {
+            assertTrue(uuid.compareTo(resumeAfter) > 0);
+        }
+        assertConverted(target);
+        assertFalse(Files.exists(this.checkpoint));
+    }
+
+    /**
+     * Fails every batch holding a given player.
+     */
+    private static final class FailingBackend extends MemoryStorageBackend {
+
+        final Set<UUID> saved = Sets.newConcurrentHashSet();
+        volatile UUID failing;
+
+        FailingBackend(UUID failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public boolean saveAll(Map<UUID, PlayerData> data) {
+            if (data.containsKey(this.failing)) {
+                throw new StorageException("Failing on " + this.failing);
+            }
+            this.saved.addAll(data.keySet());
+            return super.saveAll(data);
+        }
+    }
+}
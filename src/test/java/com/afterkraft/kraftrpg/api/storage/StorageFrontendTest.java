@@ -0,0 +1,518 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+import org.spongepowered.api.entity.living.player.Player;
+
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.entity.Champion;
+import com.afterkraft.kraftrpg.api.entity.EntityManager;
+import com.afterkraft.kraftrpg.api.storage.PlayerData.Section;
+import com.afterkraft.kraftrpg.api.util.Util;
+
+/**
+ * Checks the write-behind engine and the loading paths of a {@link StorageFrontend}, driving its
+ * drains by hand.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class StorageFrontendTest {
+
+    private static final DataQuery VALUE = DataQuery.of("Value");
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<UUID, Champion> live = Maps.newConcurrentMap();
+    private TestFrontend frontend;
+
+    @Before
+    public void setUp() {
+        // Champions are created holding the data they were loaded with
+        final EntityManager manager = createMock(EntityManager.class);
+        expect(manager.createChampionWithData(anyObject(Player.class),
+                                              anyObject(PlayerData.class)))
+                .andStubAnswer(() -> champion((PlayerData) getCurrentArguments()[1]));
+        EasyMock.<Optional<? extends Champion>>expect(manager.getChampion(anyObject(UUID.class)))
+                .andStubAnswer(() -> Optional.ofNullable(
+                        this.live.get((UUID) getCurrentArguments()[0])));
+        replay(manager);
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(Util.logger);
+        expect(RpgCommon.getEntityManager()).andStubReturn(manager);
+        replay(RpgCommon.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.frontend != null) {
+            this.frontend.shutdown();
+        }
+    }
+
+    private static WriteBehindQueue.Settings.Builder settings() {
+        // Ten drains per interval
+        return WriteBehindQueue.Settings.builder()
+                .setFlushInterval(10, TimeUnit.SECONDS)
+                .setDrainPeriod(1, TimeUnit.SECONDS)
+                .setBatchSize(1000)
+                .setMaxPendingBatches(100)
+                .setShutdownDeadline(1, TimeUnit.SECONDS);
+    }
+
+    private static PlayerData data(String value) {
+        final PlayerData data = new PlayerData();
+        data.setSection(Section.ROLES, new MemoryDataContainer().set(VALUE, value));
+        return data;
+    }
+
+    private static String value(PlayerData data) {
+        return data.getSection(Section.ROLES).get().getString(VALUE).get();
+    }
+
+    private static Player player(UUID uuid) {
+        final Player player = createMock(Player.class);
+        expect(player.getUniqueId()).andStubReturn(uuid);
+        replay(player);
+        return player;
+    }
+
+    private static Champion champion(PlayerData data) {
+        final Champion champion = createMock(Champion.class);
+        expect(champion.getData()).andStubReturn(data);
+        replay(champion);
+        return champion;
+    }
+
+    private static Champion champion(UUID uuid, PlayerData data) {
+        final Champion champion = createMock(Champion.class);
+        expect(champion.getPlayer()).andStubReturn(Optional.of(player(uuid)));
+        expect(champion.getData()).andStubReturn(data);
+        replay(champion);
+        return champion;
+    }
+
+    private Optional<Champion> load(UUID uuid, boolean shouldCreate) throws Exception {
+        return this.frontend.loadChampionAsync(player(uuid), shouldCreate)
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void queue(int from, int to) {
+        for (int i = from; i < to; i++) {
+            this.frontend.saveOfflineChampion(new UUID(0, i), data("Player" + i));
+        }
+    }
+
+    private void awaitBatches() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (this.frontend.getPendingBatchCount() > 0) {
+            assertTrue("The writers did not finish in time", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testBacklogIsDrainedWithinInterval() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings().build());
+        queue(0, 100);
+        for (int drain = 1; drain <= 5; drain++) {
+            this.frontend.drain();
+            assertEquals(100 - 10 * drain, this.frontend.getPendingSaveCount());
+        }
+        // Saves queued mid-interval are spread over the drains left in it
+        queue(100, 110);
+        for (int drain = 6; drain <= 10; drain++) {
+            this.frontend.drain();
+        }
+        assertEquals(0, this.frontend.getPendingSaveCount());
+        awaitBatches();
+        assertEquals(110, backend.getStored().size());
+        assertEquals("Player42", value(backend.loadPlayer(new UUID(0, 42), false).get()));
+    }
+
+    @Test
+    public void testQueuedSavesCoalesce() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings().build());
+        final UUID uuid = new UUID(0, 1);
+        this.frontend.saveOfflineChampion(uuid, data("First"));
+        this.frontend.saveOfflineChampion(uuid, data("Second"));
+        assertEquals(1, this.frontend.getPendingSaveCount());
+        for (int drain = 0; drain < 10; drain++) {
+            this.frontend.drain();
+        }
+        awaitBatches();
+        assertEquals(1, backend.getWriteCount());
+        assertEquals("Second", value(backend.loadPlayer(uuid, false).get()));
+    }
+
+    @Test
+    public void testBackpressurePausesDraining() throws Exception {
+        final BlockingBackend backend = new BlockingBackend();
+        // One drain per interval, so every drain takes the whole backlog
+        this.frontend = new TestFrontend(backend, settings()
+                .setFlushInterval(1, TimeUnit.SECONDS)
+                .setBatchSize(2)
+                .setMaxPendingBatches(1)
+                .build());
+        queue(0, 10);
+        this.frontend.drain();
+        // Only one batch may be in flight, the rest keeps waiting in the queue
+        assertEquals(1, this.frontend.getPendingBatchCount());
+        assertEquals(8, this.frontend.getPendingSaveCount());
+        assertEquals(1, this.frontend.getBackpressuredDrainCount());
+
+        backend.release.countDown();
+        for (int drain = 0; drain < 10 && this.frontend.getPendingSaveCount() > 0; drain++) {
+            awaitBatches();
+            this.frontend.drain();
+        }
+        awaitBatches();
+        assertEquals(0, this.frontend.getPendingSaveCount());
+        assertEquals(10, backend.getStored().size());
+    }
+
+    @Test
+    public void testPrefetchedDataIsLoadedOnce() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        final UUID uuid = new UUID(0, 1);
+        backend.savePlayer(uuid, data("Stored"));
+        this.frontend = new TestFrontend(backend, settings().build());
+        final CompletableFuture<Optional<PlayerData>> prefetched = this.frontend.prefetch(uuid);
+        assertSame(prefetched, this.frontend.prefetch(uuid));
+
+        assertEquals("Stored", value(load(uuid, false).get().getData()));
+        assertEquals(1, backend.getLoadCount());
+        // The join used the prefetched data up
+        load(uuid, false);
+        assertEquals(2, backend.getLoadCount());
+    }
+
+    @Test
+    public void testAsyncLoadCreatesMissingPlayers() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        final UUID uuid = new UUID(0, 1);
+        this.frontend = new TestFrontend(backend, settings().build());
+        assertFalse(this.frontend.prefetch(uuid).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .isPresent());
+
+        // Nothing was prefetched, so it is loaded again to be created
+        assertTrue(load(uuid, true).isPresent());
+        assertTrue(backend.getStored().containsKey(uuid));
+        assertFalse(load(new UUID(0, 2), false).isPresent());
+    }
+
+    @Test
+    public void testAsyncLoadPrefersQueuedData() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        final UUID uuid = new UUID(0, 1);
+        backend.savePlayer(uuid, data("Stored"));
+        this.frontend = new TestFrontend(backend, settings().build());
+        this.frontend.prefetch(uuid).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        this.frontend.saveOfflineChampion(uuid, data("Queued"));
+
+        assertEquals("Queued", value(load(uuid, false).get().getData()));
+    }
+
+    @Test
+    public void testOfflineSavesRefusedForOnlinePlayers() {
+        final UUID uuid = new UUID(0, 1);
+        this.frontend = new TestFrontend(new MemoryStorageBackend(), settings().build(),
+                                         Collections.singleton(uuid));
+        try {
+            this.frontend.saveOfflineChampion(uuid, data("Offline"));
+            fail("An offline save of an online player was queued");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+        assertEquals(0, this.frontend.getPendingSaveCount());
+    }
+
+    @Test
+    public void testPlayersOnlineAtStartAreLoadedFromChampion() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        final UUID uuid = new UUID(0, 1);
+        backend.savePlayer(uuid, data("Stored"));
+        this.live.put(uuid, champion(data("Live")));
+        this.frontend = new TestFrontend(backend, settings().build(),
+                                         Collections.singleton(uuid));
+
+        assertEquals("Live", value(this.frontend.loadOfflineChampion(uuid).get()));
+        assertEquals("Live", value(this.frontend.loadOfflineChampionAsync(uuid)
+                                           .get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get()));
+        assertEquals(0, backend.getLoadCount());
+    }
+
+    @Test
+    public void testOfflineCacheServesRepeatedLoads() {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        final UUID uuid = new UUID(0, 1);
+        backend.savePlayer(uuid, data("Stored"));
+        this.frontend = new TestFrontend(backend, settings().build());
+
+        final PlayerData first = this.frontend.loadOfflineChampion(uuid).get();
+        first.setSection(Section.ROLES, new MemoryDataContainer().set(VALUE, "Modified"));
+        // Every load hands out its own copy
+        assertEquals("Stored", value(this.frontend.loadOfflineChampion(uuid).get()));
+        assertFalse(this.frontend.loadOfflineChampion(new UUID(0, 2)).isPresent());
+        assertFalse(this.frontend.loadOfflineChampion(new UUID(0, 2)).isPresent());
+        assertEquals(2, backend.getLoadCount());
+        assertEquals(2, this.frontend.getOfflineCacheStats().hitCount());
+    }
+
+    @Test
+    public void testOfflineCacheDropsWrittenPlayers() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        final UUID uuid = new UUID(0, 1);
+        backend.savePlayer(uuid, data("Stored"));
+        this.frontend = new TestFrontend(backend, settings().build());
+        this.frontend.loadOfflineChampion(uuid);
+
+        this.frontend.saveOfflineChampion(uuid, data("Queued"));
+        assertEquals("Queued", value(this.frontend.loadOfflineChampion(uuid).get()));
+        this.frontend.flush();
+        assertEquals("Queued", value(this.frontend.loadOfflineChampion(uuid).get()));
+        assertEquals(2, backend.getLoadCount());
+    }
+
+    @Test
+    public void testOfflineCacheSkipsReadsRacingWrites() throws Exception {
+        final RacingBackend backend = new RacingBackend();
+        final UUID uuid = new UUID(0, 1);
+        backend.savePlayer(uuid, data("Stored"));
+        this.frontend = new TestFrontend(backend, settings().build());
+        final CompletableFuture<Optional<PlayerData>> racing =
+                this.frontend.loadOfflineChampionAsync(uuid);
+        assertTrue(backend.reading.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Written after the loader read the old data, but before the loader finished
+        this.frontend.beginTransaction().put(uuid, data("Committed")).commit();
+        backend.release.countDown();
+        assertEquals("Stored", value(racing.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get()));
+        assertEquals("Committed", value(this.frontend.loadOfflineChampion(uuid).get()));
+    }
+
+    @Test
+    public void testJournalReplaysUnwrittenSaves() throws Exception {
+        final Path journal = this.folder.getRoot().toPath().resolve("journal");
+        final WriteBehindQueue.Settings settings = settings()
+                .setJournalDirectory(journal)
+                .setSpillDirectory(journal)
+                .build();
+        final UnavailableBackend unavailable = new UnavailableBackend();
+        this.frontend = new TestFrontend(unavailable, settings);
+        queue(0, 2);
+        this.frontend.saveChampion(champion(new UUID(0, 2), data("Champion")));
+        // Journals the champion, then fails to write anything
+        this.frontend.drain();
+        awaitBatches();
+        this.frontend.shutdown();
+        this.frontend = null;
+
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings);
+        assertEquals(3, backend.getStored().size());
+        assertEquals("Player1", value(backend.loadPlayer(new UUID(0, 1), false).get()));
+        assertEquals("Champion", value(backend.loadPlayer(new UUID(0, 2), false).get()));
+    }
+
+    @Test
+    public void testJournalRetiresWrittenSaves() throws Exception {
+        final Path journal = this.folder.getRoot().toPath().resolve("journal");
+        final WriteBehindQueue.Settings settings = settings().setJournalDirectory(journal).build();
+        this.frontend = new TestFrontend(new MemoryStorageBackend(), settings);
+        queue(0, 10);
+        for (int drain = 0; drain < 10; drain++) {
+            this.frontend.drain();
+        }
+        awaitBatches();
+        this.frontend.shutdown();
+        this.frontend = null;
+
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings);
+        assertEquals(0, backend.getWriteCount());
+    }
+
+    @Test
+    public void testShutdownWritesPendingSaves() {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings().setBatchSize(8).build());
+        queue(0, 50);
+        this.frontend.shutdown();
+        this.frontend = null;
+        assertEquals(50, backend.getStored().size());
+    }
+
+    @Test
+    public void testShutdownSpillsPastDeadline() {
+        final Path spill = this.folder.getRoot().toPath().resolve("spill");
+        final WriteBehindQueue.Settings settings = settings()
+                .setBatchSize(2)
+                .setShutdownDeadline(200, TimeUnit.MILLISECONDS)
+                .setSpillDirectory(spill)
+                .build();
+        final BlockingBackend blocked = new BlockingBackend();
+        this.frontend = new TestFrontend(blocked, settings);
+        queue(0, 5);
+        final long start = System.nanoTime();
+        this.frontend.shutdown();
+        this.frontend = null;
+        // One deadline for the writers, and another once they were interrupted
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS));
+        assertTrue(blocked.getStored().isEmpty());
+
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings);
+        assertEquals(5, backend.getStored().size());
+        assertEquals("Player4", value(backend.loadPlayer(new UUID(0, 4), false).get()));
+    }
+
+    /**
+     * A frontend which neither schedules its drains nor touches the server.
+     */
+    static final class TestFrontend extends StorageFrontend {
+
+        private final SavingStarterTask task = new SavingStarterTask();
+
+        TestFrontend(StorageBackend backend, WriteBehindQueue.Settings settings) {
+            this(backend, settings, Collections.emptySet());
+        }
+
+        TestFrontend(StorageBackend backend, WriteBehindQueue.Settings settings,
+                     Collection<UUID> online) {
+            super(null, backend, settings, Runnable::run, online, false);
+        }
+
+        void drain() {
+            this.task.run();
+        }
+
+        @Override
+        boolean isMainThread() {
+            return true;
+        }
+
+        @Override
+        public Optional<Champion> loadChampion(Player player, boolean shouldCreate) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A backend whose first load waits, after reading, until released.
+     */
+    private static final class RacingBackend extends MemoryStorageBackend {
+
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate) {
+            final Optional<PlayerData> data = super.loadPlayer(uuid, shouldCreate);
+            if (this.reading.getCount() > 0) {
+                this.reading.countDown();
+                try {
+                    this.release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StorageException("Interrupted", e);
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * A backend failing every write.
+     */
+    private static final class UnavailableBackend extends MemoryStorageBackend {
+
+        @Override
+        public boolean savePlayer(UUID uuid, PlayerData data) {
+            throw new StorageException("Unavailable");
+        }
+
+        @Override
+        public boolean saveAll(Map<UUID, PlayerData> data) {
+            throw new StorageException("Unavailable");
+        }
+    }
+
+    /**
+     * A backend whose batch writes wait until released.
+     */
+    private static final class BlockingBackend extends MemoryStorageBackend {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean saveAll(Map<UUID, PlayerData> data) {
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Interrupted", e);
+            }
+            return super.saveAll(data);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.newCapture;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.easymock.Capture;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.slf4j.Logger;
+
+import com.google.common.collect.Lists;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.storage.StorageMetrics.Operation;
+
+/**
+ * Checks that {@link StorageMetrics} counts operations, and logs those slower than its threshold
+ * along with the players involved.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class StorageMetricsTest {
+
+    private static List<UUID> players(int count) {
+        final List<UUID> uuids = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            uuids.add(new UUID(0, i));
+        }
+        return uuids;
+    }
+
+    @Test
+    public void testSlowOperationsAreLoggedWithPlayers() {
+        final Logger logger = createMock(Logger.class);
+        final Capture<String> warning = newCapture();
+        logger.warn(capture(warning));
+        expectLastCall().once();
+        replay(logger);
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(logger);
+        replay(RpgCommon.class);
+
+        final StorageMetrics metrics = new StorageMetrics();
+        metrics.setSlowThreshold(10, TimeUnit.MILLISECONDS);
+        final List<UUID> uuids = players(3);
+        metrics.record(Operation.SAVE_ALL, TimeUnit.MILLISECONDS.toNanos(9),
+                       StorageMetrics.describe(uuids));
+        assertFalse(warning.hasCaptured());
+        metrics.record(Operation.SAVE_ALL, TimeUnit.MILLISECONDS.toNanos(10),
+                       StorageMetrics.describe(uuids));
+        verify(logger);
+
+        assertTrue(warning.getValue().contains("SAVE_ALL"));
+        for (UUID uuid : uuids) {
+            assertTrue(warning.getValue().contains(uuid.toString()));
+        }
+        assertEquals(2, metrics.getLatency(Operation.SAVE_ALL).getCount());
+    }
+
+    @Test
+    public void testSlowThreshold() {
+        final StorageMetrics metrics = new StorageMetrics();
+        assertEquals(250, metrics.getSlowThreshold(TimeUnit.MILLISECONDS));
+        metrics.setSlowThreshold(2, TimeUnit.SECONDS);
+        assertEquals(2000, metrics.getSlowThreshold(TimeUnit.MILLISECONDS));
+        try {
+            metrics.setSlowThreshold(0, TimeUnit.SECONDS);
+            fail("A threshold of zero was accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertEquals(2000, metrics.getSlowThreshold(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDescribeNamesFirstPlayers() {
+        final List<UUID> uuids = players(25);
+        assertEquals(uuids.get(0), StorageMetrics.describe(uuids.subList(0, 1)));
+        final String described = StorageMetrics.describe(uuids).toString();
+        assertTrue(described.startsWith("25 players [" + uuids.get(0) + ", "));
+        assertTrue(described.contains(uuids.get(9).toString()));
+        assertFalse(described.contains(uuids.get(10).toString()));
+        assertTrue(described.endsWith(" and 15 more]"));
+        assertEquals("2 players [" + uuids.get(0) + ", " + uuids.get(1) + "]",
+                     StorageMetrics.describe(uuids.subList(0, 2)).toString());
+    }
+
+    @Test
+    public void testCountsErrorsAndBytes() {
+        final StorageMetrics metrics = new StorageMetrics();
+        metrics.recordError(Operation.LOAD);
+        metrics.recordError(Operation.LOAD);
+        metrics.recordBytesWritten(100);
+        metrics.recordBytesWritten(28);
+        assertEquals(2, metrics.getErrorCount(Operation.LOAD));
+        assertEquals(0, metrics.getErrorCount(Operation.SAVE));
+        assertEquals(128, metrics.getBytesWritten());
+        assertTrue(metrics.toString().contains("LOAD={count=0, errors=2"));
+        assertFalse(metrics.toString().contains("SAVE="));
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.storage.PlayerData.Section;
+import com.afterkraft.kraftrpg.api.storage.StorageFrontendTest.TestFrontend;
+import com.afterkraft.kraftrpg.api.storage.StorageTransaction.State;
+import com.afterkraft.kraftrpg.api.util.Util;
+
+/**
+ * Checks the lifecycle of a {@link StorageTransaction} and that a journaled transaction survives a
+ * crash in the middle of its backend write as a whole.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class StorageTransactionTest {
+
+    private static final DataQuery VALUE = DataQuery.of("Value");
+    private static final UUID FIRST = new UUID(0, 1);
+    private static final UUID SECOND = new UUID(0, 2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestFrontend frontend;
+
+    @Before
+    public void setUp() {
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(Util.logger);
+        replay(RpgCommon.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.frontend != null) {
+            this.frontend.shutdown();
+        }
+    }
+
+    private WriteBehindQueue.Settings settings(boolean journaled) {
+        return WriteBehindQueue.Settings.builder()
+                .setFlushInterval(1, TimeUnit.SECONDS)
+                .setDrainPeriod(1, TimeUnit.SECONDS)
+                .setShutdownDeadline(1, TimeUnit.SECONDS)
+                .setJournalDirectory(journaled ? journal() : null)
+                .build();
+    }
+
+    private Path journal() {
+        return this.folder.getRoot().toPath().resolve("journal");
+    }
+
+    private static PlayerData data(String value) {
+        final PlayerData data = new PlayerData();
+        data.setSection(Section.ROLES, new MemoryDataContainer().set(VALUE, value));
+        return data;
+    }
+
+    private static String stored(StorageBackend backend, UUID uuid) {
+        return backend.loadPlayer(uuid, false).get()
+                .getSection(Section.ROLES).get().getString(VALUE).get();
+    }
+
+    @Test
+    public void testCommitWritesEveryParticipant() {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings(false));
+        final StorageTransaction transaction = this.frontend.beginTransaction()
+                .put(FIRST, data("first"))
+                .put(SECOND, data("second"));
+        assertEquals(State.OPEN, transaction.getState());
+        assertEquals(-1, transaction.getCommitLatency(TimeUnit.NANOSECONDS));
+        transaction.commit();
+
+        assertEquals(State.COMMITTED, transaction.getState());
+        assertTrue(transaction.getCommitLatency(TimeUnit.NANOSECONDS) >= 0);
+        assertEquals("first", stored(backend, FIRST));
+        assertEquals("second", stored(backend, SECOND));
+        try {
+            transaction.commit();
+            fail("A committed transaction was committed again");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRollbackWritesNothing() {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings(false));
+        final StorageTransaction transaction = this.frontend.beginTransaction()
+                .put(FIRST, data("first"));
+        transaction.rollback();
+
+        assertEquals(State.ROLLED_BACK, transaction.getState());
+        assertTrue(transaction.getMutations().isEmpty());
+        assertEquals(0, backend.getWriteCount());
+        try {
+            transaction.put(SECOND, data("second"));
+            fail("A rolled back transaction was staged to");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCommitSupersedesStagedOfflineData() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings(false));
+        this.frontend.saveOfflineChampion(FIRST, data("queued"));
+        this.frontend.saveOfflineChampion(SECOND, data("queued"));
+        final StorageTransaction transaction = this.frontend.beginTransaction()
+                .put(FIRST, data("first"))
+                .put(SECOND, data("second"));
+        // Queued after staging, so newer than the transaction
+        this.frontend.saveOfflineChampion(SECOND, data("newer"));
+        transaction.commit();
+
+        assertEquals(1, this.frontend.getPendingSaveCount());
+        this.frontend.flush();
+        assertEquals("first", stored(backend, FIRST));
+        assertEquals("newer", stored(backend, SECOND));
+    }
+
+    @Test
+    public void testFailedCommit() {
+        this.frontend = new TestFrontend(new FailingBackend(), settings(true));
+        final StorageTransaction transaction = this.frontend.beginTransaction()
+                .put(FIRST, data("first"))
+                .put(SECOND, data("second"));
+        try {
+            transaction.commit();
+            fail("The failed commit was not reported");
+        } catch (StorageException expected) {
+            // Expected
+        }
+        assertEquals(State.FAILED, transaction.getState());
+        this.frontend.shutdown();
+        this.frontend = null;
+
+        // The aborted transaction is not replayed on the next start
+        final MemoryStorageBackend restarted = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(restarted, settings(true));
+        assertEquals(0, restarted.getWriteCount());
+    }
+
+    @Test
+    public void testAsyncCommitIsClaimedImmediately() throws Exception {
+        final MemoryStorageBackend backend = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(backend, settings(false));
+        final StorageTransaction transaction = this.frontend.beginTransaction()
+                .put(FIRST, data("first"));
+        final CompletableFuture<Void> commit = transaction.commitAsync();
+        assertFalse(transaction.getState() == State.OPEN);
+        try {
+            transaction.commitAsync();
+            fail("A transaction was committed twice");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+        commit.get(10, TimeUnit.SECONDS);
+        assertEquals(State.COMMITTED, transaction.getState());
+        assertEquals("first", stored(backend, FIRST));
+    }
+
+    @Test
+    public void testCrashedCommitIsCompletedFromJournal() {
+        this.frontend = new TestFrontend(new CrashingBackend(), settings(true));
+        final StorageTransaction transaction = this.frontend.beginTransaction()
+                .put(FIRST, data("first"))
+                .put(SECOND, data("second"));
+        try {
+            transaction.commit();
+            fail("The crash was not thrown");
+        } catch (Crash expected) {
+            // Expected
+        }
+        this.frontend.shutdown();
+        this.frontend = null;
+
+        final MemoryStorageBackend restarted = new MemoryStorageBackend();
+        this.frontend = new TestFrontend(restarted, settings(true));
+        assertEquals("first", stored(restarted, FIRST));
+        assertEquals("second", stored(restarted, SECOND));
+    }
+
+    /**
+     * A backend failing every transaction.
+     */
+    private static final class FailingBackend extends MemoryStorageBackend {
+
+        @Override
+        public boolean commitTransaction(Map<UUID, PlayerData> data) {
+            throw new StorageException("Failed");
+        }
+    }
+
+    /**
+     * A backend stopping for good after writing the first player of a transaction.
+     */
+    private static final class CrashingBackend extends MemoryStorageBackend {
+
+        @Override
+        public boolean commitTransaction(Map<UUID, PlayerData> data) {
+            final Map.Entry<UUID, PlayerData> first = data.entrySet().iterator().next();
+            savePlayer(first.getKey(), first.getValue());
+            throw new Crash();
+        }
+    }
+
+    /**
+     * Stands in for the server going down, which no caller handles.
+     */
+    private static final class Crash extends Error {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
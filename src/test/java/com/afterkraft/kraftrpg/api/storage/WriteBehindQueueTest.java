@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.api.storage;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.afterkraft.kraftrpg.api.storage.PlayerData.Section;
+import com.afterkraft.kraftrpg.api.storage.WriteBehindQueue.PendingSave;
+
+/**
+ * Checks that offline data queued in a {@link WriteBehindQueue} is merged section by section,
+ * and that a failed save is merged back under newer data.
+ */
+public class WriteBehindQueueTest {
+
+    private static final UUID PLAYER = new UUID(0, 1);
+    private static final DataQuery VALUE = DataQuery.of("Value");
+
+    /**
+     * Data as loaded from a backend, with only the given section changed since.
+     */
+    private static PlayerData loaded(Section changed, String value) {
+        final PlayerData data = new PlayerData();
+        data.markSaved();
+        data.setSection(changed, new MemoryDataContainer().set(VALUE, value));
+        return data;
+    }
+
+    private static String value(PlayerData data, Section section) {
+        return data.getSection(section).get().getString(VALUE).get();
+    }
+
+    @Test
+    public void testOfflineDataIsMerged() {
+        final WriteBehindQueue queue = new WriteBehindQueue();
+        final PlayerData older = loaded(Section.EXPERIENCE, "older");
+        final PlayerData newer = loaded(Section.COOLDOWNS, "newer");
+        assertSame(older, queue.queue(PLAYER, older));
+        final PlayerData queued = queue.queue(PLAYER, newer);
+
+        // The handed over data is left alone, it may already be journaled
+        assertNotSame(newer, queued);
+        assertFalse(newer.getSection(Section.EXPERIENCE).isPresent());
+        assertEquals("older", value(queued, Section.EXPERIENCE));
+        assertEquals("newer", value(queued, Section.COOLDOWNS));
+        assertEquals(EnumSet.of(Section.EXPERIENCE, Section.COOLDOWNS),
+                     queued.getDirtySections());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testNewerSectionWins() {
+        final WriteBehindQueue queue = new WriteBehindQueue();
+        queue.queue(PLAYER, loaded(Section.ROLES, "older"));
+        final PlayerData queued = queue.queue(PLAYER, loaded(Section.ROLES, "newer"));
+        assertEquals("newer", value(queued, Section.ROLES));
+    }
+
+    @Test
+    public void testFailedSaveIsMergedUnderNewerData() {
+        final WriteBehindQueue queue = new WriteBehindQueue();
+        queue.queue(PLAYER, loaded(Section.BINDS, "failed"));
+        final List<Map.Entry<UUID, PendingSave>> drained = queue.pollAll();
+        assertTrue(queue.isEmpty());
+
+        queue.queue(PLAYER, loaded(Section.BINDS, "newer"));
+        queue.queue(PLAYER, loaded(Section.EFFECTS, "newer"));
+        queue.requeue(PLAYER, drained.get(0).getValue());
+        final PlayerData pending = queue.get(PLAYER).get().snapshot();
+        assertEquals("newer", value(pending, Section.BINDS));
+        assertEquals("newer", value(pending, Section.EFFECTS));
+        assertEquals(1, queue.pollAll().size());
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill;
+
+import java.util.List;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.spongepowered.api.command.args.CommandElement;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.Texts;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.SkillCastContext;
+import com.afterkraft.kraftrpg.api.skill.SkillCastResult;
+
+/**
+ * Checks that an {@link AbstractActiveSkill} parses the arguments of each caster into its own
+ * {@link SkillParseState}, filling in skipped optional arguments.
+ */
+public class AbstractActiveSkillTest {
+
+    private final SkillCaster caster = createMock(SkillCaster.class);
+    private final SkillCaster other = createMock(SkillCaster.class);
+    private final ParsingSkill skill = new ParsingSkill();
+
+    @Test
+    public void testParseAll() {
+        assertTrue(this.skill.parse(this.caster, new String[]{"Bob", "3", "loud"}));
+        final SkillParseState state = this.skill.state(this.caster);
+        assertSame(this.caster, state.getCaster());
+        assertEquals("Bob", state.getValue(0).get());
+        assertEquals(3, state.getValue(1).get());
+        assertEquals("loud", state.getValue(2).get());
+    }
+
+    @Test
+    public void testSkippedOptionals() {
+        assertTrue(this.skill.parse(this.caster, new String[]{"Bob"}));
+        SkillParseState state = this.skill.state(this.caster);
+        assertEquals("Bob", state.getValue(0).get());
+        // The skipped count takes its default, the skipped text has none
+        assertEquals(1, state.getValue(1).get());
+        assertFalse(state.isPresent(2));
+
+        // A word which is no count skips the count and goes to the next argument
+        assertTrue(this.skill.parse(this.caster, new String[]{"Bob", "loud"}));
+        state = this.skill.state(this.caster);
+        assertEquals(1, state.getValue(1).get());
+        assertEquals("loud", state.getValue(2).get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingRequired() {
+        assertFalse(this.skill.parse(this.caster, new String[]{}));
+        this.skill.state(this.caster);
+    }
+
+    @Test
+    public void testReparseKeepsStateInUse() {
+        assertTrue(this.skill.parse(this.caster, new String[]{"Bob", "3"}));
+        final SkillParseState first = this.skill.state(this.caster);
+        assertTrue(this.skill.parse(this.caster, new String[]{"Alice"}));
+        final SkillParseState second = this.skill.state(this.caster);
+        assertNotSame(first, second);
+        assertEquals("Alice", second.getValue(0).get());
+
+        // The replaced state is not handed to another cast
+        assertTrue(this.skill.parse(this.other, new String[]{"Carol", "5"}));
+        assertNotSame(first, this.skill.state(this.other));
+        assertSame(this.caster, first.getCaster());
+        assertEquals("Bob", first.getValue(0).get());
+        assertEquals(3, first.getValue(1).get());
+    }
+
+    @Test
+    public void testCleanedStateIsReused() {
+        assertTrue(this.skill.parse(this.caster, new String[]{"Bob", "3"}));
+        final SkillParseState state = this.skill.state(this.caster);
+        this.skill.cleanState(this.caster);
+        assertTrue(this.skill.parse(this.caster, new String[]{"Alice"}));
+        assertSame(state, this.skill.state(this.caster));
+        assertEquals("Alice", state.getValue(0).get());
+        assertEquals(1, state.getValue(1).get());
+
+        // Other casters parse into their own states
+        assertTrue(this.skill.parse(this.other, new String[]{"Carol"}));
+        assertNotSame(state, this.skill.state(this.other));
+        assertSame(this.caster, state.getCaster());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailedParseLeavesCleanedState() {
+        assertTrue(this.skill.parse(this.caster, new String[]{"Bob", "3"}));
+        this.skill.cleanState(this.caster);
+        assertFalse(this.skill.parse(this.caster, new String[]{}));
+        this.skill.state(this.caster);
+    }
+
+    private static final class ParsingSkill extends AbstractActiveSkill {
+
+        ParsingSkill() {
+            super("Parsing", Texts.of("Parses its arguments."));
+            addSkillArgument(new WordArgument(true));
+            addSkillArgument(new CountArgument());
+            addSkillArgument(new WordArgument(false));
+        }
+
+        SkillParseState state(SkillCaster caster) {
+            return getParseState(caster);
+        }
+
+        @Override
+        public String getId() {
+            return getName();
+        }
+
+        @Override
+        public CommandElement[] getCommandElements() {
+            return new CommandElement[0];
+        }
+
+        @Override
+        public SkillCastResult useSkill(SkillCaster caster, SkillCastContext context) {
+            return SkillCastResult.SUCCESS;
+        }
+    }
+
+    /**
+     * Takes any single word, without a value when skipped.
+     */
+    private static final class WordArgument extends AbstractSkillArgument<String> {
+
+        WordArgument(boolean required) {
+            super(required);
+        }
+
+        @Override
+        public String getUsageString(boolean optional) {
+            return optional ? "[word]" : "<word>";
+        }
+
+        @Override
+        public int matches(SkillCaster caster, String[] allArgs, int startPosition) {
+            return 1;
+        }
+
+        @Override
+        public String parse(SkillCaster caster, String[] allArgs, int startPosition) {
+            return allArgs[startPosition];
+        }
+
+        @Override
+        public String skippedOptional(SkillCaster caster) {
+            return null;
+        }
+
+        @Override
+        public List<Text> tabComplete(SkillCaster caster, String[] allArgs, int startPosition) {
+            return ImmutableList.of();
+        }
+    }
+
+    /**
+     * Takes a number, being one when skipped.
+     */
+    private static final class CountArgument extends AbstractSkillArgument<Integer> {
+
+        @Override
+        public String getUsageString(boolean optional) {
+            return "[count]";
+        }
+
+        @Override
+        public int matches(SkillCaster caster, String[] allArgs, int startPosition) {
+            return Ints.tryParse(allArgs[startPosition]) != null ? 1 : -1;
+        }
+
+        @Override
+        public Integer parse(SkillCaster caster, String[] allArgs, int startPosition) {
+            return Ints.tryParse(allArgs[startPosition]);
+        }
+
+        @Override
+        public Integer skippedOptional(SkillCaster caster) {
+            return 1;
+        }
+
+        @Override
+        public List<Text> tabComplete(SkillCaster caster, String[] allArgs, int startPosition) {
+            return ImmutableList.of();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill;
+
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.Active;
+import com.afterkraft.kraftrpg.api.skill.Stalled;
+
+/**
+ * Checks that a {@link WarmUpScheduler} ends warm-ups on time, including those moved down from
+ * the higher levels of its wheel.
+ */
+public class WarmUpSchedulerTest {
+
+    private final List<Stalled> ready = Lists.newArrayList();
+    private long now;
+    private WarmUpScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        this.ready.clear();
+        this.now = 1000;
+        this.scheduler = new WarmUpScheduler(this.ready::add, 50, TimeUnit.MILLISECONDS,
+                                             () -> this.now);
+    }
+
+    private void advance(long millis) {
+        final long end = this.now + millis;
+        while (this.now < end) {
+            this.now = Math.min(end, this.now + 50);
+            this.scheduler.tick();
+        }
+    }
+
+    @Test
+    public void testEndsAfterWarmUp() {
+        final Stalled stalled = new TestStalled(this.now, 120);
+        assertTrue(this.scheduler.schedule(stalled));
+        assertFalse(this.scheduler.schedule(new TestStalled(stalled.getCaster(), this.now, 10)));
+        assertSame(stalled, this.scheduler.getDelayedSkill(stalled.getCaster()).get());
+        advance(100);
+        assertTrue(this.ready.isEmpty());
+        advance(50);
+        assertEquals(1, this.ready.size());
+        assertSame(stalled, this.ready.get(0));
+        assertFalse(this.scheduler.getDelayedSkill(stalled.getCaster()).isPresent());
+    }
+
+    @Test
+    public void testCancel() {
+        final Stalled stalled = new TestStalled(this.now, 500);
+        this.scheduler.schedule(stalled);
+        assertSame(stalled, this.scheduler.cancel(stalled.getCaster()).get());
+        assertFalse(this.scheduler.cancel(stalled.getCaster()).isPresent());
+        advance(1000);
+        assertTrue(this.ready.isEmpty());
+        assertEquals(0, this.scheduler.size());
+    }
+
+    @Test
+    public void testLongWarmUps() {
+        // Past the first and second level of the wheel
+        final Stalled minute = new TestStalled(this.now, 60_000);
+        final Stalled hour = new TestStalled(this.now, 3_600_000);
+        this.scheduler.schedule(hour);
+        this.scheduler.schedule(minute);
+        advance(59_950);
+        assertTrue(this.ready.isEmpty());
+        advance(50);
+        assertEquals(Lists.newArrayList(minute), this.ready);
+        advance(3_600_000 - 60_050);
+        assertEquals(1, this.ready.size());
+        advance(50);
+        assertEquals(Lists.newArrayList(minute, hour), this.ready);
+    }
+
+    @Test
+    public void testDefaultWarmUpFromDelay() {
+        final Stalled stalled = new TestStalled(createMock(SkillCaster.class),
+                                                System.currentTimeMillis() - 100, 300, false);
+        // Only the time passed between reading the clock twice may be lost
+        final long warmup = stalled.warmup();
+        assertTrue(String.valueOf(warmup), warmup <= 300 && warmup > 250);
+    }
+
+    private static final class TestStalled implements Stalled {
+
+        private final SkillCaster caster;
+        private final long startTime;
+        private final long warmup;
+        private final boolean tracksWarmup;
+
+        TestStalled(long startTime, long warmup) {
+            this(createMock(SkillCaster.class), startTime, warmup);
+        }
+
+        TestStalled(SkillCaster caster, long startTime, long warmup) {
+            this(caster, startTime, warmup, true);
+        }
+
+        TestStalled(SkillCaster caster, long startTime, long warmup, boolean tracksWarmup) {
+            this.caster = caster;
+            this.startTime = startTime;
+            this.warmup = warmup;
+            this.tracksWarmup = tracksWarmup;
+        }
+
+        @Override
+        public boolean isReady() {
+            return false;
+        }
+
+        @Override
+        public long startTime() {
+            return this.startTime;
+        }
+
+        @Override
+        public long warmup() {
+            return this.tracksWarmup ? this.warmup : Stalled.super.warmup();
+        }
+
+        @Override
+        public String[] getArguments() {
+            return new String[0];
+        }
+
+        @Override
+        public Active getActiveSkill() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SkillCaster getCaster() {
+            return this.caster;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(this.startTime + this.warmup - System.currentTimeMillis(),
+                                TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.MemoryDataContainer;
+import org.spongepowered.api.text.Texts;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.skill.Skill;
+import com.afterkraft.kraftrpg.api.skill.SkillConfigurationException;
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+import com.afterkraft.kraftrpg.api.util.Util;
+import com.afterkraft.kraftrpg.common.skill.AbstractSkill;
+
+/**
+ * Checks that reloading the stored skill settings keeps the defaults given in code, and only
+ * drops the compiled settings of the skills it changed.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class AbstractSkillConfigManagerTest {
+
+    private TestSkillConfigManager manager;
+    private TestConfigSkill fireball;
+    private TestConfigSkill heal;
+
+    @Before
+    public void setUp() {
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(Util.logger);
+        replay(RpgCommon.class);
+
+        this.manager = new TestSkillConfigManager();
+        this.fireball = new TestConfigSkill("Fireball", SkillSetting.DAMAGE, SkillSetting.RADIUS)
+                .setDefault(SkillSetting.DAMAGE, 10)
+                .setDefault(SkillSetting.RADIUS, 4);
+        this.heal = new TestConfigSkill("Heal", SkillSetting.HEALING)
+                .setDefault(SkillSetting.HEALING, 6);
+        this.manager.setDefaults(this.fireball, defaults(this.fireball));
+        this.manager.setDefaults(this.heal, defaults(this.heal));
+        this.manager.loadSkillDefaults(this.fireball);
+        this.manager.loadSkillDefaults(this.heal);
+    }
+
+    @After
+    public void tearDown() {
+        this.manager.shutdown();
+    }
+
+    private static Map<DataQuery, Object> defaults(Skill skill) {
+        return Maps.newHashMap(SkillConfigSnapshot.flatten(skill.getDefaultConfig()));
+    }
+
+    private SkillConfigSnapshot.Diff reload(SkillConfigSnapshot files) throws Exception {
+        this.manager.setStored(files);
+        return this.manager.reloadAsync().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testReloadKeepsCodeDefaults() throws Exception {
+        this.manager.addRoleSkillSettings("Mage", "Fireball", new MemoryDataContainer()
+                .set(SkillSetting.RADIUS.node(), 8));
+        reload(SkillConfigSnapshot.builder()
+                .setDefaults("Fireball", new MemoryDataContainer()
+                        .set(SkillSetting.DAMAGE.node(), 15))
+                .build());
+        assertEquals(15, this.manager.getRawIntSetting(this.fireball, SkillSetting.DAMAGE));
+        // Not in the files, so still the code defaults and role settings
+        assertEquals(4, this.manager.getRawIntSetting(this.fireball, SkillSetting.RADIUS));
+        assertEquals(6, this.manager.getRawIntSetting(this.heal, SkillSetting.HEALING));
+        assertEquals(8, this.manager.getSnapshot()
+                .get("Fireball", "Mage", SkillSetting.RADIUS.node()).get());
+    }
+
+    @Test
+    public void testUnchangedReloadKeepsCompiledSettings() throws Exception {
+        final CompiledSkillSettings fireball =
+                this.manager.getCompiledSettings(this.fireball, null, 3);
+        final CompiledSkillSettings heal = this.manager.getCompiledSettings(this.heal, null, 3);
+        final SkillConfigSnapshot.Diff diff = reload(SkillConfigSnapshot.EMPTY);
+        assertTrue(diff.getChanged().isEmpty());
+        assertSame(fireball, this.manager.getCompiledSettings(this.fireball, null, 3));
+        assertSame(heal, this.manager.getCompiledSettings(this.heal, null, 3));
+    }
+
+    @Test
+    public void testReloadDropsOnlyChangedSkills() throws Exception {
+        final CompiledSkillSettings fireball =
+                this.manager.getCompiledSettings(this.fireball, null, 3);
+        final CompiledSkillSettings heal = this.manager.getCompiledSettings(this.heal, null, 3);
+        final SkillConfigSnapshot.Diff diff = reload(SkillConfigSnapshot.builder()
+                .setDefaults("Heal", new MemoryDataContainer()
+                        .set(SkillSetting.HEALING.node(), 9))
+                .build());
+        assertEquals(ImmutableSet.of("heal"), diff.getChanged());
+        assertSame(fireball, this.manager.getCompiledSettings(this.fireball, null, 3));
+        final CompiledSkillSettings reloaded =
+                this.manager.getCompiledSettings(this.heal, null, 3);
+        assertNotSame(heal, reloaded);
+        assertEquals(9, reloaded.getInt(SkillSetting.HEALING));
+    }
+
+    @Test
+    public void testInvalidReloadKeepsSettings() throws Exception {
+        try {
+            reload(SkillConfigSnapshot.builder()
+                    .setDefaults("Fireball", new MemoryDataContainer()
+                            .set(SkillSetting.DAMAGE.node(), "lots"))
+                    .build());
+            fail("The reload should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SkillConfigurationException);
+        }
+        assertEquals(10, this.manager.getRawIntSetting(this.fireball, SkillSetting.DAMAGE));
+    }
+
+    @Test
+    public void testLoadsAbstractSkillDefaults() {
+        final DefaultsSkill bolt = new DefaultsSkill("Bolt", 12);
+        this.manager.setDefaults(bolt, defaults(bolt));
+        this.manager.loadSkillDefaults(bolt);
+        assertEquals(12, this.manager.getRawIntSetting(bolt, SkillSetting.DAMAGE));
+        assertEquals(12, this.manager.getCompiledSettings(bolt, null, 3)
+                .getInt(SkillSetting.DAMAGE));
+    }
+
+    @Test
+    public void testBulkLoadsAbstractSkillDefaults() {
+        final DefaultsSkill bolt = new DefaultsSkill("Bolt", 12);
+        final DefaultsSkill spark = new DefaultsSkill("Spark", 2);
+        this.manager.setDefaults(bolt, defaults(bolt));
+        this.manager.setDefaults(spark, defaults(spark));
+        this.manager.loadSkillDefaults(ImmutableList.<Skill>of(bolt, spark));
+        assertEquals(12, this.manager.getRawIntSetting(bolt, SkillSetting.DAMAGE));
+        assertEquals(2, this.manager.getRawIntSetting(spark, SkillSetting.DAMAGE));
+    }
+
+    @Test
+    public void testAbstractSkillRebuildsChangedDefaults() {
+        final DefaultsSkill bolt = new DefaultsSkill("Bolt", 12);
+        final DataView defaults = bolt.getDefaultConfig();
+        assertSame(defaults, bolt.getDefaultConfig());
+        bolt.setDamage(14);
+        assertNotSame(defaults, bolt.getDefaultConfig());
+        assertEquals(14.0, bolt.getDefaultConfig().get(SkillSetting.DAMAGE.node()).get());
+    }
+
+    /**
+     * A skill declaring its defaults through {@link AbstractSkill}.
+     */
+    private static class DefaultsSkill extends AbstractSkill {
+
+        DefaultsSkill(String name, int damage) {
+            super(name, Texts.of(name));
+            setDefault(SkillSetting.DAMAGE, damage);
+            setDefault(SkillSetting.RADIUS, 3);
+        }
+
+        void setDamage(int damage) {
+            setDefault(SkillSetting.DAMAGE, damage);
+        }
+
+        @Override
+        public String getId() {
+            return getName();
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.spongepowered.api.data.DataQuery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.skill.SkillConfigurationException;
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+import com.afterkraft.kraftrpg.api.util.Util;
+
+/**
+ * Checks that {@link CompiledSkillSettings} resolve, convert and scale the settings a skill
+ * declares, and that the config manager falls back to the stored configuration for the others.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class CompiledSkillSettingsTest {
+
+    private static final SkillSetting UNDECLARED = new SkillSetting("compiled-test-undeclared") {
+    };
+
+    private TestConfigSkill skill;
+    private SettingLayout layout;
+    private Map<DataQuery, Object> stored;
+
+    @Before
+    public void setUp() {
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(Util.logger);
+        replay(RpgCommon.class);
+
+        this.skill = new TestConfigSkill("Compiled", SkillSetting.DAMAGE,
+                                         SkillSetting.NO_COMBAT_USE, SkillSetting.USE_TEXT,
+                                         SkillSetting.DEPENDS)
+                .setDefault(SkillSetting.DAMAGE, 10)
+                .setDefault(SkillSetting.NO_COMBAT_USE, false)
+                .setDefault(SkillSetting.USE_TEXT, "used")
+                .setDefault(SkillSetting.DEPENDS, ImmutableList.of("other"));
+        this.layout = new SettingLayout(this.skill);
+        this.stored = Maps.newHashMap();
+        this.stored.put(SkillSetting.DAMAGE.node(), 10);
+        this.stored.put(SkillSetting.DAMAGE.scalingNode().get(), 2.5);
+        this.stored.put(SkillSetting.NO_COMBAT_USE.node(), "true");
+        this.stored.put(SkillSetting.USE_TEXT.node(), "used");
+        this.stored.put(SkillSetting.DEPENDS.node(), ImmutableList.of("other", 3));
+    }
+
+    private CompiledSkillSettings compile(int level) {
+        return CompiledSkillSettings.compile(query -> Optional.ofNullable(this.stored.get(query)),
+                                             this.skill, null, level, this.layout);
+    }
+
+    @Test
+    public void testCompilesDeclaredSettings() {
+        final CompiledSkillSettings settings = compile(0);
+        assertEquals(10, settings.getInt(SkillSetting.DAMAGE));
+        assertEquals(10.0, settings.getDouble(SkillSetting.DAMAGE), 0);
+        assertEquals("used", settings.getString(SkillSetting.USE_TEXT));
+        assertEquals(ImmutableList.of("other", "3"),
+                     settings.getStringList(SkillSetting.DEPENDS));
+    }
+
+    @Test
+    public void testConvertsToSettingType() {
+        this.stored.put(SkillSetting.DAMAGE.node(), " 12.5 ");
+        final CompiledSkillSettings settings = compile(0);
+        assertEquals(12.5, settings.getDouble(SkillSetting.DAMAGE), 0);
+        // A boolean configured as text is converted once when compiled
+        assertEquals(Boolean.TRUE, settings.get(SkillSetting.NO_COMBAT_USE));
+        assertTrue(settings.getBoolean(SkillSetting.NO_COMBAT_USE));
+    }
+
+    @Test
+    public void testScalesByLevel() {
+        final CompiledSkillSettings settings = compile(4);
+        assertEquals(4, settings.getLevel());
+        assertEquals(10.0, settings.getDouble(SkillSetting.DAMAGE), 0);
+        assertEquals(20.0, settings.getScaledDouble(SkillSetting.DAMAGE), 0);
+        // Settings without a scaling node are not scaled
+        this.stored.remove(SkillSetting.DAMAGE.scalingNode().get());
+        assertEquals(10.0, compile(4).getScaledDouble(SkillSetting.DAMAGE), 0);
+    }
+
+    @Test
+    public void testIsConfigured() {
+        this.stored.remove(SkillSetting.USE_TEXT.node());
+        this.stored.put(UNDECLARED.node(), 7);
+        final CompiledSkillSettings settings = compile(0);
+        assertTrue(settings.isConfigured(SkillSetting.DAMAGE));
+        // Declared but missing
+        assertFalse(settings.isConfigured(SkillSetting.USE_TEXT));
+        // Configured but not declared, so not compiled
+        assertFalse(settings.isConfigured(UNDECLARED));
+        assertFalse(settings.isConfigured(SkillSetting.RADIUS));
+    }
+
+    @Test(expected = SkillConfigurationException.class)
+    public void testMissingSettingFails() {
+        this.stored.remove(SkillSetting.USE_TEXT.node());
+        compile(0).getString(SkillSetting.USE_TEXT);
+    }
+
+    @Test(expected = SkillConfigurationException.class)
+    public void testWrongTypeFails() {
+        this.stored.put(SkillSetting.DAMAGE.node(), "lots");
+        compile(0).getDouble(SkillSetting.DAMAGE);
+    }
+
+    @Test
+    public void testUndeclaredSettingFallsBackToStoredConfig() {
+        final TestSkillConfigManager manager = new TestSkillConfigManager();
+        manager.setDefaults(this.skill, this.stored);
+        this.stored.put(UNDECLARED.node(), 7);
+        manager.loadSkillDefaults(this.skill);
+
+        assertFalse(manager.getCompiledSettings(this.skill, null, 0).isConfigured(UNDECLARED));
+        assertEquals(7, manager.getRawIntSetting(this.skill, UNDECLARED));
+        assertEquals(10, manager.getRawIntSetting(this.skill, SkillSetting.DAMAGE));
+        assertTrue(manager.isSettingConfigured(this.skill, UNDECLARED));
+    }
+}
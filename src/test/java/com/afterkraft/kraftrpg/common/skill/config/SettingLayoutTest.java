@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+
+/**
+ * Checks that {@link SettingType}s convert configured values, and that a {@link SettingLayout}
+ * reports every value not matching the type of its setting.
+ */
+public class SettingLayoutTest {
+
+    private static final SkillSetting ITEMS = new SkillSetting("layout-test-items") {
+    };
+
+    @Test
+    public void testNormalizeNumber() {
+        assertEquals(3, SettingType.NUMBER.normalize(3));
+        assertEquals(2.5, SettingType.NUMBER.normalize(" 2.5 "));
+        assertNull(SettingType.NUMBER.normalize("many"));
+        assertNull(SettingType.NUMBER.normalize(true));
+    }
+
+    @Test
+    public void testNormalizeBoolean() {
+        assertEquals(Boolean.TRUE, SettingType.BOOLEAN.normalize("TRUE"));
+        assertEquals(Boolean.FALSE, SettingType.BOOLEAN.normalize(false));
+        assertNull(SettingType.BOOLEAN.normalize("yes"));
+    }
+
+    @Test
+    public void testNormalizeText() {
+        assertEquals("5", SettingType.STRING.normalize(5));
+        assertNull(SettingType.STRING.normalize(ImmutableList.of("a")));
+        assertNull(SettingType.STRING.normalize(new MemoryDataContainer()));
+    }
+
+    @Test
+    public void testNormalizeLists() {
+        final List<Object> mixed = Lists.newArrayList("a", 1);
+        assertEquals(ImmutableList.of("a", "1"), SettingType.STRING_LIST.normalize(mixed));
+        assertEquals(ImmutableList.of("a", 1), SettingType.LIST.normalize(mixed));
+        assertNull(SettingType.STRING_LIST.normalize("a"));
+        assertNull(SettingType.LIST.normalize("a"));
+        assertEquals("a", SettingType.ANY.normalize("a"));
+    }
+
+    @Test
+    public void testTypeFromDefault() {
+        assertEquals(SettingType.NUMBER,
+                     SettingType.of(SkillSetting.USE_TEXT, Optional.<Object>of(1)));
+        assertEquals(SettingType.STRING_LIST,
+                     SettingType.of(null, Optional.<Object>of(ImmutableList.of("a"))));
+        assertEquals(SettingType.LIST,
+                     SettingType.of(null, Optional.<Object>of(ImmutableList.of(1))));
+        // Nothing says an empty list only holds text
+        assertEquals(SettingType.LIST,
+                     SettingType.of(null, Optional.<Object>of(ImmutableList.of())));
+    }
+
+    @Test
+    public void testTypeFromSettingSets() {
+        assertEquals(SettingType.NUMBER, SettingType.of(SkillSetting.DAMAGE, Optional.empty()));
+        assertEquals(SettingType.NUMBER, SettingType.of(null, Optional.empty()));
+        assertEquals(SettingType.BOOLEAN,
+                     SettingType.of(SkillSetting.NO_COMBAT_USE, Optional.empty()));
+        assertEquals(SettingType.STRING, SettingType.of(SkillSetting.USE_TEXT, Optional.empty()));
+        assertEquals(SettingType.STRING_LIST,
+                     SettingType.of(SkillSetting.DEPENDS, Optional.empty()));
+        assertEquals(SettingType.ANY, SettingType.of(ITEMS, Optional.empty()));
+    }
+
+    @Test
+    public void testEmptyDefaultListKeepsElements() {
+        final TestConfigSkill skill = new TestConfigSkill("Lists", ITEMS)
+                .setDefault(ITEMS, ImmutableList.of());
+        final SettingLayout layout = new SettingLayout(skill);
+        final Map<DataQuery, Object> values = Maps.newHashMap();
+        values.put(ITEMS.node(), ImmutableList.of(1, 2));
+        final CompiledSkillSettings compiled = CompiledSkillSettings.compile(
+                query -> Optional.ofNullable(values.get(query)), skill, null, 0, layout);
+        assertEquals(ImmutableList.of(1, 2), compiled.getList(ITEMS));
+    }
+
+    @Test
+    public void testValidate() {
+        final TestConfigSkill skill = new TestConfigSkill("Validated", SkillSetting.DAMAGE,
+                                                          SkillSetting.NO_COMBAT_USE,
+                                                          SkillSetting.USE_TEXT)
+                .setDefault(SkillSetting.DAMAGE, 10)
+                .setDefault(SkillSetting.NO_COMBAT_USE, false)
+                .setDefault(SkillSetting.USE_TEXT, "used");
+        final SettingLayout layout = new SettingLayout(skill);
+        final Map<DataQuery, Object> values = Maps.newHashMap();
+        values.put(SkillSetting.DAMAGE.node(), "12");
+        values.put(SkillSetting.DAMAGE.scalingNode().get(), "much");
+        values.put(SkillSetting.NO_COMBAT_USE.node(), "maybe");
+        values.put(SkillSetting.DAMAGE.curveNode().get(), "wavy");
+
+        final List<String> roleErrors = Lists.newArrayList();
+        layout.validate("Validated", "role Mage", values, false, roleErrors);
+        assertEquals(roleErrors.toString(), 3, roleErrors.size());
+        assertTrue(roleErrors.toString(), roleErrors.stream().anyMatch(
+                error -> error.contains("damage-per-level") && error.contains("a number")));
+        assertTrue(roleErrors.toString(), roleErrors.stream().anyMatch(
+                error -> error.contains("no-combat-use") && error.contains("a boolean")));
+        assertTrue(roleErrors.toString(), roleErrors.stream().anyMatch(
+                error -> error.contains("damage-curve") && error.contains("scaling curve")));
+
+        // The defaults must also configure every declared setting
+        values.put(SkillSetting.DAMAGE.scalingNode().get(), 1);
+        values.put(SkillSetting.NO_COMBAT_USE.node(), "false");
+        values.put(SkillSetting.DAMAGE.curveNode().get(), "linear");
+        final List<String> defaultErrors = Lists.newArrayList();
+        layout.validate("Validated", "the defaults", values, true, defaultErrors);
+        assertEquals(defaultErrors.toString(), 1, defaultErrors.size());
+        assertTrue(defaultErrors.get(0).contains("use-text"));
+
+        final List<String> none = Lists.newArrayList();
+        layout.validate("Validated", "role Mage", values, false, none);
+        assertTrue(none.toString(), none.isEmpty());
+    }
+}
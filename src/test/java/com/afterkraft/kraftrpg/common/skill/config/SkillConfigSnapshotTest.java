@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Checks that a {@link SkillConfigSnapshot} tells which skills differ from an older one, and
+ * lays one snapshot over another setting by setting.
+ */
+public class SkillConfigSnapshotTest {
+
+    private static final DataQuery DAMAGE = DataQuery.of("damage");
+    private static final DataQuery RADIUS = DataQuery.of("radius");
+
+    private static MemoryDataContainer values(DataQuery query, Object value) {
+        final MemoryDataContainer container = new MemoryDataContainer();
+        container.set(query, value);
+        return container;
+    }
+
+    private static SkillConfigSnapshot base() {
+        return SkillConfigSnapshot.builder()
+                .setDefaults("Fireball", values(DAMAGE, 10))
+                .setDefaults("Heal", values(DAMAGE, 0))
+                .setDefaults("Blink", values(RADIUS, 5))
+                .setRoleSettings("Mage", "Fireball", values(DAMAGE, 12))
+                .build();
+    }
+
+    @Test
+    public void testUnchangedDiff() {
+        final SkillConfigSnapshot.Diff diff = base().diff(base());
+        assertTrue(diff.getAdded().isEmpty());
+        assertTrue(diff.getRemoved().isEmpty());
+        assertTrue(diff.getChanged().isEmpty());
+        assertEquals(3, diff.getUnchangedCount());
+        assertFalse(diff.affects("Fireball"));
+    }
+
+    @Test
+    public void testDiffBySkill() {
+        final SkillConfigSnapshot next = base().toBuilder()
+                .setDefaults("Heal", values(DAMAGE, -4))
+                .setDefaults("Shield", values(RADIUS, 2))
+                .build();
+        final SkillConfigSnapshot removed = SkillConfigSnapshot.builder()
+                .setDefaults("Fireball", values(DAMAGE, 10))
+                .setDefaults("Heal", values(DAMAGE, -4))
+                .setDefaults("Shield", values(RADIUS, 2))
+                .setRoleSettings("Mage", "Fireball", values(DAMAGE, 12))
+                .build();
+        final SkillConfigSnapshot.Diff diff = next.diff(base());
+        assertEquals(ImmutableSet.of("shield"), diff.getAdded());
+        assertEquals(ImmutableSet.of("heal"), diff.getChanged());
+        assertEquals(2, diff.getUnchangedCount());
+        assertTrue(diff.affects("HEAL"));
+        assertFalse(diff.affects("Blink"));
+        assertEquals(ImmutableSet.of("blink"), removed.diff(next).getRemoved());
+    }
+
+    @Test
+    public void testRoleSettingsChangeSkill() {
+        final SkillConfigSnapshot next = base().withRoleSettings("Mage", "Fireball",
+                                                                 values(DAMAGE, 14));
+        assertEquals(ImmutableSet.of("fireball"), next.diff(base()).getChanged());
+        final SkillConfigSnapshot added = base().withRoleSettings("Cleric", "Heal",
+                                                                  values(DAMAGE, 3));
+        assertEquals(ImmutableSet.of("heal"), added.diff(base()).getChanged());
+    }
+
+    @Test
+    public void testOverlayPrefersGivenSnapshot() {
+        final SkillConfigSnapshot files = SkillConfigSnapshot.builder()
+                .setDefaults("Fireball", values(RADIUS, 3))
+                .setDefaults("Heal", values(DAMAGE, 2))
+                .setRoleSettings("Mage", "Fireball", values(RADIUS, 4))
+                .build();
+        final SkillConfigSnapshot merged = base().overlay(files);
+        assertEquals(10, merged.get("Fireball", null, DAMAGE).get());
+        assertEquals(3, merged.get("Fireball", null, RADIUS).get());
+        assertEquals(2, merged.get("Heal", null, DAMAGE).get());
+        assertEquals(5, merged.get("Blink", null, RADIUS).get());
+        assertEquals(12, merged.get("Fireball", "Mage", DAMAGE).get());
+        assertEquals(4, merged.get("Fireball", "Mage", RADIUS).get());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+
+/**
+ * Checks that {@link TemporaryConfigurations} layer temporary settings in the order they were
+ * added, clear them per caster and per skill, and recompile a {@link TemporaryLayer} over a
+ * recompiled base.
+ */
+public class TemporaryConfigurationsTest {
+
+    private TemporaryConfigurations temporary;
+    private SkillCaster caster;
+    private TestConfigSkill skill;
+    private TestConfigSkill other;
+
+    @Before
+    public void setUp() {
+        this.temporary = new TemporaryConfigurations();
+        this.caster = createMock(SkillCaster.class);
+        this.skill = new TestConfigSkill("Layered", SkillSetting.DAMAGE, SkillSetting.USE_TEXT)
+                .setDefault(SkillSetting.DAMAGE, 10)
+                .setDefault(SkillSetting.USE_TEXT, "stored");
+        this.other = new TestConfigSkill("Other", SkillSetting.DAMAGE)
+                .setDefault(SkillSetting.DAMAGE, 1);
+    }
+
+    private static DataContainer section(SkillSetting setting, Object value) {
+        return new MemoryDataContainer().set(setting.node(), value);
+    }
+
+    private Optional<Object> get(SkillSetting setting) {
+        return this.temporary.get(this.caster, this.skill).get().get(setting.node());
+    }
+
+    private CompiledSkillSettings compileStored() {
+        final Map<DataQuery, Object> stored = Maps.newHashMap();
+        stored.put(SkillSetting.DAMAGE.node(), 10);
+        stored.put(SkillSetting.USE_TEXT.node(), "stored");
+        return CompiledSkillSettings.compile(query -> Optional.ofNullable(stored.get(query)),
+                                             this.skill, null, 0, new SettingLayout(this.skill));
+    }
+
+    @Test
+    public void testLaterLayersTakePrecedence() {
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.DAMAGE, 20));
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.DAMAGE, 30));
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.USE_TEXT, "temporary"));
+        assertEquals(30, get(SkillSetting.DAMAGE).get());
+        assertEquals("temporary", get(SkillSetting.USE_TEXT).get());
+        assertFalse(get(SkillSetting.RADIUS).isPresent());
+
+        final CompiledSkillSettings compiled = this.temporary.get(this.caster, this.skill).get()
+                .compileOver(compileStored());
+        assertEquals(30, compiled.getInt(SkillSetting.DAMAGE));
+        assertEquals("temporary", compiled.getString(SkillSetting.USE_TEXT));
+    }
+
+    @Test
+    public void testClearHidesEveryLayer() {
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.DAMAGE, 20));
+        this.temporary.add(this.caster, this.other, section(SkillSetting.DAMAGE, 2));
+        this.temporary.clear(this.caster);
+        assertFalse(this.temporary.get(this.caster, this.skill).isPresent());
+        assertFalse(this.temporary.get(this.caster, this.other).isPresent());
+
+        // Layers added after clearing do not see the cleared ones
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.USE_TEXT, "after"));
+        assertEquals("after", get(SkillSetting.USE_TEXT).get());
+        assertFalse(get(SkillSetting.DAMAGE).isPresent());
+        assertFalse(this.temporary.get(this.caster, this.other).isPresent());
+    }
+
+    @Test
+    public void testClearSkillKeepsOtherSkills() {
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.DAMAGE, 20));
+        this.temporary.add(this.caster, this.other, section(SkillSetting.DAMAGE, 2));
+        this.temporary.clear(this.caster, this.skill);
+        assertFalse(this.temporary.get(this.caster, this.skill).isPresent());
+        assertEquals(2, this.temporary.get(this.caster, this.other).get()
+                .get(SkillSetting.DAMAGE.node()).get());
+    }
+
+    @Test
+    public void testCastersAreSeparate() {
+        final SkillCaster second = createMock(SkillCaster.class);
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.DAMAGE, 20));
+        assertFalse(this.temporary.get(second, this.skill).isPresent());
+        this.temporary.clear(second);
+        assertTrue(this.temporary.get(this.caster, this.skill).isPresent());
+    }
+
+    @Test
+    public void testCompileOverFollowsBase() {
+        this.temporary.add(this.caster, this.skill, section(SkillSetting.DAMAGE, 20));
+        final TemporaryLayer layer = this.temporary.get(this.caster, this.skill).get();
+        final CompiledSkillSettings base = compileStored();
+        final CompiledSkillSettings compiled = layer.compileOver(base);
+        assertSame(base, compiled.getBase());
+        assertSame(compiled, layer.compileOver(base));
+
+        // A recompiled base, such as after a reload, invalidates the kept settings
+        final CompiledSkillSettings recompiled = compileStored();
+        final CompiledSkillSettings overlaid = layer.compileOver(recompiled);
+        assertNotSame(compiled, overlaid);
+        assertSame(recompiled, overlaid.getBase());
+        assertEquals(20, overlaid.getInt(SkillSetting.DAMAGE));
+        assertEquals("stored", overlaid.getString(SkillSetting.USE_TEXT));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.Collection;
+
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.MemoryDataContainer;
+import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.Texts;
+
+import com.google.common.collect.ImmutableList;
+
+import com.afterkraft.kraftrpg.api.entity.Champion;
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.Skill;
+import com.afterkraft.kraftrpg.api.skill.SkillSetting;
+import com.afterkraft.kraftrpg.api.skill.SkillType;
+
+/**
+ * A skill declaring the given settings with the given defaults, for testing the skill
+ * configuration.
+ */
+public class TestConfigSkill implements Skill {
+
+    private final String name;
+    private final Collection<SkillSetting> settings;
+    private final DataContainer defaults = new MemoryDataContainer();
+
+    public TestConfigSkill(String name, SkillSetting... settings) {
+        this.name = name;
+        this.settings = ImmutableList.copyOf(settings);
+    }
+
+    /**
+     * Sets a default value of this skill.
+     *
+     * @param setting The setting
+     * @param value   The default value
+     *
+     * @return This skill for chaining
+     */
+    public TestConfigSkill setDefault(SkillSetting setting, Object value) {
+        this.defaults.set(setting.node(), value);
+        return this;
+    }
+
+    @Override
+    public String getId() {
+        return this.name;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String getPermissionNode() {
+        return "kraftrpg.skill." + this.name;
+    }
+
+    @Override
+    public DataView getDefaultConfig() {
+        return this.defaults.copy();
+    }
+
+    @Override
+    public Collection<SkillSetting> getUsedConfigNodes() {
+        return this.settings;
+    }
+
+    @Override
+    public Text getDescription() {
+        return Texts.of(this.name);
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean addSkillTarget(Entity entity, SkillCaster caster) {
+        return false;
+    }
+
+    @Override
+    public boolean isType(SkillType type) {
+        return false;
+    }
+
+    @Override
+    public boolean isInMessageRange(SkillCaster broadcaster, Champion receiver) {
+        return false;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.skill.config;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.entity.SkillCaster;
+import com.afterkraft.kraftrpg.api.skill.Skill;
+
+/**
+ * A config manager reading the defaults of skills from maps and the stored configuration from a
+ * settable snapshot, for testing.
+ */
+public class TestSkillConfigManager extends AbstractSkillConfigManager {
+
+    private final Map<String, Skill> skills = Maps.newHashMap();
+    private final Map<Skill, Map<DataQuery, Object>> defaults = Maps.newHashMap();
+    private volatile SkillConfigSnapshot stored = SkillConfigSnapshot.EMPTY;
+    private volatile int level;
+
+    /**
+     * Sets the values read as the defaults of the skill, which is registered for lookups.
+     *
+     * @param skill  The skill
+     * @param values The default values, read when the defaults are loaded
+     */
+    public void setDefaults(Skill skill, Map<DataQuery, Object> values) {
+        this.skills.put(skill.getName().toLowerCase(), skill);
+        this.defaults.put(skill, values);
+    }
+
+    /**
+     * Sets the snapshot returned when reloading.
+     *
+     * @param stored The stored configuration
+     */
+    public void setStored(SkillConfigSnapshot stored) {
+        this.stored = stored;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    @Override
+    protected SkillConfigSnapshot loadSnapshot() {
+        return this.stored;
+    }
+
+    @Override
+    protected DataView readSkillDefaults(Skill skill) {
+        final DataContainer container = new MemoryDataContainer();
+        for (Map.Entry<DataQuery, Object> entry
+                : this.defaults.getOrDefault(skill, Maps.newHashMap()).entrySet()) {
+            container.set(entry.getKey(), entry.getValue());
+        }
+        return container;
+    }
+
+    @Override
+    protected Optional<Skill> findSkill(String name) {
+        return Optional.ofNullable(this.skills.get(name));
+    }
+
+    @Override
+    protected Executor getSyncExecutor() {
+        return Runnable::run;
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void saveSkillConfig() {
+    }
+
+    @Override
+    public int getLevel(SkillCaster caster, Skill skill) {
+        return this.level;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.storage;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Checks that a {@link ConsistentHashRing} spreads players evenly and stably, and that adding a
+ * node only moves players to it.
+ */
+public class ConsistentHashRingTest {
+
+    private static final int PLAYERS = 30000;
+
+    private static UUID[] players() {
+        final Random random = new Random(42);
+        final UUID[] players = new UUID[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        return players;
+    }
+
+    private static ConsistentHashRing<String> ring(String... ids) {
+        final Map<String, String> nodes = Maps.newLinkedHashMap();
+        for (String id : ids) {
+            nodes.put(id, id);
+        }
+        return ConsistentHashRing.of(nodes, ConsistentHashRing.DEFAULT_REPLICAS);
+    }
+
+    @Test
+    public void testSpreadsEvenly() {
+        final ConsistentHashRing<String> ring = ring("a", "b", "c");
+        final Map<String, Integer> counts = Maps.newHashMap();
+        for (UUID uuid : players()) {
+            counts.merge(ring.get(uuid), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            // Within a third of an even share
+            assertTrue("Uneven share of " + count, Math.abs(count - PLAYERS / 3) < PLAYERS / 9);
+        }
+    }
+
+    @Test
+    public void testStableAcrossInstances() {
+        final ConsistentHashRing<String> first = ring("a", "b", "c");
+        final ConsistentHashRing<String> second = ring("c", "a", "b");
+        for (UUID uuid : players()) {
+            assertEquals(first.get(uuid), second.get(uuid));
+        }
+    }
+
+    @Test
+    public void testAddingOnlyMovesToNewNode() {
+        final ConsistentHashRing<String> before = ring("a", "b", "c");
+        final ConsistentHashRing<String> after = before.with("d", "d");
+        int moved = 0;
+        for (UUID uuid : players()) {
+            if (!before.get(uuid).equals(after.get(uuid))) {
+                assertEquals("d", after.get(uuid));
+                moved++;
+            }
+        }
+        assertTrue("Moved " + moved, Math.abs(moved - PLAYERS / 4) < PLAYERS / 12);
+    }
+
+    @Test
+    public void testWithoutRestoresRing() {
+        final ConsistentHashRing<String> before = ring("a", "b", "c");
+        final ConsistentHashRing<String> restored = before.with("d", "d").without("d");
+        assertEquals(ImmutableMap.of("a", "a", "b", "b", "c", "c"), restored.getNodes());
+        for (UUID uuid : players()) {
+            assertEquals(before.get(uuid), restored.get(uuid));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.Lists;
+
+import com.afterkraft.kraftrpg.api.storage.PlayerData;
+
+/**
+ * Checks that a {@link MappedLogStorageBackend} only recovers committed batches, and that
+ * removals and compaction survive a restart.
+ */
+public class MappedLogStorageBackendTest {
+
+    private static final DataQuery PRIMARY = DataQuery.of("Primary");
+    private static final UUID FIRST = new UUID(0, 1);
+    private static final UUID SECOND = new UUID(0, 2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private MappedLogStorageBackend backend;
+
+    @Before
+    public void setUp() throws Throwable {
+        this.directory = this.folder.newFolder().toPath();
+        this.backend = open();
+    }
+
+    @After
+    public void tearDown() {
+        this.backend.shutdown();
+    }
+
+    private MappedLogStorageBackend open() throws Throwable {
+        final MappedLogStorageBackend backend =
+                new MappedLogStorageBackend(this.directory, 4096, 0.5D, 0, TimeUnit.SECONDS);
+        backend.initialize();
+        return backend;
+    }
+
+    private void restart() throws Throwable {
+        this.backend.shutdown();
+        this.backend = open();
+    }
+
+    private static PlayerData data(String role) {
+        final PlayerData data = new PlayerData();
+        data.setSection(PlayerData.Section.ROLES, new MemoryDataContainer().set(PRIMARY, role));
+        return data;
+    }
+
+    private String role(UUID uuid) {
+        return this.backend.loadPlayer(uuid, false).get()
+                .getSection(PlayerData.Section.ROLES).get().getString(PRIMARY).get();
+    }
+
+    private List<Path> segments() throws IOException {
+        final List<Path> paths = Lists.newArrayList();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (Path path : stream) {
+                if (LogSegment.isSegment(path)) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    @Test
+    public void testRecovery() throws Throwable {
+        this.backend.savePlayer(FIRST, data("Warrior"));
+        this.backend.savePlayer(SECOND, data("Miner"));
+        this.backend.savePlayer(FIRST, data("Mage"));
+        restart();
+        assertEquals(2, this.backend.getStoredUserCount());
+        assertEquals("Mage", role(FIRST));
+        assertEquals("Miner", role(SECOND));
+    }
+
+    @Test
+    public void testUncommittedTailIsDropped() throws Throwable {
+        this.backend.savePlayer(FIRST, data("Warrior"));
+        this.backend.shutdown();
+
+        // A batch torn by a crash: its records were written, but not the committing one
+        final List<Path> paths = segments();
+        final LogSegment segment = LogSegment.open(paths.get(paths.size() - 1), true);
+        segment.scan(true, (flags, uuid, offset, size) -> { });
+        segment.append((byte) 0, SECOND, new byte[] {1, 2, 3});
+        segment.force();
+        segment.close();
+
+        this.backend = open();
+        assertTrue(this.backend.loadPlayer(FIRST, false).isPresent());
+        assertFalse(this.backend.loadPlayer(SECOND, false).isPresent());
+
+        // The torn tail is reused by the next batch
+        this.backend.savePlayer(SECOND, data("Miner"));
+        restart();
+        assertEquals("Warrior", role(FIRST));
+        assertEquals("Miner", role(SECOND));
+    }
+
+    @Test
+    public void testRemovalSurvivesRestart() throws Throwable {
+        this.backend.savePlayer(FIRST, data("Warrior"));
+        assertTrue(this.backend.removePlayer(FIRST));
+        assertFalse(this.backend.removePlayer(FIRST));
+        restart();
+        assertFalse(this.backend.loadPlayer(FIRST, false).isPresent());
+        assertEquals(0, this.backend.getStoredUserCount());
+    }
+
+    @Test
+    public void testCompaction() throws Throwable {
+        this.backend.savePlayer(SECOND, data("Miner"));
+        for (int i = 0; i < 200; i++) {
+            this.backend.savePlayer(FIRST, data("Warrior" + i));
+        }
+        final int before = this.backend.getSegmentCount();
+        assertTrue(before > 2);
+
+        this.backend.compact();
+        assertTrue(this.backend.getSegmentCount() < before);
+        assertEquals(this.backend.getSegmentCount(), segments().size());
+        assertEquals("Warrior199", role(FIRST));
+        assertEquals("Miner", role(SECOND));
+
+        restart();
+        assertEquals("Warrior199", role(FIRST));
+        assertEquals("Miner", role(SECOND));
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Gabriel Harris-Rouquette
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.afterkraft.kraftrpg.common.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+import org.spongepowered.api.data.MemoryDataContainer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import com.afterkraft.kraftrpg.api.RpgCommon;
+import com.afterkraft.kraftrpg.api.storage.MemoryStorageBackend;
+import com.afterkraft.kraftrpg.api.storage.PlayerData;
+import com.afterkraft.kraftrpg.api.storage.StorageBackend;
+import com.afterkraft.kraftrpg.api.storage.StorageException;
+import com.afterkraft.kraftrpg.api.util.Util;
+
+/**
+ * Checks that a {@link ShardedStorageBackend} routes players to their shard, and moves them to an
+ * added shard without losing data, even when saved or loaded meanwhile or interrupted.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RpgCommon.class})
+public class ShardedStorageBackendTest {
+
+    private static final int PLAYERS = 200;
+    private static final DataQuery VALUE = DataQuery.of("Value");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, StorageBackend> shards;
+    private Path stateFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(RpgCommon.class);
+        expect(RpgCommon.getLogger()).andStubReturn(Util.logger);
+        replay(RpgCommon.class);
+
+        this.shards = Maps.newLinkedHashMap();
+        this.shards.put("a", new DeltaBackend());
+        this.shards.put("b", new DeltaBackend());
+        this.stateFile = this.folder.getRoot().toPath().resolve("shards.state");
+    }
+
+    private static UUID player(int i) {
+        return new UUID(i * 0x9E3779B97F4A7C15L, i);
+    }
+
+    private static PlayerData data(String roles, String binds) {
+        final PlayerData data = new PlayerData();
+        data.setSection(PlayerData.Section.ROLES, new MemoryDataContainer().set(VALUE, roles));
+        data.setSection(PlayerData.Section.BINDS, new MemoryDataContainer().set(VALUE, binds));
+        return data;
+    }
+
+    private static String value(PlayerData data, PlayerData.Section section) {
+        return data.getSection(section).get().getString(VALUE).get();
+    }
+
+    private static void fill(StorageBackend backend) {
+        for (int i = 0; i < PLAYERS; i++) {
+            assertTrue(backend.savePlayer(player(i), data("Role" + i, "Bind" + i)));
+        }
+    }
+
+    private static void assertAll(StorageBackend backend) {
+        assertEquals(PLAYERS, backend.getStoredUserCount());
+        for (int i = 0; i < PLAYERS; i++) {
+            final PlayerData data = backend.loadPlayer(player(i), false).get();
+            assertEquals("Role" + i, value(data, PlayerData.Section.ROLES));
+            assertEquals("Bind" + i, value(data, PlayerData.Section.BINDS));
+        }
+    }
+
+    @Test
+    public void testRoutesToOwningShard() throws Throwable {
+        final ShardedStorageBackend backend = new ShardedStorageBackend(this.shards);
+        backend.initialize();
+        fill(backend);
+        final ConsistentHashRing<StorageBackend> ring =
+                ConsistentHashRing.of(this.shards, ConsistentHashRing.DEFAULT_REPLICAS);
+        for (int i = 0; i < PLAYERS; i++) {
+            final UUID uuid = player(i);
+            for (StorageBackend shard : this.shards.values()) {
+                assertEquals(shard == ring.get(uuid), shard.loadPlayer(uuid, false).isPresent());
+            }
+        }
+        assertTrue(this.shards.get("a").getStoredUserCount() > 0);
+        assertTrue(this.shards.get("b").getStoredUserCount() > 0);
+        assertAll(backend);
+    }
+
+    @Test
+    public void testAddShardMovesPlayers() throws Throwable {
+        final ShardedStorageBackend backend =
+                new ShardedStorageBackend(this.shards, this.stateFile);
+        backend.initialize();
+        fill(backend);
+        final DeltaBackend added = new DeltaBackend();
+        final int moved = backend.addShard("c", added).get(10, TimeUnit.SECONDS);
+        assertTrue(moved > 0);
+        assertEquals(moved, added.getStoredUserCount());
+        assertFalse(backend.isRebalancing());
+        assertFalse(Files.exists(this.stateFile));
+        int total = 0;
+        for (StorageBackend shard : this.shards.values()) {
+            total += shard.getStoredUserCount();
+        }
+        assertEquals(PLAYERS, total + moved);
+        assertAll(backend);
+    }
+
+    @Test
+    public void testDeltaDuringRebalanceKeepsPlayer() throws Throwable {
+        final BlockingBackend blocking = new BlockingBackend();
+        this.shards.put("a", blocking);
+        final ShardedStorageBackend backend =
+                new ShardedStorageBackend(this.shards, this.stateFile);
+        backend.initialize();
+        fill(backend);
+        final DeltaBackend added = new DeltaBackend();
+        final CompletableFuture<Integer> rebalance = backend.addShard("c", added);
+
+        // Save a delta of every player taken over before the mover gets to them
+        final ConsistentHashRing<StorageBackend> ring = ConsistentHashRing.of(
+                ImmutableMap.<String, StorageBackend>builder().putAll(this.shards)
+                        .put("c", added).build(), ConsistentHashRing.DEFAULT_REPLICAS);
+        int changed = 0;
+        for (int i = 0; i < PLAYERS; i++) {
+            final UUID uuid = player(i);
+            if (ring.get(uuid) == added) {
+                final PlayerData data = backend.loadPlayer(uuid, false).get();
+                data.markSaved();
+                data.setSection(PlayerData.Section.BINDS,
+                                new MemoryDataContainer().set(VALUE, "Changed" + i));
+                data.markDirty(PlayerData.Section.BINDS);
+                assertTrue(backend.savePlayerDelta(uuid, data, data.getDirtySections()));
+                changed++;
+            }
+        }
+        assertTrue(changed > 0);
+        blocking.release.countDown();
+        assertEquals(changed, (int) rebalance.get(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < PLAYERS; i++) {
+            final PlayerData data = backend.loadPlayer(player(i), false).get();
+            assertEquals("Role" + i, value(data, PlayerData.Section.ROLES));
+            final boolean moved = ring.get(player(i)) == added;
+            assertEquals((moved ? "Changed" : "Bind") + i,
+                         value(data, PlayerData.Section.BINDS));
+        }
+    }
+
+    @Test
+    public void testLoadDuringMoveFindsPlayer() throws Throwable {
+        final BlockingBackend blocking = new BlockingBackend();
+        this.shards.put("a", blocking);
+        final ShardedStorageBackend backend =
+                new ShardedStorageBackend(this.shards, this.stateFile);
+        backend.initialize();
+        fill(backend);
+        final PausingBackend added = new PausingBackend();
+        final CompletableFuture<Integer> rebalance = backend.addShard("c", added);
+        rebalance.whenComplete((count, error) -> added.resume.countDown());
+
+        final ConsistentHashRing<StorageBackend> ring = ConsistentHashRing.of(
+                ImmutableMap.<String, StorageBackend>builder().putAll(this.shards)
+                        .put("c", added).build(), ConsistentHashRing.DEFAULT_REPLICAS);
+        int taken = 0;
+        while (ring.get(player(taken)) != added) {
+            taken++;
+        }
+        final UUID uuid = player(taken);
+        // Misses the new shard, then lets the rebalance run before reading the previous one
+        final CompletableFuture<Optional<PlayerData>> load =
+                CompletableFuture.supplyAsync(() -> backend.loadPlayer(uuid, false));
+        assertTrue(added.paused.await(10, TimeUnit.SECONDS));
+        blocking.release.countDown();
+
+        final Optional<PlayerData> loaded = load.get(10, TimeUnit.SECONDS);
+        assertTrue(loaded.isPresent());
+        assertEquals("Role" + taken, value(loaded.get(), PlayerData.Section.ROLES));
+        assertTrue(rebalance.get(10, TimeUnit.SECONDS) > 0);
+        assertAll(backend);
+    }
+
+    @Test
+    public void testFailedRebalanceResumes() throws Throwable {
+        final FailingBackend failing = new FailingBackend();
+        this.shards.put("a", failing);
+        final ShardedStorageBackend backend =
+                new ShardedStorageBackend(this.shards, this.stateFile);
+        backend.initialize();
+        fill(backend);
+        final DeltaBackend added = new DeltaBackend();
+        try {
+            backend.addShard("c", added).get(10, TimeUnit.SECONDS);
+            fail("The rebalance should have failed");
+        } catch (ExecutionException expected) {
+            // The players not moved yet are still on their previous shard
+        }
+        assertTrue(backend.isRebalancing());
+        assertTrue(Files.exists(this.stateFile));
+        assertAll(backend);
+        try {
+            backend.addShard("d", new DeltaBackend());
+            fail("The unfinished rebalance should have been resumed first");
+        } catch (IllegalStateException expected) {
+            // Resumed below
+        }
+
+        // As if restarted, with the added shard configured
+        failing.failing = false;
+        this.shards.put("c", added);
+        final ShardedStorageBackend restarted =
+                new ShardedStorageBackend(this.shards, this.stateFile);
+        restarted.initialize();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (restarted.isRebalancing() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(restarted.isRebalancing());
+        assertFalse(Files.exists(this.stateFile));
+        assertTrue(added.getStoredUserCount() > 0);
+        assertAll(restarted);
+    }
+
+    /**
+     * Writes deltas by section, as a backend with one row per section would, so a delta of a
+     * player it lacks only stores the sections of the delta.
+     */
+    private static class DeltaBackend extends MemoryStorageBackend {
+
+        @Override
+        public boolean savePlayerDelta(UUID uuid, PlayerData data,
+                                       Set<PlayerData.Section> sections) {
+            final PlayerData stored = loadPlayer(uuid, false).orElseGet(PlayerData::new);
+            for (PlayerData.Section section : sections) {
+                final Optional<DataView> view = data.getSection(section);
+                if (view.isPresent()) {
+                    stored.setSection(section, view.get().copy());
+                }
+            }
+            return savePlayer(uuid, stored);
+        }
+    }
+
+    /**
+     * Holds the rebalance back until released.
+     */
+    private static final class BlockingBackend extends DeltaBackend {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public List<UUID> getAllStoredUsers() {
+            if (Thread.currentThread().getName().startsWith("KraftRPG Storage Shard")) {
+                try {
+                    this.release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getAllStoredUsers();
+        }
+    }
+
+    /**
+     * Pauses the first load from outside the shard threads until the rebalance finishes, or for a
+     * second while the rebalance cannot finish.
+     */
+    private static final class PausingBackend extends DeltaBackend {
+
+        final CountDownLatch paused = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+
+        @Override
+        public Optional<PlayerData> loadPlayer(UUID uuid, boolean shouldCreate) {
+            final Optional<PlayerData> data = super.loadPlayer(uuid, shouldCreate);
+            if (this.paused.getCount() > 0
+                    && !Thread.currentThread().getName().startsWith("KraftRPG Storage Shard")) {
+                this.paused.countDown();
+                try {
+                    this.resume.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Fails to remove players once some have been moved off it.
+     */
+    private static final class FailingBackend extends DeltaBackend {
+
+        volatile boolean failing = true;
+        private int removed;
+
+        @Override
+        public boolean removePlayer(UUID uuid) {
+            if (this.failing && ++this.removed > 3) {
+                throw new StorageException("Failing to remove " + uuid);
+            }
+            return super.removePlayer(uuid);
+        }
+    }
+}